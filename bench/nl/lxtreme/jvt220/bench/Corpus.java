@@ -0,0 +1,283 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.bench;
+
+
+import java.nio.charset.*;
+import java.util.*;
+
+
+/**
+ * Provides the corpora that are replayed by the benchmarks.
+ * <p>
+ * Each corpus is generated deterministically and consists of exactly
+ * {@link #SIZE} UTF-8 encoded bytes, which are fed in chunks of
+ * {@link #READ_SIZE} bytes (the read buffer size of the Swing frontend), except
+ * for {@link #SPLIT}, which is fed in chunks of 1 to 7 bytes so most escape
+ * sequences are split across multiple reads.
+ * </p>
+ */
+public enum Corpus
+{
+  /** Plain text lines, with the occasional non-ASCII character. */
+  PLAIN
+  {
+    @Override
+    protected void appendUnit( final StringBuilder sb, final Random rnd )
+    {
+      appendWords( sb, rnd, COLUMNS - 10 );
+      sb.append( "\r\n" );
+    }
+  },
+
+  /** Colourful output, like that of ls or a compiler, with lots of SGRs. */
+  SGR
+  {
+    @Override
+    protected void appendUnit( final StringBuilder sb, final Random rnd )
+    {
+      int words = 4 + rnd.nextInt( 8 );
+      for ( int i = 0; i < words; i++ )
+      {
+        switch ( rnd.nextInt( 4 ) )
+        {
+          case 0:
+            sb.append( "\033[" ).append( 30 + rnd.nextInt( 8 ) ).append( 'm' );
+            break;
+          case 1:
+            sb.append( "\033[1;" ).append( 40 + rnd.nextInt( 8 ) ).append( 'm' );
+            break;
+          case 2:
+            sb.append( "\033[38;5;" ).append( rnd.nextInt( 256 ) ).append( 'm' );
+            break;
+          default:
+            sb.append( "\033[38;2;" ).append( rnd.nextInt( 256 ) ).append( ';' ).append( rnd.nextInt( 256 ) )
+                .append( ';' ).append( rnd.nextInt( 256 ) ).append( 'm' );
+            break;
+        }
+        appendWords( sb, rnd, 3 + rnd.nextInt( 6 ) );
+        sb.append( "\033[0m " );
+      }
+      sb.append( "\r\n" );
+    }
+  },
+
+  /** Cursor-addressed full-screen redraws, like those of top or an editor. */
+  REDRAW
+  {
+    @Override
+    protected void appendUnit( final StringBuilder sb, final Random rnd )
+    {
+      sb.append( "\033[H" );
+      for ( int row = 1; row <= ROWS; row++ )
+      {
+        sb.append( "\033[" ).append( row ).append( ";1H" );
+        if ( ( row % 4 ) == 0 )
+        {
+          sb.append( "\033[7m" );
+        }
+        appendWords( sb, rnd, COLUMNS - 20 );
+        sb.append( "\033[0m\033[K" );
+      }
+      sb.append( "\033[" ).append( 1 + rnd.nextInt( ROWS ) ).append( ';' ).append( 1 + rnd.nextInt( COLUMNS ) )
+          .append( 'H' );
+    }
+  },
+
+  /** Log output that scrolls, partly within a scrolling region. */
+  SCROLL
+  {
+    @Override
+    protected void appendUnit( final StringBuilder sb, final Random rnd )
+    {
+      int lines = 1 + rnd.nextInt( 20 );
+      if ( rnd.nextInt( 10 ) == 0 )
+      {
+        // Scroll within a region, as done by a status line...
+        sb.append( "\033[2;" ).append( ROWS - 1 ).append( "r\033[" ).append( ROWS - 1 ).append( ";1H" );
+      }
+      for ( int i = 0; i < lines; i++ )
+      {
+        sb.append( "12:34:" ).append( 10 + rnd.nextInt( 50 ) ).append( " \033[32mINFO\033[0m " );
+        appendWords( sb, rnd, 20 + rnd.nextInt( 40 ) );
+        sb.append( "\r\n" );
+      }
+      switch ( rnd.nextInt( 4 ) )
+      {
+        case 0:
+          sb.append( "\033[" ).append( 1 + rnd.nextInt( 3 ) ).append( 'S' );
+          break;
+        case 1:
+          sb.append( "\033[5;1H\033[" ).append( 1 + rnd.nextInt( 3 ) ).append( 'M' );
+          break;
+        case 2:
+          sb.append( "\033[5;1H\033[" ).append( 1 + rnd.nextInt( 3 ) ).append( 'L' );
+          break;
+        default:
+          sb.append( "\033[r\033[" ).append( ROWS ).append( ";1H" );
+          break;
+      }
+    }
+  },
+
+  /** A mix of SGR and redraw output, fed in tiny chunks. */
+  SPLIT
+  {
+    @Override
+    protected void appendUnit( final StringBuilder sb, final Random rnd )
+    {
+      if ( rnd.nextBoolean() )
+      {
+        SGR.appendUnit( sb, rnd );
+      }
+      else
+      {
+        REDRAW.appendUnit( sb, rnd );
+      }
+    }
+
+    @Override
+    protected int nextChunkSize( final Random rnd )
+    {
+      return 1 + rnd.nextInt( 7 );
+    }
+  };
+
+  // CONSTANTS
+
+  /** The size of each corpus, in bytes. */
+  public static final int SIZE = 1024 * 1024;
+  /** The number of bytes that are read at once. */
+  public static final int READ_SIZE = 8192;
+
+  /** The dimensions of the terminal the corpora are meant for. */
+  public static final int COLUMNS = 80;
+  public static final int ROWS = 24;
+
+  static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz\u00e9\u00fc\u20ac";
+
+  // METHODS
+
+  /**
+   * Appends random words with the given total length.
+   * 
+   * @param sb
+   *          the builder to append the words to;
+   * @param rnd
+   *          the random generator to use;
+   * @param length
+   *          the number of characters to append.
+   */
+  static void appendWords( final StringBuilder sb, final Random rnd, final int length )
+  {
+    for ( int i = 0; i < length; i++ )
+    {
+      int r = rnd.nextInt( 200 );
+      if ( r < 30 )
+      {
+        sb.append( ' ' );
+      }
+      else if ( r < 197 )
+      {
+        sb.append( LETTERS.charAt( r % 26 ) );
+      }
+      else
+      {
+        sb.append( LETTERS.charAt( 26 + ( r - 197 ) ) );
+      }
+    }
+  }
+
+  /**
+   * Creates the bytes of this corpus.
+   * 
+   * @return an array of {@link #SIZE} bytes, never <code>null</code>.
+   */
+  public byte[] createBytes()
+  {
+    Random rnd = new Random( 0x1e220L + ordinal() );
+    byte[] result = new byte[SIZE];
+
+    int length = 0;
+    StringBuilder sb = new StringBuilder();
+    while ( true )
+    {
+      sb.setLength( 0 );
+      appendUnit( sb, rnd );
+
+      byte[] unit = sb.toString().getBytes( UTF8 );
+      if ( ( length + unit.length ) > SIZE )
+      {
+        break;
+      }
+      System.arraycopy( unit, 0, result, length, unit.length );
+      length += unit.length;
+    }
+
+    // Pad the remainder, so all corpora have the same size...
+    Arrays.fill( result, length, SIZE, ( byte )'.' );
+    return result;
+  }
+
+  /**
+   * Creates the sizes of the chunks in which this corpus is fed.
+   * 
+   * @return an array with chunk sizes, whose sum equals {@link #SIZE}.
+   */
+  public int[] createChunkSizes()
+  {
+    Random rnd = new Random( 0x5b17L + ordinal() );
+    int[] chunks = new int[SIZE];
+
+    int count = 0;
+    for ( int remaining = SIZE; remaining > 0; )
+    {
+      int size = Math.min( remaining, nextChunkSize( rnd ) );
+      chunks[count++] = size;
+      remaining -= size;
+    }
+    return Arrays.copyOf( chunks, count );
+  }
+
+  /**
+   * Appends a single unit, like a line or a screen, of this corpus.
+   * 
+   * @param sb
+   *          the builder to append the unit to;
+   * @param rnd
+   *          the random generator to use.
+   */
+  protected abstract void appendUnit( StringBuilder sb, Random rnd );
+
+  /**
+   * Returns the size of the next chunk to feed.
+   * 
+   * @param rnd
+   *          the random generator to use.
+   * @return a chunk size, > 0.
+   */
+  protected int nextChunkSize( final Random rnd )
+  {
+    return READ_SIZE;
+  }
+}
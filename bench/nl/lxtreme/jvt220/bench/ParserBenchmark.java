@@ -0,0 +1,232 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.bench;
+
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+
+import nl.lxtreme.jvt220.terminal.vt220.*;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.CSIType;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220CommandHandler;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+
+/**
+ * Measures the throughput of {@link VT220Parser} with a handler that does
+ * nothing.
+ * <p>
+ * As each invocation parses {@link Corpus#SIZE} bytes, the reported throughput
+ * is in bytes per microsecond, which equals MB/s. When run with the GC
+ * profiler (<tt>-prof gc</tt>), <tt>gc.alloc.rate.norm</tt> yields the number
+ * of bytes allocated per parsed byte.
+ * </p>
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@OperationsPerInvocation( Corpus.SIZE )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ParserBenchmark
+{
+  // INNER TYPES
+
+  /**
+   * Provides a handler that only passes its arguments to a {@link Blackhole}.
+   */
+  static final class NoOpHandler implements VT220CommandHandler
+  {
+    // VARIABLES
+
+    private final Blackhole m_blackhole;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link NoOpHandler} instance.
+     */
+    public NoOpHandler( final Blackhole blackhole )
+    {
+      m_blackhole = blackhole;
+    }
+
+    // METHODS
+
+    @Override
+    public void handleCharacter( final char ch ) throws IOException
+    {
+      m_blackhole.consume( ch );
+    }
+
+    @Override
+    public void handleCharacters( final char[] chars, final int offset, final int length ) throws IOException
+    {
+      m_blackhole.consume( length );
+    }
+
+    @Override
+    public void handleControl( final char controlChar ) throws IOException
+    {
+      m_blackhole.consume( controlChar );
+    }
+
+    @Override
+    public void handleCSI( final CSIType type, final int... parameters ) throws IOException
+    {
+      m_blackhole.consume( type );
+    }
+
+    @Override
+    public void handleCUB( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleCUD( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleCUF( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleCUP( final int row, final int column ) throws IOException
+    {
+      m_blackhole.consume( row + column );
+    }
+
+    @Override
+    public void handleCUU( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleDECSTBM( final int top, final int bottom ) throws IOException
+    {
+      m_blackhole.consume( top + bottom );
+    }
+
+    @Override
+    public void handleDL( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleED( final int mode ) throws IOException
+    {
+      m_blackhole.consume( mode );
+    }
+
+    @Override
+    public void handleEL( final int mode ) throws IOException
+    {
+      m_blackhole.consume( mode );
+    }
+
+    @Override
+    public void handleESC( final char designator, final int... parameters ) throws IOException
+    {
+      m_blackhole.consume( designator );
+    }
+
+    @Override
+    public void handleIL( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleREP( final int count, final char ch ) throws IOException
+    {
+      m_blackhole.consume( count );
+    }
+
+    @Override
+    public void handleSD( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+
+    @Override
+    public void handleSGR( final int[] parameters, final int count ) throws IOException
+    {
+      m_blackhole.consume( parameters[0] + count );
+    }
+
+    @Override
+    public void handleSU( final int n ) throws IOException
+    {
+      m_blackhole.consume( n );
+    }
+  }
+
+  // VARIABLES
+
+  @Param( { "PLAIN", "SGR", "REDRAW", "SCROLL", "SPLIT" } )
+  public Corpus corpus;
+
+  private VT220Parser m_parser;
+  private NoOpHandler m_handler;
+  private ByteBuffer m_bytes;
+  private int[] m_chunkSizes;
+
+  // METHODS
+
+  /**
+   * Parses the entire corpus, chunk by chunk.
+   */
+  @Benchmark
+  public void parse() throws IOException
+  {
+    ByteBuffer bytes = m_bytes;
+    bytes.clear();
+
+    for ( int size : m_chunkSizes )
+    {
+      bytes.limit( bytes.position() + size );
+      m_parser.parse( bytes, Corpus.UTF8, m_handler );
+    }
+  }
+
+  /**
+   * Creates the parser and the corpus to parse.
+   */
+  @Setup
+  public void setUp( final Blackhole blackhole )
+  {
+    m_parser = new VT220Parser();
+    m_handler = new NoOpHandler( blackhole );
+    m_bytes = ByteBuffer.wrap( corpus.createBytes() );
+    m_chunkSizes = corpus.createChunkSizes();
+  }
+}
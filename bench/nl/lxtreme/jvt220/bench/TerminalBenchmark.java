@@ -0,0 +1,204 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.bench;
+
+
+import java.awt.*;
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+import nl.lxtreme.jvt220.terminal.vt220.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+
+/**
+ * Measures the end-to-end throughput of {@link VT220Terminal}, including the
+ * notification of a frontend that does nothing.
+ * <p>
+ * As each invocation reads {@link Corpus#SIZE} bytes, the reported throughput
+ * is in bytes per microsecond, which equals MB/s. When run with the GC
+ * profiler (<tt>-prof gc</tt>), <tt>gc.alloc.rate.norm</tt> yields the number
+ * of bytes allocated per read byte.
+ * </p>
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@OperationsPerInvocation( Corpus.SIZE )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class TerminalBenchmark
+{
+  // INNER TYPES
+
+  /**
+   * Provides a frontend that only passes the terminal changes to a
+   * {@link Blackhole}.
+   */
+  static final class NoOpFrontend implements ITerminalFrontend
+  {
+    // VARIABLES
+
+    private final Blackhole m_blackhole;
+    private final Writer m_writer;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link NoOpFrontend} instance.
+     */
+    public NoOpFrontend( final Blackhole blackhole )
+    {
+      m_blackhole = blackhole;
+      m_writer = new StringWriter();
+    }
+
+    // METHODS
+
+    @Override
+    public void connect( final InputStream inputStream, final OutputStream outputStream ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void connect( final OutputStream outputStream ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void disconnect() throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public Dimension getMaximumTerminalSize()
+    {
+      return new Dimension( Corpus.COLUMNS, Corpus.ROWS );
+    }
+
+    @Override
+    public Dimension getSize()
+    {
+      return new Dimension( Corpus.COLUMNS, Corpus.ROWS );
+    }
+
+    @Override
+    public Writer getWriter()
+    {
+      return m_writer;
+    }
+
+    @Override
+    public boolean isListening()
+    {
+      return true;
+    }
+
+    @Override
+    public void setReverse( final boolean reverse )
+    {
+      // Nop
+    }
+
+    @Override
+    public void setSize( final int width, final int height )
+    {
+      // Nop
+    }
+
+    @Override
+    public void setTerminal( final ITerminal terminal )
+    {
+      // Nop
+    }
+
+    @Override
+    public void terminalChanged( final IScreenView screen )
+    {
+      m_blackhole.consume( screen );
+    }
+
+    @Override
+    public void terminalSizeChanged( final int columns, final int lines )
+    {
+      // Nop
+    }
+
+    @Override
+    public void writeCharacters( final CharSequence chars ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void writeCharacters( final Integer... chars ) throws IOException
+    {
+      // Nop
+    }
+  }
+
+  // VARIABLES
+
+  @Param( { "PLAIN", "SGR", "REDRAW", "SCROLL", "SPLIT" } )
+  public Corpus corpus;
+
+  private VT220Terminal m_terminal;
+  private ByteBuffer m_bytes;
+  private int[] m_chunkSizes;
+
+  // METHODS
+
+  /**
+   * Reads the entire corpus, chunk by chunk.
+   */
+  @Benchmark
+  public void read() throws IOException
+  {
+    ByteBuffer bytes = m_bytes;
+    bytes.clear();
+
+    for ( int size : m_chunkSizes )
+    {
+      bytes.limit( bytes.position() + size );
+      m_terminal.read( bytes, Corpus.UTF8 );
+    }
+  }
+
+  /**
+   * Creates the terminal and the corpus to read.
+   */
+  @Setup
+  public void setUp( final Blackhole blackhole )
+  {
+    m_terminal = new VT220Terminal( Corpus.COLUMNS, Corpus.ROWS );
+    m_terminal.setFrontend( new NoOpFrontend( blackhole ) );
+    m_bytes = ByteBuffer.wrap( corpus.createBytes() );
+    m_chunkSizes = corpus.createChunkSizes();
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal;
+
+
+/**
+ * Denotes the "damage" of a terminal, or which parts of the terminal have
+ * changed since the last time the frontend was notified.
+ * <p>
+ * Damage is tracked per row as a span of changed columns. Consumers are
+ * expected to iterate over the changed rows only, for example:
+ * </p>
+ * 
+ * <pre>
+ * for ( int row = damage.nextDirtyRow( 0 ); row &gt;= 0; row = damage.nextDirtyRow( row + 1 ) )
+ * {
+ *   for ( int col = damage.getMinColumn( row ); col &lt; damage.getMaxColumn( row ); col++ )
+ *   {
+ *     // repaint cell (col, row)...
+ *   }
+ * }
+ * </pre>
+ */
+public interface IDamageMap
+{
+  // METHODS
+
+  /**
+   * Returns the last changed column of the given row.
+   * 
+   * @param row
+   *          the row to return the last changed column for, >= 0.
+   * @return the column <em>after</em> the last changed column, or 0 if the
+   *         given row did not change.
+   */
+  int getMaxColumn( int row );
+
+  /**
+   * Returns the first changed column of the given row.
+   * 
+   * @param row
+   *          the row to return the first changed column for, >= 0.
+   * @return the first changed column, or 0 if the given row did not change.
+   */
+  int getMinColumn( int row );
+
+  /**
+   * Returns whether the given row has changed.
+   * 
+   * @param row
+   *          the row to test, >= 0.
+   * @return <code>true</code> if the given row has at least one changed column,
+   *         <code>false</code> otherwise.
+   */
+  boolean isDirty( int row );
+
+  /**
+   * @return <code>true</code> if nothing has changed, <code>false</code>
+   *         otherwise.
+   */
+  boolean isEmpty();
+
+  /**
+   * @return <code>true</code> if the entire screen has changed, for example
+   *         after clearing it or changing its colors, <code>false</code>
+   *         otherwise.
+   */
+  boolean isFullScreen();
+
+  /**
+   * @return <code>true</code> if (a part of) the screen has been scrolled,
+   *         <code>false</code> otherwise.
+   */
+  boolean isScrolled();
+
+  /**
+   * Returns the first changed row at or after the given row.
+   * 
+   * @param fromRow
+   *          the row to start searching from, >= 0.
+   * @return the first changed row, or -1 if there is no such row.
+   */
+  int nextDirtyRow( int fromRow );
+}
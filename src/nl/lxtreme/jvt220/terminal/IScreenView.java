@@ -0,0 +1,135 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal;
+
+
+/**
+ * Provides a read-only view on the screen of a terminal.
+ * <p>
+ * All accessors are primitive, so the screen can be read without creating any
+ * objects. The attributes of each cell are packed in a single integer, which
+ * can be decoded with the masks defined in this interface, for example:
+ * </p>
+ * 
+ * <pre>
+ * int attrs = view.getAttributes( row, col );
+ * int fg = attrs &amp; IScreenView.COLOR_MASK;
+ * int bg = ( attrs &gt;&gt; IScreenView.BACKGROUND_SHIFT ) &amp; IScreenView.COLOR_MASK;
+ * boolean bold = ( attrs &amp; IScreenView.BOLD ) != 0;
+ * </pre>
+ */
+public interface IScreenView
+{
+  // CONSTANTS
+
+  /** the mask of the foreground/background color index. */
+  int COLOR_MASK = ( 1 << 5 ) - 1;
+  /** the number of bits the background color index is shifted. */
+  int BACKGROUND_SHIFT = 5;
+  int BOLD = 1 << 10;
+  int ITALIC = 1 << 11;
+  int UNDERLINE = 1 << 12;
+  int REVERSE = 1 << 13;
+  int HIDDEN = 1 << 14;
+  int PROTECTED = 1 << 15;
+
+  // METHODS
+
+  /**
+   * Returns the packed attributes of the cell at the given position.
+   * 
+   * @param row
+   *          the row of the cell, >= 0 && < {@link #getHeight()};
+   * @param column
+   *          the column of the cell, >= 0 && < {@link #getWidth()}.
+   * @return the packed attributes, >= 0.
+   */
+  int getAttributes( int row, int column );
+
+  /**
+   * Returns the character of the cell at the given position.
+   * 
+   * @param row
+   *          the row of the cell, >= 0 && < {@link #getHeight()};
+   * @param column
+   *          the column of the cell, >= 0 && < {@link #getWidth()}.
+   * @return the character of the cell.
+   */
+  char getChar( int row, int column );
+
+  /**
+   * Copies the characters of a range of cells of a single row to the given
+   * array, like {@link String#getChars(int, int, char[], int)}.
+   * 
+   * @param row
+   *          the row to copy the characters of, >= 0 && < {@link #getHeight()};
+   * @param fromColumn
+   *          the first column to copy (inclusive);
+   * @param toColumn
+   *          the last column to copy (exclusive), <= {@link #getWidth()};
+   * @param dest
+   *          the array to copy the characters to, cannot be <code>null</code>;
+   * @param destOffset
+   *          the offset in the given array to copy the first character to.
+   */
+  void getChars( int row, int fromColumn, int toColumn, char[] dest, int destOffset );
+
+  /**
+   * Returns the Unicode code point of the cell at the given position.
+   * <p>
+   * Wide characters, such as CJK ideographs, take two cells. The second cell
+   * of such a character has code point 0, and should not be drawn.
+   * </p>
+   * 
+   * @param row
+   *          the row of the cell, >= 0 && < {@link #getHeight()};
+   * @param column
+   *          the column of the cell, >= 0 && < {@link #getWidth()}.
+   * @return the code point of the cell.
+   */
+  int getCodePoint( int row, int column );
+
+  /**
+   * Returns the changes of the screen, relative to the previous view that was
+   * passed to the frontend.
+   * 
+   * @return the damage, never <code>null</code>.
+   */
+  IDamageMap getDamage();
+
+  /**
+   * @return the height of the screen, in rows, > 0.
+   */
+  int getHeight();
+
+  /**
+   * Returns the version of the contents of this view. A view with different
+   * contents always has a different, higher, version.
+   * 
+   * @return the version, > 0.
+   */
+  long getVersion();
+
+  /**
+   * @return the width of the screen, in columns, > 0.
+   */
+  int getWidth();
+}
@@ -23,6 +23,8 @@ package nl.lxtreme.jvt220.terminal;
 
 import java.awt.event.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 
 
 /**
@@ -190,6 +192,25 @@ public interface ITerminal extends Closeable
    */
   int read( CharSequence chars ) throws IOException;
 
+  /**
+   * Handles the given bytes as text that should be handled by this terminal,
+   * after decoding them with the given charset.
+   * <p>
+   * Implementations are free to decode the bytes in any way they see fit, as
+   * long as all remaining bytes of the given buffer are consumed.
+   * </p>
+   * 
+   * @param bytes
+   *          the buffer with bytes to handle, cannot be <code>null</code>;
+   * @param charset
+   *          the charset of the given bytes, cannot be <code>null</code>.
+   * @return the number of handled bytes.
+   * @throws IOException
+   *           in case of I/O exceptions handling the output.
+   * @see #read(CharSequence)
+   */
+  int read( ByteBuffer bytes, Charset charset ) throws IOException;
+
   /**
    * Resets this terminal to its initial values, meaning that its content will
    * be cleared, the cursor will be placed in the first (upper left) position
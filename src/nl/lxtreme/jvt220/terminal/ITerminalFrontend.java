@@ -23,9 +23,6 @@ package nl.lxtreme.jvt220.terminal;
 
 import java.awt.*;
 import java.io.*;
-import java.util.*;
-
-import nl.lxtreme.jvt220.terminal.ITerminal.ITextCell;
 
 
 /**
@@ -142,15 +139,17 @@ public interface ITerminalFrontend
 
   /**
    * Called by {@link ITerminal} to notify this frontend that it has changed.
+   * <p>
+   * A terminal can coalesce its changes and notify this frontend by another
+   * thread than the one reading its input. If this frontend is not listening,
+   * the notification is retried later.
+   * </p>
    * 
-   * @param cells
-   *          the array with text cells representing the contents of the
-   *          terminal, never <code>null</code>;
-   * @param heatMap
-   *          the "heat" map, representing all changed cells of the terminal,
-   *          never <code>null</code>.
+   * @param screen
+   *          the immutable view on the contents of the terminal, including the
+   *          changes since the last notification, never <code>null</code>.
    */
-  void terminalChanged( ITextCell[] cells, BitSet heatMap );
+  void terminalChanged( IScreenView screen );
 
   /**
    * Called by {@link ITerminal} to notify the dimensions of the terminal have
@@ -0,0 +1,89 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal;
+
+
+/**
+ * Receives trace events from the parser and the terminal, for example to
+ * record them for later inspection.
+ * <p>
+ * Implementations are called for each parsed sequence, so they should be
+ * cheap and must not allocate or block.
+ * </p>
+ */
+public interface ITraceSink
+{
+  // CONSTANTS
+
+  /** A C0 or C1 control character; the code is the control character. */
+  int CONTROL = 1;
+  /** An escape sequence; the code is its final character. */
+  int ESC = 2;
+  /** A control sequence; the code is its final character. */
+  int CSI = 3;
+  /** The start of a control string; the code is its 8-bit introducer. */
+  int STRING_START = 4;
+  /**
+   * The end of a control string; the code is its 8-bit introducer, the
+   * parameters are the payload length and 1 if it was cancelled, 0 otherwise.
+   */
+  int STRING_END = 5;
+  /**
+   * A run of plain characters; the code is its last character, the parameter
+   * is its length.
+   */
+  int TEXT = 6;
+  /** A VT52 escape sequence; the code is its final character. */
+  int VT52 = 7;
+  /** An aborted sequence; the parameter is the ordinal of the limit. */
+  int LIMIT = 8;
+  /**
+   * The preceding sequence is not handled by the terminal; the parameter is
+   * the argument that is not handled.
+   */
+  int UNHANDLED = 9;
+
+  // METHODS
+
+  /**
+   * Traces a single event.
+   * 
+   * @param type
+   *          the type of event, like {@link #CSI} or {@link #TEXT};
+   * @param marker
+   *          the private marker of a control sequence (like '?'), or 0 if
+   *          there is none;
+   * @param intermediate
+   *          the (first) intermediate character of an escape or control
+   *          sequence, or 0 if there is none;
+   * @param code
+   *          the code of the event, see its type;
+   * @param offset
+   *          the offset in the parsed stream of the character following this
+   *          event, or -1 if unknown;
+   * @param parameters
+   *          the parameters of this event. This array is reused by the caller
+   *          and is only valid during this call;
+   * @param count
+   *          the number of parameters, >= 0.
+   */
+  void trace( int type, char marker, char intermediate, char code, long offset, int[] parameters, int count );
+}
@@ -26,6 +26,8 @@ import java.awt.event.*;
 import java.awt.font.*;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.text.*;
 import java.util.*;
 import java.util.List;
@@ -33,7 +35,6 @@ import java.util.List;
 import javax.swing.*;
 
 import nl.lxtreme.jvt220.terminal.*;
-import nl.lxtreme.jvt220.terminal.ITerminal.ITextCell;
 
 
 /**
@@ -75,11 +76,11 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
    * Asynchronous worker that reads data from an input stream and passes this to
    * the terminal backend.
    */
-  final class InputStreamWorker extends SwingWorker<Void, Integer>
+  final class InputStreamWorker extends SwingWorker<Void, byte[]>
   {
     // VARIABLES
 
-    private final InputStreamReader m_reader;
+    private final InputStream m_inputStream;
 
     // CONSTRUCTORS
 
@@ -87,14 +88,11 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
      * Creates a new {@link InputStreamWorker} instance.
      * 
      * @param inputStream
-     *          the input stream to read from, cannot be <code>null</code>;
-     * @param encoding
-     *          the character encoding to use for the read input, cannot be
-     *          <code>null</code>.
+     *          the input stream to read from, cannot be <code>null</code>.
      */
-    public InputStreamWorker( final InputStream inputStream, String encoding ) throws IOException
+    public InputStreamWorker( final InputStream inputStream ) throws IOException
     {
-      m_reader = new InputStreamReader( inputStream, encoding );
+      m_inputStream = inputStream;
     }
 
     // METHODS
@@ -102,25 +100,32 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
     @Override
     protected Void doInBackground() throws Exception
     {
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+
       while ( !isCancelled() && !Thread.currentThread().isInterrupted() )
       {
-        int r = m_reader.read();
+        int r = m_inputStream.read( buffer );
+        if ( r < 0 )
+        {
+          break;
+        }
         if ( r > 0 )
         {
-          publish( Integer.valueOf( r ) );
+          publish( Arrays.copyOf( buffer, r ) );
         }
       }
       return null;
     }
 
     @Override
-    protected void process( final List<Integer> readChars )
+    protected void process( final List<byte[]> readChunks )
     {
-      Integer[] chars = readChars.toArray( new Integer[readChars.size()] );
-
       try
       {
-        writeCharacters( chars );
+        for ( byte[] chunk : readChunks )
+        {
+          writeBytes( chunk );
+        }
       }
       catch ( IOException exception )
       {
@@ -136,9 +141,15 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
    */
   private static final String ISO8859_1 = "ISO8859-1";
 
+  /**
+   * The number of bytes to read at once from the input stream.
+   */
+  private static final int READ_BUFFER_SIZE = 8192;
+
   // VARIABLES
 
   private final String m_encoding;
+  private final Charset m_charset;
   private final CharBuffer m_buffer;
 
   private ITerminalColorScheme m_colorScheme;
@@ -174,6 +185,7 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
     }
 
     m_encoding = encoding;
+    m_charset = Charset.forName( encoding );
     m_buffer = new CharBuffer();
     m_colorScheme = new XtermColorScheme();
 
@@ -271,7 +283,7 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
 
     m_writer = new OutputStreamWriter( outputStream, m_encoding );
 
-    m_inputStreamWorker = new InputStreamWorker( inputStream, m_encoding );
+    m_inputStreamWorker = new InputStreamWorker( inputStream );
     m_inputStreamWorker.execute();
 
     setEnabled( true );
@@ -456,14 +468,14 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
    * {@inheritDoc}
    */
   @Override
-  public void terminalChanged( final ITextCell[] cells, final BitSet heatMap )
+  public void terminalChanged( final IScreenView screen )
   {
     SwingUtilities.invokeLater( new Runnable()
     {
       @Override
       public void run()
       {
-        updateTerminalImage( cells, heatMap );
+        updateTerminalImage( screen );
       }
     } );
   }
@@ -506,6 +518,20 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
     }
   }
 
+  /**
+   * Writes the given bytes directly to the terminal, after decoding them with
+   * the encoding of this frontend.
+   * 
+   * @param bytes
+   *          the bytes to write, cannot be <code>null</code>.
+   * @throws IOException
+   *           in case of I/O problems writing to the terminal.
+   */
+  public void writeBytes( byte[] bytes ) throws IOException
+  {
+    m_terminal.read( ByteBuffer.wrap( bytes ), m_charset );
+  }
+
   /**
    * Writes the given array of characters directly to the terminal, similar as
    * writing to the standard output.
@@ -571,17 +597,16 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
   /**
    * Updates the image representing the terminal contents.
    * 
-   * @param cells
-   *          the text cells;
-   * @param heatMap
-   *          the heat map denoting the changed cells.
+   * @param screen
+   *          the view on the terminal contents, including the changed cells.
    */
-  void updateTerminalImage( ITextCell[] cells, BitSet heatMap )
+  void updateTerminalImage( IScreenView screen )
   {
     assert SwingUtilities.isEventDispatchThread() : "Should be called from the EDT only!";
 
     final int columns = m_terminal.getWidth();
     final int lines = m_terminal.getHeight();
+    final IDamageMap damage = screen.getDamage();
 
     // Create copies of these data items to ensure they remain constant for
     // the remainder of this method...
@@ -612,26 +637,46 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
       repaintArea = drawCursor( canvas, m_oldCursor, m_colorScheme.getBackgroundColor() );
     }
 
-    for ( int i = 0; i < cells.length; i++ )
+    // Only visit the changed cells of the changed rows...
+    final int maxRow = Math.min( lines, screen.getHeight() );
+    for ( int row = damage.nextDirtyRow( 0 ); ( row >= 0 ) && ( row < maxRow ); row = damage.nextDirtyRow( row + 1 ) )
     {
-      boolean cellChanged = heatMap.get( i );
-      if ( cellChanged )
+      final int y = row * ( ch + ls );
+      final int width = Math.min( columns, screen.getWidth() );
+      final int maxCol = Math.min( width, damage.getMaxColumn( row ) );
+
+      int minCol = damage.getMinColumn( row );
+      if ( ( minCol > 0 ) && ( minCol < width ) && ( screen.getCodePoint( row, minCol ) == 0 ) )
+      {
+        // Start at the first half of a changed wide character...
+        minCol--;
+      }
+
+      for ( int col = minCol; col < maxCol; col++ )
       {
+        final int codePoint = screen.getCodePoint( row, col );
+        if ( codePoint == 0 )
+        {
+          // Second half of a wide character, already drawn...
+          continue;
+        }
+
         // Cell is changed...
-        final ITextCell cell = cells[i];
+        final int attrs = screen.getAttributes( row, col );
 
-        final int x = ( i % columns ) * cw;
-        final int y = ( i / columns ) * ( ch + ls );
+        final int x = col * cw;
+        final boolean wide = ( ( col + 1 ) < width ) && ( screen.getCodePoint( row, col + 1 ) == 0 );
 
-        final Rectangle rect = new Rectangle( x, y, cw, ch + ls );
+        final Rectangle rect = new Rectangle( x, y, wide ? 2 * cw : cw, ch + ls );
 
-        canvas.setColor( convertToColor( cell.getBackground(), m_colorScheme.getBackgroundColor() ) );
+        int bg = ( attrs >> IScreenView.BACKGROUND_SHIFT ) & IScreenView.COLOR_MASK;
+        canvas.setColor( convertToColor( bg, m_colorScheme.getBackgroundColor() ) );
         canvas.fillRect( rect.x, rect.y, rect.width, rect.height );
 
-        final String txt = Character.toString( cell.getChar() );
+        final String txt = new String( Character.toChars( codePoint ) );
 
         AttributedString attrStr = new AttributedString( txt );
-        cursorColor = applyAttributes( cell, attrStr, font );
+        cursorColor = applyAttributes( attrs, attrStr, font );
 
         AttributedCharacterIterator characterIterator = attrStr.getIterator();
         LineBreakMeasurer measurer = new LineBreakMeasurer( characterIterator, frc );
@@ -880,40 +925,43 @@ public class SwingFrontend extends JComponent implements ITerminalFrontend
   }
 
   /**
-   * Applies the attributes from the given {@link TextCell} to the given
-   * {@link AttributedString}.
+   * Applies the given packed attributes to the given {@link AttributedString}.
    * 
-   * @param textCell
-   *          the text cell to get the attributes from;
+   * @param attrs
+   *          the packed attributes, as defined by {@link IScreenView};
    * @param attributedString
    *          the {@link AttributedString} to apply the attributes to;
    * @param font
    *          the font to use.
    * @return the primary foreground color, never <code>null</code>.
    */
-  private Color applyAttributes( ITextCell textCell, AttributedString attributedString, Font font )
+  private Color applyAttributes( int attrs, AttributedString attributedString, Font font )
   {
-    Color fg = convertToColor( textCell.getForeground(), m_colorScheme.getTextColor() );
-    Color bg = convertToColor( textCell.getBackground(), m_colorScheme.getBackgroundColor() );
+    Color fg = convertToColor( attrs & IScreenView.COLOR_MASK, m_colorScheme.getTextColor() );
+    Color bg = convertToColor( ( attrs >> IScreenView.BACKGROUND_SHIFT ) & IScreenView.COLOR_MASK,
+        m_colorScheme.getBackgroundColor() );
+
+    boolean reverse = ( attrs & IScreenView.REVERSE ) != 0;
+    boolean hidden = ( attrs & IScreenView.HIDDEN ) != 0;
 
     attributedString.addAttribute( TextAttribute.FAMILY, font.getFamily() );
     attributedString.addAttribute( TextAttribute.SIZE, font.getSize() );
-    attributedString.addAttribute( TextAttribute.FOREGROUND, textCell.isReverse() ^ textCell.isHidden() ? bg : fg );
-    attributedString.addAttribute( TextAttribute.BACKGROUND, textCell.isReverse() ? fg : bg );
+    attributedString.addAttribute( TextAttribute.FOREGROUND, reverse ^ hidden ? bg : fg );
+    attributedString.addAttribute( TextAttribute.BACKGROUND, reverse ? fg : bg );
 
-    if ( textCell.isUnderline() )
+    if ( ( attrs & IScreenView.UNDERLINE ) != 0 )
     {
       attributedString.addAttribute( TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON );
     }
-    if ( textCell.isBold() )
+    if ( ( attrs & IScreenView.BOLD ) != 0 )
     {
       attributedString.addAttribute( TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD );
     }
-    if ( textCell.isItalic() )
+    if ( ( attrs & IScreenView.ITALIC ) != 0 )
     {
       attributedString.addAttribute( TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE );
     }
-    return textCell.isReverse() ^ textCell.isHidden() ? bg : fg;
+    return reverse ^ hidden ? bg : fg;
   }
 
   /**
@@ -22,13 +22,37 @@ package nl.lxtreme.jvt220.terminal.vt220;
 
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import nl.lxtreme.jvt220.terminal.*;
 
 
 /**
  * Provides an abstract base implementation of {@link ITerminal}.
+ * <p>
+ * A terminal has a single writer: it is only changed by the thread calling
+ * the <code>read</code> methods, or while no input is read. Each call to
+ * <code>read</code>, {@link #reset()} and {@link #setDimensions(int, int)} is
+ * a batch of changes surrounded by a version counter, which is odd while the
+ * batch is in progress. Any number of other threads can take a consistent
+ * sample of the cursor, the dimensions, the scrolling region and the last
+ * snapshot without locks, by repeating their reads until they are validated:
+ * </p>
+ * 
+ * <pre>
+ * long stamp;
+ * do
+ * {
+ *   stamp = terminal.tryOptimisticRead();
+ *   snapshot = terminal.getSnapshot();
+ *   x = terminal.getCursor().getX();
+ *   y = terminal.getCursor().getY();
+ * }
+ * while ( !terminal.validate( stamp ) );
+ * </pre>
  */
 public abstract class AbstractTerminal implements ITerminal
 {
@@ -52,7 +76,12 @@ public abstract class AbstractTerminal implements ITerminal
   }
 
   /**
-   * Provides a default tabulator implementation.
+   * Provides a default tabulator implementation, that keeps the tab stops as a
+   * bitmap of columns.
+   * <p>
+   * Looking up the next or previous tab stop scans the bitmap a word (64
+   * columns) at a time, and never allocates.
+   * </p>
    */
   protected class DefaultTabulator implements ITabulator
   {
@@ -62,7 +91,10 @@ public abstract class AbstractTerminal implements ITerminal
 
     // VARIABLES
 
-    private final SortedSet<Integer> m_tabStops;
+    private final int m_tabStop;
+    /** the tab stops, one bit per column. */
+    private long[] m_tabStops;
+    private int m_columns;
 
     // CONSTRUCTORS
 
@@ -87,11 +119,11 @@ public abstract class AbstractTerminal implements ITerminal
      */
     public DefaultTabulator( int columns, int tabStop )
     {
-      m_tabStops = new TreeSet<Integer>();
-      for ( int i = tabStop; i < columns; i += tabStop )
-      {
-        m_tabStops.add( Integer.valueOf( i ) );
-      }
+      m_tabStop = tabStop;
+      m_tabStops = new long[( columns >> 6 ) + 1];
+      m_columns = 0;
+
+      resize( columns );
     }
 
     // METHODS
@@ -102,7 +134,10 @@ public abstract class AbstractTerminal implements ITerminal
     @Override
     public void clear( int position )
     {
-      m_tabStops.remove( Integer.valueOf( position ) );
+      if ( ( position >= 0 ) && ( position < m_columns ) )
+      {
+        m_tabStops[position >> 6] &= ~( 1L << position );
+      }
     }
 
     /**
@@ -111,7 +146,7 @@ public abstract class AbstractTerminal implements ITerminal
     @Override
     public void clearAll()
     {
-      m_tabStops.clear();
+      Arrays.fill( m_tabStops, 0L );
     }
 
     /**
@@ -133,11 +168,21 @@ public abstract class AbstractTerminal implements ITerminal
     }
 
     /**
+     * Returns the current tab stops.
+     * <p>
+     * The returned set is a copy; changing it does not change the tab stops.
+     * </p>
+     * 
      * @return the current tab stops, never <code>null</code>.
      */
     public SortedSet<Integer> getTabStops()
     {
-      return m_tabStops;
+      SortedSet<Integer> result = new TreeSet<Integer>();
+      for ( int i = nextSetBit( 0 ); i >= 0; i = nextSetBit( i + 1 ) )
+      {
+        result.add( Integer.valueOf( i ) );
+      }
+      return result;
     }
 
     /**
@@ -146,17 +191,15 @@ public abstract class AbstractTerminal implements ITerminal
     @Override
     public int nextTab( int position )
     {
-      int tabStop = Integer.MAX_VALUE;
-
       // Search for the first tab stop after the given position...
-      SortedSet<Integer> tailSet = m_tabStops.tailSet( Integer.valueOf( position + 1 ) );
-      if ( !tailSet.isEmpty() )
+      int tabStop = nextSetBit( Math.max( 0, position + 1 ) );
+      if ( tabStop < 0 )
       {
-        tabStop = tailSet.first();
+        tabStop = Integer.MAX_VALUE;
       }
 
       // Don't go beyond the end of the line...
-      return Math.min( tabStop, ( getWidth() - 1 ) );
+      return Math.min( tabStop, ( m_columns - 1 ) );
     }
 
     /**
@@ -165,26 +208,120 @@ public abstract class AbstractTerminal implements ITerminal
     @Override
     public int previousTab( int position )
     {
-      int tabStop = 0;
-
       // Search for the first tab stop before the given position...
-      SortedSet<Integer> headSet = m_tabStops.headSet( Integer.valueOf( position ) );
-      if ( !headSet.isEmpty() )
-      {
-        tabStop = headSet.last();
-      }
+      int tabStop = previousSetBit( position - 1 );
 
       // Don't go beyond the start of the line...
       return Math.max( 0, tabStop );
     }
 
+    /**
+     * Resizes this tabulator to the given number of columns. The tab stops of
+     * the existing columns are retained, while the new columns get the default
+     * tab stops.
+     * 
+     * @param columns
+     *          the new number of columns, > 0.
+     */
+    public void resize( int columns )
+    {
+      int words = ( columns >> 6 ) + 1;
+      if ( words != m_tabStops.length )
+      {
+        m_tabStops = Arrays.copyOf( m_tabStops, words );
+      }
+
+      if ( columns > m_columns )
+      {
+        // Apply the default tab stops to the new columns...
+        int first = ( ( m_columns + m_tabStop - 1 ) / m_tabStop ) * m_tabStop;
+        for ( int i = Math.max( m_tabStop, first ); i < columns; i += m_tabStop )
+        {
+          m_tabStops[i >> 6] |= 1L << i;
+        }
+      }
+      else
+      {
+        // Remove the tab stops beyond the new last column...
+        for ( int i = columns; i < ( words << 6 ); i++ )
+        {
+          m_tabStops[i >> 6] &= ~( 1L << i );
+        }
+      }
+
+      m_columns = columns;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void set( int position )
     {
-      m_tabStops.add( Integer.valueOf( position ) );
+      if ( ( position >= 0 ) && ( position < m_columns ) )
+      {
+        m_tabStops[position >> 6] |= 1L << position;
+      }
+    }
+
+    /**
+     * Returns the first tab stop at or after the given column.
+     * 
+     * @return the column of the tab stop, or -1 if there is no such tab stop.
+     */
+    private int nextSetBit( int column )
+    {
+      int wordIdx = column >> 6;
+      if ( wordIdx >= m_tabStops.length )
+      {
+        return -1;
+      }
+
+      long word = m_tabStops[wordIdx] & ( -1L << column );
+      while ( word == 0L )
+      {
+        if ( ++wordIdx == m_tabStops.length )
+        {
+          return -1;
+        }
+        word = m_tabStops[wordIdx];
+      }
+      return ( wordIdx << 6 ) + Long.numberOfTrailingZeros( word );
+    }
+
+    /**
+     * Returns the last tab stop at or before the given column.
+     * 
+     * @return the column of the tab stop, or -1 if there is no such tab stop.
+     */
+    private int previousSetBit( int column )
+    {
+      if ( column < 0 )
+      {
+        return -1;
+      }
+
+      int wordIdx = column >> 6;
+      long word;
+      if ( wordIdx >= m_tabStops.length )
+      {
+        wordIdx = m_tabStops.length - 1;
+        word = m_tabStops[wordIdx];
+      }
+      else
+      {
+        word = m_tabStops[wordIdx] & ( -1L >>> ( 63 - ( column & 63 ) ) );
+      }
+
+      while ( word == 0L )
+      {
+        if ( --wordIdx < 0 )
+        {
+          return -1;
+        }
+        word = m_tabStops[wordIdx];
+      }
+      return ( wordIdx << 6 ) + 63 - Long.numberOfLeadingZeros( word );
     }
   }
 
@@ -200,31 +337,48 @@ public abstract class AbstractTerminal implements ITerminal
   private static final int OPTION_AUTOWRAP = 2;
   private static final int OPTION_NEWLINE = 3;
   private static final int OPTION_INSERT = 4;
+  private static final int OPTION_ALTERNATE_SCREEN = 5;
 
   // VARIABLES
 
   private final CursorImpl m_cursor;
-  private final ITabulator m_tabulator;
+  private final DefaultTabulator m_tabulator;
   private final IKeyMapper m_keymapper;
 
   protected final BitSet m_options;
   protected final TextAttributes m_textAttributes;
 
   private volatile ITerminalFrontend m_frontend;
-  private volatile BitSet m_heatMap;
-  private volatile TextCell[] m_buffer;
+  /** coalesces the snapshots delivered to the frontend into frames. */
+  private final FrameScheduler m_frames;
+  private volatile DamageMap m_damage;
+  private volatile TextBuffer m_buffer;
+  /** the screen that is not shown, null until the alternate screen is used. */
+  private TextBuffer m_inactiveBuffer;
+  /** the last published snapshot of the screen. */
+  private volatile ScreenSnapshot m_snapshot;
   private volatile int m_width;
   private volatile int m_height;
 
-  private int m_logLevel;
-
-  private int m_firstScrollLine;
-  private int m_lastScrollLine;
+  /** the history of lines scrolled off the screen, can be null. */
+  private volatile Scrollback m_scrollback;
+  /** the sink to trace unhandled sequences to, can be null. */
+  private ITraceSink m_traceSink;
+  private final int[] m_traceParameters;
+
+  private volatile int m_firstScrollLine;
+  private volatile int m_lastScrollLine;
+  /** the version counter of the batches of changes, odd during a batch. */
+  private volatile long m_sequence;
+  /** the number of nested batches of changes in progress. */
+  private int m_updateDepth;
   /**
    * denotes that the last written character caused a wrap to the next line (if
    * AutoWrap is enabled).
    */
   private boolean m_wrapped;
+  /** the high surrogate waiting for its low surrogate, or 0 if none. */
+  private char m_highSurrogate;
 
   // CONSTRUCTORS
 
@@ -243,10 +397,11 @@ public abstract class AbstractTerminal implements ITerminal
     m_cursor = new CursorImpl();
     m_options = new BitSet();
     m_tabulator = new DefaultTabulator( columns );
+    m_frames = new FrameScheduler();
 
     internalSetDimensions( columns, lines );
 
-    m_logLevel = 0;
+    m_traceParameters = new int[1];
   }
 
   // METHODS
@@ -308,8 +463,10 @@ public abstract class AbstractTerminal implements ITerminal
   @Override
   public void close() throws IOException
   {
+    m_frames.cancel();
     m_buffer = null;
-    m_heatMap = null;
+    m_damage = null;
+    m_snapshot = null;
   }
 
   /**
@@ -337,6 +494,20 @@ public abstract class AbstractTerminal implements ITerminal
     return m_firstScrollLine;
   }
 
+  /**
+   * Returns the minimal interval between two notifications of the frontend.
+   * 
+   * @param unit
+   *          the time unit to return the interval in, cannot be
+   *          <code>null</code>.
+   * @return the frame interval, >= 0.
+   * @see #setFrameInterval(long, TimeUnit)
+   */
+  public final long getFrameInterval( final TimeUnit unit )
+  {
+    return unit.convert( m_frames.getInterval(), TimeUnit.NANOSECONDS );
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -381,6 +552,32 @@ public abstract class AbstractTerminal implements ITerminal
     return m_lastScrollLine;
   }
 
+  /**
+   * Returns the snapshot of the screen as it was after the last call to one of
+   * the <code>read</code> methods.
+   * <p>
+   * Snapshots are immutable and can safely be used by other threads than the
+   * one reading the input of this terminal.
+   * </p>
+   * 
+   * @return the last snapshot of the screen, never <code>null</code>.
+   */
+  public ScreenSnapshot getSnapshot()
+  {
+    return m_snapshot;
+  }
+
+  /**
+   * Returns the history of the lines that are scrolled off the screen.
+   * 
+   * @return the scrollback history, can be <code>null</code> if lines
+   *         scrolled off the screen are not retained.
+   */
+  public Scrollback getScrollback()
+  {
+    return m_scrollback;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -399,6 +596,18 @@ public abstract class AbstractTerminal implements ITerminal
     return m_width;
   }
 
+  /**
+   * Returns whether or not the alternate screen is shown.
+   * 
+   * @return <code>true</code> if the alternate screen is shown,
+   *         <code>false</code> if the normal screen is shown.
+   * @see #setAlternateScreen(boolean)
+   */
+  public final boolean isAlternateScreen()
+  {
+    return m_options.get( OPTION_ALTERNATE_SCREEN );
+  }
+
   /**
    * Returns whether or not the auto-newline mode is enabled.
    * <p>
@@ -523,21 +732,60 @@ public abstract class AbstractTerminal implements ITerminal
    * {@inheritDoc}
    */
   @Override
-  public final int read( CharSequence chars ) throws IOException
+  public final int read( ByteBuffer bytes, Charset charset ) throws IOException
   {
-    int r = doReadInput( chars );
+    if ( bytes == null )
+    {
+      throw new IllegalArgumentException( "Bytes cannot be null!" );
+    }
+    if ( charset == null )
+    {
+      throw new IllegalArgumentException( "Charset cannot be null!" );
+    }
+
+    int r;
 
-    if ( m_frontend != null && m_frontend.isListening() )
+    clearDeliveredDamage();
+    beginUpdate();
+    try
     {
-      TextCell[] b = m_buffer.clone();
-      BitSet hm = ( BitSet )m_heatMap.clone();
+      r = doReadInput( bytes, charset );
+
+      publishSnapshot();
+    }
+    finally
+    {
+      endUpdate();
+    }
+
+    notifyFrontend();
+
+    return r;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final int read( CharSequence chars ) throws IOException
+  {
+    int r;
 
-      m_frontend.terminalChanged( b, hm );
+    clearDeliveredDamage();
+    beginUpdate();
+    try
+    {
+      r = doReadInput( chars );
 
-      // Mark all "hot spots" as being processed...
-      m_heatMap.clear();
+      publishSnapshot();
+    }
+    finally
+    {
+      endUpdate();
     }
 
+    notifyFrontend();
+
     return r;
   }
 
@@ -547,13 +795,21 @@ public abstract class AbstractTerminal implements ITerminal
   @Override
   public void reset()
   {
-    // Clear the entire screen...
-    clearScreen( 2 );
-    // Move cursor to the first (upper left) position...
-    updateCursorByAbsoluteIndex( getFirstAbsoluteIndex() );
-    // Reset scroll region...
-    m_firstScrollLine = 0;
-    m_lastScrollLine = getHeight() - 1;
+    beginUpdate();
+    try
+    {
+      // Clear the entire screen...
+      clearScreen( 2 );
+      // Move cursor to the first (upper left) position...
+      updateCursorByAbsoluteIndex( getFirstAbsoluteIndex() );
+      // Reset scroll region...
+      m_firstScrollLine = 0;
+      m_lastScrollLine = getHeight() - 1;
+    }
+    finally
+    {
+      endUpdate();
+    }
   }
 
   /**
@@ -573,7 +829,8 @@ public abstract class AbstractTerminal implements ITerminal
   /**
    * Scrolls a given number of lines up, inserting empty lines at the bottom of
    * the scrolling region. The contents of the lines scrolled off the screen are
-   * lost.
+   * added to the scrollback history, if any, when the scrolling region starts
+   * at the top of the screen, otherwise they are lost.
    * 
    * @param lines
    *          the number of lines to scroll up, > 0.
@@ -581,9 +838,58 @@ public abstract class AbstractTerminal implements ITerminal
    */
   public void scrollUp( final int lines )
   {
+    final Scrollback scrollback = m_scrollback;
+    if ( ( scrollback != null ) && ( m_firstScrollLine == 0 ) && ( lines > 0 ) && !isAlternateScreen() )
+    {
+      // Retain the lines that are scrolled off the top of the screen...
+      int n = Math.min( lines, m_lastScrollLine + 1 );
+      for ( int row = 0; row < n; row++ )
+      {
+        TextBuffer.Line line = m_buffer.getLine( row );
+        scrollback.add( line.m_chars, line.m_attrs, line.m_codePoints, getWidth(), line.m_wrapped );
+      }
+    }
+
     scrollUp( m_firstScrollLine, m_lastScrollLine, lines );
   }
 
+  /**
+   * Shows the alternate or the normal screen.
+   * <p>
+   * Both screens are retained, and switching between them only swaps them and
+   * redraws the entire screen, without copying any cells. The alternate screen
+   * is created the first time it is shown. Lines scrolled off the alternate
+   * screen are not retained in the scrollback history.
+   * </p>
+   * 
+   * @param enable
+   *          <code>true</code> to show the alternate screen, <code>false</code>
+   *          to show the normal screen.
+   */
+  public void setAlternateScreen( boolean enable )
+  {
+    if ( enable == isAlternateScreen() )
+    {
+      // Nothing to do...
+      return;
+    }
+
+    TextBuffer buffer = m_inactiveBuffer;
+    if ( buffer == null )
+    {
+      buffer = new TextBuffer( m_width, m_height );
+    }
+    // Snapshots of the shown screen should be newer than all earlier ones...
+    buffer.continueVersion( m_buffer );
+
+    m_inactiveBuffer = m_buffer;
+    m_buffer = buffer;
+    m_options.set( OPTION_ALTERNATE_SCREEN, enable );
+
+    // The entire screen should be redrawn...
+    m_damage.markAll();
+  }
+
   /**
    * Enables or disables the auto-newline mode.
    * 
@@ -635,7 +941,40 @@ public abstract class AbstractTerminal implements ITerminal
       return;
     }
 
-    internalSetDimensions( newWidth, newHeight );
+    beginUpdate();
+    try
+    {
+      internalSetDimensions( newWidth, newHeight );
+    }
+    finally
+    {
+      endUpdate();
+    }
+  }
+
+  /**
+   * Sets the minimal interval between two notifications of the frontend, by
+   * default 1/60th of a second.
+   * <p>
+   * The changes made within an interval are coalesced into a single frame,
+   * showing the latest contents of the screen, which is delivered at the end
+   * of the interval by another thread. A change made after an idle interval is
+   * delivered right away.
+   * </p>
+   * 
+   * @param interval
+   *          the frame interval, >= 0. If 0, the frontend is notified after
+   *          each call to one of the <code>read</code> methods;
+   * @param unit
+   *          the time unit of the given interval, cannot be <code>null</code>.
+   */
+  public void setFrameInterval( final long interval, final TimeUnit unit )
+  {
+    if ( unit == null )
+    {
+      throw new IllegalArgumentException( "Unit cannot be null!" );
+    }
+    m_frames.setInterval( unit.toNanos( interval ) );
   }
 
   /**
@@ -663,15 +1002,6 @@ public abstract class AbstractTerminal implements ITerminal
     m_options.set( OPTION_INSERT, enable );
   }
 
-  /**
-   * @param logLevel
-   *          the logLevel to set
-   */
-  public void setLogLevel( int logLevel )
-  {
-    m_logLevel = logLevel;
-  }
-
   /**
    * Enables or disables the origin mode.
    * <p>
@@ -700,7 +1030,7 @@ public abstract class AbstractTerminal implements ITerminal
   {
     m_options.set( OPTION_REVERSE, enable );
     // The entire screen should be redrawn...
-    m_heatMap.set( getFirstAbsoluteIndex(), getLastAbsoluteIndex() );
+    m_damage.markAll();
 
     if ( m_frontend != null )
     {
@@ -732,6 +1062,44 @@ public abstract class AbstractTerminal implements ITerminal
     m_lastScrollLine = Math.min( getHeight() - 1, bottomIndex );
   }
 
+  /**
+   * Sets the history to retain the lines that are scrolled off the screen in.
+   * 
+   * @param scrollback
+   *          the scrollback history to set, can be <code>null</code> to not
+   *          retain any lines scrolled off the screen.
+   * @see Scrollback
+   */
+  public void setScrollback( Scrollback scrollback )
+  {
+    m_scrollback = scrollback;
+  }
+
+  /**
+   * Sets the sink to trace the handled sequences to, which can be used to
+   * record them for later inspection.
+   * 
+   * @param traceSink
+   *          the trace sink to set, can be <code>null</code> to disable
+   *          tracing.
+   */
+  public void setTraceSink( ITraceSink traceSink )
+  {
+    m_traceSink = traceSink;
+  }
+
+  /**
+   * Returns a stamp for an optimistic read of the state of this terminal, to
+   * be validated with {@link #validate(long)} after the state is read.
+   * 
+   * @return the stamp, which is never validated if a batch of changes is in
+   *         progress.
+   */
+  public final long tryOptimisticRead()
+  {
+    return m_sequence;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -751,6 +1119,21 @@ public abstract class AbstractTerminal implements ITerminal
     return sb.toString();
   }
 
+  /**
+   * Returns whether the state read since the given stamp was obtained is
+   * consistent, that is, no batch of changes was in progress or completed in
+   * the meantime.
+   * 
+   * @param stamp
+   *          the stamp returned by {@link #tryOptimisticRead()}.
+   * @return <code>true</code> if the state read is consistent,
+   *         <code>false</code> if it should be read again.
+   */
+  public final boolean validate( final long stamp )
+  {
+    return ( ( stamp & 1L ) == 0L ) && ( m_sequence == stamp );
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -771,6 +1154,58 @@ public abstract class AbstractTerminal implements ITerminal
     return length;
   }
 
+  /**
+   * Starts a batch of changes, making the optimistic reads of other threads
+   * fail until the batch is ended. Batches can be nested.
+   * 
+   * @see #endUpdate()
+   */
+  protected final void beginUpdate()
+  {
+    if ( m_updateDepth++ == 0 )
+    {
+      m_sequence++;
+    }
+  }
+
+  /**
+   * Changes the attributes of a rectangular area of the screen in bulk, by
+   * clearing, setting and toggling the given attribute bits, in that order.
+   * The area is bound to the screen.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param setMask
+   *          the attribute bits to set;
+   * @param clearMask
+   *          the attribute bits to clear;
+   * @param toggleMask
+   *          the attribute bits to toggle.
+   */
+  protected final void changeAttributes( final int fromRow, final int fromColumn, final int toRow,
+      final int toColumn, final int setMask, final int clearMask, final int toggleMask )
+  {
+    int top = Math.max( 0, fromRow );
+    int left = Math.max( 0, fromColumn );
+    int bottom = Math.min( getHeight(), toRow );
+    int right = Math.min( getWidth(), toColumn );
+    if ( ( top >= bottom ) || ( left >= right ) )
+    {
+      return;
+    }
+
+    // The protected attribute is only changed by DECSCA...
+    int mask = ~TextAttributes.PROTECTED_MASK;
+    m_buffer.changeAttributes( top, left, bottom, right, setMask & mask, clearMask & mask, toggleMask & mask );
+    m_damage.markRect( top, left, bottom, right );
+  }
+
   /**
    * Clears all tab stops.
    */
@@ -823,10 +1258,7 @@ public abstract class AbstractTerminal implements ITerminal
         throw new IllegalArgumentException( "Invalid clear line mode!" );
     }
 
-    for ( int i = 0; i < length; i++ )
-    {
-      removeChar( idx++, keepProtectedCells );
-    }
+    eraseRange( idx, idx + length, keepProtectedCells );
   }
 
   /**
@@ -848,38 +1280,17 @@ public abstract class AbstractTerminal implements ITerminal
     {
       case 0:
         // erase from cursor to end of screen...
-        int lastIdx = getLastAbsoluteIndex();
-        for ( int i = absoluteIndex; i <= lastIdx; i++ )
-        {
-          removeChar( i, keepProtectedCells );
-        }
+        eraseRange( absoluteIndex, getLastAbsoluteIndex() + 1, keepProtectedCells );
         break;
       case 1:
         // erase from cursor to start of screen...
-        int firstIdx = getFirstAbsoluteIndex();
-        for ( int i = firstIdx; i <= absoluteIndex; i++ )
-        {
-          removeChar( i, keepProtectedCells );
-        }
+        eraseRange( getFirstAbsoluteIndex(), absoluteIndex + 1, keepProtectedCells );
         break;
       case 2:
         // erase entire screen...
-        if ( keepProtectedCells )
-        {
-          // Be selective in what we remove...
-          for ( int i = getFirstAbsoluteIndex(), last = getLastAbsoluteIndex(); i <= last; i++ )
-          {
-            removeChar( i, keepProtectedCells );
-          }
-        }
-        else
-        {
-          // Don't be selective in what we remove...
-          Arrays.fill( m_buffer, getFirstAbsoluteIndex(), getLastAbsoluteIndex() + 1, new TextCell( ' ',
-              getAttributes() ) );
-          // Update the heat map...
-          m_heatMap.set( getFirstAbsoluteIndex(), getLastAbsoluteIndex() );
-        }
+        eraseRange( getFirstAbsoluteIndex(), getLastAbsoluteIndex() + 1, keepProtectedCells );
+        // Update the damage...
+        m_damage.markAll();
         break;
 
       default:
@@ -887,6 +1298,40 @@ public abstract class AbstractTerminal implements ITerminal
     }
   }
 
+  /**
+   * Copies a rectangular area of the screen in bulk to another position on
+   * the screen. The source and destination areas may overlap, and are both
+   * bound to the screen.
+   * 
+   * @param fromRow
+   *          the first row of the source area (inclusive);
+   * @param fromColumn
+   *          the first column of the source area (inclusive);
+   * @param toRow
+   *          the last row of the source area (exclusive);
+   * @param toColumn
+   *          the last column of the source area (exclusive);
+   * @param destRow
+   *          the row to copy the first row of the area to;
+   * @param destColumn
+   *          the column to copy the first column of the area to.
+   */
+  protected final void copyRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn,
+      final int destRow, final int destColumn )
+  {
+    int top = Math.max( 0, fromRow );
+    int left = Math.max( 0, fromColumn );
+    int rows = Math.min( Math.min( getHeight(), toRow ) - top, getHeight() - destRow );
+    int columns = Math.min( Math.min( getWidth(), toColumn ) - left, getWidth() - destColumn );
+    if ( ( destRow < 0 ) || ( destColumn < 0 ) || ( rows <= 0 ) || ( columns <= 0 ) )
+    {
+      return;
+    }
+
+    m_buffer.copyRect( top, left, destRow, destColumn, rows, columns );
+    markRect( destRow, destColumn, destRow + rows, destColumn + columns );
+  }
+
   /**
    * Factory method for creating {@link IKeyMapper} instances.
    * 
@@ -913,20 +1358,46 @@ public abstract class AbstractTerminal implements ITerminal
     int col = ( absoluteIndex % getWidth() );
     int length = Math.max( 0, getWidth() - col - count );
 
+    // Wide characters on either side of the deleted characters are split...
+    m_buffer.splitWide( absoluteIndex );
+    if ( length > 0 )
+    {
+      m_buffer.splitWide( absoluteIndex + count );
+    }
+
     // Make room for the new characters at the end...
-    System.arraycopy( m_buffer, absoluteIndex + count, m_buffer, absoluteIndex, length );
+    m_buffer.copy( absoluteIndex + count, absoluteIndex, length );
 
     // Fill the created room with the character to insert...
     int startIdx = absoluteIndex + length;
     int endIdx = absoluteIndex + getWidth() - col;
-    Arrays.fill( m_buffer, startIdx, endIdx, new TextCell( ' ', getAttributes() ) );
+    m_buffer.fill( startIdx, endIdx, ' ', getAttributes() );
 
-    // Update the heat map for the *full* line...
-    m_heatMap.set( absoluteIndex, absoluteIndex + getWidth() - col );
+    // Update the damage for the *full* line...
+    m_damage.markCells( absoluteIndex, absoluteIndex + getWidth() - col );
 
     return absoluteIndex;
   }
 
+  /**
+   * Provides the actual implementation for {@link #read(ByteBuffer, Charset)}.
+   * <p>
+   * By default, the given bytes are decoded as a whole and passed to
+   * {@link #doReadInput(CharSequence)}. Subclasses can override this method to
+   * decode the bytes in a more efficient way.
+   * </p>
+   * 
+   * @see {@link #read(ByteBuffer, Charset)}
+   */
+  protected int doReadInput( ByteBuffer bytes, Charset charset ) throws IOException
+  {
+    int length = bytes.remaining();
+
+    doReadInput( charset.decode( bytes ) );
+
+    return length;
+  }
+
   /**
    * Provides the actual implementation for {@link #read(CharSequence)}.
    * 
@@ -935,21 +1406,122 @@ public abstract class AbstractTerminal implements ITerminal
   protected abstract int doReadInput( CharSequence chars ) throws IOException;
 
   /**
-   * Returns the absolute index according to the current cursor position.
-   * 
-   * @return an absolute index of the cursor position, >= 0.
+   * Ends a batch of changes started by {@link #beginUpdate()}.
    */
-  protected final int getAbsoluteCursorIndex()
+  protected final void endUpdate()
   {
-    return getAbsoluteIndex( m_cursor.getX(), m_cursor.getY() );
+    if ( --m_updateDepth == 0 )
+    {
+      m_sequence++;
+    }
   }
 
   /**
-   * Returns the absolute index according to the given X,Y-position.
+   * Erases a range of cells in bulk, using the current attributes. The range
+   * can span multiple lines and is bound to the screen.
    * 
-   * @param x
-   *          the X-position;
-   * @param y
+   * @param fromIndex
+   *          the absolute index of the first cell to erase (inclusive);
+   * @param toIndex
+   *          the absolute index of the last cell to erase (exclusive);
+   * @param keepProtectedCells
+   *          <code>true</code> to honor the 'protected' option in text cells
+   *          leaving those cells as-is, <code>false</code> to disregard this
+   *          option and clear all text cells.
+   */
+  protected final void eraseRange( final int fromIndex, final int toIndex, final boolean keepProtectedCells )
+  {
+    int from = Math.max( getFirstAbsoluteIndex(), fromIndex );
+    int to = Math.min( getLastAbsoluteIndex() + 1, toIndex );
+    if ( from >= to )
+    {
+      return;
+    }
+
+    m_buffer.erase( from, to, ' ', getAttributes(), keepProtectedCells );
+    markWritten( from, to );
+  }
+
+  /**
+   * Erases a rectangular area of the screen in bulk, using the current
+   * attributes. The area is bound to the screen.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param keepProtectedCells
+   *          <code>true</code> to honor the 'protected' option in text cells
+   *          leaving those cells as-is, <code>false</code> to disregard this
+   *          option and clear all text cells.
+   */
+  protected final void eraseRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn,
+      final boolean keepProtectedCells )
+  {
+    int top = Math.max( 0, fromRow );
+    int left = Math.max( 0, fromColumn );
+    int bottom = Math.min( getHeight(), toRow );
+    int right = Math.min( getWidth(), toColumn );
+    if ( ( top >= bottom ) || ( left >= right ) )
+    {
+      return;
+    }
+
+    m_buffer.eraseRect( top, left, bottom, right, ' ', getAttributes(), keepProtectedCells );
+    markRect( top, left, bottom, right );
+  }
+
+  /**
+   * Fills a rectangular area of the screen in bulk with the given character,
+   * using the current attributes. The area is bound to the screen.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param ch
+   *          the character to fill the area with.
+   */
+  protected final void fillRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn,
+      final char ch )
+  {
+    int top = Math.max( 0, fromRow );
+    int left = Math.max( 0, fromColumn );
+    int bottom = Math.min( getHeight(), toRow );
+    int right = Math.min( getWidth(), toColumn );
+    if ( ( top >= bottom ) || ( left >= right ) )
+    {
+      return;
+    }
+
+    m_buffer.fillRect( top, left, bottom, right, ch, getAttributes() );
+    markRect( top, left, bottom, right );
+  }
+
+  /**
+   * Returns the absolute index according to the current cursor position.
+   * 
+   * @return an absolute index of the cursor position, >= 0.
+   */
+  protected final int getAbsoluteCursorIndex()
+  {
+    return getAbsoluteIndex( m_cursor.getX(), m_cursor.getY() );
+  }
+
+  /**
+   * Returns the absolute index according to the given X,Y-position.
+   * 
+   * @param x
+   *          the X-position;
+   * @param y
    *          the Y-position.
    * @return an absolute index of the cursor position, >= 0.
    */
@@ -968,15 +1540,18 @@ public abstract class AbstractTerminal implements ITerminal
 
   /**
    * Returns the cell at the given absolute index.
+   * <p>
+   * As the screen is not stored as text cells, each call to this method
+   * creates a new text cell.
+   * </p>
    * 
    * @param absoluteIndex
    *          the absolute of the cell to retrieve.
-   * @return the text cell at the given index, can be <code>null</code> if no
-   *         cell is defined.
+   * @return the text cell at the given index, never <code>null</code>.
    */
   protected final ITextCell getCellAt( final int absoluteIndex )
   {
-    return m_buffer[absoluteIndex];
+    return m_buffer.getCell( absoluteIndex );
   }
 
   /**
@@ -1010,6 +1585,56 @@ public abstract class AbstractTerminal implements ITerminal
     return getAbsoluteIndex( getWidth() - 1, getHeight() - 1 );
   }
 
+  /**
+   * Returns the last line of the scroll region, regardless of the origin mode.
+   * 
+   * @return the index of the last line of the scroll region, >= 0 &&
+   *         < {@link #getHeight()}.
+   */
+  protected final int getScrollRegionBottom()
+  {
+    return m_lastScrollLine;
+  }
+
+  /**
+   * Returns the first line of the scroll region, regardless of the origin
+   * mode.
+   * 
+   * @return the index of the first line of the scroll region, >= 0 &&
+   *         < {@link #getHeight()}.
+   */
+  protected final int getScrollRegionTop()
+  {
+    return m_firstScrollLine;
+  }
+
+  /**
+   * Inserts a single character at the given absolute index, shifting the
+   * remainder of the line to the right. Wide characters make room for two
+   * cells.
+   * 
+   * @param absoluteIndex
+   *          the index to insert the character at, >= 0;
+   * @param ch
+   *          the character to insert. Surrogate pairs are combined into a
+   *          single character.
+   * @return the new absolute index.
+   */
+  protected final int insertChar( final int absoluteIndex, final char ch )
+  {
+    int codePoint = toCodePoint( ch );
+    if ( codePoint < 0 )
+    {
+      // Wait for the low surrogate...
+      return absoluteIndex;
+    }
+
+    int width = ( getWidth() > 1 ) ? CharacterWidth.getWidth( codePoint ) : 1;
+    insertChars( absoluteIndex, ' ', width );
+
+    return writeCodePoint( absoluteIndex, codePoint );
+  }
+
   /**
    * Inserts a given character at the absolute index, first shifting the
    * remaining characters on that line to the right (possibly shifting text of
@@ -1026,16 +1651,25 @@ public abstract class AbstractTerminal implements ITerminal
   protected final int insertChars( final int absoluteIndex, final char ch, final int count )
   {
     int col = absoluteIndex % getWidth();
-    int length = getWidth() - col - count;
+    int n = Math.min( count, getWidth() - col );
+    int length = getWidth() - col - n;
+
+    // Wide characters at the insertion point, or shifted off the line, are
+    // split...
+    m_buffer.splitWide( absoluteIndex );
+    if ( length > 0 )
+    {
+      m_buffer.splitWide( absoluteIndex + length );
+    }
 
     // Make room for the new characters...
-    System.arraycopy( m_buffer, absoluteIndex, m_buffer, absoluteIndex + count, length );
+    m_buffer.copy( absoluteIndex, absoluteIndex + n, length );
 
     // Fill the created room with the character to insert...
-    Arrays.fill( m_buffer, absoluteIndex, absoluteIndex + count, new TextCell( ch, getAttributes() ) );
+    m_buffer.fill( absoluteIndex, absoluteIndex + n, ch, getAttributes() );
 
-    // Update the heat map for the *full* line...
-    m_heatMap.set( absoluteIndex, absoluteIndex + getWidth() - col );
+    // Update the damage for the *full* line...
+    m_damage.markCells( absoluteIndex, absoluteIndex + getWidth() - col );
 
     return absoluteIndex;
   }
@@ -1049,22 +1683,6 @@ public abstract class AbstractTerminal implements ITerminal
     return m_wrapped;
   }
 
-  /**
-   * Logs the given text verbatimely at loglevel 0 or higher.
-   * 
-   * @param text
-   *          the text to log, cannot be <code>null</code>.
-   */
-  protected final void log( String text )
-  {
-    if ( m_logLevel < 0 )
-    {
-      return;
-    }
-
-    System.out.printf( "LOG> %s%n", text );
-  }
-
   /**
    * Removes the character at the absolute index.
    * 
@@ -1091,10 +1709,10 @@ public abstract class AbstractTerminal implements ITerminal
 
     // Clear the character at the given position, using the most current
     // attributes...
-    if ( !( keepProtectedCells && m_buffer[idx].isProtected() ) )
+    if ( !( keepProtectedCells && m_buffer.isProtected( idx ) ) )
     {
-      m_buffer[idx] = new TextCell( ' ', getAttributes() );
-      m_heatMap.set( idx );
+      m_buffer.set( idx, ' ', getAttributes() );
+      markWritten( idx, idx + 1 );
     }
 
     return idx;
@@ -1140,20 +1758,10 @@ public abstract class AbstractTerminal implements ITerminal
 
     int region = ( lastScrollLine - firstScrollLine + 1 );
     int n = Math.min( lines, region );
-    int width = getWidth();
 
-    int srcPos = firstScrollLine * width;
-    int destPos = ( n + firstScrollLine ) * width;
-    int length = ( lastScrollLine + 1 ) * width - destPos;
-
-    if ( length > 0 )
-    {
-      System.arraycopy( m_buffer, srcPos, m_buffer, destPos, length );
-    }
-
-    Arrays.fill( m_buffer, srcPos, destPos, new TextCell( ' ', getAttributes() ) );
-    // Update the heat map...
-    m_heatMap.set( srcPos, destPos );
+    m_buffer.scrollDown( firstScrollLine, lastScrollLine, n, ' ', getAttributes() );
+    // Update the damage, including the lines that are moved down...
+    m_damage.markScrolled( firstScrollLine, lastScrollLine );
   }
 
   /**
@@ -1188,20 +1796,27 @@ public abstract class AbstractTerminal implements ITerminal
 
     int region = ( lastScrollLine - firstScrollLine + 1 );
     int n = Math.min( lines, region );
-    int width = getWidth();
 
-    int srcPos = ( n + firstScrollLine ) * width;
-    int destPos = firstScrollLine * width;
-    int lastPos = ( lastScrollLine + 1 ) * width;
-    int length = lastPos - srcPos;
+    m_buffer.scrollUp( firstScrollLine, lastScrollLine, n, ' ', getAttributes() );
+    // Update the damage...
+    m_damage.markScrolled( firstScrollLine, lastScrollLine );
+  }
 
-    if ( length > 0 )
+  /**
+   * Traces that the last sequence is not handled, or not entirely, by this
+   * terminal.
+   * 
+   * @param argument
+   *          the argument (or character) that is not handled.
+   */
+  protected final void traceUnhandled( final int argument )
+  {
+    ITraceSink traceSink = m_traceSink;
+    if ( traceSink != null )
     {
-      System.arraycopy( m_buffer, srcPos, m_buffer, destPos, length );
+      m_traceParameters[0] = argument;
+      traceSink.trace( ITraceSink.UNHANDLED, ( char )0, ( char )0, ( char )0, -1L, m_traceParameters, 1 );
     }
-    Arrays.fill( m_buffer, destPos + length, srcPos + length, new TextCell( ' ', getAttributes() ) );
-    // Update the heat map...
-    m_heatMap.set( destPos, lastPos );
   }
 
   /**
@@ -1232,6 +1847,19 @@ public abstract class AbstractTerminal implements ITerminal
    */
   protected final int writeChar( final int absoluteIndex, final char ch )
   {
+    if ( CharacterWidth.isSpecial( ch ) )
+    {
+      int codePoint = toCodePoint( ch );
+      if ( codePoint < 0 )
+      {
+        // Wait for the low surrogate...
+        return absoluteIndex;
+      }
+      return writeCodePoint( absoluteIndex, codePoint );
+    }
+
+    m_highSurrogate = 0;
+
     int idx = absoluteIndex;
     int lastIdx = getAbsoluteIndex( getWidth() - 1, getLastScrollLine() );
     int width = getWidth();
@@ -1244,8 +1872,13 @@ public abstract class AbstractTerminal implements ITerminal
 
     if ( idx <= lastIdx )
     {
-      m_buffer[idx] = new TextCell( ch, getAttributes() );
-      m_heatMap.set( idx );
+      if ( m_wrapped && ( ( idx % width ) == 0 ) )
+      {
+        markSoftWrapped( idx );
+      }
+
+      m_buffer.set( idx, ch, getAttributes() );
+      markWritten( idx, idx + 1 );
     }
 
     // determine new absolute index...
@@ -1259,6 +1892,173 @@ public abstract class AbstractTerminal implements ITerminal
     return idx;
   }
 
+  /**
+   * Writes a run of characters starting at the absolute index, scrolling the
+   * screen up if beyond the last index is written.
+   * <p>
+   * This method yields the same result as calling
+   * {@link #writeChar(int, char)} for each individual character, but writes
+   * the characters per row segment at once.
+   * </p>
+   * 
+   * @param absoluteIndex
+   *          the index on which to write the first character, >= 0;
+   * @param chars
+   *          the array with characters to write, cannot be <code>null</code>;
+   * @param offset
+   *          the offset in the given array of the first character to write;
+   * @param length
+   *          the number of characters to write, >= 0.
+   * @return the absolute index after which the last character was written.
+   */
+  protected final int writeChars( final int absoluteIndex, final char[] chars, final int offset, final int length )
+  {
+    int idx = absoluteIndex;
+    int width = getWidth();
+    int lastIdx = getAbsoluteIndex( width - 1, getLastScrollLine() );
+    boolean autoWrap = isAutoWrapMode();
+    short attrs = getAttributes();
+
+    int i = offset;
+    int end = offset + length;
+    for ( int j = i; j < end; j++ )
+    {
+      if ( CharacterWidth.isSpecial( chars[j] ) )
+      {
+        // Wide characters and surrogates are written one by one...
+        while ( i < end )
+        {
+          idx = writeChar( idx, chars[i++] );
+        }
+        return idx;
+      }
+    }
+
+    m_highSurrogate = 0;
+
+    while ( i < end )
+    {
+      if ( idx > lastIdx )
+      {
+        idx -= width;
+        scrollUp( 1 );
+      }
+
+      if ( idx > lastIdx )
+      {
+        // Cannot write in bulk; fall back to the default behaviour...
+        idx = writeChar( idx, chars[i++] );
+        continue;
+      }
+
+      int col = idx % width;
+      if ( m_wrapped && ( col == 0 ) )
+      {
+        markSoftWrapped( idx );
+      }
+
+      int count = Math.min( end - i, width - col );
+      boolean lastColumn = ( col + count ) == width;
+
+      if ( lastColumn && !autoWrap )
+      {
+        // All remaining characters end up in the last column; only the last
+        // one of them remains visible...
+        m_buffer.set( idx, chars, i, count - 1, attrs );
+        m_buffer.set( idx + count - 1, chars[end - 1], attrs );
+        markWritten( idx, idx + count );
+
+        idx += count - 1;
+        i = end;
+      }
+      else
+      {
+        m_buffer.set( idx, chars, i, count, attrs );
+        markWritten( idx, idx + count );
+
+        idx += count;
+        i += count;
+      }
+
+      m_wrapped = lastColumn && autoWrap;
+    }
+
+    return idx;
+  }
+
+  /**
+   * Writes a single code point at the absolute index, scrolling the screen up
+   * if beyond the last index is written. Wide characters take two cells, and
+   * are wrapped as a whole to the next line if they do not fit.
+   * 
+   * @param absoluteIndex
+   *          the index on which to write the given code point, >= 0;
+   * @param codePoint
+   *          the code point to write.
+   * @return the next absolute index.
+   */
+  protected final int writeCodePoint( final int absoluteIndex, final int codePoint )
+  {
+    int idx = absoluteIndex;
+    int width = getWidth();
+    int lastIdx = getAbsoluteIndex( width - 1, getLastScrollLine() );
+    boolean autoWrap = isAutoWrapMode();
+    boolean wide = ( width > 1 ) && ( CharacterWidth.getWidth( codePoint ) == 2 );
+    boolean wrapped = m_wrapped;
+
+    if ( wide && ( ( idx % width ) == ( width - 1 ) ) )
+    {
+      // Does not fit on this line; wrap it as a whole, or move it back...
+      idx += autoWrap ? 1 : -1;
+      wrapped = autoWrap;
+    }
+
+    if ( idx > lastIdx )
+    {
+      idx -= width;
+      scrollUp( 1 );
+    }
+
+    int cells = wide ? 2 : 1;
+    if ( idx <= lastIdx )
+    {
+      if ( wrapped && ( ( idx % width ) == 0 ) )
+      {
+        markSoftWrapped( idx );
+      }
+
+      m_buffer.setCodePoint( idx, codePoint, wide, getAttributes() );
+      markWritten( idx, idx + cells );
+    }
+
+    // determine new absolute index...
+    boolean lastColumn = ( ( idx % width ) + cells ) == width;
+    m_wrapped = ( autoWrap && lastColumn );
+    if ( !autoWrap && lastColumn )
+    {
+      idx += cells - 1;
+    }
+    else
+    {
+      idx += cells;
+    }
+
+    return idx;
+  }
+
+  /**
+   * Clears the damage of the last snapshot if it is delivered by the frame
+   * timer, unless the screen is changed after that snapshot was taken.
+   */
+  private void clearDeliveredDamage()
+  {
+    ScreenSnapshot snapshot = m_snapshot;
+    if ( m_frames.isDelivered( snapshot ) && m_damage.equals( snapshot.getDamage() ) )
+    {
+      m_damage.clear();
+    }
+  }
+
   /**
    * @return the {@link Writer} to write the responses from this terminal to,
    *         can be <code>null</code>.
@@ -1283,34 +2083,46 @@ public abstract class AbstractTerminal implements ITerminal
    */
   private void internalSetDimensions( final int width, final int height )
   {
-    TextCell[] newBuffer = new TextCell[width * height];
-    Arrays.fill( newBuffer, new TextCell() );
-    if ( m_buffer != null )
+    TextBuffer newBuffer;
+    if ( m_buffer == null )
     {
-      int oldWidth = m_width;
+      newBuffer = new TextBuffer( width, height );
+    }
+    else if ( ( width != m_width ) && !isAlternateScreen() )
+    {
+      newBuffer = reflow( m_buffer, width, height, true /* moveCursor */);
+    }
+    else
+    {
+      // The alternate screen is not re-flowed...
+      newBuffer = m_buffer.resize( width, height );
+    }
 
-      for ( int oldIdx = 0; oldIdx < m_buffer.length; oldIdx++ )
+    if ( m_inactiveBuffer != null )
+    {
+      if ( ( width != m_width ) && isAlternateScreen() )
       {
-        int oldColumn = ( oldIdx % oldWidth );
-        int oldLine = ( oldIdx / oldWidth );
-        if ( ( oldColumn >= width ) || ( oldLine >= height ) )
-        {
-          continue;
-        }
-
-        int newIdx = ( oldLine * width ) + oldColumn;
-        newBuffer[newIdx] = m_buffer[oldIdx];
+        m_inactiveBuffer = reflow( m_inactiveBuffer, width, height, false /* moveCursor */);
+      }
+      else
+      {
+        m_inactiveBuffer = m_inactiveBuffer.resize( width, height );
       }
     }
 
     m_width = width;
     m_height = height;
 
+    m_tabulator.resize( width );
+
     m_firstScrollLine = 0;
     m_lastScrollLine = height - 1;
 
     m_buffer = newBuffer;
-    m_heatMap = new BitSet( newBuffer.length );
+    m_damage = new DamageMap( width, height );
+    // The entire screen should be redrawn...
+    m_damage.markAll();
+    publishSnapshot();
 
     if ( m_frontend != null )
     {
@@ -1318,4 +2130,202 @@ public abstract class AbstractTerminal implements ITerminal
       m_frontend.terminalSizeChanged( width, height );
     }
   }
+
+  /**
+   * Marks the given rectangular area as changed, including the columns
+   * directly next to it, which are blanked if a wide character is split.
+   */
+  private void markRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn )
+  {
+    m_damage.markRect( fromRow, Math.max( 0, fromColumn - 1 ), toRow, Math.min( getWidth(), toColumn + 1 ) );
+  }
+
+  /**
+   * Marks the line before the given index, which is at the start of a line,
+   * as continued on the line of the given index due to an automatic wrap.
+   */
+  private void markSoftWrapped( final int absoluteIndex )
+  {
+    int row = absoluteIndex / getWidth();
+    if ( row > 0 )
+    {
+      m_buffer.setWrapped( row - 1, true );
+    }
+  }
+
+  /**
+   * Marks the given range of written cells as changed, including the cells
+   * directly next to it, which are blanked if a wide character is split.
+   */
+  private void markWritten( final int fromIndex, final int toIndex )
+  {
+    m_damage.markCells( Math.max( 0, fromIndex - 1 ), Math.min( m_buffer.getLength(), toIndex + 1 ) );
+  }
+
+  /**
+   * Notifies the frontend about the changes of this terminal since the last
+   * notification, or schedules a notification if the last one is too recent.
+   */
+  private void notifyFrontend()
+  {
+    ITerminalFrontend frontend = m_frontend;
+    if ( ( frontend != null ) && m_frames.submit( m_snapshot, frontend ) )
+    {
+      // Mark all changes as being processed...
+      m_damage.clear();
+    }
+  }
+
+  /**
+   * Takes a snapshot of the screen and publishes it for other threads.
+   */
+  private void publishSnapshot()
+  {
+    m_snapshot = m_buffer.snapshot( m_damage.clone() );
+  }
+
+  /**
+   * Creates a new buffer with the given dimensions, re-flowing the logical
+   * lines of the given normal screen and the scrollback history, if any, to
+   * the new width. The cursor moves along with the character it is on, if
+   * the given screen is shown; otherwise the last non-blank line is kept on
+   * the screen. Lines that no longer fit on the screen are moved to the
+   * scrollback history.
+   */
+  private TextBuffer reflow( final TextBuffer buffer, final int width, final int height, final boolean moveCursor )
+  {
+    final Scrollback scrollback = m_scrollback;
+    final int oldWidth = m_width;
+    final List<TextBuffer.Line> rows = new ArrayList<TextBuffer.Line>();
+
+    LineReflow reflow = new LineReflow( width );
+    LineReflow.RowSink sink = new LineReflow.RowSink()
+    {
+      @Override
+      public void addRow( char[] chars, short[] attrs, int[] codePoints, int length, boolean wrapped )
+      {
+        TextBuffer.Line line = new TextBuffer.Line( width );
+        System.arraycopy( chars, 0, line.m_chars, 0, length );
+        System.arraycopy( attrs, 0, line.m_attrs, 0, length );
+        if ( codePoints != null )
+        {
+          line.m_codePoints = new int[width];
+          System.arraycopy( codePoints, 0, line.m_codePoints, 0, length );
+        }
+        line.updateProtected( 0, length );
+        line.m_wrapped = wrapped;
+        rows.add( line );
+      }
+    };
+
+    if ( scrollback != null )
+    {
+      // The logical line at the top of the screen can start in the
+      // scrollback; it is re-flowed together with the screen...
+      int count = scrollback.getLineCount();
+      int first = count;
+      while ( ( first > 0 ) && scrollback.isWrapped( first - 1 ) )
+      {
+        first--;
+      }
+
+      char[] chars = new char[oldWidth];
+      short[] attrs = new short[oldWidth];
+      int[] codePoints = new int[oldWidth];
+      for ( int i = first; i < count; i++ )
+      {
+        int length = scrollback.getLine( i, chars, attrs, codePoints );
+        reflow.append( chars, attrs, codePoints, length, true /* wrapped */, -1 /* markColumn */);
+      }
+
+      scrollback.reflow( width, first );
+    }
+
+    int cursorX = moveCursor ? m_cursor.getX() : 0;
+    int cursorY = moveCursor ? m_cursor.getY() : 0;
+    if ( moveCursor && m_wrapped && ( cursorX == 0 ) && ( cursorY > 0 ) )
+    {
+      // The cursor is just beyond the end of the previous line...
+      cursorX = oldWidth;
+      cursorY--;
+    }
+    cursorY = Math.min( cursorY, m_height - 1 );
+
+    // Re-flow all lines up to the last non-blank line or the cursor...
+    int lastRow = cursorY;
+    for ( int row = m_height - 1; row > lastRow; row-- )
+    {
+      if ( !buffer.getLine( row ).isBlank() )
+      {
+        lastRow = row;
+      }
+    }
+
+    int cursorRow = -1;
+    int cursorCol = 0;
+    for ( int row = 0; row <= lastRow; row++ )
+    {
+      TextBuffer.Line line = buffer.getLine( row );
+      boolean wrapped = line.m_wrapped && ( row < lastRow );
+      int markColumn = ( row == cursorY ) ? cursorX : -1;
+
+      reflow.append( line.m_chars, line.m_attrs, line.m_codePoints, oldWidth, wrapped, markColumn );
+      if ( !wrapped )
+      {
+        int firstRow = rows.size();
+        reflow.flush( sink );
+        if ( ( row >= cursorY ) && ( cursorRow < 0 ) )
+        {
+          cursorRow = firstRow + reflow.getMarkRow();
+          cursorCol = reflow.getMarkColumn();
+        }
+      }
+    }
+
+    // Keep the cursor, or the last line, on the screen...
+    int bottom = moveCursor ? cursorRow : ( rows.size() - 1 );
+    int top = Math.max( 0, bottom - height + 1 );
+    if ( scrollback != null )
+    {
+      for ( int row = 0; row < top; row++ )
+      {
+        TextBuffer.Line line = rows.get( row );
+        scrollback.add( line.m_chars, line.m_attrs, line.m_codePoints, width, line.m_wrapped );
+      }
+    }
+
+    if ( moveCursor )
+    {
+      m_cursor.setPosition( cursorCol, cursorRow - top );
+      // The cursor is only still beyond the end of a line at the start of the
+      // next line...
+      m_wrapped &= ( cursorCol == 0 );
+    }
+
+    return buffer.resize( width, height, rows.subList( top, rows.size() ) );
+  }
+
+  /**
+   * Combines the given character with a preceding high surrogate, if any.
+   * 
+   * @return the code point to write, or -1 if the given character is a high
+   *         surrogate that should be combined with the next character.
+   */
+  private int toCodePoint( final char ch )
+  {
+    char high = m_highSurrogate;
+    m_highSurrogate = 0;
+
+    if ( Character.isHighSurrogate( ch ) )
+    {
+      m_highSurrogate = ch;
+      return -1;
+    }
+    if ( Character.isLowSurrogate( ch ) )
+    {
+      // A low surrogate without a high surrogate cannot be shown...
+      return ( high != 0 ) ? Character.toCodePoint( high, ch ) : 0xFFFD;
+    }
+    return ch;
+  }
 }
@@ -0,0 +1,323 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+/**
+ * Provides a reusable, fixed-capacity store for the numeric parameters of a
+ * control sequence.
+ * <p>
+ * Parameters are kept in primitive slots. Each slot remembers whether its value
+ * was omitted (meaning the default value of the sequence applies) and whether
+ * it is a sub-parameter, that is, whether it was separated from its
+ * predecessor by a colon instead of a semicolon (as in <tt>CSI 4:3 m</tt>).
+ * Collecting parameters never allocates. The number of parameters and their
+ * values can be limited; exceeding these limits is reported to the caller, so
+ * it can abort the sequence.
+ * </p>
+ */
+final class CSIParameters
+{
+  // CONSTANTS
+
+  /**
+   * The maximum number of parameters (including sub-parameters) that can be
+   * stored.
+   */
+  public static final int CAPACITY = 32;
+
+  // VARIABLES
+
+  private final int[] m_values;
+  private int m_maxCount;
+  private int m_maxValue;
+  /** bit N is set if the value of parameter N is present. */
+  private int m_present;
+  /** bit N is set if parameter N is a sub-parameter of its predecessor. */
+  private int m_subParams;
+  private int m_count;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link CSIParameters} instance.
+   */
+  public CSIParameters()
+  {
+    m_values = new int[CAPACITY];
+    m_maxCount = CAPACITY;
+    m_maxValue = Integer.MAX_VALUE;
+    clear();
+  }
+
+  // METHODS
+
+  /**
+   * Appends a single decimal digit to the value of the current parameter,
+   * starting a new parameter if none is started yet.
+   * 
+   * @param digit
+   *          the digit to append, >= 0 && <= 9.
+   * @return <code>true</code> if the digit is appended, <code>false</code> if
+   *         the value of the parameter would exceed the maximum value, in
+   *         which case the value is left unchanged.
+   */
+  public boolean addDigit( final int digit )
+  {
+    if ( m_count == 0 )
+    {
+      m_count = 1;
+    }
+
+    int idx = m_count - 1;
+    int value = m_values[idx];
+    if ( value > ( ( m_maxValue - digit ) / 10 ) )
+    {
+      return false;
+    }
+
+    m_values[idx] = ( value * 10 ) + digit;
+    m_present |= ( 1 << idx );
+    return true;
+  }
+
+  /**
+   * Removes all parameters from this store.
+   */
+  public void clear()
+  {
+    for ( int i = 0; i < m_count; i++ )
+    {
+      m_values[i] = 0;
+    }
+    m_count = 0;
+    m_present = 0;
+    m_subParams = 0;
+  }
+
+  /**
+   * Returns the value of the parameter at the given index, falling back to the
+   * given default if the parameter is omitted, or its value is less than the
+   * given default value.
+   * 
+   * @param index
+   *          the index of the parameter to return, >= 0;
+   * @param defaultValue
+   *          the default (minimal) value of the parameter.
+   * @return an integer value, >= the given default value.
+   */
+  public int get( final int index, final int defaultValue )
+  {
+    if ( isOmitted( index ) )
+    {
+      return defaultValue;
+    }
+    return Math.max( defaultValue, m_values[index] );
+  }
+
+  /**
+   * Returns the number of parameters in this store, including all
+   * sub-parameters.
+   * 
+   * @return the number of parameters, >= 0 && <= {@link #CAPACITY}.
+   */
+  public int getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Returns the number of parameters in this store, excluding all
+   * sub-parameters.
+   * 
+   * @return the number of top-level parameters, >= 0 && <= {@link #CAPACITY}.
+   */
+  public int getTopLevelCount()
+  {
+    return getCount() - Integer.bitCount( m_subParams );
+  }
+
+  /**
+   * Returns whether this store contains any parameter.
+   * 
+   * @return <code>true</code> if there is at least one parameter (possibly
+   *         omitted), <code>false</code> otherwise.
+   */
+  public boolean isEmpty()
+  {
+    return m_count == 0;
+  }
+
+  /**
+   * Returns whether the parameter at the given index is omitted.
+   * 
+   * @param index
+   *          the index of the parameter to test, >= 0.
+   * @return <code>true</code> if the parameter has no value, or does not exist,
+   *         <code>false</code> otherwise.
+   */
+  public boolean isOmitted( final int index )
+  {
+    if ( ( index < 0 ) || ( index >= getCount() ) )
+    {
+      return true;
+    }
+    return ( m_present & ( 1 << index ) ) == 0;
+  }
+
+  /**
+   * Returns whether the parameter at the given index is a sub-parameter of its
+   * predecessor.
+   * 
+   * @param index
+   *          the index of the parameter to test, >= 0.
+   * @return <code>true</code> if the parameter was separated by a colon from
+   *         its predecessor, <code>false</code> otherwise.
+   */
+  public boolean isSubParameter( final int index )
+  {
+    if ( ( index < 0 ) || ( index >= getCount() ) )
+    {
+      return false;
+    }
+    return ( m_subParams & ( 1 << index ) ) != 0;
+  }
+
+  /**
+   * Starts a new parameter, as done by a semicolon separator.
+   * 
+   * @return <code>true</code> if a new parameter is started,
+   *         <code>false</code> if this would exceed the maximum number of
+   *         parameters.
+   */
+  public boolean nextParameter()
+  {
+    return startNext( false /* subParameter */);
+  }
+
+  /**
+   * Starts a new sub-parameter, as done by a colon separator.
+   * 
+   * @return <code>true</code> if a new sub-parameter is started,
+   *         <code>false</code> if this would exceed the maximum number of
+   *         parameters.
+   */
+  public boolean nextSubParameter()
+  {
+    return startNext( true /* subParameter */);
+  }
+
+  /**
+   * Sets the maximum number of parameters, including all sub-parameters.
+   * 
+   * @param maxCount
+   *          the maximum number of parameters, >= 1 && <= {@link #CAPACITY}.
+   */
+  public void setMaxCount( final int maxCount )
+  {
+    m_maxCount = maxCount;
+  }
+
+  /**
+   * Sets the maximum value of a single parameter.
+   * 
+   * @param maxValue
+   *          the maximum value of a parameter, >= 0.
+   */
+  public void setMaxValue( final int maxValue )
+  {
+    m_maxValue = maxValue;
+  }
+
+  /**
+   * Copies the values of all top-level parameters into the given array.
+   * Omitted parameters are copied as the given default value.
+   * 
+   * @param dest
+   *          the array to copy the values into, should have a length of at
+   *          least {@link #getTopLevelCount()};
+   * @param defaultValue
+   *          the value to use for omitted parameters.
+   * @return the given array, never <code>null</code>.
+   */
+  public int[] toArray( final int[] dest, final int defaultValue )
+  {
+    for ( int i = 0, j = 0, count = getCount(); ( i < count ) && ( j < dest.length ); i++ )
+    {
+      if ( !isSubParameter( i ) )
+      {
+        dest[j++] = get( i, defaultValue );
+      }
+    }
+    return dest;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0, count = getCount(); i < count; i++ )
+    {
+      if ( i > 0 )
+      {
+        sb.append( isSubParameter( i ) ? ':' : ';' );
+      }
+      if ( !isOmitted( i ) )
+      {
+        sb.append( m_values[i] );
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Starts a new (sub-)parameter.
+   * 
+   * @param subParameter
+   *          <code>true</code> if the new parameter is a sub-parameter,
+   *          <code>false</code> otherwise.
+   * @return <code>true</code> if a new parameter is started,
+   *         <code>false</code> if this would exceed the maximum number of
+   *         parameters.
+   */
+  private boolean startNext( final boolean subParameter )
+  {
+    if ( m_count == 0 )
+    {
+      // A leading separator denotes an omitted first parameter...
+      m_count = 1;
+    }
+    if ( m_count >= m_maxCount )
+    {
+      return false;
+    }
+
+    int idx = m_count++;
+    if ( subParameter )
+    {
+      m_subParams |= ( 1 << idx );
+    }
+    return true;
+  }
+}
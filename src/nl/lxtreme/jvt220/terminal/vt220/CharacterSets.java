@@ -699,9 +699,21 @@ public final class CharacterSets
    */
   public static char getChar( char original, GraphicSet gl, GraphicSet gr )
   {
-    Object[] mapping = getMapping( original, gl, gr );
-
-    int ch = ( ( Integer )mapping[0] ).intValue();
+    int ch;
+    if ( original >= GL_START && original <= GL_END )
+    {
+      // Most common case; avoid the creation of a mapping...
+      ch = gl.map( original, original - GL_START );
+    }
+    else if ( original >= GR_START && original <= GR_END )
+    {
+      ch = gr.map( original, original - GR_START );
+    }
+    else
+    {
+      Object[] mapping = getMapping( original, gl, gr );
+      ch = ( ( Integer )mapping[0] ).intValue();
+    }
     if ( ch > 0 )
     {
       return ( char )ch;
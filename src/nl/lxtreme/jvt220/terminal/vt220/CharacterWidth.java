@@ -0,0 +1,122 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+/**
+ * Provides the number of columns a Unicode character takes on the screen.
+ * <p>
+ * Characters in the East Asian Wide (W) and Fullwidth (F) ranges take two
+ * columns, all other characters take a single column. Combining characters are
+ * not treated specially.
+ * </p>
+ */
+final class CharacterWidth
+{
+  // CONSTANTS
+
+  /** the first code point that can take two columns. */
+  private static final int FIRST_WIDE = 0x1100;
+
+  /** the sorted ranges of wide characters, as first and last code point. */
+  private static final int[] WIDE_RANGES = {
+      0x1100, 0x115F, // Hangul Jamo
+      0x2329, 0x232A, // angle brackets
+      0x2E80, 0x303E, // CJK radicals ... CJK symbols and punctuation
+      0x3041, 0x33FF, // Hiragana ... CJK compatibility
+      0x3400, 0x4DBF, // CJK unified ideographs extension A
+      0x4E00, 0x9FFF, // CJK unified ideographs
+      0xA000, 0xA4CF, // Yi syllables and radicals
+      0xA960, 0xA97F, // Hangul Jamo extended A
+      0xAC00, 0xD7A3, // Hangul syllables
+      0xF900, 0xFAFF, // CJK compatibility ideographs
+      0xFE10, 0xFE19, // vertical forms
+      0xFE30, 0xFE6F, // CJK compatibility forms, small form variants
+      0xFF00, 0xFF60, // fullwidth forms
+      0xFFE0, 0xFFE6, // fullwidth signs
+      0x1F300, 0x1F64F, // miscellaneous symbols and pictographs, emoticons
+      0x1F900, 0x1F9FF, // supplemental symbols and pictographs
+      0x20000, 0x2FFFD, // supplementary ideographic plane
+      0x30000, 0x3FFFD, // tertiary ideographic plane
+  };
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link CharacterWidth} instance.
+   */
+  private CharacterWidth()
+  {
+    // Nop
+  }
+
+  // METHODS
+
+  /**
+   * Returns the number of columns the given code point takes on the screen.
+   * 
+   * @param codePoint
+   *          the code point to return the width for.
+   * @return 1 or 2.
+   */
+  public static int getWidth( final int codePoint )
+  {
+    if ( codePoint < FIRST_WIDE )
+    {
+      // Most common case...
+      return 1;
+    }
+
+    int low = 0;
+    int high = ( WIDE_RANGES.length >> 1 ) - 1;
+    while ( low <= high )
+    {
+      int mid = ( low + high ) >>> 1;
+      if ( codePoint < WIDE_RANGES[mid << 1] )
+      {
+        high = mid - 1;
+      }
+      else if ( codePoint > WIDE_RANGES[( mid << 1 ) + 1] )
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        return 2;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns whether the given character might take two columns, or is part of
+   * a surrogate pair, so it cannot be written as a single narrow cell.
+   * 
+   * @param ch
+   *          the character to test.
+   * @return <code>true</code> if the given character needs special treatment,
+   *         <code>false</code> if it always takes a single column.
+   */
+  public static boolean isSpecial( final char ch )
+  {
+    return ch >= FIRST_WIDE;
+  }
+}
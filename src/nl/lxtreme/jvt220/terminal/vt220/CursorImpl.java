@@ -32,9 +32,10 @@ public class CursorImpl implements ICursor
   // VARIABLES
 
   private int m_blinkRate;
-  private boolean m_visible;
-  private int m_x;
-  private int m_y;
+  // Read by other threads, see AbstractTerminal#tryOptimisticRead()...
+  private volatile boolean m_visible;
+  private volatile int m_x;
+  private volatile int m_y;
 
   // CONSTRUCTORS
 
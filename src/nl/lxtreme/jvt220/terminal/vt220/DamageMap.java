@@ -0,0 +1,332 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.util.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+
+
+/**
+ * Provides an {@link IDamageMap} that keeps a span of changed columns per row,
+ * so marking a range of cells as changed takes constant time, and iterating
+ * over the changes is proportional to the number of changed rows.
+ */
+public final class DamageMap implements IDamageMap, Cloneable
+{
+  // VARIABLES
+
+  private final int m_width;
+  private final int m_height;
+  /** the first changed column per row. */
+  private int[] m_minColumns;
+  /** the column after the last changed column per row, 0 if unchanged. */
+  private int[] m_maxColumns;
+  private BitSet m_dirtyRows;
+  private boolean m_fullScreen;
+  private boolean m_scrolled;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new, empty, {@link DamageMap} instance.
+   * 
+   * @param width
+   *          the width of the screen, in columns, > 0;
+   * @param height
+   *          the height of the screen, in lines, > 0.
+   */
+  public DamageMap( final int width, final int height )
+  {
+    if ( width <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid width!" );
+    }
+    if ( height <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid height!" );
+    }
+
+    m_width = width;
+    m_height = height;
+    m_minColumns = new int[height];
+    m_maxColumns = new int[height];
+    m_dirtyRows = new BitSet( height );
+  }
+
+  // METHODS
+
+  /**
+   * Clears all changes.
+   */
+  public void clear()
+  {
+    for ( int row = m_dirtyRows.nextSetBit( 0 ); row >= 0; row = m_dirtyRows.nextSetBit( row + 1 ) )
+    {
+      m_minColumns[row] = 0;
+      m_maxColumns[row] = 0;
+    }
+    m_dirtyRows.clear();
+    m_fullScreen = false;
+    m_scrolled = false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public DamageMap clone()
+  {
+    try
+    {
+      DamageMap clone = ( DamageMap )super.clone();
+      clone.m_minColumns = m_minColumns.clone();
+      clone.m_maxColumns = m_maxColumns.clone();
+      clone.m_dirtyRows = ( BitSet )m_dirtyRows.clone();
+      return clone;
+    }
+    catch ( CloneNotSupportedException e )
+    {
+      throw new RuntimeException( "Cloning not supported!?!" );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals( Object object )
+  {
+    if ( this == object )
+    {
+      return true;
+    }
+
+    if ( ( object == null ) || getClass() != object.getClass() )
+    {
+      return false;
+    }
+
+    final DamageMap other = ( DamageMap )object;
+    return ( m_width == other.m_width ) && ( m_fullScreen == other.m_fullScreen )
+        && ( m_scrolled == other.m_scrolled ) && m_dirtyRows.equals( other.m_dirtyRows )
+        && Arrays.equals( m_minColumns, other.m_minColumns ) && Arrays.equals( m_maxColumns, other.m_maxColumns );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMaxColumn( final int row )
+  {
+    return m_maxColumns[row];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMinColumn( final int row )
+  {
+    return m_minColumns[row];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + m_dirtyRows.hashCode();
+    result = prime * result + Arrays.hashCode( m_maxColumns );
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isDirty( final int row )
+  {
+    return m_dirtyRows.get( row );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isEmpty()
+  {
+    return m_dirtyRows.isEmpty();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isFullScreen()
+  {
+    return m_fullScreen;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isScrolled()
+  {
+    return m_scrolled;
+  }
+
+  /**
+   * Marks the given range of columns of a single row as changed.
+   * 
+   * @param row
+   *          the row to mark, >= 0 && < height;
+   * @param fromColumn
+   *          the first column to mark (inclusive);
+   * @param toColumn
+   *          the last column to mark (exclusive), > fromColumn.
+   */
+  public void mark( final int row, final int fromColumn, final int toColumn )
+  {
+    if ( m_dirtyRows.get( row ) )
+    {
+      if ( fromColumn < m_minColumns[row] )
+      {
+        m_minColumns[row] = fromColumn;
+      }
+      if ( toColumn > m_maxColumns[row] )
+      {
+        m_maxColumns[row] = toColumn;
+      }
+    }
+    else
+    {
+      m_minColumns[row] = fromColumn;
+      m_maxColumns[row] = toColumn;
+      m_dirtyRows.set( row );
+    }
+  }
+
+  /**
+   * Marks the entire screen as changed.
+   */
+  public void markAll()
+  {
+    markRows( 0, m_height - 1 );
+    m_fullScreen = true;
+  }
+
+  /**
+   * Marks the given range of cells as changed. The range can span multiple
+   * rows.
+   * 
+   * @param fromIndex
+   *          the index of the first cell to mark (inclusive);
+   * @param toIndex
+   *          the index of the last cell to mark (exclusive).
+   */
+  public void markCells( final int fromIndex, final int toIndex )
+  {
+    if ( fromIndex >= toIndex )
+    {
+      return;
+    }
+
+    int firstRow = fromIndex / m_width;
+    int lastRow = ( toIndex - 1 ) / m_width;
+    if ( firstRow == lastRow )
+    {
+      mark( firstRow, fromIndex - ( firstRow * m_width ), toIndex - ( firstRow * m_width ) );
+    }
+    else
+    {
+      mark( firstRow, fromIndex - ( firstRow * m_width ), m_width );
+      if ( lastRow > firstRow + 1 )
+      {
+        markRows( firstRow + 1, lastRow - 1 );
+      }
+      mark( lastRow, 0, toIndex - ( lastRow * m_width ) );
+    }
+  }
+
+  /**
+   * Marks the given rectangular area as changed.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive), > fromColumn.
+   */
+  public void markRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn )
+  {
+    for ( int row = fromRow; row < toRow; row++ )
+    {
+      mark( row, fromColumn, toColumn );
+    }
+  }
+
+  /**
+   * Marks the given rows entirely as changed.
+   * 
+   * @param firstRow
+   *          the first row to mark, >= 0;
+   * @param lastRow
+   *          the last row to mark (inclusive), >= firstRow.
+   */
+  public void markRows( final int firstRow, final int lastRow )
+  {
+    Arrays.fill( m_minColumns, firstRow, lastRow + 1, 0 );
+    Arrays.fill( m_maxColumns, firstRow, lastRow + 1, m_width );
+    m_dirtyRows.set( firstRow, lastRow + 1 );
+  }
+
+  /**
+   * Marks the given rows as scrolled, and therefore entirely changed.
+   * 
+   * @param firstRow
+   *          the first row of the scrolled region, >= 0;
+   * @param lastRow
+   *          the last row of the scrolled region (inclusive), >= firstRow.
+   */
+  public void markScrolled( final int firstRow, final int lastRow )
+  {
+    markRows( firstRow, lastRow );
+    m_scrolled = true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int nextDirtyRow( final int fromRow )
+  {
+    return m_dirtyRows.nextSetBit( fromRow );
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.util.concurrent.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+
+
+/**
+ * Coalesces the snapshots of a terminal into frames, and delivers at most one
+ * frame per interval to its frontend.
+ * <p>
+ * The snapshot of each batch of changes replaces the snapshot that is not yet
+ * delivered, so the latest one wins; its damage includes all changes since the
+ * last delivered frame. If the last frame was delivered at least an interval
+ * ago, a snapshot is delivered right away, so the first change after an idle
+ * period is shown without delay. Otherwise, it is delivered by a timer thread
+ * at the end of the interval, also if no further changes follow. A frame that
+ * the frontend is not listening to is not lost, but retried an interval later.
+ * </p>
+ */
+final class FrameScheduler implements Runnable
+{
+  // CONSTANTS
+
+  /** the default interval between two frames, for 60 frames per second. */
+  static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toNanos( 1 ) / 60;
+  /** the minimal delay before retrying a frame the frontend did not accept. */
+  private static final long MIN_RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+  {
+    @Override
+    public Thread newThread( final Runnable runnable )
+    {
+      Thread thread = new Thread( runnable, "Terminal frames" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  } );
+
+  // VARIABLES
+
+  private long m_interval;
+  private ITerminalFrontend m_frontend;
+  /** the snapshot to deliver, null if there is none. */
+  private ScreenSnapshot m_pending;
+  /** the last delivered snapshot, null if there is none. */
+  private ScreenSnapshot m_delivered;
+  /** the time at which the last snapshot was delivered, in nanoseconds. */
+  private long m_lastFrame;
+  /** the scheduled delivery of the pending snapshot, null if there is none. */
+  private ScheduledFuture<?> m_timer;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link FrameScheduler} instance with the default interval.
+   */
+  FrameScheduler()
+  {
+    m_interval = DEFAULT_INTERVAL;
+  }
+
+  // METHODS
+
+  /**
+   * Cancels the delivery of the pending snapshot, if any.
+   */
+  synchronized void cancel()
+  {
+    if ( m_timer != null )
+    {
+      m_timer.cancel( false /* mayInterruptIfRunning */);
+      m_timer = null;
+    }
+    m_pending = null;
+  }
+
+  /**
+   * @return the interval between two frames, in nanoseconds, >= 0.
+   */
+  synchronized long getInterval()
+  {
+    return m_interval;
+  }
+
+  /**
+   * Returns whether the given snapshot is the last delivered one.
+   * 
+   * @param snapshot
+   *          the snapshot to test, can be <code>null</code>.
+   * @return <code>true</code> if the given snapshot is delivered last,
+   *         <code>false</code> otherwise.
+   */
+  synchronized boolean isDelivered( final ScreenSnapshot snapshot )
+  {
+    return ( snapshot != null ) && ( snapshot == m_delivered );
+  }
+
+  /**
+   * Delivers the pending snapshot once its interval has passed.
+   */
+  @Override
+  public synchronized void run()
+  {
+    m_timer = null;
+    if ( m_pending != null )
+    {
+      deliver( System.nanoTime() );
+    }
+  }
+
+  /**
+   * Sets the interval between two frames.
+   * 
+   * @param interval
+   *          the interval, in nanoseconds, >= 0. If 0, each snapshot is
+   *          delivered right away.
+   */
+  synchronized void setInterval( final long interval )
+  {
+    if ( interval < 0 )
+    {
+      throw new IllegalArgumentException( "Invalid interval!" );
+    }
+    m_interval = interval;
+  }
+
+  /**
+   * Submits the snapshot of a batch of changes, delivering it right away if
+   * the last frame was delivered at least an interval ago.
+   * 
+   * @param snapshot
+   *          the snapshot to deliver, cannot be <code>null</code>;
+   * @param frontend
+   *          the frontend to deliver the snapshot to, cannot be
+   *          <code>null</code>.
+   * @return <code>true</code> if the snapshot is delivered right away,
+   *         <code>false</code> if it is delivered later.
+   */
+  synchronized boolean submit( final ScreenSnapshot snapshot, final ITerminalFrontend frontend )
+  {
+    m_pending = snapshot;
+    m_frontend = frontend;
+
+    if ( m_timer != null )
+    {
+      // The pending frame is already scheduled...
+      return false;
+    }
+
+    long now = System.nanoTime();
+    long delay = ( m_delivered == null ) ? 0L : ( ( m_lastFrame + m_interval ) - now );
+    if ( delay > 0 )
+    {
+      schedule( delay );
+      return false;
+    }
+    return deliver( now );
+  }
+
+  /**
+   * Delivers the pending snapshot to the frontend, or retries it later if the
+   * frontend is not listening.
+   */
+  private boolean deliver( final long now )
+  {
+    if ( !m_frontend.isListening() )
+    {
+      schedule( Math.max( m_interval, MIN_RETRY_DELAY ) );
+      return false;
+    }
+
+    m_frontend.terminalChanged( m_pending );
+
+    m_delivered = m_pending;
+    m_pending = null;
+    m_lastFrame = now;
+    return true;
+  }
+
+  /**
+   * Schedules the delivery of the pending snapshot after the given delay.
+   */
+  private void schedule( final long delay )
+  {
+    m_timer = TIMER.schedule( this, delay, TimeUnit.NANOSECONDS );
+  }
+}
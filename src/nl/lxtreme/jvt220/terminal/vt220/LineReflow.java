@@ -0,0 +1,290 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import static nl.lxtreme.jvt220.terminal.vt220.TextBuffer.*;
+
+import java.util.*;
+
+
+/**
+ * Re-flows logical lines to a new width.
+ * <p>
+ * A logical line consists of the rows that are joined by their soft-wrap
+ * marker, that is, the rows that were continued on the next row by an
+ * automatic wrap. The rows of a logical line are appended one by one, after
+ * which the logical line is flushed as rows of the new width. Wide characters
+ * are never split: if one would start in the last column, that column is left
+ * blank and the row is wrapped. Trailing blanks of a logical line are not
+ * retained.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe; use one instance per thread.
+ * </p>
+ */
+final class LineReflow
+{
+  // INNER TYPES
+
+  /**
+   * Receives the rows of the re-flowed logical lines.
+   */
+  static interface RowSink
+  {
+    // METHODS
+
+    /**
+     * Adds a single row.
+     * 
+     * @param chars
+     *          the characters of the row;
+     * @param attrs
+     *          the attributes of the row;
+     * @param codePoints
+     *          the code points beyond the BMP of the row, can be
+     *          <code>null</code> if there are none;
+     * @param length
+     *          the number of cells of the row, <= the new width;
+     * @param wrapped
+     *          <code>true</code> if the row is continued on the next row,
+     *          <code>false</code> otherwise.
+     */
+    void addRow( char[] chars, short[] attrs, int[] codePoints, int length, boolean wrapped );
+  }
+
+  // VARIABLES
+
+  private final int m_width;
+  private final char[] m_rowChars;
+  private final short[] m_rowAttrs;
+  private final int[] m_rowCodePoints;
+
+  private char[] m_chars;
+  private short[] m_attrs;
+  private int[] m_codePoints;
+  private int m_length;
+  /** true if the last appended row is continued on the next row. */
+  private boolean m_continued;
+
+  private int m_mark;
+  private int m_markRow;
+  private int m_markColumn;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link LineReflow} instance.
+   * 
+   * @param width
+   *          the new width to re-flow the lines to, > 0.
+   */
+  public LineReflow( final int width )
+  {
+    if ( width <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid width!" );
+    }
+
+    m_width = width;
+    m_rowChars = new char[width];
+    m_rowAttrs = new short[width];
+    m_rowCodePoints = new int[width];
+
+    m_chars = new char[Math.max( 80, width )];
+    m_attrs = new short[m_chars.length];
+    m_mark = -1;
+  }
+
+  // METHODS
+
+  /**
+   * Appends a row to the current logical line.
+   * 
+   * @param chars
+   *          the characters of the row, cannot be <code>null</code>;
+   * @param attrs
+   *          the attributes of the row, cannot be <code>null</code>;
+   * @param codePoints
+   *          the code points beyond the BMP of the row, can be
+   *          <code>null</code> if there are none;
+   * @param length
+   *          the number of cells of the row to append, >= 0;
+   * @param wrapped
+   *          <code>true</code> if the row is continued on the next row,
+   *          <code>false</code> if it ends the logical line;
+   * @param markColumn
+   *          the column of the row to keep track of, for example, the column of
+   *          the cursor, or -1 if there is nothing to keep track of.
+   * @see #getMarkRow()
+   * @see #getMarkColumn()
+   */
+  public void append( final char[] chars, final short[] attrs, final int[] codePoints, final int length,
+      final boolean wrapped, final int markColumn )
+  {
+    if ( m_continued && ( length > 1 ) && ( chars[1] == CONTINUATION ) && ( m_length > 0 )
+        && ( m_chars[m_length - 1] == ' ' ) )
+    {
+      // The previous row was wrapped as a wide character did not fit; drop
+      // the blank it left in its last column...
+      m_length--;
+    }
+
+    ensureCapacity( m_length + length );
+
+    System.arraycopy( chars, 0, m_chars, m_length, length );
+    System.arraycopy( attrs, 0, m_attrs, m_length, length );
+    if ( codePoints != null )
+    {
+      if ( m_codePoints == null )
+      {
+        m_codePoints = new int[m_chars.length];
+      }
+      System.arraycopy( codePoints, 0, m_codePoints, m_length, length );
+    }
+
+    if ( markColumn >= 0 )
+    {
+      m_mark = m_length + markColumn;
+    }
+
+    m_length += length;
+    m_continued = wrapped;
+  }
+
+  /**
+   * Flushes the current logical line as rows of the new width to the given
+   * sink, and starts a new logical line.
+   * 
+   * @param sink
+   *          the sink to add the rows to, cannot be <code>null</code>.
+   * @return the number of added rows, > 0.
+   */
+  public int flush( final RowSink sink )
+  {
+    // Trailing blanks are not retained, unless they are marked...
+    int length = m_length;
+    while ( ( length > 0 ) && ( m_chars[length - 1] == ' ' ) && ( m_attrs[length - 1] == 0 ) )
+    {
+      length--;
+    }
+    if ( m_mark > length )
+    {
+      if ( m_mark > m_length )
+      {
+        ensureCapacity( m_mark );
+        Arrays.fill( m_chars, m_length, m_mark, ' ' );
+        Arrays.fill( m_attrs, m_length, m_mark, ( short )0 );
+      }
+      length = m_mark;
+    }
+
+    int[] codePoints = ( m_codePoints != null ) ? m_rowCodePoints : null;
+    int rows = 0;
+    int col = 0;
+    int i = 0;
+    while ( i < length )
+    {
+      int cells = ( ( ( i + 1 ) < length ) && ( m_chars[i + 1] == CONTINUATION ) ) ? 2 : 1;
+      if ( ( ( col + cells ) > m_width ) && ( col > 0 ) )
+      {
+        sink.addRow( m_rowChars, m_rowAttrs, codePoints, col, true /* wrapped */);
+        rows++;
+        col = 0;
+      }
+
+      if ( ( m_mark == i ) || ( ( m_mark == ( i + 1 ) ) && ( cells == 2 ) ) )
+      {
+        m_markRow = rows;
+        m_markColumn = Math.min( col + m_mark - i, m_width - 1 );
+      }
+
+      // A wide character is cut in half if the new width is a single column...
+      int n = Math.min( cells, m_width );
+      System.arraycopy( m_chars, i, m_rowChars, col, n );
+      System.arraycopy( m_attrs, i, m_rowAttrs, col, n );
+      if ( codePoints != null )
+      {
+        System.arraycopy( m_codePoints, i, codePoints, col, n );
+      }
+
+      col += n;
+      i += cells;
+    }
+
+    if ( ( m_mark >= 0 ) && ( m_mark == length ) )
+    {
+      if ( col == m_width )
+      {
+        // The mark is just beyond a full row...
+        sink.addRow( m_rowChars, m_rowAttrs, codePoints, col, false /* wrapped */);
+        rows++;
+        col = 0;
+      }
+      m_markRow = rows;
+      m_markColumn = col;
+    }
+
+    sink.addRow( m_rowChars, m_rowAttrs, codePoints, col, false /* wrapped */);
+    rows++;
+
+    m_length = 0;
+    m_continued = false;
+    m_mark = -1;
+
+    return rows;
+  }
+
+  /**
+   * @return the column of the mark in the row it ended up in, as of the last
+   *         flush.
+   */
+  public int getMarkColumn()
+  {
+    return m_markColumn;
+  }
+
+  /**
+   * @return the row the mark ended up in, relative to the first row added by
+   *         the last flush.
+   */
+  public int getMarkRow()
+  {
+    return m_markRow;
+  }
+
+  /**
+   * Ensures the current logical line can hold the given number of cells.
+   */
+  private void ensureCapacity( final int length )
+  {
+    if ( length > m_chars.length )
+    {
+      int capacity = Math.max( 2 * m_chars.length, length );
+      m_chars = Arrays.copyOf( m_chars, capacity );
+      m_attrs = Arrays.copyOf( m_attrs, capacity );
+      if ( m_codePoints != null )
+      {
+        m_codePoints = Arrays.copyOf( m_codePoints, capacity );
+      }
+    }
+  }
+}
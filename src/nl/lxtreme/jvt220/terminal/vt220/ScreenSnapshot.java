@@ -0,0 +1,182 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import nl.lxtreme.jvt220.terminal.*;
+import nl.lxtreme.jvt220.terminal.ITerminal.ITextCell;
+import nl.lxtreme.jvt220.terminal.vt220.TextBuffer.Line;
+
+
+/**
+ * Provides an immutable, consistent, view on the contents of a terminal
+ * screen at a certain moment.
+ * <p>
+ * Snapshots share the lines that did not change between them, so taking a
+ * snapshot costs only a copy of the line references, and writing to the
+ * screen afterwards only copies the lines that are written.
+ * </p>
+ * <p>
+ * Snapshots are passed to the frontend as {@link IScreenView}.
+ * </p>
+ */
+public final class ScreenSnapshot implements IScreenView
+{
+  // VARIABLES
+
+  private final Line[] m_lines;
+  private final int m_width;
+  private final int m_height;
+  private final long m_version;
+  private final IDamageMap m_damage;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link ScreenSnapshot} instance.
+   * 
+   * @param lines
+   *          the (shared) lines of this snapshot;
+   * @param width
+   *          the width of the screen, in columns;
+   * @param height
+   *          the height of the screen, in lines;
+   * @param version
+   *          the version of this snapshot;
+   * @param damage
+   *          the changes since the previous snapshot passed to the frontend.
+   */
+  ScreenSnapshot( final Line[] lines, final int width, final int height, final long version,
+      final IDamageMap damage )
+  {
+    m_lines = lines;
+    m_width = width;
+    m_height = height;
+    m_version = version;
+    m_damage = damage;
+  }
+
+  // METHODS
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getAttributes( final int row, final int column )
+  {
+    return m_lines[row].m_attrs[column] & 0xFFFF;
+  }
+
+  /**
+   * Returns the cell at the given position as text cell.
+   * 
+   * @param row
+   *          the row of the cell, >= 0 && < {@link #getHeight()};
+   * @param column
+   *          the column of the cell, >= 0 && < {@link #getWidth()}.
+   * @return a new text cell with the contents of the requested cell, never
+   *         <code>null</code>.
+   */
+  public ITextCell getCell( final int row, final int column )
+  {
+    Line line = m_lines[row];
+    return new TextCell( line.m_chars[column], line.m_attrs[column] );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public char getChar( final int row, final int column )
+  {
+    return m_lines[row].m_chars[column];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void getChars( final int row, final int fromColumn, final int toColumn, final char[] dest,
+      final int destOffset )
+  {
+    System.arraycopy( m_lines[row].m_chars, fromColumn, dest, destOffset, toColumn - fromColumn );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getCodePoint( final int row, final int column )
+  {
+    return m_lines[row].getCodePoint( column );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public IDamageMap getDamage()
+  {
+    return m_damage;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getHeight()
+  {
+    return m_height;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getVersion()
+  {
+    return m_version;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getWidth()
+  {
+    return m_width;
+  }
+
+  /**
+   * Returns whether the given row is the same in this and the given snapshot.
+   * 
+   * @param other
+   *          the snapshot to compare with, can be <code>null</code>;
+   * @param row
+   *          the row to compare, >= 0 && < {@link #getHeight()}.
+   * @return <code>true</code> if the row is known to be unchanged between both
+   *         snapshots, <code>false</code> otherwise.
+   */
+  public boolean isRowShared( final ScreenSnapshot other, final int row )
+  {
+    return ( other != null ) && ( row < other.m_height ) && ( m_lines[row] == other.m_lines[row] );
+  }
+}
@@ -0,0 +1,1342 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/**
+ * Provides a bounded history of the lines that are scrolled off the top of
+ * the screen.
+ * <p>
+ * Lines are stored in an encoded form: trailing blanks are trimmed, characters
+ * take a single byte if possible, and the attributes are run-length encoded.
+ * The code points beyond the BMP, if any, are stored separately per column.
+ * The most recent lines are appended to a single, growing block; each time
+ * this block holds {@link #BLOCK_LINES} lines, it is sealed and, if enabled,
+ * compressed. As such, adding a line only allocates once per sealed block.
+ * </p>
+ * <p>
+ * The history is bounded by a maximum number of lines and a maximum number of
+ * bytes. The latter is applied per sealed block, so the history can exceed its
+ * maximum number of bytes by at most a single block. Lines removed due to
+ * these limits are either lost, or moved to a {@link ScrollbackArchive} on
+ * disk.
+ * </p>
+ * <p>
+ * Lines that are continued on the next line due to an automatic wrap are
+ * marked as such, and retain their trailing blanks. This allows the history to
+ * be re-flowed to a new width, which is done in parallel chunks for large
+ * histories.
+ * </p>
+ */
+public class Scrollback
+{
+  // INNER TYPES
+
+  /**
+   * Provides a sealed block of encoded lines.
+   */
+  static final class Block
+  {
+    // VARIABLES
+
+    /** the encoded lines, possibly compressed. */
+    final byte[] m_data;
+    /** the offsets of each line in the (uncompressed) data. */
+    final int[] m_offsets;
+    /** the length of the uncompressed data. */
+    final int m_length;
+    final boolean m_compressed;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link Block} instance.
+     */
+    Block( final byte[] data, final int[] offsets, final int length, final boolean compressed )
+    {
+      m_data = data;
+      m_offsets = offsets;
+      m_length = length;
+      m_compressed = compressed;
+    }
+
+    // METHODS
+
+    /**
+     * @return the number of bytes used by this block.
+     */
+    int getMemoryUsage()
+    {
+      return BLOCK_OVERHEAD + m_data.length + ( 4 * m_offsets.length );
+    }
+  }
+
+  /**
+   * Compresses a range of sealed, uncompressed, blocks.
+   */
+  static final class CompressTask implements Callable<List<Block>>
+  {
+    // VARIABLES
+
+    private final List<Block> m_blocks;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link CompressTask} instance.
+     * 
+     * @param blocks
+     *          the uncompressed blocks to compress.
+     */
+    CompressTask( final List<Block> blocks )
+    {
+      m_blocks = blocks;
+    }
+
+    // METHODS
+
+    /**
+     * @return the compressed blocks, in the same order.
+     */
+    @Override
+    public List<Block> call()
+    {
+      List<Block> result = new ArrayList<Block>( m_blocks.size() );
+
+      Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+      try
+      {
+        for ( Block block : m_blocks )
+        {
+          Block compressed = compress( block.m_data, block.m_offsets, block.m_length, deflater );
+          // Retain the blocks that are not worth compressing as-is...
+          result.add( ( compressed != null ) ? compressed : block );
+        }
+      }
+      finally
+      {
+        deflater.end();
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * Re-flows the logical lines that start in a range of lines to a new width.
+   * <p>
+   * A logical line that starts in the range, but ends beyond it, is re-flowed
+   * as a whole. A logical line that starts before the range is left to the
+   * task of the preceding range.
+   * </p>
+   */
+  final class ReflowTask implements Callable<Scrollback>
+  {
+    // VARIABLES
+
+    private final int m_width;
+    private final int m_first;
+    private final int m_last;
+    private final int m_limit;
+
+    private Inflater m_blockInflater;
+    private Block m_block;
+    private byte[] m_blockData;
+
+    private byte[] m_data;
+    private int m_offset;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link ReflowTask} instance.
+     * 
+     * @param width
+     *          the new width of the lines;
+     * @param first
+     *          the first line of the range (inclusive), including skipped
+     *          lines;
+     * @param last
+     *          the last line of the range (exclusive), including skipped lines;
+     * @param limit
+     *          the line at which the last logical line ends at the latest.
+     */
+    ReflowTask( final int width, final int first, final int last, final int limit )
+    {
+      m_width = width;
+      m_first = first;
+      m_last = last;
+      m_limit = limit;
+    }
+
+    // METHODS
+
+    /**
+     * @return an unbounded, uncompressed, history with the re-flowed lines.
+     */
+    @Override
+    public Scrollback call()
+    {
+      final Scrollback result = new Scrollback( Integer.MAX_VALUE, Long.MAX_VALUE, false /* compress */);
+
+      LineReflow reflow = new LineReflow( m_width );
+      LineReflow.RowSink sink = new LineReflow.RowSink()
+      {
+        @Override
+        public void addRow( char[] chars, short[] attrs, int[] codePoints, int length, boolean wrapped )
+        {
+          result.add( chars, attrs, codePoints, length, wrapped );
+        }
+      };
+
+      char[] chars = new char[m_width];
+      short[] attrs = new short[m_width];
+      int[] codePoints = new int[m_width];
+
+      try
+      {
+        int line = m_first;
+        // Skip the remainder of a logical line that starts before the range...
+        while ( ( line > m_skip ) && ( line < m_last ) && isWrapped( locate( line - 1 ), m_offset ) )
+        {
+          line++;
+        }
+
+        boolean wrapped = false;
+        for ( ; ( line < m_limit ) && ( wrapped || ( line < m_last ) ); line++ )
+        {
+          byte[] data = locate( line );
+          int length = getLineLength( data, m_offset );
+          if ( length > chars.length )
+          {
+            chars = new char[length];
+            attrs = new short[length];
+            codePoints = new int[length];
+          }
+
+          decodeLine( data, m_offset, chars, attrs, codePoints );
+          wrapped = isWrapped( data, m_offset );
+
+          boolean astral = hasCodePoints( data, m_offset );
+          reflow.append( chars, attrs, astral ? codePoints : null, length, wrapped, -1 /* markColumn */);
+          if ( !wrapped )
+          {
+            reflow.flush( sink );
+          }
+        }
+
+        if ( wrapped )
+        {
+          // The last logical line is cut off at the limit...
+          reflow.flush( sink );
+        }
+      }
+      finally
+      {
+        if ( m_blockInflater != null )
+        {
+          m_blockInflater.end();
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns the data of the block holding the given line, and sets the
+     * offset of that line in this data.
+     */
+    private byte[] locate( final int line )
+    {
+      int blockIdx = line / BLOCK_LINES;
+      int lineIdx = line % BLOCK_LINES;
+
+      if ( blockIdx < m_blocks.size() )
+      {
+        Block block = m_blocks.get( blockIdx );
+        if ( m_block != block )
+        {
+          if ( block.m_compressed && ( m_blockInflater == null ) )
+          {
+            m_blockInflater = new Inflater();
+          }
+          m_blockData = block.m_compressed ? inflate( block, m_blockInflater ) : block.m_data;
+          m_block = block;
+        }
+        m_data = m_blockData;
+        m_offset = block.m_offsets[lineIdx];
+      }
+      else
+      {
+        m_data = m_hot;
+        m_offset = m_hotOffsets[lineIdx];
+      }
+      return m_data;
+    }
+  }
+
+  // CONSTANTS
+
+  /** The number of lines in a sealed block. */
+  public static final int BLOCK_LINES = 256;
+
+  /** the approximate number of bytes used by a block besides its data. */
+  static final int BLOCK_OVERHEAD = 64;
+
+  private static final int FLAG_WIDE_CHARS = 1;
+  private static final int FLAG_WRAPPED = 2;
+  private static final int FLAG_CODE_POINTS = 4;
+
+  /** the number of lines re-flowed by a single task. */
+  private static final int REFLOW_CHUNK_LINES = 16 * BLOCK_LINES;
+
+  private static final ThreadFactory REFLOW_THREADS = new ThreadFactory()
+  {
+    @Override
+    public Thread newThread( final Runnable runnable )
+    {
+      Thread thread = new Thread( runnable, "Scrollback reflow" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  };
+
+  // VARIABLES
+
+  private final int m_maxLines;
+  private final long m_maxBytes;
+  private final boolean m_compress;
+  private final List<Block> m_blocks;
+
+  /** the encoded lines that are not yet sealed in a block. */
+  private byte[] m_hot;
+  private int m_hotLength;
+  private final int[] m_hotOffsets;
+  private int m_hotLines;
+
+  /** the number of lines of the first block that are no longer retained. */
+  private int m_skip;
+  private int m_lineCount;
+  private long m_memoryUsage;
+
+  /** the archive to move the removed lines to, can be null. */
+  private ScrollbackArchive m_archive;
+  private IOException m_archiveException;
+
+  /** the last block that is decompressed, to read adjacent lines faster. */
+  private Block m_cachedBlock;
+  private byte[] m_cachedData;
+  private Deflater m_deflater;
+  private Inflater m_inflater;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link Scrollback} instance.
+   * 
+   * @param maxLines
+   *          the maximum number of lines to retain, > 0;
+   * @param maxBytes
+   *          the maximum number of bytes to use, > 0;
+   * @param compress
+   *          <code>true</code> to compress sealed blocks, <code>false</code> to
+   *          retain them uncompressed.
+   */
+  public Scrollback( final int maxLines, final long maxBytes, final boolean compress )
+  {
+    if ( maxLines <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid maximum number of lines!" );
+    }
+    if ( maxBytes <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid maximum number of bytes!" );
+    }
+
+    m_maxLines = maxLines;
+    m_maxBytes = maxBytes;
+    m_compress = compress;
+    m_blocks = new ArrayList<Block>();
+
+    m_hot = new byte[4096];
+    m_hotOffsets = new int[BLOCK_LINES + 1];
+  }
+
+  // METHODS
+
+  /**
+   * Adds a line to this history, possibly removing the oldest line(s).
+   * 
+   * @param chars
+   *          the characters of the line to add, cannot be <code>null</code>;
+   * @param attrs
+   *          the encoded attributes of the line to add, cannot be
+   *          <code>null</code>;
+   * @param length
+   *          the number of characters in the line, >= 0.
+   */
+  public void add( final char[] chars, final short[] attrs, final int length )
+  {
+    add( chars, attrs, null, length, false /* wrapped */);
+  }
+
+  /**
+   * Adds a line to this history, possibly removing the oldest line(s).
+   * 
+   * @param chars
+   *          the characters of the line to add, cannot be <code>null</code>;
+   * @param attrs
+   *          the encoded attributes of the line to add, cannot be
+   *          <code>null</code>;
+   * @param length
+   *          the number of characters in the line, >= 0;
+   * @param wrapped
+   *          <code>true</code> if the line is continued on the next line due
+   *          to an automatic wrap, <code>false</code> otherwise.
+   */
+  public void add( final char[] chars, final short[] attrs, final int length, final boolean wrapped )
+  {
+    add( chars, attrs, null, length, wrapped );
+  }
+
+  /**
+   * Adds a line to this history, possibly removing the oldest line(s).
+   * 
+   * @param chars
+   *          the characters of the line to add, cannot be <code>null</code>;
+   * @param attrs
+   *          the encoded attributes of the line to add, cannot be
+   *          <code>null</code>;
+   * @param codePoints
+   *          the code points of the line to add, which are only used for the
+   *          columns holding a high surrogate, can be <code>null</code> if
+   *          there are no code points beyond the BMP;
+   * @param length
+   *          the number of characters in the line, >= 0;
+   * @param wrapped
+   *          <code>true</code> if the line is continued on the next line due
+   *          to an automatic wrap, <code>false</code> otherwise.
+   */
+  public synchronized void add( final char[] chars, final short[] attrs, final int[] codePoints, final int length,
+      final boolean wrapped )
+  {
+    // Trailing blanks without attributes are not retained, unless the line
+    // is continued on the next line...
+    int len = length;
+    while ( !wrapped && ( len > 0 ) && ( chars[len - 1] == ' ' ) && ( attrs[len - 1] == 0 ) )
+    {
+      len--;
+    }
+
+    int flags = wrapped ? FLAG_WRAPPED : 0;
+    int runs = ( len > 0 ) ? 1 : 0;
+    int astral = 0;
+    for ( int i = 0; i < len; i++ )
+    {
+      if ( chars[i] > 0xFF )
+      {
+        flags |= FLAG_WIDE_CHARS;
+        if ( ( codePoints != null ) && Character.isHighSurrogate( chars[i] ) )
+        {
+          astral++;
+        }
+      }
+      if ( ( i > 0 ) && ( attrs[i] != attrs[i - 1] ) )
+      {
+        runs++;
+      }
+    }
+    if ( astral > 0 )
+    {
+      flags |= FLAG_CODE_POINTS;
+    }
+
+    // Worst case size: 3 varints of 5 bytes, flags, chars, code points and
+    // runs...
+    ensureHotCapacity( 16 + ( 2 * len ) + ( 8 * astral ) + ( 7 * runs ) );
+
+    byte[] hot = m_hot;
+    int pos = writeVarInt( hot, m_hotLength, len );
+    hot[pos++] = ( byte )flags;
+    if ( ( flags & FLAG_WIDE_CHARS ) != 0 )
+    {
+      for ( int i = 0; i < len; i++ )
+      {
+        hot[pos++] = ( byte )( chars[i] >> 8 );
+        hot[pos++] = ( byte )chars[i];
+      }
+    }
+    else
+    {
+      for ( int i = 0; i < len; i++ )
+      {
+        hot[pos++] = ( byte )chars[i];
+      }
+    }
+    if ( astral > 0 )
+    {
+      // The column and code point of each character beyond the BMP...
+      pos = writeVarInt( hot, pos, astral );
+      for ( int i = 0; i < len; i++ )
+      {
+        if ( Character.isHighSurrogate( chars[i] ) )
+        {
+          int codePoint = codePoints[i];
+          pos = writeVarInt( hot, pos, i );
+          hot[pos++] = ( byte )( codePoint >> 16 );
+          hot[pos++] = ( byte )( codePoint >> 8 );
+          hot[pos++] = ( byte )codePoint;
+        }
+      }
+    }
+    pos = writeVarInt( hot, pos, runs );
+    for ( int i = 0; i < len; )
+    {
+      short attr = attrs[i];
+      int start = i;
+      while ( ( i < len ) && ( attrs[i] == attr ) )
+      {
+        i++;
+      }
+      pos = writeVarInt( hot, pos, i - start );
+      hot[pos++] = ( byte )( attr >> 8 );
+      hot[pos++] = ( byte )attr;
+    }
+
+    commitLine( pos );
+  }
+
+  /**
+   * Removes all lines from this history.
+   */
+  public synchronized void clear()
+  {
+    m_blocks.clear();
+    m_hotLength = 0;
+    m_hotLines = 0;
+    m_skip = 0;
+    m_lineCount = 0;
+    m_memoryUsage = 0;
+    m_cachedBlock = null;
+    m_cachedData = null;
+  }
+
+  /**
+   * @return the archive that receives the lines removed from this history, can
+   *         be <code>null</code>.
+   */
+  public synchronized ScrollbackArchive getArchive()
+  {
+    return m_archive;
+  }
+
+  /**
+   * Returns the I/O problem that caused the lines to be no longer archived.
+   * 
+   * @return the I/O problem with the archive, or <code>null</code> if there
+   *         was none.
+   */
+  public synchronized IOException getArchiveException()
+  {
+    return m_archiveException;
+  }
+
+  /**
+   * Returns the average number of bytes used per retained line.
+   * 
+   * @return an average number of bytes, >= 0.0.
+   */
+  public synchronized double getBytesPerLine()
+  {
+    if ( m_lineCount == 0 )
+    {
+      return 0.0;
+    }
+    return getMemoryUsage() / ( double )m_lineCount;
+  }
+
+  /**
+   * Decodes the line with the given index into the given arrays, replacing the
+   * characters beyond the BMP by the replacement character.
+   * <p>
+   * Only the retained characters of a line are decoded, the remainder of the
+   * given arrays is left untouched.
+   * </p>
+   * 
+   * @param index
+   *          the index of the line to decode, where 0 is the oldest retained
+   *          line, >= 0 && < {@link #getLineCount()};
+   * @param chars
+   *          the array to decode the characters into, cannot be
+   *          <code>null</code>;
+   * @param attrs
+   *          the array to decode the attributes into, cannot be
+   *          <code>null</code>.
+   * @return the number of decoded characters, at most the length of the given
+   *         arrays.
+   */
+  public int getLine( final int index, final char[] chars, final short[] attrs )
+  {
+    return getLine( index, chars, attrs, null );
+  }
+
+  /**
+   * Decodes the line with the given index into the given arrays.
+   * <p>
+   * Only the retained characters of a line are decoded, the remainder of the
+   * given arrays is left untouched. A character beyond the BMP is decoded as
+   * its high surrogate, with its code point in the same column of the given
+   * code points.
+   * </p>
+   * 
+   * @param index
+   *          the index of the line to decode, where 0 is the oldest retained
+   *          line, >= 0 && < {@link #getLineCount()};
+   * @param chars
+   *          the array to decode the characters into, cannot be
+   *          <code>null</code>;
+   * @param attrs
+   *          the array to decode the attributes into, cannot be
+   *          <code>null</code>;
+   * @param codePoints
+   *          the array to decode the code points beyond the BMP into, can be
+   *          <code>null</code> to decode them as replacement character.
+   * @return the number of decoded characters, at most the length of the given
+   *         arrays.
+   */
+  public synchronized int getLine( final int index, final char[] chars, final short[] attrs, final int[] codePoints )
+  {
+    if ( ( index < 0 ) || ( index >= m_lineCount ) )
+    {
+      throw new IllegalArgumentException( "Invalid line index!" );
+    }
+
+    int line = m_skip + index;
+    int blockIdx = line / BLOCK_LINES;
+    int lineIdx = line % BLOCK_LINES;
+
+    if ( blockIdx < m_blocks.size() )
+    {
+      Block block = m_blocks.get( blockIdx );
+      return decodeLine( getData( block ), block.m_offsets[lineIdx], chars, attrs, codePoints );
+    }
+    return decodeLine( m_hot, m_hotOffsets[lineIdx], chars, attrs, codePoints );
+  }
+
+  /**
+   * @return the number of retained lines, >= 0.
+   */
+  public synchronized int getLineCount()
+  {
+    return m_lineCount;
+  }
+
+  /**
+   * @return the maximum number of bytes this history uses.
+   */
+  public long getMaximumBytes()
+  {
+    return m_maxBytes;
+  }
+
+  /**
+   * @return the maximum number of lines this history retains.
+   */
+  public int getMaximumLines()
+  {
+    return m_maxLines;
+  }
+
+  /**
+   * Returns the number of bytes used by the retained lines, including the
+   * unused capacity of the most recent block.
+   * 
+   * @return a number of bytes, >= 0.
+   */
+  public synchronized long getMemoryUsage()
+  {
+    return m_memoryUsage + ( m_hot.length - m_hotLength ) + ( 4 * m_hotOffsets.length );
+  }
+
+  /**
+   * @return <code>true</code> if sealed blocks are compressed,
+   *         <code>false</code> otherwise.
+   */
+  public boolean isCompressed()
+  {
+    return m_compress;
+  }
+
+  /**
+   * Returns whether the line with the given index is continued on the next
+   * line due to an automatic wrap.
+   * 
+   * @param index
+   *          the index of the line, where 0 is the oldest retained line, >= 0
+   *          && < {@link #getLineCount()}.
+   * @return <code>true</code> if the line is soft-wrapped, <code>false</code>
+   *         otherwise.
+   */
+  public synchronized boolean isWrapped( final int index )
+  {
+    if ( ( index < 0 ) || ( index >= m_lineCount ) )
+    {
+      throw new IllegalArgumentException( "Invalid line index!" );
+    }
+
+    int line = m_skip + index;
+    int blockIdx = line / BLOCK_LINES;
+    int lineIdx = line % BLOCK_LINES;
+
+    if ( blockIdx < m_blocks.size() )
+    {
+      Block block = m_blocks.get( blockIdx );
+      return isWrapped( getData( block ), block.m_offsets[lineIdx] );
+    }
+    return isWrapped( m_hot, m_hotOffsets[lineIdx] );
+  }
+
+  /**
+   * Re-flows the oldest lines of this history to the given width, joining the
+   * lines that are continued on the next line, and removes all other lines.
+   * <p>
+   * Large histories are re-flowed and compressed in parallel chunks, so only
+   * the concatenation of the re-flowed lines is done serially. Lines that
+   * exceed the limits of this history after re-flowing are removed as usual.
+   * </p>
+   * 
+   * @param width
+   *          the new width of the lines, in columns, > 0;
+   * @param count
+   *          the number of oldest lines to re-flow, >= 0 &&
+   *          <= {@link #getLineCount()}. The more recent lines are removed, for
+   *          example, because they are re-flowed together with the screen.
+   */
+  public synchronized void reflow( final int width, final int count )
+  {
+    if ( width <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid width!" );
+    }
+    if ( ( count < 0 ) || ( count > m_lineCount ) )
+    {
+      throw new IllegalArgumentException( "Invalid line count!" );
+    }
+
+    int limit = m_skip + count;
+    List<ReflowTask> tasks = new ArrayList<ReflowTask>();
+    for ( int first = m_skip; first < limit; first += REFLOW_CHUNK_LINES )
+    {
+      tasks.add( new ReflowTask( width, first, Math.min( limit, first + REFLOW_CHUNK_LINES ), limit ) );
+    }
+
+    // Concatenate the re-flowed lines, without compressing them yet...
+    Scrollback result = new Scrollback( Integer.MAX_VALUE, Long.MAX_VALUE, false /* compress */);
+    for ( Scrollback chunk : execute( tasks ) )
+    {
+      chunk.appendTo( result );
+    }
+
+    // Take over the re-flowed lines...
+    m_blocks.clear();
+    if ( m_compress )
+    {
+      List<CompressTask> compressTasks = new ArrayList<CompressTask>();
+      for ( int first = 0; first < result.m_blocks.size(); first += REFLOW_CHUNK_LINES / BLOCK_LINES )
+      {
+        int last = Math.min( result.m_blocks.size(), first + ( REFLOW_CHUNK_LINES / BLOCK_LINES ) );
+        compressTasks.add( new CompressTask( result.m_blocks.subList( first, last ) ) );
+      }
+      for ( List<Block> blocks : execute( compressTasks ) )
+      {
+        m_blocks.addAll( blocks );
+      }
+    }
+    else
+    {
+      m_blocks.addAll( result.m_blocks );
+    }
+    m_hot = result.m_hot;
+    m_hotLength = result.m_hotLength;
+    System.arraycopy( result.m_hotOffsets, 0, m_hotOffsets, 0, m_hotOffsets.length );
+    m_hotLines = result.m_hotLines;
+    m_skip = 0;
+    m_lineCount = result.m_lineCount;
+    m_memoryUsage = m_hotLength;
+    for ( Block block : m_blocks )
+    {
+      m_memoryUsage += block.getMemoryUsage();
+    }
+    m_cachedBlock = null;
+    m_cachedData = null;
+
+    removeExcessLines();
+  }
+
+  /**
+   * Sets the archive to move the lines removed from this history to.
+   * <p>
+   * In case of I/O problems with the archive, the lines are no longer archived
+   * and the problem is available through {@link #getArchiveException()}.
+   * </p>
+   * 
+   * @param archive
+   *          the archive to set, can be <code>null</code> to no longer archive
+   *          the removed lines.
+   */
+  public synchronized void setArchive( final ScrollbackArchive archive )
+  {
+    m_archive = archive;
+    m_archiveException = null;
+  }
+
+  /**
+   * Decodes a single encoded line, replacing the characters beyond the BMP by
+   * the replacement character.
+   * 
+   * @return the number of decoded characters.
+   */
+  static int decodeLine( final byte[] data, final int offset, final char[] chars, final short[] attrs )
+  {
+    return decodeLine( data, offset, chars, attrs, null );
+  }
+
+  /**
+   * Decodes a single encoded line, including the code points beyond the BMP
+   * if the given array for them is not <code>null</code>.
+   * 
+   * @return the number of decoded characters.
+   */
+  static int decodeLine( final byte[] data, final int offset, final char[] chars, final short[] attrs,
+      final int[] codePoints )
+  {
+    int pos = offset;
+    int len = 0;
+    for ( int shift = 0;; shift += 7 )
+    {
+      int b = data[pos++];
+      len |= ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        break;
+      }
+    }
+
+    int max = Math.min( chars.length, attrs.length );
+    int flags = data[pos++];
+    if ( ( flags & FLAG_WIDE_CHARS ) != 0 )
+    {
+      for ( int i = 0; i < len; i++, pos += 2 )
+      {
+        if ( i < max )
+        {
+          chars[i] = ( char )( ( ( data[pos] & 0xFF ) << 8 ) | ( data[pos + 1] & 0xFF ) );
+        }
+      }
+    }
+    else
+    {
+      for ( int i = 0; i < len; i++, pos++ )
+      {
+        if ( i < max )
+        {
+          chars[i] = ( char )( data[pos] & 0xFF );
+        }
+      }
+    }
+
+    if ( ( flags & FLAG_CODE_POINTS ) != 0 )
+    {
+      int count = 0;
+      for ( int shift = 0;; shift += 7 )
+      {
+        int b = data[pos++];
+        count |= ( b & 0x7F ) << shift;
+        if ( b >= 0 )
+        {
+          break;
+        }
+      }
+
+      for ( int n = 0; n < count; n++ )
+      {
+        int column = 0;
+        for ( int shift = 0;; shift += 7 )
+        {
+          int b = data[pos++];
+          column |= ( b & 0x7F ) << shift;
+          if ( b >= 0 )
+          {
+            break;
+          }
+        }
+        int codePoint = ( ( data[pos] & 0xFF ) << 16 ) | ( ( data[pos + 1] & 0xFF ) << 8 ) | ( data[pos + 2] & 0xFF );
+        pos += 3;
+
+        if ( column >= max )
+        {
+          continue;
+        }
+        if ( codePoints != null )
+        {
+          codePoints[column] = codePoint;
+        }
+        else
+        {
+          chars[column] = '\uFFFD';
+        }
+      }
+    }
+
+    int runs = 0;
+    for ( int shift = 0;; shift += 7 )
+    {
+      int b = data[pos++];
+      runs |= ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        break;
+      }
+    }
+
+    int i = 0;
+    for ( int r = 0; r < runs; r++ )
+    {
+      int runLength = 0;
+      for ( int shift = 0;; shift += 7 )
+      {
+        int b = data[pos++];
+        runLength |= ( b & 0x7F ) << shift;
+        if ( b >= 0 )
+        {
+          break;
+        }
+      }
+      short attr = ( short )( ( ( data[pos] & 0xFF ) << 8 ) | ( data[pos + 1] & 0xFF ) );
+      pos += 2;
+
+      int end = Math.min( i + runLength, max );
+      if ( i < end )
+      {
+        Arrays.fill( attrs, i, end, attr );
+      }
+      i += runLength;
+    }
+
+    return Math.min( len, max );
+  }
+
+  /**
+   * Returns the number of characters of a single encoded line.
+   */
+  static int getLineLength( final byte[] data, final int offset )
+  {
+    int pos = offset;
+    int len = 0;
+    for ( int shift = 0;; shift += 7 )
+    {
+      int b = data[pos++];
+      len |= ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        return len;
+      }
+    }
+  }
+
+  /**
+   * Returns whether a single encoded line has characters beyond the BMP.
+   */
+  static boolean hasCodePoints( final byte[] data, final int offset )
+  {
+    int pos = offset;
+    while ( data[pos++] < 0 )
+    {
+      // Skip the length...
+    }
+    return ( data[pos] & FLAG_CODE_POINTS ) != 0;
+  }
+
+  /**
+   * Returns whether a single encoded line is continued on the next line.
+   */
+  static boolean isWrapped( final byte[] data, final int offset )
+  {
+    int pos = offset;
+    while ( data[pos++] < 0 )
+    {
+      // Skip the length...
+    }
+    return ( data[pos] & FLAG_WRAPPED ) != 0;
+  }
+
+  /**
+   * Runs the given task in the calling thread.
+   * 
+   * @return the result of the task.
+   */
+  private static <T> T call( final Callable<T> task )
+  {
+    try
+    {
+      return task.call();
+    }
+    catch ( RuntimeException exception )
+    {
+      throw exception;
+    }
+    catch ( Exception exception )
+    {
+      throw new RuntimeException( "Failed to re-flow scrollback!", exception );
+    }
+  }
+
+  /**
+   * Compresses the given encoded lines into a block.
+   * 
+   * @return the compressed block, or <code>null</code> if the lines are not
+   *         worth compressing.
+   */
+  private static Block compress( final byte[] data, final int[] offsets, final int length, final Deflater deflater )
+  {
+    deflater.reset();
+    deflater.setInput( data, 0, length );
+    deflater.finish();
+
+    byte[] buffer = new byte[length + 64];
+    int compressed = 0;
+    while ( !deflater.finished() && ( compressed < buffer.length ) )
+    {
+      compressed += deflater.deflate( buffer, compressed, buffer.length - compressed );
+    }
+
+    if ( deflater.finished() && ( compressed < length ) )
+    {
+      return new Block( Arrays.copyOf( buffer, compressed ), offsets, length, true );
+    }
+    return null;
+  }
+
+  /**
+   * Runs the given tasks, in parallel if there is more than one.
+   * 
+   * @return the results of the tasks, in the order of the tasks.
+   */
+  private static <T> List<T> execute( final List<? extends Callable<T>> tasks )
+  {
+    List<T> results = new ArrayList<T>( tasks.size() );
+
+    int threads = Math.min( tasks.size(), Runtime.getRuntime().availableProcessors() );
+    if ( threads <= 1 )
+    {
+      for ( Callable<T> task : tasks )
+      {
+        results.add( call( task ) );
+      }
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool( threads, REFLOW_THREADS );
+    boolean interrupted = false;
+    try
+    {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for ( Callable<T> task : tasks )
+      {
+        futures.add( executor.submit( task ) );
+      }
+
+      for ( int i = 0; i < futures.size(); )
+      {
+        try
+        {
+          results.add( futures.get( i ).get() );
+          i++;
+        }
+        catch ( InterruptedException exception )
+        {
+          // The tasks cannot be abandoned halfway, so keep waiting for them
+          // and restore the interrupt afterwards...
+          interrupted = true;
+        }
+        catch ( ExecutionException exception )
+        {
+          Throwable cause = exception.getCause();
+          if ( cause instanceof RuntimeException )
+          {
+            throw ( RuntimeException )cause;
+          }
+          throw new RuntimeException( "Failed to re-flow scrollback!", cause );
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+      if ( interrupted )
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Returns the uncompressed data of the given block, using the given
+   * inflater.
+   */
+  private static byte[] inflate( final Block block, final Inflater inflater )
+  {
+    byte[] data = new byte[block.m_length];
+    inflater.reset();
+    inflater.setInput( block.m_data );
+    try
+    {
+      int length = 0;
+      while ( length < data.length )
+      {
+        length += inflater.inflate( data, length, data.length - length );
+      }
+    }
+    catch ( DataFormatException exception )
+    {
+      throw new IllegalStateException( "Corrupt scrollback block!", exception );
+    }
+    return data;
+  }
+
+  /**
+   * Writes the given value as variable length integer.
+   * 
+   * @return the position after the written value.
+   */
+  private static int writeVarInt( final byte[] data, final int offset, final int value )
+  {
+    int pos = offset;
+    int v = value;
+    while ( v > 0x7F )
+    {
+      data[pos++] = ( byte )( ( v & 0x7F ) | 0x80 );
+      v >>>= 7;
+    }
+    data[pos++] = ( byte )v;
+    return pos;
+  }
+
+  /**
+   * Moves the given number of oldest lines to the archive, if any.
+   */
+  private void archiveLines( final int count )
+  {
+    if ( m_archive == null )
+    {
+      return;
+    }
+
+    byte[] data;
+    int[] offsets;
+    int length;
+    if ( !m_blocks.isEmpty() )
+    {
+      Block block = m_blocks.get( 0 );
+      data = getData( block );
+      offsets = block.m_offsets;
+      length = block.m_length;
+    }
+    else
+    {
+      data = m_hot;
+      offsets = m_hotOffsets;
+      length = m_hotLength;
+    }
+
+    try
+    {
+      for ( int i = m_skip, last = m_skip + count; i < last; i++ )
+      {
+        int start = offsets[i];
+        int end = ( ( i + 1 ) < BLOCK_LINES ) ? offsets[i + 1] : length;
+        m_archive.append( data, start, end - start );
+      }
+    }
+    catch ( IOException exception )
+    {
+      m_archive = null;
+      m_archiveException = exception;
+    }
+  }
+
+  /**
+   * Appends all lines of this history, which should not be compressed, to the
+   * given history.
+   */
+  private void appendTo( final Scrollback result )
+  {
+    for ( Block block : m_blocks )
+    {
+      for ( int i = 0; i < BLOCK_LINES; i++ )
+      {
+        int end = ( ( i + 1 ) < BLOCK_LINES ) ? block.m_offsets[i + 1] : block.m_length;
+        result.appendLine( block.m_data, block.m_offsets[i], end - block.m_offsets[i] );
+      }
+    }
+    for ( int i = 0; i < m_hotLines; i++ )
+    {
+      result.appendLine( m_hot, m_hotOffsets[i], m_hotOffsets[i + 1] - m_hotOffsets[i] );
+    }
+  }
+
+  /**
+   * Appends a single encoded line.
+   */
+  private void appendLine( final byte[] data, final int offset, final int length )
+  {
+    ensureHotCapacity( length );
+    System.arraycopy( data, offset, m_hot, m_hotLength, length );
+    commitLine( m_hotLength + length );
+  }
+
+  /**
+   * Commits the line that is encoded in the hot block up to the given end.
+   */
+  private void commitLine( final int end )
+  {
+    m_memoryUsage += end - m_hotLength;
+    m_hotLength = end;
+    m_hotOffsets[++m_hotLines] = end;
+    m_lineCount++;
+
+    if ( m_hotLines == BLOCK_LINES )
+    {
+      sealHotBlock();
+    }
+
+    removeExcessLines();
+  }
+
+  /**
+   * Ensures the hot block can hold the given number of additional bytes.
+   */
+  private void ensureHotCapacity( final int length )
+  {
+    if ( m_hotLength + length > m_hot.length )
+    {
+      m_hot = Arrays.copyOf( m_hot, Math.max( 2 * m_hot.length, m_hotLength + length ) );
+    }
+  }
+
+  /**
+   * Returns the uncompressed data of the given block.
+   */
+  private byte[] getData( final Block block )
+  {
+    if ( !block.m_compressed )
+    {
+      return block.m_data;
+    }
+    if ( m_cachedBlock != block )
+    {
+      if ( m_inflater == null )
+      {
+        m_inflater = new Inflater();
+      }
+
+      m_cachedBlock = block;
+      m_cachedData = inflate( block, m_inflater );
+    }
+    return m_cachedData;
+  }
+
+  /**
+   * Removes the oldest lines as long as this history exceeds one of its
+   * limits.
+   */
+  private void removeExcessLines()
+  {
+    while ( m_lineCount > m_maxLines )
+    {
+      archiveLines( 1 );
+      m_lineCount--;
+      if ( ( ++m_skip == BLOCK_LINES ) && !m_blocks.isEmpty() )
+      {
+        removeFirstBlock();
+      }
+    }
+    while ( ( m_memoryUsage > m_maxBytes ) && !m_blocks.isEmpty() )
+    {
+      archiveLines( BLOCK_LINES - m_skip );
+      m_lineCount -= BLOCK_LINES - m_skip;
+      removeFirstBlock();
+    }
+  }
+
+  /**
+   * Removes the oldest sealed block.
+   */
+  private void removeFirstBlock()
+  {
+    Block block = m_blocks.remove( 0 );
+    if ( block == m_cachedBlock )
+    {
+      m_cachedBlock = null;
+      m_cachedData = null;
+    }
+    m_memoryUsage -= block.getMemoryUsage();
+    m_skip = 0;
+  }
+
+  /**
+   * Seals the hot block, compressing it if needed.
+   */
+  private void sealHotBlock()
+  {
+    int length = m_hotLength;
+    int[] offsets = Arrays.copyOf( m_hotOffsets, BLOCK_LINES );
+
+    Block block = null;
+    if ( m_compress )
+    {
+      if ( m_deflater == null )
+      {
+        m_deflater = new Deflater( Deflater.BEST_SPEED );
+      }
+      block = compress( m_hot, offsets, length, m_deflater );
+    }
+    if ( block == null )
+    {
+      // Not compressed, or not worth compressing...
+      block = new Block( Arrays.copyOf( m_hot, length ), offsets, length, false );
+    }
+
+    m_blocks.add( block );
+    m_memoryUsage += block.getMemoryUsage() - length;
+
+    m_hotLength = 0;
+    m_hotLines = 0;
+  }
+}
@@ -0,0 +1,418 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.*;
+
+
+/**
+ * Provides a scrollback tier on disk that retains the lines removed from a
+ * {@link Scrollback} history, so very long sessions can keep their entire
+ * history without holding it on the heap.
+ * <p>
+ * Lines are appended to memory-mapped segment files. Each segment starts with
+ * an index of the end offset of each line, followed by the encoded lines
+ * themselves, so a line is found in constant time once its segment is known.
+ * A new segment is started when the current one is full. The oldest segments
+ * are deleted when all segments together exceed the maximum number of bytes,
+ * or when they are older than the maximum age.
+ * </p>
+ * <p>
+ * Lines are numbered from zero, starting with the first line ever appended.
+ * </p>
+ */
+public class ScrollbackArchive implements Closeable
+{
+  // INNER TYPES
+
+  /**
+   * Provides a single, memory-mapped, segment file.
+   */
+  static final class Segment
+  {
+    // VARIABLES
+
+    final File m_file;
+    final long m_firstLine;
+    /** the index with the end offset of each line, relative to the data. */
+    final IntBuffer m_index;
+    /** the encoded lines. */
+    final ByteBuffer m_data;
+    int m_lineCount;
+    long m_lastModified;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link Segment} instance, creating and mapping the file.
+     */
+    Segment( final File file, final long firstLine, final int maxLines, final int size ) throws IOException
+    {
+      m_file = file;
+      m_firstLine = firstLine;
+
+      RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+      try
+      {
+        MappedByteBuffer buffer = raf.getChannel().map( MapMode.READ_WRITE, 0, ( 4L * maxLines ) + size );
+
+        buffer.limit( 4 * maxLines );
+        m_index = buffer.slice().asIntBuffer();
+
+        buffer.limit( buffer.capacity() );
+        buffer.position( 4 * maxLines );
+        m_data = buffer.slice();
+      }
+      finally
+      {
+        // The mapping remains valid after the file is closed...
+        raf.close();
+      }
+
+      m_lastModified = System.currentTimeMillis();
+    }
+
+    // METHODS
+
+    /**
+     * @return the length of the data in this segment, in bytes.
+     */
+    int getLength()
+    {
+      return ( m_lineCount == 0 ) ? 0 : m_index.get( m_lineCount - 1 );
+    }
+  }
+
+  // CONSTANTS
+
+  private static final String PREFIX = "scrollback-";
+  private static final String SUFFIX = ".seg";
+
+  /** check the age of the segments once every this many appended lines. */
+  private static final int AGE_CHECK_INTERVAL = 1024;
+
+  // VARIABLES
+
+  private final File m_directory;
+  private final int m_segmentSize;
+  private final int m_segmentLines;
+  private final long m_maxBytes;
+  private final long m_maxAge;
+  private final List<Segment> m_segments;
+
+  private long m_lineCount;
+  private int m_appendCount;
+  /** used to decode lines from a segment. */
+  private byte[] m_scratch;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link ScrollbackArchive} instance.
+   * 
+   * @param directory
+   *          the directory to create the segment files in, cannot be
+   *          <code>null</code>;
+   * @param segmentSize
+   *          the maximum number of bytes of encoded lines per segment, > 0;
+   * @param maxBytes
+   *          the maximum number of bytes of encoded lines of all segments
+   *          together, >= segmentSize;
+   * @param maxAge
+   *          the maximum age of a segment, in milliseconds, since its last
+   *          line was appended, > 0.
+   * @throws IOException
+   *           in case the given directory could not be created.
+   */
+  public ScrollbackArchive( final File directory, final int segmentSize, final long maxBytes, final long maxAge )
+      throws IOException
+  {
+    if ( directory == null )
+    {
+      throw new IllegalArgumentException( "Directory cannot be null!" );
+    }
+    if ( segmentSize <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid segment size!" );
+    }
+    if ( maxBytes < segmentSize )
+    {
+      throw new IllegalArgumentException( "Invalid maximum number of bytes!" );
+    }
+    if ( maxAge <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid maximum age!" );
+    }
+    if ( !directory.isDirectory() && !directory.mkdirs() )
+    {
+      throw new IOException( "Failed to create directory: " + directory );
+    }
+
+    m_directory = directory;
+    m_segmentSize = segmentSize;
+    // Assume an average of at least 8 bytes per encoded line...
+    m_segmentLines = Math.max( 1, segmentSize / 8 );
+    m_maxBytes = maxBytes;
+    m_maxAge = maxAge;
+    m_segments = new ArrayList<Segment>();
+    m_scratch = new byte[256];
+  }
+
+  // METHODS
+
+  /**
+   * Appends a single encoded line to this archive.
+   * 
+   * @param data
+   *          the array with the encoded line, cannot be <code>null</code>;
+   * @param offset
+   *          the offset of the encoded line in the given array;
+   * @param length
+   *          the length of the encoded line, in bytes, >= 0.
+   * @throws IOException
+   *           in case of I/O problems creating a new segment, or in case the
+   *           given line does not fit in a segment.
+   */
+  public synchronized void append( final byte[] data, final int offset, final int length ) throws IOException
+  {
+    if ( length > m_segmentSize )
+    {
+      // Like an I/O problem, this stops the history from archiving lines...
+      throw new IOException( "Line does not fit in a segment!" );
+    }
+
+    Segment segment = m_segments.isEmpty() ? null : m_segments.get( m_segments.size() - 1 );
+    if ( ( segment == null ) || ( segment.m_lineCount == m_segmentLines )
+        || ( ( segment.getLength() + length ) > m_segmentSize ) )
+    {
+      segment = startSegment();
+    }
+
+    int end = segment.getLength() + length;
+    ByteBuffer buffer = segment.m_data.duplicate();
+    buffer.position( end - length );
+    buffer.put( data, offset, length );
+
+    segment.m_index.put( segment.m_lineCount++, end );
+    m_lineCount++;
+
+    if ( ++m_appendCount == AGE_CHECK_INTERVAL )
+    {
+      m_appendCount = 0;
+      segment.m_lastModified = System.currentTimeMillis();
+      removeExpiredSegments( segment.m_lastModified );
+    }
+  }
+
+  /**
+   * Closes this archive, deleting all of its segment files.
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    while ( !m_segments.isEmpty() )
+    {
+      removeFirstSegment();
+    }
+  }
+
+  /**
+   * @return the number of the oldest retained line, >= 0.
+   */
+  public synchronized long getFirstLine()
+  {
+    if ( m_segments.isEmpty() )
+    {
+      return m_lineCount;
+    }
+    return m_segments.get( 0 ).m_firstLine;
+  }
+
+  /**
+   * Decodes the line with the given number into the given arrays.
+   * 
+   * @param line
+   *          the number of the line to decode, >= {@link #getFirstLine()} &&
+   *          < {@link #getLineCount()};
+   * @param chars
+   *          the array to decode the characters into, cannot be
+   *          <code>null</code>;
+   * @param attrs
+   *          the array to decode the attributes into, cannot be
+   *          <code>null</code>.
+   * @return the number of decoded characters, at most the length of the given
+   *         arrays.
+   * @see Scrollback#getLine(int, char[], short[])
+   */
+  public int getLine( final long line, final char[] chars, final short[] attrs )
+  {
+    return getLine( line, chars, attrs, null );
+  }
+
+  /**
+   * Decodes the line with the given number into the given arrays, including
+   * the code points beyond the BMP.
+   * 
+   * @param line
+   *          the number of the line to decode, >= {@link #getFirstLine()} &&
+   *          < {@link #getLineCount()};
+   * @param chars
+   *          the array to decode the characters into, cannot be
+   *          <code>null</code>;
+   * @param attrs
+   *          the array to decode the attributes into, cannot be
+   *          <code>null</code>;
+   * @param codePoints
+   *          the array to decode the code points beyond the BMP into, can be
+   *          <code>null</code> to decode them as replacement character.
+   * @return the number of decoded characters, at most the length of the given
+   *         arrays.
+   * @see Scrollback#getLine(int, char[], short[], int[])
+   */
+  public synchronized int getLine( final long line, final char[] chars, final short[] attrs, final int[] codePoints )
+  {
+    if ( ( line < getFirstLine() ) || ( line >= m_lineCount ) )
+    {
+      throw new IllegalArgumentException( "Invalid line number!" );
+    }
+
+    Segment segment = findSegment( line );
+    int idx = ( int )( line - segment.m_firstLine );
+    int start = ( idx == 0 ) ? 0 : segment.m_index.get( idx - 1 );
+    int length = segment.m_index.get( idx ) - start;
+
+    if ( m_scratch.length < length )
+    {
+      m_scratch = new byte[length];
+    }
+    ByteBuffer buffer = segment.m_data.duplicate();
+    buffer.position( start );
+    buffer.get( m_scratch, 0, length );
+
+    return Scrollback.decodeLine( m_scratch, 0, chars, attrs, codePoints );
+  }
+
+  /**
+   * @return the total number of lines ever appended to this archive, >= 0.
+   */
+  public synchronized long getLineCount()
+  {
+    return m_lineCount;
+  }
+
+  /**
+   * @return the number of bytes of encoded lines in all segments, >= 0.
+   */
+  public synchronized long getSize()
+  {
+    long result = 0L;
+    for ( Segment segment : m_segments )
+    {
+      result += segment.getLength();
+    }
+    return result;
+  }
+
+  /**
+   * Deletes all segments that are older than the maximum age.
+   */
+  public synchronized void removeExpiredSegments()
+  {
+    removeExpiredSegments( System.currentTimeMillis() );
+  }
+
+  /**
+   * Returns the segment holding the given line.
+   */
+  private Segment findSegment( final long line )
+  {
+    int low = 0;
+    int high = m_segments.size() - 1;
+    while ( low < high )
+    {
+      int mid = ( low + high + 1 ) >>> 1;
+      if ( m_segments.get( mid ).m_firstLine <= line )
+      {
+        low = mid;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return m_segments.get( low );
+  }
+
+  /**
+   * Deletes all segments, except the current one, older than the maximum age.
+   */
+  private void removeExpiredSegments( final long now )
+  {
+    while ( ( m_segments.size() > 1 ) && ( ( now - m_segments.get( 0 ).m_lastModified ) > m_maxAge ) )
+    {
+      removeFirstSegment();
+    }
+  }
+
+  /**
+   * Deletes the oldest segment.
+   */
+  private void removeFirstSegment()
+  {
+    Segment segment = m_segments.remove( 0 );
+    if ( !segment.m_file.delete() )
+    {
+      // Some platforms do not allow mapped files to be deleted...
+      segment.m_file.deleteOnExit();
+    }
+  }
+
+  /**
+   * Starts a new segment, deleting the oldest segments if needed.
+   */
+  private Segment startSegment() throws IOException
+  {
+    long now = System.currentTimeMillis();
+    if ( !m_segments.isEmpty() )
+    {
+      m_segments.get( m_segments.size() - 1 ).m_lastModified = now;
+    }
+
+    // Make room for the new segment...
+    long size = getSize();
+    while ( !m_segments.isEmpty() && ( size + m_segmentSize ) > m_maxBytes )
+    {
+      size -= m_segments.get( 0 ).getLength();
+      removeFirstSegment();
+    }
+    removeExpiredSegments( now );
+
+    File file = File.createTempFile( PREFIX + m_lineCount + "-", SUFFIX, m_directory );
+    Segment segment = new Segment( file, m_lineCount, m_segmentLines, m_segmentSize );
+    m_segments.add( segment );
+    return segment;
+  }
+}
@@ -21,6 +21,9 @@
 package nl.lxtreme.jvt220.terminal.vt220;
 
 
+import nl.lxtreme.jvt220.terminal.*;
+
+
 /**
  * Denotes a container for text attributes.
  */
@@ -28,13 +31,13 @@ class TextAttributes
 {
   // CONSTANTS
 
-  static final int COLOR_MASK = ( 1 << 5 ) - 1;
-  static final int BOLD_MASK = 1 << 10;
-  static final int ITALIC_MASK = 1 << 11;
-  static final int UNDERLINE_MASK = 1 << 12;
-  static final int REVERSE_MASK = 1 << 13;
-  static final int HIDDEN_MASK = 1 << 14;
-  static final int PROTECTED_MASK = 1 << 15;
+  static final int COLOR_MASK = IScreenView.COLOR_MASK;
+  static final int BOLD_MASK = IScreenView.BOLD;
+  static final int ITALIC_MASK = IScreenView.ITALIC;
+  static final int UNDERLINE_MASK = IScreenView.UNDERLINE;
+  static final int REVERSE_MASK = IScreenView.REVERSE;
+  static final int HIDDEN_MASK = IScreenView.HIDDEN;
+  static final int PROTECTED_MASK = IScreenView.PROTECTED;
 
   // VARIABLES
 
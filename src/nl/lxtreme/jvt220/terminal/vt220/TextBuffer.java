@@ -0,0 +1,1124 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.util.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+
+
+/**
+ * Provides the screen contents of a terminal as lines of two parallel
+ * primitive arrays, one with the characters and one with the encoded text
+ * attributes of each cell.
+ * <p>
+ * A cell takes four bytes instead of a {@link TextCell} object and the
+ * reference to it. Lines are accessed through a table of line references, so
+ * scrolling only moves these references and clears the lines that are
+ * scrolled in.
+ * </p>
+ * <p>
+ * A {@link ScreenSnapshot} of this buffer shares the lines with this buffer.
+ * Lines are copied on write: a line that is part of a snapshot is copied the
+ * first time it is written after the snapshot is taken, so taking a snapshot
+ * only costs a copy of the line references. Writing to this buffer therefore
+ * allocates a copy of each shared line on its first write after a snapshot,
+ * and does not allocate otherwise.
+ * </p>
+ * <p>
+ * Each line keeps a bitmap of its protected cells (see DECSCA), which is only
+ * created once a protected cell is written to it. This allows a selective
+ * erase to skip the protected runs without testing each cell.
+ * </p>
+ * <p>
+ * Characters outside the Basic Multilingual Plane are stored as their high
+ * surrogate, with the full code point kept in an additional array that is
+ * only created for the lines that contain such characters. A wide character
+ * takes two cells: the first cell holds the character, while the second cell
+ * holds {@link #CONTINUATION}. Writing over either half of a wide character
+ * blanks the other half.
+ * </p>
+ * <p>
+ * A line that is continued on the next line due to an automatic wrap is marked
+ * as soft-wrapped, which allows the logical lines to be re-flowed when the
+ * width changes. The marker is removed once the end of the line is erased.
+ * </p>
+ */
+final class TextBuffer
+{
+  // CONSTANTS
+
+  /** the character of the second cell of a wide character. */
+  static final char CONTINUATION = '\0';
+
+  /** used to determine the high surrogate of a code point. */
+  private static final int HIGH_SURROGATE_OFFSET = Character.MIN_HIGH_SURROGATE
+      - ( Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10 );
+
+  // INNER TYPES
+
+  /**
+   * Provides the storage of a single line.
+   */
+  static final class Line
+  {
+    // VARIABLES
+
+    final char[] m_chars;
+    final short[] m_attrs;
+    /** the code points beyond the BMP, null if there are none. */
+    int[] m_codePoints;
+    /** the protected columns of this line, null if there are none. */
+    BitSet m_protected;
+    /** true if this line is continued on the next line by an automatic wrap. */
+    boolean m_wrapped;
+    /** true if this line is part of a snapshot, and cannot be written. */
+    boolean m_shared;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link Line} instance as copy of the given line.
+     * 
+     * @param line
+     *          the line to copy, cannot be <code>null</code>.
+     */
+    Line( final Line line )
+    {
+      m_chars = line.m_chars.clone();
+      m_attrs = line.m_attrs.clone();
+      if ( line.m_codePoints != null )
+      {
+        m_codePoints = line.m_codePoints.clone();
+      }
+      if ( line.m_protected != null )
+      {
+        m_protected = ( BitSet )line.m_protected.clone();
+      }
+      m_wrapped = line.m_wrapped;
+    }
+
+    /**
+     * Creates a new, blank, {@link Line} instance.
+     * 
+     * @param width
+     *          the width of this line, in columns, > 0.
+     */
+    Line( final int width )
+    {
+      m_chars = new char[width];
+      m_attrs = new short[width];
+
+      Arrays.fill( m_chars, ' ' );
+    }
+
+    // METHODS
+
+    /**
+     * Changes the attributes of a range of cells by clearing, setting and
+     * toggling the given attribute bits, in that order.
+     * 
+     * @param fromColumn
+     *          the first column to change (inclusive);
+     * @param toColumn
+     *          the last column to change (exclusive);
+     * @param setMask
+     *          the attribute bits to set;
+     * @param clearMask
+     *          the attribute bits to clear;
+     * @param toggleMask
+     *          the attribute bits to toggle.
+     */
+    void changeAttributes( final int fromColumn, final int toColumn, final int setMask, final int clearMask,
+        final int toggleMask )
+    {
+      int keepMask = ~clearMask;
+      for ( int col = fromColumn; col < toColumn; col++ )
+      {
+        m_attrs[col] = ( short )( ( ( m_attrs[col] & keepMask ) | setMask ) ^ toggleMask );
+      }
+    }
+
+    /**
+     * Copies a range of cells from the given line, which can be this line.
+     * Wide characters that are cut in half by either the source or the
+     * destination range are blanked.
+     * 
+     * @param line
+     *          the line to copy the cells from;
+     * @param srcColumn
+     *          the first column to copy;
+     * @param destColumn
+     *          the column to copy the first cell to;
+     * @param length
+     *          the number of cells to copy, > 0.
+     */
+    void copy( final Line line, final int srcColumn, final int destColumn, final int length )
+    {
+      int srcEnd = srcColumn + length;
+      int destEnd = destColumn + length;
+
+      // Determine the cut wide characters before the cells are overwritten...
+      boolean cutSrcLeft = ( line.m_chars[srcColumn] == CONTINUATION );
+      boolean cutSrcRight = ( srcEnd < line.m_chars.length ) && ( line.m_chars[srcEnd] == CONTINUATION );
+      boolean cutDestLeft = ( destColumn > 0 ) && ( m_chars[destColumn] == CONTINUATION );
+      boolean cutDestRight = ( destEnd < m_chars.length ) && ( m_chars[destEnd] == CONTINUATION );
+
+      System.arraycopy( line.m_chars, srcColumn, m_chars, destColumn, length );
+      System.arraycopy( line.m_attrs, srcColumn, m_attrs, destColumn, length );
+      if ( line.m_codePoints != null )
+      {
+        if ( m_codePoints == null )
+        {
+          m_codePoints = new int[m_chars.length];
+        }
+        System.arraycopy( line.m_codePoints, srcColumn, m_codePoints, destColumn, length );
+      }
+
+      if ( cutSrcLeft )
+      {
+        m_chars[destColumn] = ' ';
+      }
+      if ( cutSrcRight )
+      {
+        m_chars[destEnd - 1] = ' ';
+      }
+      if ( cutDestLeft )
+      {
+        m_chars[destColumn - 1] = ' ';
+      }
+      if ( cutDestRight )
+      {
+        m_chars[destEnd] = ' ';
+      }
+
+      if ( ( line.m_protected != null ) || ( m_protected != null ) )
+      {
+        updateProtected( destColumn, destEnd );
+      }
+    }
+
+    /**
+     * Fills a range of cells with the given character and attributes.
+     * 
+     * @param fromColumn
+     *          the first column to fill (inclusive);
+     * @param toColumn
+     *          the last column to fill (exclusive);
+     * @param ch
+     *          the character to fill the cells with;
+     * @param attributes
+     *          the attributes to fill the cells with.
+     */
+    void fill( final int fromColumn, final int toColumn, final char ch, final short attributes )
+    {
+      splitWide( fromColumn );
+      splitWide( toColumn );
+
+      Arrays.fill( m_chars, fromColumn, toColumn, ch );
+      Arrays.fill( m_attrs, fromColumn, toColumn, attributes );
+      setProtected( fromColumn, toColumn, attributes );
+
+      if ( toColumn == m_chars.length )
+      {
+        // The end of the line is erased, so it no longer continues...
+        m_wrapped = false;
+      }
+    }
+
+    /**
+     * Returns the code point of the given column.
+     * 
+     * @param column
+     *          the column to return the code point of.
+     * @return the code point, or {@link TextBuffer#CONTINUATION} for the
+     *         second cell of a wide character.
+     */
+    int getCodePoint( final int column )
+    {
+      char ch = m_chars[column];
+      if ( ( m_codePoints != null ) && Character.isHighSurrogate( ch ) )
+      {
+        return m_codePoints[column];
+      }
+      return ch;
+    }
+
+    /**
+     * Returns whether there is at least one protected cell in the given range.
+     * 
+     * @param fromColumn
+     *          the first column to test (inclusive);
+     * @param toColumn
+     *          the last column to test (exclusive).
+     * @return <code>true</code> if at least one cell is protected,
+     *         <code>false</code> otherwise.
+     */
+    boolean hasProtected( final int fromColumn, final int toColumn )
+    {
+      if ( m_protected == null )
+      {
+        return false;
+      }
+      int col = m_protected.nextSetBit( fromColumn );
+      return ( col >= 0 ) && ( col < toColumn );
+    }
+
+    /**
+     * @return <code>true</code> if this line only consists of blanks without
+     *         attributes, and is not continued on the next line,
+     *         <code>false</code> otherwise.
+     */
+    boolean isBlank()
+    {
+      if ( m_wrapped )
+      {
+        return false;
+      }
+      for ( int i = 0; i < m_chars.length; i++ )
+      {
+        if ( ( m_chars[i] != ' ' ) || ( m_attrs[i] != 0 ) )
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Updates the protected bitmap for a range of cells that all have the
+     * given attributes.
+     */
+    void setProtected( final int fromColumn, final int toColumn, final short attributes )
+    {
+      if ( ( attributes & TextAttributes.PROTECTED_MASK ) != 0 )
+      {
+        if ( m_protected == null )
+        {
+          m_protected = new BitSet( m_chars.length );
+        }
+        m_protected.set( fromColumn, toColumn );
+      }
+      else if ( m_protected != null )
+      {
+        m_protected.clear( fromColumn, toColumn );
+      }
+    }
+
+    /**
+     * Blanks both halves of a wide character that is split at the given
+     * column, that is, whose second half is at the given column.
+     * 
+     * @param column
+     *          the column at which the line is split, >= 0 && <= width.
+     */
+    void splitWide( final int column )
+    {
+      if ( ( column > 0 ) && ( column < m_chars.length ) && ( m_chars[column] == CONTINUATION ) )
+      {
+        m_chars[column - 1] = ' ';
+        m_chars[column] = ' ';
+      }
+    }
+
+    /**
+     * Recreates the protected bitmap for a range of cells from their
+     * attributes.
+     */
+    void updateProtected( final int fromColumn, final int toColumn )
+    {
+      for ( int col = fromColumn; col < toColumn; col++ )
+      {
+        if ( ( m_attrs[col] & TextAttributes.PROTECTED_MASK ) != 0 )
+        {
+          if ( m_protected == null )
+          {
+            m_protected = new BitSet( m_chars.length );
+          }
+          m_protected.set( col );
+        }
+        else if ( m_protected != null )
+        {
+          m_protected.clear( col );
+        }
+      }
+    }
+  }
+
+  // VARIABLES
+
+  private final int m_width;
+  private final int m_height;
+  /** the lines of this buffer, in the order in which they are shown. */
+  private final Line[] m_lines;
+  /** used to rotate the lines while scrolling. */
+  private final Line[] m_scratch;
+  /** the version of the last snapshot. */
+  private long m_version;
+  /** the lines of the last snapshot, or null if written after it. */
+  private Line[] m_snapshotLines;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new, blank, {@link TextBuffer} instance.
+   * 
+   * @param width
+   *          the width of this buffer, in columns, > 0;
+   * @param height
+   *          the height of this buffer, in lines, > 0.
+   */
+  public TextBuffer( final int width, final int height )
+  {
+    if ( width <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid width!" );
+    }
+    if ( height <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid height!" );
+    }
+
+    m_width = width;
+    m_height = height;
+    m_lines = new Line[height];
+    m_scratch = new Line[height];
+
+    for ( int i = 0; i < height; i++ )
+    {
+      m_lines[i] = new Line( width );
+    }
+  }
+
+  // METHODS
+
+  /**
+   * Changes the attributes of a rectangular area of cells by clearing, setting
+   * and toggling the given attribute bits, in that order. The masks should not
+   * include the protected attribute.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param setMask
+   *          the attribute bits to set;
+   * @param clearMask
+   *          the attribute bits to clear;
+   * @param toggleMask
+   *          the attribute bits to toggle.
+   */
+  public void changeAttributes( final int fromRow, final int fromColumn, final int toRow, final int toColumn,
+      final int setMask, final int clearMask, final int toggleMask )
+  {
+    for ( int row = fromRow; row < toRow; row++ )
+    {
+      getWritableLine( row ).changeAttributes( fromColumn, toColumn, setMask, clearMask, toggleMask );
+    }
+  }
+
+  /**
+   * Continues the versions of the snapshots of the given buffer, so the next
+   * snapshot of this buffer is newer than all snapshots of the given buffer.
+   * 
+   * @param buffer
+   *          the buffer to continue the versions of, cannot be
+   *          <code>null</code>.
+   */
+  public void continueVersion( final TextBuffer buffer )
+  {
+    m_version = Math.max( m_version, buffer.m_version );
+    m_snapshotLines = null;
+  }
+
+  /**
+   * Copies a number of cells within a single line of this buffer, like
+   * {@link System#arraycopy(Object, int, Object, int, int)}.
+   * 
+   * @param srcPos
+   *          the index of the first cell to copy;
+   * @param destPos
+   *          the index to copy the first cell to, on the same line as the
+   *          source index;
+   * @param length
+   *          the number of cells to copy, >= 0. The copied cells should not
+   *          exceed the line of the given indices. If 0, either index may be
+   *          at the end of the line.
+   */
+  public void copy( final int srcPos, final int destPos, final int length )
+  {
+    if ( length == 0 )
+    {
+      return;
+    }
+
+    int row = Math.min( srcPos, destPos ) / m_width;
+    int srcCol = srcPos - ( row * m_width );
+    int destCol = destPos - ( row * m_width );
+
+    Line line = getWritableLine( row );
+    System.arraycopy( line.m_chars, srcCol, line.m_chars, destCol, length );
+    System.arraycopy( line.m_attrs, srcCol, line.m_attrs, destCol, length );
+    if ( line.m_codePoints != null )
+    {
+      System.arraycopy( line.m_codePoints, srcCol, line.m_codePoints, destCol, length );
+    }
+    if ( line.m_protected != null )
+    {
+      line.updateProtected( destCol, destCol + length );
+    }
+  }
+
+  /**
+   * Copies a rectangular area of cells to another position in this buffer.
+   * The source and destination areas may overlap.
+   * 
+   * @param srcRow
+   *          the first row of the source area;
+   * @param srcColumn
+   *          the first column of the source area;
+   * @param destRow
+   *          the row to copy the first row of the area to;
+   * @param destColumn
+   *          the column to copy the first column of the area to;
+   * @param rows
+   *          the number of rows of the area, > 0;
+   * @param columns
+   *          the number of columns of the area, > 0. Both areas should not
+   *          exceed this buffer.
+   */
+  public void copyRect( final int srcRow, final int srcColumn, final int destRow, final int destColumn,
+      final int rows, final int columns )
+  {
+    // Copy the rows in an order that does not overwrite rows yet to copy...
+    boolean bottomUp = ( destRow > srcRow );
+    for ( int i = 0; i < rows; i++ )
+    {
+      int offset = bottomUp ? ( rows - 1 - i ) : i;
+
+      Line dest = getWritableLine( destRow + offset );
+      dest.copy( m_lines[srcRow + offset], srcColumn, destColumn, columns );
+    }
+  }
+
+  /**
+   * Erases a range of cells by filling them with the given character and
+   * attributes, optionally leaving the protected cells as-is. The range can
+   * span multiple lines.
+   * <p>
+   * Lines without protected cells in the range are filled in bulk; otherwise
+   * only the unprotected runs between the protected cells are filled.
+   * </p>
+   * 
+   * @param fromIndex
+   *          the index of the first cell to erase (inclusive);
+   * @param toIndex
+   *          the index of the last cell to erase (exclusive);
+   * @param ch
+   *          the character to fill the erased cells with;
+   * @param attributes
+   *          the attributes to fill the erased cells with;
+   * @param keepProtected
+   *          <code>true</code> to leave the protected cells as-is,
+   *          <code>false</code> to erase them as well.
+   */
+  public void erase( final int fromIndex, final int toIndex, final char ch, final short attributes,
+      final boolean keepProtected )
+  {
+    int idx = fromIndex;
+    while ( idx < toIndex )
+    {
+      int row = idx / m_width;
+      int col = idx - ( row * m_width );
+      int end = col + Math.min( toIndex - idx, m_width - col );
+
+      if ( !keepProtected || !m_lines[row].hasProtected( col, end ) )
+      {
+        getWritableLine( row ).fill( col, end, ch, attributes );
+      }
+      else
+      {
+        Line line = getWritableLine( row );
+        BitSet prot = line.m_protected;
+
+        int runStart = prot.nextClearBit( col );
+        while ( runStart < end )
+        {
+          int runEnd = prot.nextSetBit( runStart );
+          if ( ( runEnd < 0 ) || ( runEnd > end ) )
+          {
+            runEnd = end;
+          }
+          line.fill( runStart, runEnd, ch, attributes );
+          runStart = prot.nextClearBit( runEnd );
+        }
+      }
+
+      idx += end - col;
+    }
+  }
+
+  /**
+   * Erases a rectangular area of cells by filling it with the given character
+   * and attributes, optionally leaving the protected cells as-is.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param ch
+   *          the character to fill the erased cells with;
+   * @param attributes
+   *          the attributes to fill the erased cells with;
+   * @param keepProtected
+   *          <code>true</code> to leave the protected cells as-is,
+   *          <code>false</code> to erase them as well.
+   * @see #erase(int, int, char, short, boolean)
+   */
+  public void eraseRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn,
+      final char ch, final short attributes, final boolean keepProtected )
+  {
+    for ( int row = fromRow; row < toRow; row++ )
+    {
+      int offset = row * m_width;
+      erase( offset + fromColumn, offset + toColumn, ch, attributes, keepProtected );
+    }
+  }
+
+  /**
+   * Fills a range of cells with the given character and attributes. The range
+   * can span multiple lines.
+   * 
+   * @param fromIndex
+   *          the index of the first cell to fill (inclusive);
+   * @param toIndex
+   *          the index of the last cell to fill (exclusive);
+   * @param ch
+   *          the character to fill the cells with;
+   * @param attributes
+   *          the attributes to fill the cells with.
+   */
+  public void fill( final int fromIndex, final int toIndex, final char ch, final short attributes )
+  {
+    int idx = fromIndex;
+    while ( idx < toIndex )
+    {
+      int row = idx / m_width;
+      int col = idx - ( row * m_width );
+      int count = Math.min( toIndex - idx, m_width - col );
+
+      getWritableLine( row ).fill( col, col + count, ch, attributes );
+
+      idx += count;
+    }
+  }
+
+  /**
+   * Fills a rectangular area of cells with the given character and
+   * attributes.
+   * 
+   * @param fromRow
+   *          the first row of the area (inclusive);
+   * @param fromColumn
+   *          the first column of the area (inclusive);
+   * @param toRow
+   *          the last row of the area (exclusive);
+   * @param toColumn
+   *          the last column of the area (exclusive);
+   * @param ch
+   *          the character to fill the cells with;
+   * @param attributes
+   *          the attributes to fill the cells with.
+   */
+  public void fillRect( final int fromRow, final int fromColumn, final int toRow, final int toColumn, final char ch,
+      final short attributes )
+  {
+    for ( int row = fromRow; row < toRow; row++ )
+    {
+      getWritableLine( row ).fill( fromColumn, toColumn, ch, attributes );
+    }
+  }
+
+  /**
+   * Returns the encoded attributes of the cell at the given index.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()}.
+   * @return the encoded attributes, as used by {@link TextAttributes}.
+   */
+  public short getAttributes( final int index )
+  {
+    int row = index / m_width;
+    return m_lines[row].m_attrs[index - ( row * m_width )];
+  }
+
+  /**
+   * Returns the cell at the given index as {@link TextCell}.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()}.
+   * @return a new {@link TextCell} with the contents of the requested cell,
+   *         never <code>null</code>.
+   */
+  public TextCell getCell( final int index )
+  {
+    int row = index / m_width;
+    int col = index - ( row * m_width );
+
+    Line line = m_lines[row];
+    return new TextCell( line.m_chars[col], line.m_attrs[col] );
+  }
+
+  /**
+   * Returns the character of the cell at the given index.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()}.
+   * @return the character of the cell.
+   */
+  public char getChar( final int index )
+  {
+    int row = index / m_width;
+    return m_lines[row].m_chars[index - ( row * m_width )];
+  }
+
+  /**
+   * Returns the code point of the cell at the given index.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()}.
+   * @return the code point of the cell, or {@link #CONTINUATION} for the
+   *         second cell of a wide character.
+   */
+  public int getCodePoint( final int index )
+  {
+    int row = index / m_width;
+    return m_lines[row].getCodePoint( index - ( row * m_width ) );
+  }
+
+  /**
+   * @return the height of this buffer, in lines, > 0.
+   */
+  public int getHeight()
+  {
+    return m_height;
+  }
+
+  /**
+   * Returns the storage of the given line.
+   * 
+   * @param row
+   *          the index of the line, >= 0 && < {@link #getHeight()}.
+   * @return the line, never <code>null</code>.
+   */
+  Line getLine( final int row )
+  {
+    return m_lines[row];
+  }
+
+  /**
+   * @return the number of cells in this buffer, > 0.
+   */
+  public int getLength()
+  {
+    return m_width * m_height;
+  }
+
+  /**
+   * @return the width of this buffer, in columns, > 0.
+   */
+  public int getWidth()
+  {
+    return m_width;
+  }
+
+  /**
+   * Returns whether the cell at the given index is protected against
+   * selective erasure.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()}.
+   * @return <code>true</code> if the cell is protected, <code>false</code>
+   *         otherwise.
+   */
+  public boolean isProtected( final int index )
+  {
+    int row = index / m_width;
+    BitSet prot = m_lines[row].m_protected;
+    return ( prot != null ) && prot.get( index - ( row * m_width ) );
+  }
+
+  /**
+   * Returns whether the given line is continued on the next line due to an
+   * automatic wrap.
+   * 
+   * @param row
+   *          the index of the line, >= 0 && < {@link #getHeight()}.
+   * @return <code>true</code> if the line is soft-wrapped, <code>false</code>
+   *         otherwise.
+   */
+  public boolean isWrapped( final int row )
+  {
+    return m_lines[row].m_wrapped;
+  }
+
+  /**
+   * Creates a new buffer with the given dimensions, retaining the cells of
+   * this buffer that are on the same line and column in the new buffer.
+   * 
+   * @param width
+   *          the width of the new buffer, in columns, > 0;
+   * @param height
+   *          the height of the new buffer, in lines, > 0.
+   * @return a new {@link TextBuffer} instance, never <code>null</code>.
+   */
+  public TextBuffer resize( final int width, final int height )
+  {
+    TextBuffer result = new TextBuffer( width, height );
+    result.m_version = m_version;
+
+    int columns = Math.min( width, m_width );
+    int lines = Math.min( height, m_height );
+    for ( int row = 0; row < lines; row++ )
+    {
+      Line src = m_lines[row];
+      Line dest = result.m_lines[row];
+      System.arraycopy( src.m_chars, 0, dest.m_chars, 0, columns );
+      System.arraycopy( src.m_attrs, 0, dest.m_attrs, 0, columns );
+      if ( src.m_codePoints != null )
+      {
+        dest.m_codePoints = new int[width];
+        System.arraycopy( src.m_codePoints, 0, dest.m_codePoints, 0, columns );
+      }
+      if ( src.m_protected != null )
+      {
+        dest.updateProtected( 0, columns );
+      }
+      // Only the line as a whole can remain continued on the next line...
+      dest.m_wrapped = src.m_wrapped && ( width == m_width );
+      if ( ( columns < m_width ) && ( src.m_chars[columns] == CONTINUATION ) )
+      {
+        // The second half of a wide character is cut off...
+        dest.m_chars[columns - 1] = ' ';
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Creates a new buffer with the given dimensions, holding the given lines
+   * instead of the lines of this buffer.
+   * 
+   * @param width
+   *          the width of the new buffer, in columns, > 0;
+   * @param height
+   *          the height of the new buffer, in lines, > 0;
+   * @param lines
+   *          the lines of the new buffer, which should be as wide as the new
+   *          buffer, cannot be <code>null</code>. Missing lines are blank.
+   * @return a new {@link TextBuffer} instance, never <code>null</code>.
+   */
+  TextBuffer resize( final int width, final int height, final List<Line> lines )
+  {
+    TextBuffer result = new TextBuffer( width, height );
+    result.m_version = m_version;
+
+    int count = Math.min( height, lines.size() );
+    for ( int row = 0; row < count; row++ )
+    {
+      result.m_lines[row] = lines.get( row );
+    }
+
+    return result;
+  }
+
+  /**
+   * Scrolls the lines between [firstLine, lastLine] down by rotating them,
+   * and clears the lines that are scrolled in at the top.
+   * 
+   * @param firstLine
+   *          the first line of the region to scroll, >= 0;
+   * @param lastLine
+   *          the last line of the region to scroll, >= firstLine;
+   * @param lines
+   *          the number of lines to scroll, > 0 && <= the number of lines in
+   *          the region;
+   * @param ch
+   *          the character to clear the scrolled in lines with;
+   * @param attributes
+   *          the attributes to clear the scrolled in lines with.
+   */
+  public void scrollDown( final int firstLine, final int lastLine, final int lines, final char ch,
+      final short attributes )
+  {
+    int remaining = lastLine - firstLine + 1 - lines;
+
+    // The lines scrolled off at the bottom are reused at the top...
+    System.arraycopy( m_lines, firstLine + remaining, m_scratch, 0, lines );
+    System.arraycopy( m_lines, firstLine, m_lines, firstLine + lines, remaining );
+    for ( int i = 0; i < lines; i++ )
+    {
+      m_lines[firstLine + i] = clearLine( m_scratch[i], ch, attributes );
+      m_scratch[i] = null;
+    }
+    m_snapshotLines = null;
+  }
+
+  /**
+   * Scrolls the lines between [firstLine, lastLine] up by rotating them, and
+   * clears the lines that are scrolled in at the bottom.
+   * 
+   * @param firstLine
+   *          the first line of the region to scroll, >= 0;
+   * @param lastLine
+   *          the last line of the region to scroll, >= firstLine;
+   * @param lines
+   *          the number of lines to scroll, > 0 && <= the number of lines in
+   *          the region;
+   * @param ch
+   *          the character to clear the scrolled in lines with;
+   * @param attributes
+   *          the attributes to clear the scrolled in lines with.
+   */
+  public void scrollUp( final int firstLine, final int lastLine, final int lines, final char ch,
+      final short attributes )
+  {
+    int remaining = lastLine - firstLine + 1 - lines;
+
+    // The lines scrolled off at the top are reused at the bottom...
+    System.arraycopy( m_lines, firstLine, m_scratch, 0, lines );
+    System.arraycopy( m_lines, firstLine + lines, m_lines, firstLine, remaining );
+    for ( int i = 0; i < lines; i++ )
+    {
+      m_lines[firstLine + remaining + i] = clearLine( m_scratch[i], ch, attributes );
+      m_scratch[i] = null;
+    }
+    m_snapshotLines = null;
+  }
+
+  /**
+   * Sets the cell at the given index.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()};
+   * @param ch
+   *          the character to set;
+   * @param attributes
+   *          the attributes to set.
+   */
+  public void set( final int index, final char ch, final short attributes )
+  {
+    int row = index / m_width;
+    int col = index - ( row * m_width );
+
+    Line line = getWritableLine( row );
+    line.splitWide( col );
+    line.splitWide( col + 1 );
+    line.m_chars[col] = ch;
+    line.m_attrs[col] = attributes;
+    if ( ( line.m_protected != null ) || ( ( attributes & TextAttributes.PROTECTED_MASK ) != 0 ) )
+    {
+      line.setProtected( col, col + 1, attributes );
+    }
+  }
+
+  /**
+   * Sets a range of cells within a single line to the given characters, all
+   * with the same attributes.
+   * 
+   * @param index
+   *          the index of the first cell to set;
+   * @param chars
+   *          the characters to set, cannot be <code>null</code>;
+   * @param offset
+   *          the offset in the given array of the first character to set;
+   * @param length
+   *          the number of cells to set, >= 0. The set cells should not
+   *          exceed the line of the given index;
+   * @param attributes
+   *          the attributes to set.
+   */
+  public void set( final int index, final char[] chars, final int offset, final int length, final short attributes )
+  {
+    int row = index / m_width;
+    int col = index - ( row * m_width );
+
+    Line line = getWritableLine( row );
+    line.splitWide( col );
+    line.splitWide( col + length );
+    System.arraycopy( chars, offset, line.m_chars, col, length );
+    Arrays.fill( line.m_attrs, col, col + length, attributes );
+    line.setProtected( col, col + length, attributes );
+  }
+
+  /**
+   * Sets the cell at the given index to the given code point, which can be
+   * outside the BMP and can take two cells.
+   * 
+   * @param index
+   *          the index of the cell, >= 0 && < {@link #getLength()};
+   * @param codePoint
+   *          the code point to set;
+   * @param wide
+   *          <code>true</code> if the code point takes two cells, in which case
+   *          the index should not be at the last column, <code>false</code>
+   *          if it takes a single cell;
+   * @param attributes
+   *          the attributes to set.
+   */
+  public void setCodePoint( final int index, final int codePoint, final boolean wide, final short attributes )
+  {
+    int row = index / m_width;
+    int col = index - ( row * m_width );
+    int count = wide ? 2 : 1;
+
+    Line line = getWritableLine( row );
+    line.splitWide( col );
+    line.splitWide( col + count );
+
+    if ( Character.isSupplementaryCodePoint( codePoint ) )
+    {
+      if ( line.m_codePoints == null )
+      {
+        line.m_codePoints = new int[m_width];
+      }
+      line.m_codePoints[col] = codePoint;
+      // Keep the high surrogate of the code point...
+      line.m_chars[col] = ( char )( ( codePoint >>> 10 ) + HIGH_SURROGATE_OFFSET );
+    }
+    else
+    {
+      line.m_chars[col] = ( char )codePoint;
+    }
+    if ( wide )
+    {
+      line.m_chars[col + 1] = CONTINUATION;
+    }
+
+    Arrays.fill( line.m_attrs, col, col + count, attributes );
+    line.setProtected( col, col + count, attributes );
+  }
+
+  /**
+   * Marks whether the given line is continued on the next line due to an
+   * automatic wrap.
+   * 
+   * @param row
+   *          the index of the line, >= 0 && < {@link #getHeight()};
+   * @param wrapped
+   *          <code>true</code> if the line is soft-wrapped, <code>false</code>
+   *          otherwise.
+   */
+  public void setWrapped( final int row, final boolean wrapped )
+  {
+    if ( m_lines[row].m_wrapped != wrapped )
+    {
+      getWritableLine( row ).m_wrapped = wrapped;
+    }
+  }
+
+  /**
+   * Returns a snapshot of the current contents of this buffer.
+   * <p>
+   * All lines are shared between this buffer and the snapshot. If this buffer
+   * is not written since the last snapshot, the new snapshot shares its lines
+   * and version with the last snapshot.
+   * </p>
+   * 
+   * @param damage
+   *          the changes to pass along with the snapshot, cannot be
+   *          <code>null</code>.
+   * @return a snapshot of this buffer, never <code>null</code>.
+   */
+  public ScreenSnapshot snapshot( final IDamageMap damage )
+  {
+    Line[] lines = m_snapshotLines;
+    if ( lines == null )
+    {
+      for ( int i = 0; i < m_height; i++ )
+      {
+        m_lines[i].m_shared = true;
+      }
+      lines = m_lines.clone();
+      m_snapshotLines = lines;
+      m_version++;
+    }
+    return new ScreenSnapshot( lines, m_width, m_height, m_version, damage );
+  }
+
+  /**
+   * Blanks both halves of a wide character that is split at the given index,
+   * that is, whose second half is at the given index.
+   * 
+   * @param index
+   *          the index at which a line is split, >= 0.
+   */
+  public void splitWide( final int index )
+  {
+    int row = index / m_width;
+    int col = index - ( row * m_width );
+    if ( ( col > 0 ) && ( m_lines[row].m_chars[col] == CONTINUATION ) )
+    {
+      getWritableLine( row ).splitWide( col );
+    }
+  }
+
+  /**
+   * Clears the given line that is scrolled in, or creates a new blank line if
+   * it is part of a snapshot.
+   */
+  private Line clearLine( final Line line, final char ch, final short attributes )
+  {
+    Line result = line;
+    if ( result.m_shared )
+    {
+      result = new Line( m_width );
+    }
+    result.fill( 0, m_width, ch, attributes );
+    return result;
+  }
+
+  /**
+   * Returns the given line for writing, copying it first if it is part of a
+   * snapshot.
+   */
+  private Line getWritableLine( final int row )
+  {
+    Line line = m_lines[row];
+    if ( line.m_shared )
+    {
+      line = new Line( line );
+      m_lines[row] = line;
+    }
+    m_snapshotLines = null;
+    return line;
+  }
+}
@@ -0,0 +1,251 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import static nl.lxtreme.jvt220.terminal.vt220.TraceRecorder.*;
+
+import java.io.*;
+import java.nio.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.Limit;
+
+
+/**
+ * Decodes the binary records written by {@link TraceRecorder} into readable
+ * text, one line per record.
+ * <p>
+ * Each line shows the time (in microseconds) relative to the first record, the
+ * offset in the parsed stream, the type of the event and the event itself, in
+ * a notation similar to the original sequence, for example:
+ * </p>
+ *
+ * <pre>
+ *        0.000        12 CSI     ?25h
+ *        1.250        84 TEXT    72 chars
+ * </pre>
+ */
+public final class TraceDecoder
+{
+  // CONSTANTS
+
+  private static final String[] TYPE_NAMES = { "?", "CTRL", "ESC", "CSI", "STR<", "STR>", "TEXT", "VT52", "LIMIT",
+      "UNHNDLD" };
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link TraceDecoder} instance.
+   */
+  private TraceDecoder()
+  {
+    // Nop
+  }
+
+  // METHODS
+
+  /**
+   * Decodes all records from the given stream and appends them as text to the
+   * given output.
+   * 
+   * @param in
+   *          the stream to read the records from, cannot be <code>null</code>;
+   * @param out
+   *          the output to append the decoded records to, cannot be
+   *          <code>null</code>.
+   * @return the number of decoded records, >= 0.
+   * @throws IOException
+   *           in case of I/O problems reading or appending the records.
+   */
+  public static int decode( final InputStream in, final Appendable out ) throws IOException
+  {
+    if ( in == null )
+    {
+      throw new IllegalArgumentException( "Stream cannot be null!" );
+    }
+    if ( out == null )
+    {
+      throw new IllegalArgumentException( "Output cannot be null!" );
+    }
+
+    DataInputStream dis = new DataInputStream( in );
+    ByteBuffer record = ByteBuffer.allocate( RECORD_SIZE );
+    long firstTimestamp = 0L;
+    int count = 0;
+
+    while ( readRecord( dis, record.array() ) )
+    {
+      if ( count++ == 0 )
+      {
+        firstTimestamp = record.getLong( TIMESTAMP );
+      }
+      out.append( decodeRecord( record, firstTimestamp ) ).append( '\n' );
+    }
+    return count;
+  }
+
+  /**
+   * Decodes the trace file given as first argument and writes it to the
+   * standard output.
+   * 
+   * @param args
+   *          the command line arguments, the name of the trace file to decode.
+   */
+  public static void main( final String[] args ) throws IOException
+  {
+    if ( args.length != 1 )
+    {
+      System.err.println( "Usage: TraceDecoder <trace file>" );
+      System.exit( 1 );
+    }
+
+    InputStream is = new BufferedInputStream( new FileInputStream( args[0] ) );
+    try
+    {
+      decode( is, System.out );
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  /**
+   * Decodes a single record.
+   * 
+   * @param record
+   *          the record to decode;
+   * @param firstTimestamp
+   *          the timestamp of the first record.
+   * @return the decoded record, never <code>null</code>.
+   */
+  static String decodeRecord( final ByteBuffer record, final long firstTimestamp )
+  {
+    int type = record.get( TYPE ) & 0xFF;
+    char marker = ( char )( record.get( MARKER ) & 0xFF );
+    char intermediate = ( char )( record.get( INTERMEDIATE ) & 0xFF );
+    char code = record.getChar( CODE );
+    int count = record.get( COUNT ) & 0xFF;
+    int[] params = new int[Math.min( count, MAX_PARAMETERS )];
+    for ( int i = 0; i < params.length; i++ )
+    {
+      params[i] = record.getInt( PARAMETERS + ( 4 * i ) );
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append( String.format( "%12.3f ", ( record.getLong( TIMESTAMP ) - firstTimestamp ) / 1000.0 ) );
+    long offset = record.getLong( OFFSET );
+    sb.append( String.format( "%9s ", ( offset < 0 ) ? "-" : Long.toString( offset ) ) );
+    sb.append( String.format( "%-7s ", ( type < TYPE_NAMES.length ) ? TYPE_NAMES[type] : Integer.toString( type ) ) );
+
+    switch ( type )
+    {
+      case ITraceSink.CONTROL:
+        sb.append( String.format( "0x%02x", ( int )code ) );
+        break;
+
+      case ITraceSink.ESC:
+      case ITraceSink.VT52:
+        appendChar( sb, intermediate );
+        appendChar( sb, code );
+        break;
+
+      case ITraceSink.CSI:
+        appendChar( sb, marker );
+        for ( int i = 0; i < params.length; i++ )
+        {
+          if ( i > 0 )
+          {
+            sb.append( ';' );
+          }
+          sb.append( params[i] );
+        }
+        if ( count > params.length )
+        {
+          sb.append( ";..." );
+        }
+        appendChar( sb, intermediate );
+        appendChar( sb, code );
+        break;
+
+      case ITraceSink.STRING_START:
+        sb.append( String.format( "0x%02x", ( int )code ) );
+        break;
+
+      case ITraceSink.STRING_END:
+        sb.append( String.format( "0x%02x, %d chars", ( int )code, params[0] ) );
+        if ( params[1] != 0 )
+        {
+          sb.append( ", cancelled" );
+        }
+        break;
+
+      case ITraceSink.TEXT:
+        sb.append( params[0] ).append( " chars" );
+        break;
+
+      case ITraceSink.LIMIT:
+        Limit[] limits = Limit.values();
+        sb.append( ( params[0] < limits.length ) ? limits[params[0]].name() : Integer.toString( params[0] ) );
+        break;
+
+      default:
+        for ( int i = 0; i < params.length; i++ )
+        {
+          sb.append( ( i > 0 ) ? ", " : "" ).append( params[i] );
+        }
+        break;
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends the given character, if it is not 0.
+   */
+  private static void appendChar( final StringBuilder sb, final char c )
+  {
+    if ( c != 0 )
+    {
+      sb.append( c );
+    }
+  }
+
+  /**
+   * Reads a single record from the given stream.
+   * 
+   * @return <code>true</code> if a complete record is read, <code>false</code>
+   *         if the end of the stream is reached.
+   */
+  private static boolean readRecord( final DataInputStream dis, final byte[] record ) throws IOException
+  {
+    try
+    {
+      dis.readFully( record );
+      return true;
+    }
+    catch ( EOFException e )
+    {
+      return false;
+    }
+  }
+}
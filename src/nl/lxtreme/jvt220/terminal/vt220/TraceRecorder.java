@@ -0,0 +1,177 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.io.*;
+import java.nio.*;
+
+import nl.lxtreme.jvt220.terminal.*;
+
+
+/**
+ * Provides a trace sink that records all trace events as fixed-size binary
+ * records in a preallocated ring buffer, overwriting the oldest records when
+ * full.
+ * <p>
+ * Recording a trace event does not allocate, so it is cheap enough to be left
+ * enabled at all times. The recorded events can be written to a stream at any
+ * time and decoded offline with {@link TraceDecoder}.
+ * </p>
+ * <p>
+ * Each record consists of {@link #RECORD_SIZE} bytes, in big-endian order:
+ * </p>
+ * <ul>
+ * <li>8 bytes: the timestamp, in nanoseconds (see {@link System#nanoTime()});</li>
+ * <li>8 bytes: the offset in the parsed stream;</li>
+ * <li>1 byte: the type of the event;</li>
+ * <li>1 byte: the private marker;</li>
+ * <li>1 byte: the intermediate character;</li>
+ * <li>1 byte: the number of parameters (at most 255);</li>
+ * <li>2 bytes: the code of the event;</li>
+ * <li>2 bytes: reserved;</li>
+ * <li>4 &times; 4 bytes: the first {@link #MAX_PARAMETERS} parameters.</li>
+ * </ul>
+ */
+public class TraceRecorder implements ITraceSink
+{
+  // CONSTANTS
+
+  /** The size of a single record, in bytes. */
+  public static final int RECORD_SIZE = 40;
+  /** The maximum number of parameters stored in a single record. */
+  public static final int MAX_PARAMETERS = 4;
+
+  static final int TIMESTAMP = 0;
+  static final int OFFSET = 8;
+  static final int TYPE = 16;
+  static final int MARKER = 17;
+  static final int INTERMEDIATE = 18;
+  static final int COUNT = 19;
+  static final int CODE = 20;
+  static final int PARAMETERS = 24;
+
+  // VARIABLES
+
+  private final ByteBuffer m_records;
+  private final int m_capacity;
+  /** the total number of recorded events. */
+  private long m_recorded;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link TraceRecorder} instance.
+   * 
+   * @param capacity
+   *          the maximum number of records to retain, > 0.
+   */
+  public TraceRecorder( final int capacity )
+  {
+    if ( capacity <= 0 )
+    {
+      throw new IllegalArgumentException( "Invalid capacity!" );
+    }
+    m_capacity = capacity;
+    m_records = ByteBuffer.allocate( capacity * RECORD_SIZE );
+  }
+
+  // METHODS
+
+  /**
+   * Removes all recorded events.
+   */
+  public synchronized void clear()
+  {
+    m_recorded = 0;
+  }
+
+  /**
+   * @return the maximum number of records this recorder retains, > 0.
+   */
+  public int getCapacity()
+  {
+    return m_capacity;
+  }
+
+  /**
+   * Returns the number of records that are currently retained.
+   * 
+   * @return a record count, >= 0 && <= {@link #getCapacity()}.
+   */
+  public synchronized int getRecordCount()
+  {
+    return ( int )Math.min( m_recorded, m_capacity );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void trace( final int type, final char marker, final char intermediate, final char code,
+      final long offset, final int[] parameters, final int count )
+  {
+    final ByteBuffer records = m_records;
+    final int pos = ( int )( m_recorded++ % m_capacity ) * RECORD_SIZE;
+
+    records.putLong( pos + TIMESTAMP, System.nanoTime() );
+    records.putLong( pos + OFFSET, offset );
+    records.put( pos + TYPE, ( byte )type );
+    records.put( pos + MARKER, ( byte )marker );
+    records.put( pos + INTERMEDIATE, ( byte )intermediate );
+    records.put( pos + COUNT, ( byte )Math.min( count, 255 ) );
+    records.putChar( pos + CODE, code );
+    for ( int i = 0; i < MAX_PARAMETERS; i++ )
+    {
+      records.putInt( pos + PARAMETERS + ( 4 * i ), ( i < count ) ? parameters[i] : 0 );
+    }
+  }
+
+  /**
+   * Writes all retained records, from oldest to newest, to the given stream.
+   * 
+   * @param out
+   *          the stream to write the records to, cannot be <code>null</code>.
+   * @throws IOException
+   *           in case of I/O problems writing the records.
+   */
+  public synchronized void writeTo( final OutputStream out ) throws IOException
+  {
+    if ( out == null )
+    {
+      throw new IllegalArgumentException( "Stream cannot be null!" );
+    }
+
+    byte[] records = m_records.array();
+    if ( m_recorded > m_capacity )
+    {
+      // Ring buffer is wrapped; the oldest record is the next one to write...
+      int pos = ( int )( m_recorded % m_capacity ) * RECORD_SIZE;
+      out.write( records, pos, records.length - pos );
+      out.write( records, 0, pos );
+    }
+    else
+    {
+      out.write( records, 0, ( int )m_recorded * RECORD_SIZE );
+    }
+    out.flush();
+  }
+}
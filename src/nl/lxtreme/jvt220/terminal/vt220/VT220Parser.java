@@ -22,11 +22,20 @@ package nl.lxtreme.jvt220.terminal.vt220;
 
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 
+import nl.lxtreme.jvt220.terminal.*;
+
 
 /**
  * Parses VT220-compatible text sequences.
+ * <p>
+ * The parser is implemented as a table-driven state machine, modelled after
+ * the DEC ANSI parser diagram: each character is classified, after which the
+ * state transition table yields the action to perform and the next state.
+ * </p>
  */
 public final class VT220Parser
 {
@@ -43,6 +52,58 @@ public final class VT220Parser
     DECREQTPARM, DECFRA, DECELR, DECERA, DECSLE, DECSERA, DECRQLP, SL, SR, WindowManipulation;
   }
 
+  /**
+   * The limits that bound the work done by this parser for a single sequence.
+   * A sequence that exceeds one of these limits is aborted: the remainder of
+   * the sequence is skipped up to and including its final character (or
+   * string terminator), without being passed to the handler.
+   */
+  public static enum Limit
+  {
+    /** The maximum number of parameters (including sub-parameters) of a CSI. */
+    PARAMETERS( CSIParameters.CAPACITY, CSIParameters.CAPACITY ),
+    /** The maximum value of a single CSI parameter. */
+    PARAMETER_VALUE( 65535, Integer.MAX_VALUE ),
+    /** The maximum length of the payload of a DCS, OSC, PM, APC or SOS. */
+    STRING_LENGTH( 65536, Integer.MAX_VALUE ),
+    /** The maximum number of intermediate characters of a CSI or escape. */
+    INTERMEDIATES( 4, Integer.MAX_VALUE );
+
+    // VARIABLES
+
+    private final int m_defaultValue;
+    private final int m_maxValue;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a new {@link Limit} instance.
+     */
+    private Limit( final int defaultValue, final int maxValue )
+    {
+      m_defaultValue = defaultValue;
+      m_maxValue = maxValue;
+    }
+
+    // METHODS
+
+    /**
+     * @return the default value of this limit.
+     */
+    public int getDefaultValue()
+    {
+      return m_defaultValue;
+    }
+
+    /**
+     * @return the maximum value this limit can be set to.
+     */
+    public int getMaxValue()
+    {
+      return m_maxValue;
+    }
+  }
+
   /**
    * Callback for parser events.
    */
@@ -60,6 +121,21 @@ public final class VT220Parser
      */
     void handleCharacter( char ch ) throws IOException;
 
+    /**
+     * Called when a run of two or more plain (non C0/C1) characters is found.
+     * 
+     * @param chars
+     *          the array with the found characters, all >= 32. This array is
+     *          reused by the parser and is only valid during this call;
+     * @param offset
+     *          the offset in the given array of the first found character;
+     * @param length
+     *          the number of found characters, > 1.
+     * @throws IOException
+     *           in case of I/O problems handling the given characters.
+     */
+    void handleCharacters( char[] chars, int offset, int length ) throws IOException;
+
     /**
      * Called when a C0 control character is found.
      * 
@@ -76,7 +152,8 @@ public final class VT220Parser
      * @param type
      *          the type of CSI that was found;
      * @param parameters
-     *          the (optional) list of parameters for this CSI.
+     *          the (optional) list of parameters for this CSI. This array is
+     *          reused by the parser and is only valid during this call.
      * @throws IOException
      *           in case of I/O problems handling the given CSI.
      */
@@ -88,7 +165,8 @@ public final class VT220Parser
      * @param designator
      *          the designator of the escape sequence;
      * @param parameters
-     *          the (optional) parameters for the escape sequence.
+     *          the (optional) parameters for the escape sequence. This array
+     *          is reused by the parser and is only valid during this call.
      * @throws IOException
      *           in case of I/O problems handling the given escape sequence.
      */
@@ -96,11 +174,419 @@ public final class VT220Parser
   }
 
   /**
-   * Denotes the various states in which the VT220 parser can be.
+   * Callback for parser events with dedicated methods for the most common
+   * control sequences.
+   * <p>
+   * Handlers implementing this interface receive these control sequences with
+   * primitive arguments, without having to look up their type or their
+   * parameters in an array. All other (less common) control sequences are
+   * still passed to {@link #handleCSI(CSIType, int...)} and
+   * {@link #handleESC(char, int...)}. The VT52 equivalents of the cursor
+   * movement and erase sequences are passed to the dedicated methods as well.
+   * </p>
+   */
+  public static interface VT220CommandHandler extends VT220ParserHandler
+  {
+    // METHODS
+
+    /**
+     * Called for CUB: moves the cursor left N columns.
+     * 
+     * @param n
+     *          the number of columns to move, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleCUB( int n ) throws IOException;
+
+    /**
+     * Called for CUD: moves the cursor down N lines.
+     * 
+     * @param n
+     *          the number of lines to move, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleCUD( int n ) throws IOException;
+
+    /**
+     * Called for CUF: moves the cursor right N columns.
+     * 
+     * @param n
+     *          the number of columns to move, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleCUF( int n ) throws IOException;
+
+    /**
+     * Called for CUP/HVP: moves the cursor to the given position.
+     * 
+     * @param row
+     *          the one-based row to move to, >= 1;
+     * @param column
+     *          the one-based column to move to, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleCUP( int row, int column ) throws IOException;
+
+    /**
+     * Called for CUU: moves the cursor up N lines.
+     * 
+     * @param n
+     *          the number of lines to move, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleCUU( int n ) throws IOException;
+
+    /**
+     * Called for DECSTBM: sets the scrolling region.
+     * 
+     * @param top
+     *          the one-based top line of the scrolling region, >= 1;
+     * @param bottom
+     *          the one-based bottom line of the scrolling region, or 0 to use
+     *          the last line of the screen.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleDECSTBM( int top, int bottom ) throws IOException;
+
+    /**
+     * Called for DL: deletes N lines starting at the cursor line.
+     * 
+     * @param n
+     *          the number of lines to delete, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleDL( int n ) throws IOException;
+
+    /**
+     * Called for ED: erases (a part of) the display.
+     * 
+     * @param mode
+     *          the erase mode, >= 0.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleED( int mode ) throws IOException;
+
+    /**
+     * Called for EL: erases (a part of) the cursor line.
+     * 
+     * @param mode
+     *          the erase mode, >= 0.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleEL( int mode ) throws IOException;
+
+    /**
+     * Called for IL: inserts N lines at the cursor line.
+     * 
+     * @param n
+     *          the number of lines to insert, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleIL( int n ) throws IOException;
+
+    /**
+     * Called for REP: repeats the last written character N times.
+     * 
+     * @param count
+     *          the number of times to repeat the given character, >= 1;
+     * @param ch
+     *          the character to repeat.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleREP( int count, char ch ) throws IOException;
+
+    /**
+     * Called for SD: scrolls N lines down.
+     * 
+     * @param n
+     *          the number of lines to scroll, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleSD( int n ) throws IOException;
+
+    /**
+     * Called for SGR: sets the graphic rendition.
+     * 
+     * @param parameters
+     *          the array with the graphic rendition parameters, omitted
+     *          parameters are passed as 0. This array is reused by the parser
+     *          and is only valid during this call;
+     * @param count
+     *          the number of parameters in the given array, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleSGR( int[] parameters, int count ) throws IOException;
+
+    /**
+     * Called for SU: scrolls N lines up.
+     * 
+     * @param n
+     *          the number of lines to scroll, >= 1.
+     * @throws IOException
+     *           in case of I/O problems handling the command.
+     */
+    void handleSU( int n ) throws IOException;
+  }
+
+  /**
+   * Callback for parser events that also receives the payload of control
+   * strings (DCS, OSC, PM, APC and SOS).
+   * <p>
+   * The payload is streamed in chunks from a fixed-size buffer, so control
+   * strings of any length are passed in constant memory. Handlers that only
+   * implement {@link VT220ParserHandler} do not receive any payload.
+   * </p>
+   */
+  public static interface VT220ControlStringHandler extends VT220ParserHandler
+  {
+    // METHODS
+
+    /**
+     * Called when a (part of the) payload of the current control string is
+     * found.
+     * 
+     * @param chars
+     *          the array with the payload characters. This array is reused by
+     *          the parser and is only valid during this call;
+     * @param offset
+     *          the offset in the given array of the first payload character;
+     * @param length
+     *          the number of payload characters, > 0.
+     * @throws IOException
+     *           in case of I/O problems handling the payload.
+     */
+    void handleStringChunk( char[] chars, int offset, int length ) throws IOException;
+
+    /**
+     * Called when the current control string is terminated.
+     * 
+     * @param cancelled
+     *          <code>true</code> if the control string was cancelled (by CAN
+     *          or SUB), or aborted as it exceeds {@link Limit#STRING_LENGTH},
+     *          in which case the passed payload is incomplete;
+     *          <code>false</code> if the control string is properly
+     *          terminated.
+     * @throws IOException
+     *           in case of I/O problems handling the control string.
+     */
+    void handleStringEnd( boolean cancelled ) throws IOException;
+
+    /**
+     * Called when a new control string is found.
+     * 
+     * @param type
+     *          the type of control string, as its 8-bit introducer: one of
+     *          {@link VT220Parser#DCS}, {@link VT220Parser#OSC},
+     *          {@link VT220Parser#PM}, {@link VT220Parser#APC} or
+     *          {@link VT220Parser#SOS}.
+     * @throws IOException
+     *           in case of I/O problems handling the control string.
+     */
+    void handleStringStart( char type ) throws IOException;
+  }
+
+  /**
+   * Adapts a plain {@link VT220ParserHandler} to a {@link VT220CommandHandler}
+   * by passing all dedicated commands to
+   * {@link VT220ParserHandler#handleCSI(CSIType, int...)}.
    */
-  private static enum ParserState
+  private final class CommandHandlerAdapter implements VT220CommandHandler
   {
-    VT100, VT52, ESC, CSI, OSC, DCS, APC, PM, SOS;
+    // VARIABLES
+
+    private VT220ParserHandler m_handler;
+
+    // METHODS
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCharacter( char ch ) throws IOException
+    {
+      m_handler.handleCharacter( ch );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCharacters( char[] chars, int offset, int length ) throws IOException
+    {
+      m_handler.handleCharacters( chars, offset, length );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleControl( char controlChar ) throws IOException
+    {
+      m_handler.handleControl( controlChar );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCSI( CSIType type, int... parameters ) throws IOException
+    {
+      m_handler.handleCSI( type, parameters );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCUB( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.CUB, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCUD( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.CUD, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCUF( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.CUF, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCUP( int row, int column ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.CUP, args( row, column ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCUU( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.CUU, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleDECSTBM( int top, int bottom ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.DECSTBM, args( top, bottom ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleDL( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.DL, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleED( int mode ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.ED, args( mode ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleEL( int mode ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.EL, args( mode ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleESC( char designator, int... parameters ) throws IOException
+    {
+      m_handler.handleESC( designator, parameters );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleIL( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.IL, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleREP( int count, char ch ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.REP, args( count, ch ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleSD( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.SD, args( n ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleSGR( int[] parameters, int count ) throws IOException
+    {
+      int[] args = parameters;
+      if ( count != parameters.length )
+      {
+        args = getArgumentArray( count );
+        System.arraycopy( parameters, 0, args, 0, count );
+      }
+      m_handler.handleCSI( CSIType.SGR, args );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleSU( int n ) throws IOException
+    {
+      m_handler.handleCSI( CSIType.SU, args( n ) );
+    }
   }
 
   // CONSTANTS
@@ -117,10 +603,12 @@ public final class VT220Parser
   public static final char SI = 0x0F;
 
   public static final char CAN = 0x18;
+  public static final char SUB = 0x1a;
 
   public static final char ESCAPE = 0x1b;
 
   public static final char SPACE = 0x20;
+  public static final char DEL = 0x7f;
 
   public static final char IND = 0x84;
   public static final char NEL = 0x85;
@@ -139,37 +627,372 @@ public final class VT220Parser
   public static final char PM = 0x9e;
   public static final char APC = 0x9f;
 
-  // VARIABLES
-
-  private final Stack<Object> m_parameters;
-
-  private int m_logLevel;
-  private CharSequence m_text;
-  private int m_i;
-  private int m_lastParsePos;
-  private int m_lastWrittenChar;
-  private ParserState m_state;
-  private boolean m_vt52mode;
-  private char m_designator;
-
-  // CONSTRUCTORS
-
+  /** Used for sequences without any parameters. */
+  private static final int[] NO_PARAMETERS = new int[0];
+
+  /** The number of characters that are parsed at once from a CharSequence. */
+  private static final int INPUT_LENGTH = 4096;
+  /** The maximum number of payload characters passed at once. */
+  private static final int STRING_CHUNK_LENGTH = 1024;
+
+  private static final Charset ISO_8859_1 = Charset.forName( "ISO-8859-1" );
+  private static final Charset US_ASCII = Charset.forName( "US-ASCII" );
+  private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+  /** Used for malformed or unmappable input. */
+  private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+  // Character classes, used to look up the transition for a character...
+  private static final int CC_C0 = 0; // C0 controls, except the ones below
+  private static final int CC_BEL = 1; // BEL
+  private static final int CC_CANCEL = 2; // CAN & SUB
+  private static final int CC_ESC = 3; // ESC
+  private static final int CC_INTERMEDIATE = 4; // 0x20 - 0x2F
+  private static final int CC_DIGIT = 5; // 0x30 - 0x39
+  private static final int CC_COLON = 6; // ':'
+  private static final int CC_SEMICOLON = 7; // ';'
+  private static final int CC_MARKER = 8; // 0x3C - 0x3F
+  private static final int CC_FINAL = 9; // 0x40 - 0x7E
+  private static final int CC_DEL = 10; // DEL
+  private static final int CC_C1 = 11; // 0x80 - 0x9F
+  private static final int CC_PLAIN = 12; // >= 0xA0
+  private static final int CLASS_COUNT = 13;
+
+  // Parser states...
+  private static final int STATE_GROUND = 0;
+  private static final int STATE_ESCAPE = 1;
+  private static final int STATE_ESCAPE_INTERMEDIATE = 2;
+  private static final int STATE_CSI_ENTRY = 3;
+  private static final int STATE_CSI_PARAM = 4;
+  private static final int STATE_CSI_INTERMEDIATE = 5;
+  private static final int STATE_CSI_IGNORE = 6;
+  private static final int STATE_STRING = 7;
+  private static final int STATE_VT52_GROUND = 8;
+  private static final int STATE_VT52_ESCAPE = 9;
+  private static final int STATE_VT52_CURSOR = 10;
+  private static final int STATE_ESCAPE_IGNORE = 11;
+  private static final int STATE_STRING_IGNORE = 12;
+  private static final int STATE_COUNT = 13;
+
+  // Actions to perform upon a transition...
+  private static final int ACTION_NONE = 0;
+  private static final int ACTION_PRINT = 1;
+  private static final int ACTION_EXECUTE = 2;
+  private static final int ACTION_CLEAR = 3;
+  private static final int ACTION_COLLECT = 4;
+  private static final int ACTION_MARKER = 5;
+  private static final int ACTION_PARAM_DIGIT = 6;
+  private static final int ACTION_PARAM_SEPARATOR = 7;
+  private static final int ACTION_SUB_PARAM_SEPARATOR = 8;
+  private static final int ACTION_ESC_DISPATCH = 9;
+  private static final int ACTION_CSI_DISPATCH = 10;
+  private static final int ACTION_C1_DISPATCH = 11;
+  private static final int ACTION_STRING_PUT = 12;
+  private static final int ACTION_STRING_BEL = 13;
+  private static final int ACTION_VT52_DISPATCH = 14;
+  private static final int ACTION_VT52_CURSOR = 15;
+
+  /** The character class for each 8-bit character. */
+  private static final byte[] CHAR_CLASSES = new byte[256];
   /**
-   * Creates a new {@link VT220Parser} instance.
+   * The state transition table, indexed by state and character class. Each
+   * entry contains the action (upper byte) and the next state (lower byte).
    */
-  public VT220Parser()
-  {
-    m_parameters = new Stack<Object>();
-    m_vt52mode = false;
-    m_logLevel = 0;
-  }
-
-  // METHODS
+  private static final short[] TRANSITIONS = new short[STATE_COUNT * CLASS_COUNT];
 
-  /**
-   * Returns whether this parser is currently in VT52 mode.
-   * 
-   * @return <code>true</code> if this parser is in VT52 compatibility mode,
+  static
+  {
+    for ( int c = 0; c < CHAR_CLASSES.length; c++ )
+    {
+      int charClass;
+      if ( c == BELL )
+      {
+        charClass = CC_BEL;
+      }
+      else if ( c == CAN || c == SUB )
+      {
+        charClass = CC_CANCEL;
+      }
+      else if ( c == ESCAPE )
+      {
+        charClass = CC_ESC;
+      }
+      else if ( c < SPACE )
+      {
+        charClass = CC_C0;
+      }
+      else if ( c <= '/' )
+      {
+        charClass = CC_INTERMEDIATE;
+      }
+      else if ( c <= '9' )
+      {
+        charClass = CC_DIGIT;
+      }
+      else if ( c == ':' )
+      {
+        charClass = CC_COLON;
+      }
+      else if ( c == ';' )
+      {
+        charClass = CC_SEMICOLON;
+      }
+      else if ( c <= '?' )
+      {
+        charClass = CC_MARKER;
+      }
+      else if ( c <= '~' )
+      {
+        charClass = CC_FINAL;
+      }
+      else if ( c == DEL )
+      {
+        charClass = CC_DEL;
+      }
+      else if ( c <= APC )
+      {
+        charClass = CC_C1;
+      }
+      else
+      {
+        charClass = CC_PLAIN;
+      }
+      CHAR_CLASSES[c] = ( byte )charClass;
+    }
+
+    // Ground state; print all plain characters...
+    transition( STATE_GROUND, ACTION_EXECUTE, STATE_GROUND, CC_C0, CC_BEL, CC_CANCEL );
+    transition( STATE_GROUND, ACTION_CLEAR, STATE_ESCAPE, CC_ESC );
+    transition( STATE_GROUND, ACTION_PRINT, STATE_GROUND, CC_INTERMEDIATE, CC_DIGIT, CC_COLON, CC_SEMICOLON,
+        CC_MARKER, CC_FINAL, CC_DEL, CC_PLAIN );
+    transition( STATE_GROUND, ACTION_C1_DISPATCH, STATE_GROUND, CC_C1 );
+
+    // Escape state; collect intermediates or dispatch on the final character...
+    anywhere( STATE_ESCAPE );
+    transition( STATE_ESCAPE, ACTION_EXECUTE, STATE_ESCAPE, CC_C0, CC_BEL );
+    transition( STATE_ESCAPE, ACTION_COLLECT, STATE_ESCAPE_INTERMEDIATE, CC_INTERMEDIATE );
+    transition( STATE_ESCAPE, ACTION_ESC_DISPATCH, STATE_GROUND, CC_DIGIT, CC_COLON, CC_SEMICOLON, CC_MARKER,
+        CC_FINAL );
+    transition( STATE_ESCAPE, ACTION_NONE, STATE_ESCAPE, CC_DEL );
+    transition( STATE_ESCAPE, ACTION_NONE, STATE_GROUND, CC_PLAIN );
+
+    anywhere( STATE_ESCAPE_INTERMEDIATE );
+    transition( STATE_ESCAPE_INTERMEDIATE, ACTION_EXECUTE, STATE_ESCAPE_INTERMEDIATE, CC_C0, CC_BEL );
+    transition( STATE_ESCAPE_INTERMEDIATE, ACTION_COLLECT, STATE_ESCAPE_INTERMEDIATE, CC_INTERMEDIATE );
+    transition( STATE_ESCAPE_INTERMEDIATE, ACTION_ESC_DISPATCH, STATE_GROUND, CC_DIGIT, CC_COLON, CC_SEMICOLON,
+        CC_MARKER, CC_FINAL );
+    transition( STATE_ESCAPE_INTERMEDIATE, ACTION_NONE, STATE_ESCAPE_INTERMEDIATE, CC_DEL );
+    transition( STATE_ESCAPE_INTERMEDIATE, ACTION_NONE, STATE_GROUND, CC_PLAIN );
+
+    anywhere( STATE_ESCAPE_IGNORE );
+    transition( STATE_ESCAPE_IGNORE, ACTION_EXECUTE, STATE_ESCAPE_IGNORE, CC_C0, CC_BEL );
+    transition( STATE_ESCAPE_IGNORE, ACTION_NONE, STATE_ESCAPE_IGNORE, CC_INTERMEDIATE, CC_DEL );
+    transition( STATE_ESCAPE_IGNORE, ACTION_NONE, STATE_GROUND, CC_DIGIT, CC_COLON, CC_SEMICOLON, CC_MARKER,
+        CC_FINAL, CC_PLAIN );
+
+    // CSI states; collect the private marker, parameters and intermediates...
+    anywhere( STATE_CSI_ENTRY );
+    transition( STATE_CSI_ENTRY, ACTION_EXECUTE, STATE_CSI_ENTRY, CC_C0, CC_BEL );
+    transition( STATE_CSI_ENTRY, ACTION_COLLECT, STATE_CSI_INTERMEDIATE, CC_INTERMEDIATE );
+    transition( STATE_CSI_ENTRY, ACTION_PARAM_DIGIT, STATE_CSI_PARAM, CC_DIGIT );
+    transition( STATE_CSI_ENTRY, ACTION_SUB_PARAM_SEPARATOR, STATE_CSI_PARAM, CC_COLON );
+    transition( STATE_CSI_ENTRY, ACTION_PARAM_SEPARATOR, STATE_CSI_PARAM, CC_SEMICOLON );
+    transition( STATE_CSI_ENTRY, ACTION_MARKER, STATE_CSI_PARAM, CC_MARKER );
+    transition( STATE_CSI_ENTRY, ACTION_CSI_DISPATCH, STATE_GROUND, CC_FINAL );
+    transition( STATE_CSI_ENTRY, ACTION_NONE, STATE_CSI_ENTRY, CC_DEL );
+    transition( STATE_CSI_ENTRY, ACTION_NONE, STATE_CSI_IGNORE, CC_PLAIN );
+
+    anywhere( STATE_CSI_PARAM );
+    transition( STATE_CSI_PARAM, ACTION_EXECUTE, STATE_CSI_PARAM, CC_C0, CC_BEL );
+    transition( STATE_CSI_PARAM, ACTION_COLLECT, STATE_CSI_INTERMEDIATE, CC_INTERMEDIATE );
+    transition( STATE_CSI_PARAM, ACTION_PARAM_DIGIT, STATE_CSI_PARAM, CC_DIGIT );
+    transition( STATE_CSI_PARAM, ACTION_SUB_PARAM_SEPARATOR, STATE_CSI_PARAM, CC_COLON );
+    transition( STATE_CSI_PARAM, ACTION_PARAM_SEPARATOR, STATE_CSI_PARAM, CC_SEMICOLON );
+    transition( STATE_CSI_PARAM, ACTION_NONE, STATE_CSI_IGNORE, CC_MARKER, CC_PLAIN );
+    transition( STATE_CSI_PARAM, ACTION_CSI_DISPATCH, STATE_GROUND, CC_FINAL );
+    transition( STATE_CSI_PARAM, ACTION_NONE, STATE_CSI_PARAM, CC_DEL );
+
+    anywhere( STATE_CSI_INTERMEDIATE );
+    transition( STATE_CSI_INTERMEDIATE, ACTION_EXECUTE, STATE_CSI_INTERMEDIATE, CC_C0, CC_BEL );
+    transition( STATE_CSI_INTERMEDIATE, ACTION_COLLECT, STATE_CSI_INTERMEDIATE, CC_INTERMEDIATE );
+    transition( STATE_CSI_INTERMEDIATE, ACTION_NONE, STATE_CSI_IGNORE, CC_DIGIT, CC_COLON, CC_SEMICOLON,
+        CC_MARKER, CC_PLAIN );
+    transition( STATE_CSI_INTERMEDIATE, ACTION_CSI_DISPATCH, STATE_GROUND, CC_FINAL );
+    transition( STATE_CSI_INTERMEDIATE, ACTION_NONE, STATE_CSI_INTERMEDIATE, CC_DEL );
+
+    anywhere( STATE_CSI_IGNORE );
+    transition( STATE_CSI_IGNORE, ACTION_EXECUTE, STATE_CSI_IGNORE, CC_C0, CC_BEL );
+    transition( STATE_CSI_IGNORE, ACTION_NONE, STATE_CSI_IGNORE, CC_INTERMEDIATE, CC_DIGIT, CC_COLON,
+        CC_SEMICOLON, CC_MARKER, CC_DEL, CC_PLAIN );
+    transition( STATE_CSI_IGNORE, ACTION_NONE, STATE_GROUND, CC_FINAL );
+
+    // Control strings (DCS, OSC, PM, APC & SOS); wait for the terminator...
+    anywhere( STATE_STRING );
+    transition( STATE_STRING, ACTION_NONE, STATE_STRING, CC_C0 );
+    transition( STATE_STRING, ACTION_STRING_BEL, STATE_STRING, CC_BEL );
+    transition( STATE_STRING, ACTION_STRING_PUT, STATE_STRING, CC_INTERMEDIATE, CC_DIGIT, CC_COLON,
+        CC_SEMICOLON, CC_MARKER, CC_FINAL, CC_DEL, CC_PLAIN );
+
+    anywhere( STATE_STRING_IGNORE );
+    transition( STATE_STRING_IGNORE, ACTION_NONE, STATE_STRING_IGNORE, CC_C0 );
+    transition( STATE_STRING_IGNORE, ACTION_STRING_BEL, STATE_STRING_IGNORE, CC_BEL );
+    transition( STATE_STRING_IGNORE, ACTION_NONE, STATE_STRING_IGNORE, CC_INTERMEDIATE, CC_DIGIT, CC_COLON,
+        CC_SEMICOLON, CC_MARKER, CC_FINAL, CC_DEL, CC_PLAIN );
+
+    // VT52 states...
+    transition( STATE_VT52_GROUND, ACTION_EXECUTE, STATE_VT52_GROUND, CC_C0, CC_BEL, CC_CANCEL );
+    transition( STATE_VT52_GROUND, ACTION_CLEAR, STATE_VT52_ESCAPE, CC_ESC );
+    transition( STATE_VT52_GROUND, ACTION_PRINT, STATE_VT52_GROUND, CC_INTERMEDIATE, CC_DIGIT, CC_COLON,
+        CC_SEMICOLON, CC_MARKER, CC_FINAL, CC_DEL, CC_C1, CC_PLAIN );
+
+    transition( STATE_VT52_ESCAPE, ACTION_EXECUTE, STATE_VT52_ESCAPE, CC_C0, CC_BEL );
+    transition( STATE_VT52_ESCAPE, ACTION_NONE, STATE_VT52_GROUND, CC_CANCEL );
+    transition( STATE_VT52_ESCAPE, ACTION_NONE, STATE_VT52_ESCAPE, CC_ESC );
+    transition( STATE_VT52_ESCAPE, ACTION_VT52_DISPATCH, STATE_VT52_GROUND, CC_INTERMEDIATE, CC_DIGIT,
+        CC_COLON, CC_SEMICOLON, CC_MARKER, CC_FINAL, CC_DEL, CC_C1, CC_PLAIN );
+
+    for ( int charClass = 0; charClass < CLASS_COUNT; charClass++ )
+    {
+      transition( STATE_VT52_CURSOR, ACTION_VT52_CURSOR, STATE_VT52_CURSOR, charClass );
+    }
+  }
+
+  // VARIABLES
+
+  private final CSIParameters m_parameters;
+  /**
+   * Preallocated argument arrays, indexed by their length, used to pass
+   * parameters to the handler without allocating a new array per sequence.
+   */
+  private final int[][] m_arguments;
+  /** Used to parse character sequences and decoded bytes. */
+  private final char[] m_input;
+  /** Used to decode bytes from buffers without an accessible array. */
+  private final byte[] m_bytes;
+  /** Used to pass dedicated commands to plain parser handlers. */
+  private final CommandHandlerAdapter m_adapter;
+  /** Used to pass the payload of control strings in chunks. */
+  private final char[] m_stringChunk;
+  /** the current value of each limit, indexed by its ordinal. */
+  private final int[] m_limits;
+  /** the number of times each limit was exceeded, indexed by its ordinal. */
+  private final long[] m_limitCounts;
+
+  /** the handler that receives the dedicated commands during parsing. */
+  private VT220CommandHandler m_commands;
+  /** the handler that receives control string payloads, can be null. */
+  private VT220ControlStringHandler m_strings;
+  /** the parameters of trace events other than control sequences. */
+  private final int[] m_traceParameters;
+
+  /** the sink to trace all parsed sequences to, can be null. */
+  private ITraceSink m_traceSink;
+  /** the offset in the parsed stream of the first character of the input. */
+  private long m_traceOffset;
+  private int m_nextParameter;
+  /** the characters that are currently being parsed. */
+  private char[] m_chars;
+  private int m_i;
+  private int m_lastWrittenChar;
+  private int m_state;
+  private boolean m_vt52mode;
+  /** the private marker of a CSI, like '?' or '>'. */
+  private char m_designator;
+  /** the (first) intermediate character of a CSI or escape sequence. */
+  private char m_intermediate;
+  /** the 8-bit introducer of the current control string, or 0 if none. */
+  private char m_stringType;
+  /** the number of intermediate characters of the current sequence. */
+  private int m_intermediateCount;
+  /** the length of the payload of the current control string. */
+  private int m_stringLength;
+  /** the number of payload characters in {@link #m_stringChunk}. */
+  private int m_stringChunkLength;
+  /** whether the current control string is aborted due to its length. */
+  private boolean m_stringAborted;
+  /** the row of a VT52 direct cursor address, or -1 if not yet seen. */
+  private int m_vt52Row;
+  /** the code point of a partially decoded UTF-8 sequence. */
+  private int m_utf8CodePoint;
+  /** the number of continuation bytes still expected for a UTF-8 sequence. */
+  private int m_utf8Remaining;
+  /** the minimal code point of the current UTF-8 sequence (no overlongs). */
+  private int m_utf8Minimum;
+  /** the decoder used for charsets that are not decoded inline. */
+  private CharsetDecoder m_decoder;
+  /** the bytes of a partially decoded character, for {@link #m_decoder}. */
+  private ByteBuffer m_pendingBytes;
+
+  // CONSTRUCTORS
+
+  /**
+   * Creates a new {@link VT220Parser} instance.
+   */
+  public VT220Parser()
+  {
+    m_parameters = new CSIParameters();
+    m_arguments = new int[CSIParameters.CAPACITY + 1][];
+    for ( int i = 0; i < m_arguments.length; i++ )
+    {
+      m_arguments[i] = new int[i];
+    }
+    m_input = new char[INPUT_LENGTH];
+    m_bytes = new byte[INPUT_LENGTH];
+    m_adapter = new CommandHandlerAdapter();
+    m_stringChunk = new char[STRING_CHUNK_LENGTH];
+    m_traceParameters = new int[2];
+
+    Limit[] limits = Limit.values();
+    m_limits = new int[limits.length];
+    m_limitCounts = new long[limits.length];
+    for ( Limit limit : limits )
+    {
+      setLimit( limit, limit.getDefaultValue() );
+    }
+    m_vt52mode = false;
+
+    reset();
+  }
+
+  // METHODS
+
+  /**
+   * Returns the current value of the given limit.
+   * 
+   * @param limit
+   *          the limit to return the value for, cannot be <code>null</code>.
+   * @return the value of the given limit, >= 1.
+   */
+  public int getLimit( Limit limit )
+  {
+    if ( limit == null )
+    {
+      throw new IllegalArgumentException( "Limit cannot be null!" );
+    }
+    return m_limits[limit.ordinal()];
+  }
+
+  /**
+   * Returns how often the given limit was exceeded since the creation of this
+   * parser or the last call to {@link #resetLimitCounts()}.
+   * 
+   * @param limit
+   *          the limit to return the count for, cannot be <code>null</code>.
+   * @return the number of sequences aborted due to the given limit, >= 0.
+   */
+  public long getLimitCount( Limit limit )
+  {
+    if ( limit == null )
+    {
+      throw new IllegalArgumentException( "Limit cannot be null!" );
+    }
+    return m_limitCounts[limit.ordinal()];
+  }
+
+  /**
+   * Returns whether this parser is currently in VT52 mode.
+   * 
+   * @return <code>true</code> if this parser is in VT52 compatibility mode,
    *         <code>false</code> if this parser is in VT100 mode.
    */
   public boolean isVT52mode()
@@ -177,1240 +1000,1778 @@ public final class VT220Parser
     return m_vt52mode;
   }
 
+  /**
+   * Decodes and parses the given bytes and invokes the callback methods on the
+   * given handler.
+   * <p>
+   * ISO-8859-1, US-ASCII and UTF-8 are decoded inline, without any intermediate
+   * copies. For UTF-8, bytes in the range 0x80 - 0x9F that do not belong to a
+   * multi-byte sequence are regarded as 8-bit (C1) control characters. All
+   * other charsets are decoded through a {@link CharsetDecoder}. Malformed input
+   * is replaced by U+FFFD.
+   * </p>
+   * <p>
+   * Like {@link #parse(CharSequence, VT220ParserHandler)}, this method is
+   * resumable, also for characters that are split across multiple buffers. All
+   * remaining bytes of the given buffer are consumed.
+   * </p>
+   * 
+   * @param bytes
+   *          the buffer with bytes to parse, cannot be <code>null</code>. Its
+   *          position is advanced to its limit;
+   * @param charset
+   *          the charset of the given bytes, cannot be <code>null</code>;
+   * @param handler
+   *          the handler to use as callback, cannot be <code>null</code>.
+   * @return the number of consumed bytes.
+   * @throws IOException
+   *           in case of I/O problems parsing the input.
+   */
+  public int parse( ByteBuffer bytes, Charset charset, VT220ParserHandler handler ) throws IOException
+  {
+    final boolean utf8 = UTF_8.equals( charset );
+    final boolean latin1 = ISO_8859_1.equals( charset ) || US_ASCII.equals( charset );
+    final int length = bytes.remaining();
+
+    if ( !utf8 && !latin1 )
+    {
+      decodeWithDecoder( bytes, charset, handler );
+      return length;
+    }
+
+    while ( bytes.hasRemaining() )
+    {
+      byte[] src;
+      int offset;
+      int count;
+      if ( bytes.hasArray() )
+      {
+        src = bytes.array();
+        offset = bytes.arrayOffset() + bytes.position();
+        count = bytes.remaining();
+      }
+      else
+      {
+        // Copy a chunk of bytes in bulk...
+        src = m_bytes;
+        offset = 0;
+        count = Math.min( src.length, bytes.remaining() );
+        bytes.get( src, 0, count );
+        bytes.position( bytes.position() - count );
+      }
+
+      if ( utf8 )
+      {
+        count = decodeUTF8( src, offset, count, handler );
+      }
+      else
+      {
+        count = decodeLatin1( src, offset, count, handler );
+      }
+
+      bytes.position( bytes.position() + count );
+    }
+
+    return length;
+  }
+
+  /**
+   * Parses the given characters and invokes the callback methods on the given
+   * handler.
+   * <p>
+   * This parser is resumable: the state of an incomplete sequence at the end of
+   * the given characters is retained and continued upon the next call to this
+   * method. As such, all given characters are always consumed, and each
+   * character is examined only once.
+   * </p>
+   * 
+   * @param chars
+   *          the array with characters to parse, cannot be <code>null</code>;
+   * @param offset
+   *          the offset in the given array of the first character to parse;
+   * @param length
+   *          the number of characters to parse, >= 0;
+   * @param handler
+   *          the handler to use as callback, cannot be <code>null</code>.
+   * @return the number of consumed characters, which always equals the given
+   *         length.
+   * @throws IOException
+   *           in case of I/O problems parsing the input.
+   */
+  public int parse( char[] chars, int offset, int length, VT220ParserHandler handler ) throws IOException
+  {
+    final short[] transitions = TRANSITIONS;
+    final byte[] charClasses = CHAR_CLASSES;
+    final int end = offset + length;
+
+    m_chars = chars;
+    m_commands = getCommandHandler( handler );
+    m_strings = ( handler instanceof VT220ControlStringHandler ) ? ( VT220ControlStringHandler )handler : null;
+    // Trace offsets are relative to the start of the parsed stream...
+    m_traceOffset -= offset;
+
+    int state = m_state;
+    int i = offset;
+    while ( i < end )
+    {
+      char c = chars[i++];
+
+      int charClass = ( c < charClasses.length ) ? charClasses[c] : CC_PLAIN;
+      int transition = transitions[( state * CLASS_COUNT ) + charClass];
+      int action = transition >> 8;
+
+      state = transition & 0xFF;
+
+      if ( action == ACTION_PRINT )
+      {
+        // Most common case...
+        i = handlePrintableRun( handler, chars, i - 1, end );
+        continue;
+      }
+      else if ( action == ACTION_PARAM_DIGIT )
+      {
+        // Second most common case...
+        if ( !m_parameters.addDigit( c - '0' ) )
+        {
+          m_i = i;
+          state = abortSequence( Limit.PARAMETER_VALUE, STATE_CSI_IGNORE );
+        }
+        continue;
+      }
+      else if ( action == ACTION_STRING_PUT )
+      {
+        // Payload of control strings...
+        m_state = state;
+        i = handleStringRun( chars, i - 1, end );
+        state = m_state;
+        continue;
+      }
+
+      // Actions can change the state themselves...
+      m_state = state;
+      m_i = i;
+
+      switch ( action )
+      {
+        case ACTION_EXECUTE:
+          if ( m_stringType != 0 )
+          {
+            // CAN or SUB cancels the control string...
+            endString( true /* cancelled */);
+          }
+          m_lastWrittenChar = -1;
+          if ( m_traceSink != null )
+          {
+            trace( ITraceSink.CONTROL, ( char )0, c, 0 );
+          }
+          handler.handleControl( c );
+          break;
+
+        case ACTION_CLEAR:
+          if ( m_stringType != 0 )
+          {
+            endString( false /* cancelled */);
+          }
+          clearParameters();
+          m_designator = 0;
+          m_intermediate = 0;
+          break;
+
+        case ACTION_COLLECT:
+          if ( ++m_intermediateCount > m_limits[Limit.INTERMEDIATES.ordinal()] )
+          {
+            m_state = abortSequence( Limit.INTERMEDIATES, ( state == STATE_CSI_INTERMEDIATE ) ? STATE_CSI_IGNORE
+                : STATE_ESCAPE_IGNORE );
+          }
+          else if ( m_intermediate == 0 )
+          {
+            // Only the first intermediate character is significant...
+            m_intermediate = c;
+          }
+          break;
+
+        case ACTION_MARKER:
+          m_designator = c;
+          break;
+
+        case ACTION_PARAM_SEPARATOR:
+          if ( !m_parameters.nextParameter() )
+          {
+            m_state = abortSequence( Limit.PARAMETERS, STATE_CSI_IGNORE );
+          }
+          break;
+
+        case ACTION_SUB_PARAM_SEPARATOR:
+          if ( !m_parameters.nextSubParameter() )
+          {
+            m_state = abortSequence( Limit.PARAMETERS, STATE_CSI_IGNORE );
+          }
+          break;
+
+        case ACTION_ESC_DISPATCH:
+          if ( ( m_traceSink != null ) && ( c != '[' ) )
+          {
+            // CSI sequences are traced once they are complete...
+            trace( ITraceSink.ESC, m_intermediate, c, 0 );
+          }
+          if ( m_intermediate != 0 )
+          {
+            dispatchESCIntermediate( handler, c );
+          }
+          else
+          {
+            dispatchESC( handler, c );
+          }
+          break;
+
+        case ACTION_CSI_DISPATCH:
+          if ( m_traceSink != null )
+          {
+            traceCSI( c );
+          }
+          dispatchCSI( handler, c );
+          break;
+
+        case ACTION_C1_DISPATCH:
+          if ( m_stringType != 0 )
+          {
+            endString( false /* cancelled */);
+          }
+          if ( m_traceSink != null )
+          {
+            trace( ITraceSink.CONTROL, ( char )0, c, 0 );
+          }
+          dispatchC1( handler, c );
+          break;
+
+        case ACTION_STRING_BEL:
+          if ( m_stringType == OSC )
+          {
+            // BEL terminates an OSC (xterm extension)...
+            endString( false /* cancelled */);
+            escSequenceFound();
+          }
+          break;
+
+        case ACTION_VT52_DISPATCH:
+          if ( m_traceSink != null )
+          {
+            trace( ITraceSink.VT52, ( char )0, c, 0 );
+          }
+          dispatchVT52( handler, c );
+          break;
+
+        case ACTION_VT52_CURSOR:
+          handleVT52Cursor( handler, c );
+          break;
+
+        default:
+          // Ignore character...
+          break;
+      }
+
+      state = m_state;
+    }
+
+    m_state = state;
+    m_chars = null;
+    m_traceOffset += end;
+
+    return length;
+  }
+
   /**
    * Parses the contained text and invokes the callback methods on the given
    * handler.
+   * <p>
+   * This parser is resumable: the state of an incomplete sequence at the end of
+   * the given text is retained and continued upon the next call to this method.
+   * As such, all given text is always consumed, and each character is examined
+   * only once.
+   * </p>
    * 
    * @param text
    *          the text (as {@link CharSequence}) to parse, cannot be
    *          <code>null</code>;
    * @param handler
    *          the handler to use as callback, cannot be <code>null</code>.
+   * @return the number of consumed characters, which always equals the length
+   *         of the given text.
    * @throws IOException
    *           in case of I/O problems parsing the input.
+   * @see #parse(char[], int, int, VT220ParserHandler)
    */
   public int parse( CharSequence text, VT220ParserHandler handler ) throws IOException
   {
-    m_text = text;
-    m_i = 0;
-    m_lastParsePos = 0;
+    final char[] input = m_input;
+    final int length = text.length();
+
+    int offset = 0;
+    while ( offset < length )
+    {
+      int count = Math.min( input.length, length - offset );
+      if ( text instanceof String )
+      {
+        ( ( String )text ).getChars( offset, offset + count, input, 0 );
+      }
+      else if ( text instanceof StringBuilder )
+      {
+        ( ( StringBuilder )text ).getChars( offset, offset + count, input, 0 );
+      }
+      else
+      {
+        for ( int i = 0; i < count; i++ )
+        {
+          input[i] = text.charAt( offset + i );
+        }
+      }
+
+      parse( input, 0, count, handler );
+
+      offset += count;
+    }
+
+    return length;
+  }
+
+  /**
+   * Resets this parser to its initial state, discarding any partially parsed
+   * sequence.
+   */
+  public void reset()
+  {
+    clearParameters();
+    m_state = m_vt52mode ? STATE_VT52_GROUND : STATE_GROUND;
+    m_lastWrittenChar = -1;
+    m_designator = 0;
+    m_intermediate = 0;
+    m_stringType = 0;
+    m_vt52Row = -1;
+    m_utf8Remaining = 0;
+    if ( m_decoder != null )
+    {
+      m_decoder.reset();
+      m_pendingBytes.clear();
+    }
+  }
+
+  /**
+   * Resets the counts of all limits to zero.
+   * 
+   * @see #getLimitCount(Limit)
+   */
+  public void resetLimitCounts()
+  {
+    Arrays.fill( m_limitCounts, 0L );
+  }
+
+  /**
+   * Sets the value of the given limit. Sequences exceeding this limit are
+   * aborted.
+   * 
+   * @param limit
+   *          the limit to set, cannot be <code>null</code>;
+   * @param value
+   *          the value to set, >= 1 && <= {@link Limit#getMaxValue()}.
+   * @throws IllegalArgumentException
+   *           in case the given limit was <code>null</code> or the given value
+   *           was out of range.
+   */
+  public void setLimit( Limit limit, int value )
+  {
+    if ( limit == null )
+    {
+      throw new IllegalArgumentException( "Limit cannot be null!" );
+    }
+    if ( ( value < 1 ) || ( value > limit.getMaxValue() ) )
+    {
+      throw new IllegalArgumentException( "Invalid limit value!" );
+    }
+
+    m_limits[limit.ordinal()] = value;
+    if ( limit == Limit.PARAMETERS )
+    {
+      m_parameters.setMaxCount( value );
+    }
+    else if ( limit == Limit.PARAMETER_VALUE )
+    {
+      m_parameters.setMaxValue( value );
+    }
+  }
+
+  /**
+   * Sets the sink to trace all parsed sequences to.
+   * 
+   * @param traceSink
+   *          the trace sink to set, can be <code>null</code> to disable
+   *          tracing.
+   */
+  public void setTraceSink( ITraceSink traceSink )
+  {
+    m_traceSink = traceSink;
+  }
+
+  /**
+   * Aborts the current sequence as it exceeds the given limit.
+   * 
+   * @param limit
+   *          the limit that is exceeded;
+   * @param ignoreState
+   *          the state that skips the remainder of the sequence.
+   * @return the given ignore state.
+   */
+  private int abortSequence( final Limit limit, final int ignoreState )
+  {
+    m_limitCounts[limit.ordinal()]++;
+    if ( m_traceSink != null )
+    {
+      m_traceParameters[0] = limit.ordinal();
+      trace( ITraceSink.LIMIT, ( char )0, ( char )0, 1 );
+    }
+    return ignoreState;
+  }
+
+  /**
+   * Defines the transitions that apply to the given state regardless of its
+   * other transitions, like the cancellation of a sequence.
+   * 
+   * @param state
+   *          the state to define the transitions for.
+   */
+  private static void anywhere( final int state )
+  {
+    transition( state, ACTION_EXECUTE, STATE_GROUND, CC_CANCEL );
+    transition( state, ACTION_CLEAR, STATE_ESCAPE, CC_ESC );
+    transition( state, ACTION_C1_DISPATCH, STATE_GROUND, CC_C1 );
+  }
+
+  /**
+   * Returns the given argument in a shared, preallocated array.
+   * 
+   * @param arg
+   *          the argument to return.
+   * @return an array of length 1, never <code>null</code>.
+   */
+  private int[] args( final int arg )
+  {
+    int[] result = m_arguments[1];
+    result[0] = arg;
+    return result;
+  }
+
+  /**
+   * Returns the given arguments in a shared, preallocated array.
+   * 
+   * @param arg1
+   *          the first argument to return;
+   * @param arg2
+   *          the second argument to return.
+   * @return an array of length 2, never <code>null</code>.
+   */
+  private int[] args( final int arg1, final int arg2 )
+  {
+    int[] result = m_arguments[2];
+    result[0] = arg1;
+    result[1] = arg2;
+    return result;
+  }
+
+  /**
+   * Clears all collected parameters.
+   */
+  private void clearParameters()
+  {
     m_parameters.clear();
-    m_state = m_vt52mode ? ParserState.VT52 : ParserState.VT100;
+    m_nextParameter = 0;
+    m_intermediateCount = 0;
+  }
+
+  /**
+   * Called when a complete CSI sequence is found, resets the current state to
+   * VT100 and clears all remaining parameters.
+   */
+  private void csiFound()
+  {
+    m_state = m_vt52mode ? STATE_VT52_GROUND : STATE_GROUND;
+    clearParameters();
     m_lastWrittenChar = -1;
+    m_designator = 0;
+    m_intermediate = 0;
+  }
+
+  /**
+   * Decodes ISO-8859-1 bytes and parses the resulting characters.
+   * 
+   * @param src
+   *          the array with bytes to decode;
+   * @param offset
+   *          the offset in the given array of the first byte to decode;
+   * @param length
+   *          the number of bytes to decode;
+   * @param handler
+   *          the handler to use as callback.
+   * @return the number of decoded bytes, > 0.
+   * @throws IOException
+   *           in case of I/O problems parsing the input.
+   */
+  private int decodeLatin1( final byte[] src, final int offset, final int length, final VT220ParserHandler handler )
+    throws IOException
+  {
+    final char[] dst = m_input;
+    final int count = Math.min( length, dst.length );
 
-    int c;
-    while ( ( c = nextChar() ) != -1 )
+    for ( int i = 0; i < count; i++ )
     {
-      switch ( m_state )
-      {
-        case DCS:
-        case OSC:
-        case PM:
-        case APC:
-        case SOS:
-          switch ( c )
-          {
-            case ESCAPE:
-            {
-              // Escape; check whether the next character is a '\'...
-              if ( la() == '\\' )
-              {
-                eat( 1 );
-                escSequenceFound();
-              }
-              break;
-            }
+      dst[i] = ( char )( src[offset + i] & 0xFF );
+    }
 
-            case ST:
-            {
-              // 8-bit sequence...
-              m_state = m_vt52mode ? ParserState.VT52 : ParserState.VT100;
-              eightBitSequenceFound();
-              break;
-            }
+    parse( dst, 0, count, handler );
 
-            default:
-              // Ignore all others...
-              eat( 0 ); // does update last parse position...
-              break;
-          }
-          break;
+    return count;
+  }
+
+  /**
+   * Decodes UTF-8 bytes and parses the resulting characters. Partial sequences
+   * at the end of the given bytes are retained for the next call.
+   * 
+   * @param src
+   *          the array with bytes to decode;
+   * @param offset
+   *          the offset in the given array of the first byte to decode;
+   * @param length
+   *          the number of bytes to decode;
+   * @param handler
+   *          the handler to use as callback.
+   * @return the number of decoded bytes, > 0.
+   * @throws IOException
+   *           in case of I/O problems parsing the input.
+   */
+  private int decodeUTF8( final byte[] src, final int offset, final int length, final VT220ParserHandler handler )
+    throws IOException
+  {
+    final char[] dst = m_input;
+    // Leave room for a replacement character and a surrogate pair...
+    final int dstLimit = dst.length - 2;
+    final int end = offset + length;
 
-        case CSI:
-          switch ( c )
+    int codePoint = m_utf8CodePoint;
+    int remaining = m_utf8Remaining;
+    int i = offset;
+    int n = 0;
+
+    while ( ( i < end ) && ( n < dstLimit ) )
+    {
+      if ( remaining == 0 )
+      {
+        // Fast path for plain ASCII...
+        int asciiEnd = Math.min( end, i + ( dstLimit - n ) );
+        while ( ( i < asciiEnd ) && ( src[i] >= 0 ) )
+        {
+          dst[n++] = ( char )src[i++];
+        }
+        if ( i == asciiEnd )
+        {
+          continue;
+        }
+      }
+
+      int b = src[i] & 0xFF;
+      if ( remaining > 0 )
+      {
+        if ( ( b & 0xC0 ) == 0x80 )
+        {
+          i++;
+          codePoint = ( codePoint << 6 ) | ( b & 0x3F );
+          if ( --remaining == 0 )
           {
-            case '@':
+            if ( ( codePoint < m_utf8Minimum ) || ( ( codePoint >= 0xD800 ) && ( codePoint <= 0xDFFF ) )
+                || ( codePoint > Character.MAX_CODE_POINT ) )
             {
-              if ( lb() == SPACE )
-              {
-                // (SL) Scroll Left N Character(s) (default = 1)
-                int count = getIntegerParameter( 1 );
-                handler.handleCSI( CSIType.SL, count );
-              }
-              else
-              {
-                // (ICH) Insert N (Blank) Character(s) (default = 1)
-                int count = getIntegerParameter( 1 );
-                handler.handleCSI( CSIType.ICH, count );
-              }
-              csiFound();
-              break;
+              dst[n++] = REPLACEMENT_CHAR;
             }
-
-            case 'A':
+            else if ( codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT )
             {
-              if ( lb() == SPACE )
-              {
-                // (SR) Scroll Right N Character(s) (default = 1)
-                int count = getIntegerParameter( 1 );
-                handler.handleCSI( CSIType.SR, count );
-              }
-              else
-              {
-                // (CUU) Moves the cursor up N lines in the same column. The
-                // cursor stops at the top margin.
-                int n = getIntegerParameter( 1 );
-                handler.handleCSI( CSIType.CUU, n );
-              }
-              csiFound();
-              break;
+              n += Character.toChars( codePoint, dst, n );
             }
-
-            case 'B':
+            else
             {
-              // (CUD) Moves the cursor down N lines in the same column. The
-              // cursor stops at the bottom margin.
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CUD, n );
-              csiFound();
-              break;
+              dst[n++] = ( char )codePoint;
             }
+          }
+          continue;
+        }
 
-            case 'C':
-            {
-              // (CUF) Moves the cursor right N columns. The cursor stops at
-              // the right margin.
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CUF, n );
-              csiFound();
-              break;
-            }
+        // Truncated sequence; process this byte as the start of a new one...
+        dst[n++] = REPLACEMENT_CHAR;
+        remaining = 0;
+        continue;
+      }
 
-            case 'D':
-            {
-              // (CUB) Moves the cursor left N columns. The cursor stops at the
-              // left margin.
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CUB, n );
-              csiFound();
-              break;
-            }
+      i++;
+      if ( b < 0xA0 )
+      {
+        // 8-bit (C1) control character...
+        dst[n++] = ( char )b;
+      }
+      else if ( b < 0xC2 )
+      {
+        // Stray continuation byte or overlong sequence...
+        dst[n++] = REPLACEMENT_CHAR;
+      }
+      else if ( b < 0xE0 )
+      {
+        codePoint = b & 0x1F;
+        remaining = 1;
+        m_utf8Minimum = 0x80;
+      }
+      else if ( b < 0xF0 )
+      {
+        codePoint = b & 0x0F;
+        remaining = 2;
+        m_utf8Minimum = 0x800;
+      }
+      else if ( b < 0xF5 )
+      {
+        codePoint = b & 0x07;
+        remaining = 3;
+        m_utf8Minimum = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+      }
+      else
+      {
+        dst[n++] = REPLACEMENT_CHAR;
+      }
+    }
 
-            case 'E':
-            {
-              // (CNL) Move cursor down the indicated # of rows, to column 1.
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CNL, n );
-              csiFound();
-              break;
-            }
+    m_utf8CodePoint = codePoint;
+    m_utf8Remaining = remaining;
 
-            case 'F':
-            {
-              // (CPL) Move cursor up the indicated # of rows, to column 1.
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CPL, n );
-              csiFound();
-              break;
-            }
+    parse( dst, 0, n, handler );
+
+    return i - offset;
+  }
+
+  /**
+   * Decodes the given bytes using a {@link CharsetDecoder} and parses the
+   * resulting characters. Partial characters at the end of the given bytes are
+   * retained for the next call.
+   * 
+   * @param bytes
+   *          the bytes to decode;
+   * @param charset
+   *          the charset to decode the bytes with;
+   * @param handler
+   *          the handler to use as callback.
+   * @throws IOException
+   *           in case of I/O problems parsing the input.
+   */
+  private void decodeWithDecoder( final ByteBuffer bytes, final Charset charset, final VT220ParserHandler handler )
+    throws IOException
+  {
+    if ( ( m_decoder == null ) || !m_decoder.charset().equals( charset ) )
+    {
+      m_decoder = charset.newDecoder() //
+          .onMalformedInput( CodingErrorAction.REPLACE ) //
+          .onUnmappableCharacter( CodingErrorAction.REPLACE );
+      m_pendingBytes = ByteBuffer.allocate( 16 );
+    }
+
+    final CharBuffer out = CharBuffer.wrap( m_input );
+
+    // Complete a pending partial character first...
+    ByteBuffer pending = m_pendingBytes;
+    while ( ( pending.position() > 0 ) && bytes.hasRemaining() )
+    {
+      pending.put( bytes.get() );
+      pending.flip();
+      m_decoder.decode( pending, out, false );
+      pending.compact();
+    }
+    if ( out.position() > 0 )
+    {
+      parse( m_input, 0, out.position(), handler );
+      out.clear();
+    }
+
+    CoderResult result;
+    do
+    {
+      result = m_decoder.decode( bytes, out, false );
+
+      parse( m_input, 0, out.position(), handler );
+      out.clear();
+    }
+    while ( result.isOverflow() );
 
-            case '`':
-            case 'G':
-            {
-              // (HPA) Character Position Absolute [column] (default = [row,1])
-              // (CHA) Cursor Character Absolute [column] (default = [row,1])
-              int x = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CHA, x );
-              csiFound();
-              break;
-            }
+    // Retain any partial character for the next call...
+    pending.put( bytes );
+  }
 
-            case 'f':
-            case 'H':
-            {
-              // (CUP) Move cursor to [row, column]...
-              int row = getIntegerParameter( 1 );
-              int col = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CUP, row, col );
-              csiFound();
-              break;
-            }
+  /**
+   * Dispatches a 8-bit (C1) control character.
+   * 
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the C1 control character to dispatch, >= 0x80 && <= 0x9F.
+   * @throws IOException
+   *           in case of I/O problems handling the control character.
+   */
+  private void dispatchC1( final VT220ParserHandler handler, final char c ) throws IOException
+  {
+    switch ( c )
+    {
+      case CSI:
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        clearParameters();
+        m_state = STATE_CSI_ENTRY;
+        break;
+      }
 
-            case 'I':
-            {
-              // (CHT) Cursor Forward Tabulation P s tab stops (default = 1)
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CHT, n );
-              csiFound();
-              break;
-            }
+      case DCS:
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        startString( DCS );
+        break;
+      }
 
-            case 'J':
-            {
-              // (ED/DECSED) Erase in Display...
-              int mode = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECSED, mode );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.ED, mode );
-              }
-              csiFound();
-              break;
-            }
+      case ST:
+      {
+        // 8-bit character. Ignored in this state...
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'K':
-            {
-              // (EL/DECSEL) Clear line...
-              int mode = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECSEL, mode );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.EL, mode );
-              }
-              csiFound();
-              break;
-            }
+      case OSC:
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        startString( OSC );
+        break;
+      }
 
-            case 'L':
-            {
-              // (IL) Inserts N lines at the cursor.
-              int lines = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.IL, lines );
-              csiFound();
-              break;
-            }
+      case PM:
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        startString( PM );
+        break;
+      }
 
-            case 'M':
-            {
-              // (DL) Deletes N lines starting at the line with the cursor.
-              int lines = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.DL, lines );
-              csiFound();
-              break;
-            }
+      case APC:
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        startString( APC );
+        break;
+      }
 
-            case 'P':
-            {
-              // (DCH) Delete N Character(s) (default = 1)
-              int count = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.DCH, count );
-              csiFound();
-              break;
-            }
+      case IND: // ESC D
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'D', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'S':
-            {
-              // (SU) Scroll N lines up...
-              int lines = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.SU, lines );
-              csiFound();
-              break;
-            }
+      case NEL: // ESC E
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'E', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'T':
-            {
-              // (SD) Scroll N lines down...
-              int lines = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.SD, lines );
-              csiFound();
-              break;
-            }
+      case HTS: // ESC H
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'H', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'X':
-            {
-              // (ECH) Erase N Character(s) (default = 1)
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.ECH, n );
-              csiFound();
-              break;
-            }
+      case RI: // ESC M
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'M', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'Z':
-            {
-              // (CBT) Cursor Backward Tabulation N tab stops (default = 1)
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.CBT, n );
-              csiFound();
-              break;
-            }
+      case SS2: // ESC N
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'N', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            // case '`' (HPA) is handled with case 'G'!
+      case SS3: // ESC O
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'O', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'a':
-            {
-              // (HPR) Move cursor right the indicated # of columns.
-              int count = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.HPR, count );
-              csiFound();
-              break;
-            }
+      case SPA: // ESC V
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'V', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'b':
-            {
-              // (REP) Repeat the last written character N times
-              if ( m_lastWrittenChar >= 0 )
-              {
-                int count = getIntegerParameter( 1 );
-
-                handler.handleCSI( CSIType.REP, count, m_lastWrittenChar );
-              }
-              csiFound();
-              break;
-            }
+      case EPA: // ESC W
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'W', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'c':
-            {
-              // Send Device Attributes (Primary/secondary DA)
-              int option = getIntegerParameter( 0 );
-              if ( m_designator == '>' )
-              {
-                handler.handleCSI( CSIType.SecondaryDA, option );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.PrimaryDA, option );
-              }
-              csiFound();
-              break;
-            }
+      case SOS: // ESC X
+      {
+        // 8-bit character...
+        eightBitSequenceFound();
+        startString( SOS );
+        break;
+      }
 
-            case 'd':
-            {
-              // (VPA) Line Position Absolute [row] (default = [1,column])
-              int row = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.VPA, row );
-              csiFound();
-              break;
-            }
+      case DECID: // ESC Z
+      {
+        // Translate to 7-bit sequence...
+        handler.handleESC( 'Z', NO_PARAMETERS );
+        eightBitSequenceFound();
+        break;
+      }
 
-            case 'e':
-            {
-              // (VPR) Move cursor down the indicated N of columns (default =
-              // 1).
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.VPR, n );
-              csiFound();
-              break;
-            }
+      default:
+        // Not a known 8-bit sequence; handle it as plain text...
+        m_lastWrittenChar = c;
+        handler.handleCharacter( c );
+        break;
+    }
+  }
 
-            // case 'f' (HVP) is handled with case 'H'!
+  /**
+   * Dispatches a complete CSI sequence.
+   * 
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the final character of the CSI sequence.
+   * @throws IOException
+   *           in case of I/O problems handling the CSI sequence.
+   */
+  private void dispatchCSI( final VT220ParserHandler handler, final char c ) throws IOException
+  {
+    switch ( c )
+    {
+      case '@':
+      {
+        if ( m_intermediate == SPACE )
+        {
+          // (SL) Scroll Left N Character(s) (default = 1)
+          int count = getIntegerParameter( 1 );
+          handler.handleCSI( CSIType.SL, args( count ) );
+        }
+        else
+        {
+          // (ICH) Insert N (Blank) Character(s) (default = 1)
+          int count = getIntegerParameter( 1 );
+          handler.handleCSI( CSIType.ICH, args( count ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case 'g':
-            {
-              // (TBC) Tab clear
-              int arg = getIntegerParameter( 0 );
-              handler.handleCSI( CSIType.TBC, arg );
-              csiFound();
-              break;
-            }
+      case 'A':
+      {
+        if ( m_intermediate == SPACE )
+        {
+          // (SR) Scroll Right N Character(s) (default = 1)
+          int count = getIntegerParameter( 1 );
+          handler.handleCSI( CSIType.SR, args( count ) );
+        }
+        else
+        {
+          // (CUU) Moves the cursor up N lines in the same column. The
+          // cursor stops at the top margin.
+          int n = getIntegerParameter( 1 );
+          m_commands.handleCUU( n );
+        }
+        csiFound();
+        break;
+      }
 
-            case 'h':
-            {
-              // (SM/DECSET) Set mode / DEC Private Mode Set ...
-              int arg = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECSET, arg );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.SM, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'B':
+      {
+        // (CUD) Moves the cursor down N lines in the same column. The
+        // cursor stops at the bottom margin.
+        int n = getIntegerParameter( 1 );
+        m_commands.handleCUD( n );
+        csiFound();
+        break;
+      }
 
-            case 'i':
-            {
-              // (MC/DECSMC) Media Copy
-              int arg = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECSMC, arg );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.MC, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'C':
+      {
+        // (CUF) Moves the cursor right N columns. The cursor stops at
+        // the right margin.
+        int n = getIntegerParameter( 1 );
+        m_commands.handleCUF( n );
+        csiFound();
+        break;
+      }
 
-            case 'j':
-            {
-              // (HPB) Character position backward N positions (default = 1)
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.HPB, n );
-              csiFound();
-              break;
-            }
+      case 'D':
+      {
+        // (CUB) Moves the cursor left N columns. The cursor stops at the
+        // left margin.
+        int n = getIntegerParameter( 1 );
+        m_commands.handleCUB( n );
+        csiFound();
+        break;
+      }
 
-            case 'k':
-            {
-              // (VPB) Line position backward N lines (default = 1)
-              int n = getIntegerParameter( 1 );
-              handler.handleCSI( CSIType.VPB, n );
-              csiFound();
-              break;
-            }
+      case 'E':
+      {
+        // (CNL) Move cursor down the indicated # of rows, to column 1.
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.CNL, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case 'l':
-            {
-              // (RM/DECRST) Reset mode / DEC Private Mode Reset...
-              int arg = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECRST, arg );
-                if ( arg == 2 )
-                {
-                  // (DECANM) Set VT52 mode...
-                  m_state = ParserState.VT52;
-                  m_vt52mode = true;
-                }
-              }
-              else
-              {
-                handler.handleCSI( CSIType.RM, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'F':
+      {
+        // (CPL) Move cursor up the indicated # of rows, to column 1.
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.CPL, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case 'm':
-            {
-              // (SGR) Turn on/off character attributes ...
-              int[] args = getIntegerParameters( 0 );
-              handler.handleCSI( CSIType.SGR, args );
-              csiFound();
-              break;
-            }
+      case '`':
+      case 'G':
+      {
+        // (HPA) Character Position Absolute [column] (default = [row,1])
+        // (CHA) Cursor Character Absolute [column] (default = [row,1])
+        int x = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.CHA, args( x ) );
+        csiFound();
+        break;
+      }
 
-            case 'n':
-            {
-              // (DSR) Device Status Report
-              int arg = getIntegerParameter( 0 );
-              if ( isDecSpecific() )
-              {
-                handler.handleCSI( CSIType.DECSDSR, arg );
-              }
-              else
-              {
-                handler.handleCSI( CSIType.DSR, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'f':
+      case 'H':
+      {
+        // (CUP) Move cursor to [row, column]...
+        int row = getIntegerParameter( 1 );
+        int col = getIntegerParameter( 1 );
+        m_commands.handleCUP( row, col );
+        csiFound();
+        break;
+      }
 
-            case 'p':
-            {
-              if ( lb() == '!' )
-              {
-                // (DECSTR) Soft terminal reset
-                handler.handleCSI( CSIType.DECSTR );
-              }
-              else if ( lb() == '"' )
-              {
-                // (DECSCL) Set conformance level
-                int arg1 = getIntegerParameter( 0 );
-                int arg2 = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECSCL, arg1, arg2 );
-              }
-              csiFound();
-              break;
-            }
+      case 'I':
+      {
+        // (CHT) Cursor Forward Tabulation P s tab stops (default = 1)
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.CHT, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case 'q':
-            {
-              if ( lb() == '"' )
-              {
-                // (DECSCA) Select character protection attribute
-                int arg = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECSCA, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'J':
+      {
+        // (ED/DECSED) Erase in Display...
+        int mode = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECSED, args( mode ) );
+        }
+        else
+        {
+          m_commands.handleED( mode );
+        }
+        csiFound();
+        break;
+      }
 
-            case 'r':
-            {
-              if ( lb() == '$' )
-              {
-                // (DECCARA) Change Attributes in Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECCARA, args );
-              }
-              else if ( isDecSpecific() )
-              {
-                // Restore DEC Private Mode Values. The value of N1..Nn
-                // previously saved is restored. N1..Nn values are the same as
-                // for DECSET.
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.RestoreDECPM, args );
-              }
-              else
-              {
-                // (DECSTBM) Set Scrolling Region [top;bottom] (default = full
-                // size of window)
-                int top = getIntegerParameter( 1 );
-                int bottom = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECSTBM, top, bottom );
-              }
-              csiFound();
-              break;
-            }
+      case 'K':
+      {
+        // (EL/DECSEL) Clear line...
+        int mode = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECSEL, args( mode ) );
+        }
+        else
+        {
+          m_commands.handleEL( mode );
+        }
+        csiFound();
+        break;
+      }
 
-            case 's':
-            {
-              // Save DEC Private Mode Values. N1..Nn values are the same as for
-              // DECSET.
-              if ( isDecSpecific() )
-              {
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.SaveDECPM, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'L':
+      {
+        // (IL) Inserts N lines at the cursor.
+        int lines = getIntegerParameter( 1 );
+        m_commands.handleIL( lines );
+        csiFound();
+        break;
+      }
 
-            case 't':
-            {
-              if ( lb() == '$' )
-              {
-                // (DECRARA) Reverse Attributes in Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECRARA, args );
-              }
-              else
-              {
-                // dtterm window manipulation; ignored...
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.WindowManipulation, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'M':
+      {
+        // (DL) Deletes N lines starting at the line with the cursor.
+        int lines = getIntegerParameter( 1 );
+        m_commands.handleDL( lines );
+        csiFound();
+        break;
+      }
 
-            case 'v':
-            {
-              if ( lb() == '$' )
-              {
-                // (DECCRA) Copy Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECCRA, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'P':
+      {
+        // (DCH) Delete N Character(s) (default = 1)
+        int count = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.DCH, args( count ) );
+        csiFound();
+        break;
+      }
 
-            case 'w':
-            {
-              if ( lb() == '\'' )
-              {
-                // (DECEFR) Enable Filter Rectangle
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECEFR, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'S':
+      {
+        // (SU) Scroll N lines up...
+        int lines = getIntegerParameter( 1 );
+        m_commands.handleSU( lines );
+        csiFound();
+        break;
+      }
 
-            case 'x':
-            {
-              if ( lb() == '$' )
-              {
-                // (DECFRA) Fill Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECFRA, args );
-              }
-              else
-              {
-                // (DECREQTPARM) Request Terminal Parameters
-                int arg = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECREQTPARM, arg );
-              }
-              csiFound();
-              break;
-            }
+      case 'T':
+      {
+        // (SD) Scroll N lines down...
+        int lines = getIntegerParameter( 1 );
+        m_commands.handleSD( lines );
+        csiFound();
+        break;
+      }
 
-            case 'z':
-            {
-              if ( lb() == '\'' )
-              {
-                // (DECELR) Enable Locator Reporting
-                int arg1 = getIntegerParameter( 0 );
-                int arg2 = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECELR, arg1, arg2 );
-              }
-              else if ( lb() == '$' )
-              {
-                // (DECERA) Erase Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECERA, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'X':
+      {
+        // (ECH) Erase N Character(s) (default = 1)
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.ECH, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case '{':
-            {
-              if ( lb() == '\'' )
-              {
-                // (DECSLE) Select Locator Events
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECSLE, args );
-              }
-              else if ( lb() == '$' )
-              {
-                // (DECSERA) Selective Erase Rectangular Area
-                int[] args = getIntegerParameters();
-                handler.handleCSI( CSIType.DECSERA, args );
-              }
-              csiFound();
-              break;
-            }
+      case 'Z':
+      {
+        // (CBT) Cursor Backward Tabulation N tab stops (default = 1)
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.CBT, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case '|':
-            {
-              if ( lb() == '\'' )
-              {
-                // (DECRQLP) Request Locator Position
-                int arg = getIntegerParameter( 0 );
-                handler.handleCSI( CSIType.DECRQLP, arg );
-              }
-              csiFound();
-              break;
-            }
+      // case '`' (HPA) is handled with case 'G'!
 
-            case '0':
-            case '1':
-            case '2':
-            case '3':
-            case '4':
-            case '5':
-            case '6':
-            case '7':
-            case '8':
-            case '9':
-            {
-              int value = c - '0';
-              while ( Character.isDigit( ( char )la() ) )
-              {
-                c = nextChar();
-                value = ( value * 10 ) + ( c - '0' );
-              }
-              pushParameter( value );
-              break;
-            }
+      case 'a':
+      {
+        // (HPR) Move cursor right the indicated # of columns.
+        int count = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.HPR, args( count ) );
+        csiFound();
+        break;
+      }
 
-            case ';':
-              // Param separator...
-              if ( !hasParameters() )
-              {
-                pushParameter( 0 );
-              }
-              break;
-
-            case '?':
-            case '=':
-            case '>':
-            case ' ':
-            case '\'':
-            case '"':
-            case '!':
-            case '$':
-            {
-              // Additional selectors; used in some CSIs...
-              m_designator = ( char )c;
-              break;
-            }
+      case 'b':
+      {
+        // (REP) Repeat the last written character N times
+        if ( m_lastWrittenChar >= 0 )
+        {
+          int count = getIntegerParameter( 1 );
 
-            default:
-              // Unknown; handle as C0 control character or plain text...
-              if ( c < SPACE )
-              {
-                handler.handleControl( ( char )c );
-              }
-              else
-              {
-                m_lastWrittenChar = c;
-                handler.handleCharacter( ( char )c );
-              }
-              break;
-          }
-          break;
+          m_commands.handleREP( count, ( char )m_lastWrittenChar );
+        }
+        csiFound();
+        break;
+      }
 
-        case ESC:
+      case 'c':
+      {
+        // Send Device Attributes (Primary/secondary DA)
+        int option = getIntegerParameter( 0 );
+        if ( m_designator == '>' )
         {
-          if ( m_vt52mode )
-          {
-            // Handle VT52 sequences...
-            switch ( c )
-            {
-              case CAN:
-                // Cancel current operation...
-                m_state = ParserState.VT52;
-                break;
-
-              case 'A':
-                // Cursor UP
-                handler.handleCSI( CSIType.CUU, 1 );
-                escSequenceFound();
-                break;
-
-              case 'B':
-                // Cursor down
-                handler.handleCSI( CSIType.CUD, 1 );
-                escSequenceFound();
-                break;
-
-              case 'C':
-                // Cursor right
-                handler.handleCSI( CSIType.CUF, 1 );
-                escSequenceFound();
-                break;
-
-              case 'D':
-                // Cursor left
-                handler.handleCSI( CSIType.CUB, 1 );
-                escSequenceFound();
-                break;
-
-              case 'F':
-                // Enter graphics mode TODO
-                escSequenceFound();
-                break;
-
-              case 'G':
-                // Leave graphics mode TODO
-                escSequenceFound();
-                break;
-
-              case 'H':
-                // Move cursor to the home position
-                handler.handleCSI( CSIType.CUP, 1, 1 );
-                escSequenceFound();
-                break;
-
-              case 'I':
-                // Reverse line feed / Reverse index
-                handler.handleESC( 'M' );
-                escSequenceFound();
-                break;
-
-              case 'J':
-                // Erase from cursor to end of screen
-                handler.handleCSI( CSIType.ED, 0 );
-                escSequenceFound();
-                break;
-
-              case 'K':
-                // Erase from cursor to end of line
-                handler.handleCSI( CSIType.EL, 0 );
-                escSequenceFound();
-                break;
-
-              case 'Y':
-                // Move cursor to row;column
-                if ( la() != CAN )
-                {
-                  int row = Math.max( 0, nextChar() - 32 );
-                  int col;
-                  if ( la() != CAN )
-                  {
-                    col = Math.max( 0, nextChar() - 32 );
-                    handler.handleCSI( CSIType.CUP, row + 1, col + 1 );
-                    escSequenceFound();
-                  }
-                  else
-                  {
-                    // Move to row only...
-                    handler.handleCSI( CSIType.CUP, row + 1, 1 );
-                    escSequenceFound();
-                  }
-                }
-                else
-                {
-                  // Cancel...
-                  m_state = ParserState.VT52;
-                }
-                break;
-
-              case 'Z':
-                // Identify
-                handler.handleESC( 'Z' );
-                escSequenceFound();
-                break;
-
-              case '=':
-                // Enter alternate keypad mode TODO
-                escSequenceFound();
-                break;
-
-              case '>':
-                // Leave alternate keypad mode TODO
-                escSequenceFound();
-                break;
-
-              case '<':
-                // Exit VT52 mode
-                m_state = ParserState.VT100;
-                m_vt52mode = false;
-                escSequenceFound();
-                break;
-
-              default:
-                // Not recognized; assume the sequence is finished...
-                escSequenceFound();
-                break;
-            }
-          }
-          else
-          {
-            // Handle VT100 sequences...
-            switch ( c )
-            {
-              case '[':
-                // 7-bit sequence...
-                m_state = ParserState.CSI;
-                m_parameters.clear();
-                break;
-
-              case '_':
-                // 7-bit sequence...
-                m_state = ParserState.APC;
-                break;
-
-              case '\\':
-                // 7-bit sequence. Ignored in this state...
-                break;
-
-              case ']':
-                // 7-bit sequence...
-                m_state = ParserState.OSC;
-                break;
-
-              case '^':
-                // 7-bit sequence...
-                m_state = ParserState.PM;
-                break;
-
-              case 'P':
-                // 7-bit sequence...
-                m_state = ParserState.DCS;
-                break;
-
-              case 'X':
-                // 7-bit sequence...
-                m_state = ParserState.SOS;
-                break;
-
-              case 'D': // IND
-              case 'E': // NEL
-              case 'H': // TabSet
-              case 'M': // RI
-              case 'N': // SS2
-              case 'O': // SS3
-              case 'V': // SPA
-              case 'W': // EPA
-              case 'Z': // DecID
-              case '=': // DECPAM
-              case '>': // DECPNM
-              case 'c': // RIS
-              case 'n': // LS2
-              case 'o': // LS3
-              case '|': // LS3R
-              case '}': // LS2R
-              case '~': // LS1R
-                handler.handleESC( ( char )c );
-                escSequenceFound();
-                break;
-
-              case ' ':
-              {
-                int la = la();
-                if ( la == 'F' || la == 'G' )
-                {
-                  // 7- or 8-bit responses...
-                  handler.handleESC( ( char )c, la );
-                }
-                else if ( la == 'L' || la == 'M' || la == 'N' )
-                {
-                  // set ANSI conformance level...
-                  handler.handleESC( ( char )c, la );
-                }
-                eat( 1 ); // eat the LA...
-                escSequenceFound();
-                break;
-              }
-
-              case '#':
-              {
-                int la = la();
-                if ( la == '3' || la == '4' || la == '5' || la == '6' )
-                {
-                  // DEC line height settings; currently ignored...
-                }
-                else if ( la == '8' )
-                {
-                  // DEC Screen Alignment Test (DECALN)
-                  handler.handleESC( ( char )c, la );
-                }
-                eat( 1 ); // eat the LA...
-                escSequenceFound();
-                break;
-              }
-
-              case '(':
-              case ')':
-              case '*':
-              case '+':
-              {
-                // Designate G0/G1/G2 or G3 Character Set
-                // Ignore any additional designators...
-                while ( la() >= ' ' && la() <= '/' )
-                {
-                  eat( 1 );
-                }
-                int f = nextChar();
-                handler.handleESC( ( char )c, f );
-                escSequenceFound();
-                break;
-              }
-
-              case '0':
-              case '1':
-              case '2':
-              case '3':
-              case '4':
-              case '5':
-              case '6':
-              case '7':
-              case '8':
-              case '9':
-              {
-                // Ignore optional digits after an escape sequence...
-                int value = c - '0';
-                while ( Character.isDigit( ( char )la() ) )
-                {
-                  c = nextChar();
-                  value = ( value * 10 ) + ( c - '0' );
-                }
-
-                // Handle DECSC & DECRC...
-                if ( ( value == 7 || value == 8 ) && lb() == ESCAPE )
-                {
-                  handler.handleESC( ( char )c );
-                  escSequenceFound();
-                }
-                break;
-              }
-
-              default:
-                // Not recognized; assume the sequence is finished...
-                escSequenceFound();
-                break;
-            }
-          }
-          break;
+          handler.handleCSI( CSIType.SecondaryDA, args( option ) );
+        }
+        else
+        {
+          handler.handleCSI( CSIType.PrimaryDA, args( option ) );
         }
+        csiFound();
+        break;
+      }
 
-        case VT100:
-          switch ( c )
-          {
-            case ESCAPE:
-            {
-              m_state = ParserState.ESC;
-              break;
-            }
+      case 'd':
+      {
+        // (VPA) Line Position Absolute [row] (default = [1,column])
+        int row = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.VPA, args( row ) );
+        csiFound();
+        break;
+      }
 
-            case CSI:
-            {
-              // 8-bit character...
-              m_state = ParserState.CSI;
-              m_parameters.clear();
-              eightBitSequenceFound();
-              break;
-            }
+      case 'e':
+      {
+        // (VPR) Move cursor down the indicated N of columns (default =
+        // 1).
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.VPR, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case DCS:
-            {
-              // 8-bit character...
-              m_state = ParserState.DCS;
-              eightBitSequenceFound();
-              break;
-            }
+      // case 'f' (HVP) is handled with case 'H'!
 
-            case ST:
-            {
-              // 8-bit character. Ignored in this state...
-              eightBitSequenceFound();
-              break;
-            }
+      case 'g':
+      {
+        // (TBC) Tab clear
+        int arg = getIntegerParameter( 0 );
+        handler.handleCSI( CSIType.TBC, args( arg ) );
+        csiFound();
+        break;
+      }
 
-            case OSC:
-            {
-              // 8-bit character...
-              m_state = ParserState.OSC;
-              eightBitSequenceFound();
-              break;
-            }
+      case 'h':
+      {
+        // (SM/DECSET) Set mode / DEC Private Mode Set ...
+        int arg = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECSET, args( arg ) );
+        }
+        else
+        {
+          handler.handleCSI( CSIType.SM, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case PM:
-            {
-              // 8-bit character...
-              m_state = ParserState.PM;
-              eightBitSequenceFound();
-              break;
-            }
+      case 'i':
+      {
+        // (MC/DECSMC) Media Copy
+        int arg = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECSMC, args( arg ) );
+        }
+        else
+        {
+          handler.handleCSI( CSIType.MC, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case APC:
-            {
-              // 8-bit character...
-              m_state = ParserState.APC;
-              eightBitSequenceFound();
-              break;
-            }
+      case 'j':
+      {
+        // (HPB) Character position backward N positions (default = 1)
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.HPB, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case IND: // ESC D
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'D' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'k':
+      {
+        // (VPB) Line position backward N lines (default = 1)
+        int n = getIntegerParameter( 1 );
+        handler.handleCSI( CSIType.VPB, args( n ) );
+        csiFound();
+        break;
+      }
 
-            case NEL: // ESC E
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'E' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'l':
+      {
+        // (RM/DECRST) Reset mode / DEC Private Mode Reset...
+        int arg = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECRST, args( arg ) );
+          if ( arg == 2 )
+          {
+            // (DECANM) Set VT52 mode...
+            m_vt52mode = true;
+          }
+        }
+        else
+        {
+          handler.handleCSI( CSIType.RM, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case HTS: // ESC H
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'H' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'm':
+      {
+        // (SGR) Turn on/off character attributes ...
+        int[] args = getIntegerParameters( 0 );
+        m_commands.handleSGR( args, args.length );
+        csiFound();
+        break;
+      }
+
+      case 'n':
+      {
+        // (DSR) Device Status Report
+        int arg = getIntegerParameter( 0 );
+        if ( isDecSpecific() )
+        {
+          handler.handleCSI( CSIType.DECSDSR, args( arg ) );
+        }
+        else
+        {
+          handler.handleCSI( CSIType.DSR, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case RI: // ESC M
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'M' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'p':
+      {
+        if ( m_intermediate == '!' )
+        {
+          // (DECSTR) Soft terminal reset
+          handler.handleCSI( CSIType.DECSTR, NO_PARAMETERS );
+        }
+        else if ( m_intermediate == '"' )
+        {
+          // (DECSCL) Set conformance level
+          int arg1 = getIntegerParameter( 0 );
+          int arg2 = getIntegerParameter( 0 );
+          handler.handleCSI( CSIType.DECSCL, args( arg1, arg2 ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case SS2: // ESC N
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'N' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'q':
+      {
+        if ( m_intermediate == '"' )
+        {
+          // (DECSCA) Select character protection attribute
+          int arg = getIntegerParameter( 0 );
+          handler.handleCSI( CSIType.DECSCA, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-            case SS3: // ESC O
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'O' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'r':
+      {
+        if ( m_intermediate == '$' )
+        {
+          // (DECCARA) Change Attributes in Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECCARA, args );
+        }
+        else if ( isDecSpecific() )
+        {
+          // Restore DEC Private Mode Values. The value of N1..Nn
+          // previously saved is restored. N1..Nn values are the same as
+          // for DECSET.
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.RestoreDECPM, args );
+        }
+        else
+        {
+          // (DECSTBM) Set Scrolling Region [top;bottom] (default = full
+          // size of window)
+          int top = getIntegerParameter( 1 );
+          int bottom = getIntegerParameter( 0 );
+          m_commands.handleDECSTBM( top, bottom );
+        }
+        csiFound();
+        break;
+      }
 
-            case SPA: // ESC V
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'V' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 's':
+      {
+        // Save DEC Private Mode Values. N1..Nn values are the same as for
+        // DECSET.
+        if ( isDecSpecific() )
+        {
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.SaveDECPM, args );
+        }
+        csiFound();
+        break;
+      }
 
-            case EPA: // ESC W
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'W' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 't':
+      {
+        if ( m_intermediate == '$' )
+        {
+          // (DECRARA) Reverse Attributes in Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECRARA, args );
+        }
+        else
+        {
+          // dtterm window manipulation; ignored...
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.WindowManipulation, args );
+        }
+        csiFound();
+        break;
+      }
 
-            case SOS: // ESC X
-            {
-              // 8-bit character...
-              m_state = ParserState.SOS;
-              eightBitSequenceFound();
-              break;
-            }
+      case 'v':
+      {
+        if ( m_intermediate == '$' )
+        {
+          // (DECCRA) Copy Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECCRA, args );
+        }
+        csiFound();
+        break;
+      }
 
-            case DECID: // ESC Z
-            {
-              // Translate to 7-bit sequence...
-              handler.handleESC( 'Z' );
-              eightBitSequenceFound();
-              break;
-            }
+      case 'w':
+      {
+        if ( m_intermediate == '\'' )
+        {
+          // (DECEFR) Enable Filter Rectangle
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECEFR, args );
+        }
+        csiFound();
+        break;
+      }
 
-            default:
-            {
-              // Check whether it is a single character function (= everything
-              // below ' ')...
-              if ( c < SPACE )
-              {
-                m_lastWrittenChar = -1;
-                handler.handleControl( ( char )c );
-              }
-              else
-              {
-                m_lastWrittenChar = c;
-                handler.handleCharacter( ( char )c );
-              }
-              eat( 0 ); // update last parsing position...
-              break;
-            }
-          }
-          break;
+      case 'x':
+      {
+        if ( m_intermediate == '$' )
+        {
+          // (DECFRA) Fill Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECFRA, args );
+        }
+        else
+        {
+          // (DECREQTPARM) Request Terminal Parameters
+          int arg = getIntegerParameter( 0 );
+          handler.handleCSI( CSIType.DECREQTPARM, args( arg ) );
+        }
+        csiFound();
+        break;
+      }
 
-        case VT52:
-          switch ( c )
-          {
-            case ESCAPE:
-            {
-              m_state = ParserState.ESC;
-              break;
-            }
+      case 'z':
+      {
+        if ( m_intermediate == '\'' )
+        {
+          // (DECELR) Enable Locator Reporting
+          int arg1 = getIntegerParameter( 0 );
+          int arg2 = getIntegerParameter( 0 );
+          handler.handleCSI( CSIType.DECELR, args( arg1, arg2 ) );
+        }
+        else if ( m_intermediate == '$' )
+        {
+          // (DECERA) Erase Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECERA, args );
+        }
+        csiFound();
+        break;
+      }
 
-            default:
-            {
-              // Check whether it is a single character function (= everything
-              // below ' ')...
-              if ( c < SPACE )
-              {
-                m_lastWrittenChar = -1;
-                handler.handleControl( ( char )c );
-              }
-              else
-              {
-                m_lastWrittenChar = c;
-                handler.handleCharacter( ( char )c );
-              }
-              eat( 0 ); // update last parsing position...
-              break;
-            }
-          }
-          break;
+      case '{':
+      {
+        if ( m_intermediate == '\'' )
+        {
+          // (DECSLE) Select Locator Events
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECSLE, args );
+        }
+        else if ( m_intermediate == '$' )
+        {
+          // (DECSERA) Selective Erase Rectangular Area
+          int[] args = getIntegerParameters();
+          handler.handleCSI( CSIType.DECSERA, args );
+        }
+        csiFound();
+        break;
+      }
 
-        default:
-          throw new RuntimeException( "Unknown/unhandled state: " + m_state );
+      case '|':
+      {
+        if ( m_intermediate == '\'' )
+        {
+          // (DECRQLP) Request Locator Position
+          int arg = getIntegerParameter( 0 );
+          handler.handleCSI( CSIType.DECRQLP, args( arg ) );
+        }
+        csiFound();
+        break;
       }
+
+      default:
+        // Unknown; ignore it...
+        csiFound();
+        break;
     }
+  }
 
-    return m_lastParsePos;
+  /**
+   * Dispatches a complete escape sequence without intermediate characters.
+   * 
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the final character of the escape sequence.
+   * @throws IOException
+   *           in case of I/O problems handling the escape sequence.
+   */
+  private void dispatchESC( final VT220ParserHandler handler, final char c ) throws IOException
+  {
+    switch ( c )
+    {
+      case '[':
+        // 7-bit sequence...
+        m_state = STATE_CSI_ENTRY;
+        break;
+
+      case '_':
+        // 7-bit sequence...
+        startString( APC );
+        break;
+
+      case '\\':
+        // 7-bit string terminator; ignored in this state...
+        escSequenceFound();
+        break;
+
+      case ']':
+        // 7-bit sequence...
+        startString( OSC );
+        break;
+
+      case '^':
+        // 7-bit sequence...
+        startString( PM );
+        break;
+
+      case 'P':
+        // 7-bit sequence...
+        startString( DCS );
+        break;
+
+      case 'X':
+        // 7-bit sequence...
+        startString( SOS );
+        break;
+
+      case 'D': // IND
+      case 'E': // NEL
+      case 'H': // TabSet
+      case 'M': // RI
+      case 'N': // SS2
+      case 'O': // SS3
+      case 'V': // SPA
+      case 'W': // EPA
+      case 'Z': // DecID
+      case '=': // DECPAM
+      case '>': // DECPNM
+      case 'c': // RIS
+      case 'n': // LS2
+      case 'o': // LS3
+      case '|': // LS3R
+      case '}': // LS2R
+      case '~': // LS1R
+        handler.handleESC( c, NO_PARAMETERS );
+        escSequenceFound();
+        break;
+
+      case '7': // DECSC
+      case '8': // DECRC
+        handler.handleESC( c, NO_PARAMETERS );
+        escSequenceFound();
+        break;
+
+      default:
+        // Not recognized; assume the sequence is finished...
+        escSequenceFound();
+        break;
+    }
   }
 
   /**
-   * @param logLevel
-   *          the log level to set, >= 0.
+   * Dispatches a complete escape sequence with intermediate characters.
+   * 
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the final character of the escape sequence.
+   * @throws IOException
+   *           in case of I/O problems handling the escape sequence.
    */
-  public void setLogLevel( int logLevel )
+  private void dispatchESCIntermediate( final VT220ParserHandler handler, final char c ) throws IOException
   {
-    m_logLevel = logLevel;
+    if ( m_intermediate == SPACE )
+    {
+      if ( c == 'F' || c == 'G' )
+      {
+        // 7- or 8-bit responses...
+        handler.handleESC( m_intermediate, args( c ) );
+      }
+      else if ( c == 'L' || c == 'M' || c == 'N' )
+      {
+        // set ANSI conformance level...
+        handler.handleESC( m_intermediate, args( c ) );
+      }
+      escSequenceFound();
+    }
+    else if ( m_intermediate == '#' )
+    {
+      if ( c == '3' || c == '4' || c == '5' || c == '6' )
+      {
+        // DEC line height settings; currently ignored...
+      }
+      else if ( c == '8' )
+      {
+        // DEC Screen Alignment Test (DECALN)
+        handler.handleESC( m_intermediate, args( c ) );
+      }
+      escSequenceFound();
+    }
+    else
+    {
+      // Designate G0/G1/G2 or G3 Character Set; any additional designators
+      // are ignored...
+      handler.handleESC( m_intermediate, args( c ) );
+      escSequenceFound();
+    }
   }
 
   /**
-   * Called when a complete CSI sequence is found, resets the current state to
-   * VT100, clears all remaining parameters and updates the parsing position.
+   * Dispatches a complete VT52 escape sequence.
    * 
-   * @param aText
-   *          the text we're currently parsing;
-   * @param aIndex
-   *          the index of the current parse position.
-   * @param aTermState
-   *          the current state of the parser;
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the final character of the escape sequence.
+   * @throws IOException
+   *           in case of I/O problems handling the escape sequence.
    */
-  private void csiFound()
+  private void dispatchVT52( final VT220ParserHandler handler, final char c ) throws IOException
   {
-    log( m_text, m_lastParsePos, m_i );
+    switch ( c )
+    {
+      case 'A':
+        // Cursor UP
+        m_commands.handleCUU( 1 );
+        escSequenceFound();
+        break;
+
+      case 'B':
+        // Cursor down
+        m_commands.handleCUD( 1 );
+        escSequenceFound();
+        break;
+
+      case 'C':
+        // Cursor right
+        m_commands.handleCUF( 1 );
+        escSequenceFound();
+        break;
+
+      case 'D':
+        // Cursor left
+        m_commands.handleCUB( 1 );
+        escSequenceFound();
+        break;
+
+      case 'F':
+        // Enter graphics mode TODO
+        escSequenceFound();
+        break;
+
+      case 'G':
+        // Leave graphics mode TODO
+        escSequenceFound();
+        break;
+
+      case 'H':
+        // Move cursor to the home position
+        m_commands.handleCUP( 1, 1 );
+        escSequenceFound();
+        break;
+
+      case 'I':
+        // Reverse line feed / Reverse index
+        handler.handleESC( 'M', NO_PARAMETERS );
+        escSequenceFound();
+        break;
+
+      case 'J':
+        // Erase from cursor to end of screen
+        m_commands.handleED( 0 );
+        escSequenceFound();
+        break;
+
+      case 'K':
+        // Erase from cursor to end of line
+        m_commands.handleEL( 0 );
+        escSequenceFound();
+        break;
+
+      case 'Y':
+        // Move cursor to row;column; wait for the coordinates...
+        m_vt52Row = -1;
+        m_state = STATE_VT52_CURSOR;
+        break;
+
+      case 'Z':
+        // Identify
+        handler.handleESC( 'Z', NO_PARAMETERS );
+        escSequenceFound();
+        break;
+
+      case '=':
+        // Enter alternate keypad mode TODO
+        escSequenceFound();
+        break;
+
+      case '>':
+        // Leave alternate keypad mode TODO
+        escSequenceFound();
+        break;
+
+      case '<':
+        // Exit VT52 mode
+        m_vt52mode = false;
+        escSequenceFound();
+        break;
+
+      default:
+        // Not recognized; assume the sequence is finished...
+        escSequenceFound();
+        break;
+    }
+  }
 
-    m_state = ParserState.VT100;
-    m_parameters.clear();
+  /**
+   * Called when a 8-bit control sequence is found, and forgets the last
+   * written character and the designator.
+   */
+  private void eightBitSequenceFound()
+  {
     m_lastWrittenChar = -1;
     m_designator = 0;
-    m_lastParsePos = Math.min( m_text.length(), m_i );
   }
 
   /**
-   * "Eats" (ignores) the next number of characters and updates the parsing
-   * position.
+   * Called when the current control string is terminated or cancelled.
    * 
-   * @param count
-   *          the number of characters to eat, > 0.
+   * @param cancelled
+   *          <code>true</code> if the control string is cancelled,
+   *          <code>false</code> if it is properly terminated.
+   * @throws IOException
+   *           in case of I/O problems handling the control string.
    */
-  private void eat( int count )
+  private void endString( final boolean cancelled ) throws IOException
   {
-    log( m_text, m_lastParsePos, m_i + count );
-
-    m_i += count;
-    m_lastParsePos = Math.min( m_text.length(), m_i );
+    if ( m_traceSink != null )
+    {
+      m_traceParameters[0] = m_stringLength;
+      m_traceParameters[1] = ( cancelled || m_stringAborted ) ? 1 : 0;
+      trace( ITraceSink.STRING_END, ( char )0, m_stringType, 2 );
+    }
+    if ( m_strings != null )
+    {
+      flushStringChunk();
+      m_strings.handleStringEnd( cancelled || m_stringAborted );
+    }
+    m_stringChunkLength = 0;
+    m_stringType = 0;
   }
 
   /**
-   * Called when a 8-bit control sequence is found and updates the parsing
-   * position.
+   * Called when a escape sequence is found, and resets the current state to
+   * VT100.
    */
-  private void eightBitSequenceFound()
+  private void escSequenceFound()
   {
-    log( m_text, m_lastParsePos, m_i );
-
+    m_state = m_vt52mode ? STATE_VT52_GROUND : STATE_GROUND;
     m_lastWrittenChar = -1;
     m_designator = 0;
-    m_lastParsePos = Math.min( m_text.length(), m_i );
+    m_intermediate = 0;
   }
 
   /**
-   * Called when a escape sequence is found and updates the parsing position.
+   * Passes all collected payload characters of the current control string to
+   * the control string handler.
+   * 
+   * @throws IOException
+   *           in case of I/O problems handling the payload.
    */
-  private void escSequenceFound()
+  private void flushStringChunk() throws IOException
   {
-    log( m_text, m_lastParsePos, m_i );
-
-    if ( m_vt52mode )
+    if ( m_stringChunkLength > 0 )
     {
-      m_state = ParserState.VT52;
+      m_strings.handleStringChunk( m_stringChunk, 0, m_stringChunkLength );
+      m_stringChunkLength = 0;
     }
-    else
+  }
+
+  /**
+   * Returns the shared, preallocated argument array of the given length.
+   * 
+   * @param length
+   *          the length of the array to return, >= 0 && <=
+   *          {@link CSIParameters#CAPACITY}.
+   * @return an array of the given length, never <code>null</code>.
+   */
+  private int[] getArgumentArray( final int length )
+  {
+    return m_arguments[length];
+  }
+
+  /**
+   * Returns the handler that receives the dedicated commands for the given
+   * handler.
+   * 
+   * @param handler
+   *          the handler to return the command handler for.
+   * @return the given handler if it implements {@link VT220CommandHandler},
+   *         otherwise an adapter passing all commands to the given handler.
+   */
+  private VT220CommandHandler getCommandHandler( final VT220ParserHandler handler )
+  {
+    if ( handler instanceof VT220CommandHandler )
     {
-      m_state = ParserState.VT100;
+      return ( VT220CommandHandler )handler;
     }
-    m_lastWrittenChar = -1;
-    m_designator = 0;
-    m_lastParsePos = Math.min( m_text.length(), m_i );
+    m_adapter.m_handler = handler;
+    return m_adapter;
   }
 
   /**
-   * Returns the bottom of the parameter stack as integer value, falling back to
-   * the given default if either the parameter stack is empty, the value is not
-   * an integer or less than the given default value.
-   * <p>
-   * In case the bottom of the stack is a non-integer value, this value will be
-   * lost and the default value will be returned!
-   * </p>
+   * Returns the next integer parameter, falling back to the given default if
+   * either there are no more parameters, the parameter is omitted or its value
+   * is less than the given default value. Sub-parameters are skipped.
    * 
    * @param defaultValue
    *          the default (minimal) value of the parameter.
@@ -1418,64 +2779,186 @@ public final class VT220Parser
    */
   private int getIntegerParameter( final int defaultValue )
   {
-    int result = Integer.MIN_VALUE;
-    if ( hasParameters() )
+    while ( m_parameters.isSubParameter( m_nextParameter ) )
     {
-      Object param = m_parameters.remove( 0 );
-      if ( param instanceof Integer )
-      {
-        result = ( ( Integer )param ).intValue();
-      }
+      m_nextParameter++;
     }
-    return Math.max( defaultValue, result );
+    return m_parameters.get( m_nextParameter++, defaultValue );
+  }
+
+  /**
+   * Returns all (top-level) integer parameters as array. Omitted parameters
+   * are returned as zero.
+   * <p>
+   * The returned array is shared and only valid until the next sequence is
+   * handled.
+   * </p>
+   * 
+   * @return an array of integer values, never <code>null</code>.
+   */
+  private int[] getIntegerParameters()
+  {
+    int[] result = getArgumentArray( m_parameters.getTopLevelCount() );
+    return m_parameters.toArray( result, 0 );
   }
 
   /**
-   * Returns all integer parameters as array and clears the current parameter
-   * stack.
+   * Returns all (top-level) integer parameters as array, or an array with the
+   * given default value if there are no parameters at all.
+   * <p>
+   * The returned array is shared and only valid until the next sequence is
+   * handled.
+   * </p>
    * 
+   * @param defaultValue
+   *          the value to return in case there are no parameters.
    * @return an array of integer values, never <code>null</code>.
    */
-  private int[] getIntegerParameters( int... defaultValues )
+  private int[] getIntegerParameters( final int defaultValue )
   {
-    int count = 0;
-    for ( Object param : m_parameters )
+    if ( m_parameters.isEmpty() )
     {
-      if ( param instanceof Integer )
-      {
-        count++;
-      }
+      return args( defaultValue );
+    }
+    return getIntegerParameters();
+  }
+
+  /**
+   * Passes the given character and all directly following plain characters as
+   * run to the given handler.
+   * 
+   * @param handler
+   *          the handler to pass the characters to;
+   * @param chars
+   *          the characters to parse;
+   * @param start
+   *          the index of the first plain character of the run;
+   * @param end
+   *          the index until which the given characters can be parsed.
+   * @return the index of the first character after the run.
+   * @throws IOException
+   *           in case of I/O problems handling the characters.
+   */
+  private int handlePrintableRun( final VT220ParserHandler handler, final char[] chars, final int start, final int end )
+    throws IOException
+  {
+    int i = start + 1;
+    while ( ( i < end ) && isPlainCharacter( chars[i] ) )
+    {
+      i++;
     }
 
-    int[] result;
-    if ( count == 0 )
+    int length = i - start;
+    if ( length == 1 )
     {
-      result = Arrays.copyOf( defaultValues, defaultValues.length );
+      handler.handleCharacter( chars[start] );
     }
     else
     {
-      result = new int[count];
-      int idx = 0;
-      while ( hasParameters() )
+      handler.handleCharacters( chars, start, length );
+    }
+
+    m_lastWrittenChar = chars[i - 1];
+
+    if ( m_traceSink != null )
+    {
+      m_i = i;
+      m_traceParameters[0] = length;
+      trace( ITraceSink.TEXT, ( char )0, chars[i - 1], 1 );
+    }
+
+    return i;
+  }
+
+  /**
+   * Collects the given payload character and all directly following payload
+   * characters of the current control string, passing them in chunks to the
+   * control string handler (if any).
+   * 
+   * @param chars
+   *          the characters to parse;
+   * @param start
+   *          the index of the first payload character of the run;
+   * @param end
+   *          the index until which the given characters can be parsed.
+   * @return the index of the first character after the run.
+   * @throws IOException
+   *           in case of I/O problems handling the payload.
+   */
+  private int handleStringRun( final char[] chars, final int start, final int end ) throws IOException
+  {
+    int i = start + 1;
+    while ( ( i < end ) && isPlainCharacter( chars[i] ) )
+    {
+      i++;
+    }
+
+    int length = i - start;
+    int remaining = m_limits[Limit.STRING_LENGTH.ordinal()] - m_stringLength;
+    if ( length > remaining )
+    {
+      // Skip the remainder of this control string...
+      length = remaining;
+      m_stringAborted = true;
+      m_i = start + remaining;
+      m_state = abortSequence( Limit.STRING_LENGTH, STATE_STRING_IGNORE );
+    }
+    m_stringLength += length;
+
+    if ( m_strings != null )
+    {
+      int offset = start;
+      while ( length > 0 )
       {
-        Object param = m_parameters.remove( 0 );
-        if ( param instanceof Integer )
+        if ( m_stringChunkLength == m_stringChunk.length )
         {
-          result[idx++] = ( ( Integer )param ).intValue();
+          flushStringChunk();
         }
+
+        int count = Math.min( length, m_stringChunk.length - m_stringChunkLength );
+        System.arraycopy( chars, offset, m_stringChunk, m_stringChunkLength, count );
+        m_stringChunkLength += count;
+        offset += count;
+        length -= count;
       }
     }
 
-    return result;
+    return i;
   }
 
   /**
-   * @return <code>true</code> if the parameter stack is not empty,
-   *         <code>false</code> otherwise.
+   * Handles the coordinates of a VT52 direct cursor address sequence.
+   * 
+   * @param handler
+   *          the handler to use as callback;
+   * @param c
+   *          the row or column of the cursor address, offset by 32.
+   * @throws IOException
+   *           in case of I/O problems handling the escape sequence.
    */
-  private boolean hasParameters()
+  private void handleVT52Cursor( final VT220ParserHandler handler, final char c ) throws IOException
   {
-    return !m_parameters.isEmpty();
+    if ( c == CAN )
+    {
+      if ( m_vt52Row >= 0 )
+      {
+        // Move to row only...
+        m_commands.handleCUP( m_vt52Row + 1, 1 );
+      }
+      // Cancel; let the CAN be handled as control character...
+      escSequenceFound();
+      handler.handleControl( c );
+    }
+    else if ( m_vt52Row < 0 )
+    {
+      m_vt52Row = Math.max( 0, c - 32 );
+    }
+    else
+    {
+      int col = Math.max( 0, c - 32 );
+      m_commands.handleCUP( m_vt52Row + 1, col + 1 );
+      escSequenceFound();
+    }
   }
 
   /**
@@ -1491,100 +2974,95 @@ public final class VT220Parser
   }
 
   /**
-   * Returns the first lookahead character.
+   * Returns whether the given character is a plain character, that is, it is
+   * neither a C0 or C1 control character nor an escape.
    * 
-   * @return the next character (as int) without changing the current index. Can
-   *         be -1 if no next character is available (end of string).
+   * @param ch
+   *          the character to test.
+   * @return <code>true</code> if the given character is a plain character,
+   *         <code>false</code> otherwise.
    */
-  private int la()
+  private static boolean isPlainCharacter( final char ch )
   {
-    if ( m_i >= m_text.length() )
-    {
-      return -1;
-    }
-    return m_text.charAt( m_i );
+    return ( ch >= SPACE ) && ( ( ch < 0x80 ) || ( ch > APC ) );
   }
 
   /**
-   * Returns the first lookbehind character.
+   * Starts a new control string, whose payload is collected until its
+   * terminator is found.
    * 
-   * @return the previous character (as int) without changing the current index.
-   *         Can be -1 if no previous character is available (beginning of
-   *         string).
+   * @param type
+   *          the 8-bit introducer of the control string, like {@link #OSC} or
+   *          {@link #DCS}.
+   * @throws IOException
+   *           in case of I/O problems handling the control string.
    */
-  private int lb()
+  private void startString( final char type ) throws IOException
   {
-    if ( m_i < 2 )
+    m_stringType = type;
+    m_stringLength = 0;
+    m_stringChunkLength = 0;
+    m_stringAborted = false;
+    m_state = STATE_STRING;
+
+    if ( m_traceSink != null )
+    {
+      trace( ITraceSink.STRING_START, ( char )0, type, 0 );
+    }
+
+    if ( m_strings != null )
     {
-      return -1;
+      m_strings.handleStringStart( type );
     }
-    return m_text.charAt( m_i - 2 );
   }
 
   /**
-   * Logs a part of the given character sequence.
+   * Traces an event to the current trace sink, using the parameters in
+   * {@link #m_traceParameters}.
    * 
-   * @param text
-   *          the character sequence to log, cannot be <code>null</code>;
-   * @param start
-   *          the start position (inclusive) of the text to log;
-   * @param end
-   *          the end position (inclusive) of the text to log.
+   * @param type
+   *          the type of event;
+   * @param intermediate
+   *          the intermediate character of the event;
+   * @param code
+   *          the code of the event;
+   * @param count
+   *          the number of parameters.
    */
-  private void log( CharSequence text, int start, int end )
+  private void trace( final int type, final char intermediate, final char code, final int count )
   {
-    if ( m_logLevel < 1 )
-    {
-      return;
-    }
-
-    int length = text.length();
-    if ( start >= length )
-    {
-      return;
-    }
-    end = Math.min( end, length );
-
-    StringBuilder sb = new StringBuilder( "LOG> " );
-    for ( int i = start; i < end; i++ )
-    {
-      char c = text.charAt( i );
-      if ( c >= ' ' && c <= '~' )
-      {
-        sb.append( c );
-      }
-      else
-      {
-        sb.append( "<" ).append( ( int )c ).append( ">" );
-      }
-    }
-    System.out.println( sb.toString() );
+    m_traceSink.trace( type, ( char )0, intermediate, code, m_traceOffset + m_i, m_traceParameters, count );
   }
 
   /**
-   * Returns the next character.
+   * Traces a complete CSI sequence to the current trace sink.
    * 
-   * @return the next character (as int) after which the current index is
-   *         incremented. Can be -1 if no next character is available (end of
-   *         string).
+   * @param c
+   *          the final character of the CSI sequence.
    */
-  private int nextChar()
+  private void traceCSI( final char c )
   {
-    if ( m_i >= m_text.length() )
-    {
-      return -1;
-    }
-    return m_text.charAt( m_i++ );
+    int[] params = getIntegerParameters();
+    m_traceSink.trace( ITraceSink.CSI, m_designator, m_intermediate, c, m_traceOffset + m_i, params, params.length );
   }
 
   /**
-   * Pushes the given value onto the parameter stack.
+   * Defines the transition for the given state and character classes.
    * 
-   * @param value
-   *          the value to push.
+   * @param state
+   *          the state to define the transition for;
+   * @param action
+   *          the action to perform;
+   * @param nextState
+   *          the state to go to;
+   * @param charClasses
+   *          the character classes to define the transition for.
    */
-  private void pushParameter( final int value )
+  private static void transition( final int state, final int action, final int nextState, final int... charClasses )
   {
-    m_parameters.push( Integer.valueOf( value ) );
+    for ( int charClass : charClasses )
+    {
+      TRANSITIONS[( state * CLASS_COUNT ) + charClass] = ( short )( ( action << 8 ) | nextState );
+    }
   }
 }
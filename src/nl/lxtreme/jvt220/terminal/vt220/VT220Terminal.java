@@ -27,18 +27,20 @@ import static nl.lxtreme.jvt220.terminal.vt220.VT220Parser.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 
 import nl.lxtreme.jvt220.terminal.*;
 import nl.lxtreme.jvt220.terminal.vt220.CharacterSets.CharacterSet;
 import nl.lxtreme.jvt220.terminal.vt220.CharacterSets.GraphicSet;
 import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.CSIType;
-import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220ParserHandler;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220CommandHandler;
 
 
 /**
  * Represents a VT100 terminal implementation.
  */
-public class VT220Terminal extends AbstractTerminal implements VT220ParserHandler
+public class VT220Terminal extends AbstractTerminal implements VT220CommandHandler
 {
   // INNER TYPES
 
@@ -200,7 +202,9 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
 
     private final CharacterSet[] m_graphicSetDesignations;
 
-    private int m_cursorIndex;
+    /** the saved cursor position, which is kept on the screen on resize. */
+    private int m_cursorX;
+    private int m_cursorY;
     private short m_attrs;
     private boolean m_autoWrap;
     private boolean m_originMode;
@@ -216,7 +220,8 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     public StateHolder()
     {
       m_graphicSetDesignations = new CharacterSet[4];
-      m_cursorIndex = 0;
+      m_cursorX = 0;
+      m_cursorY = 0;
       m_autoWrap = true;
       m_originMode = false;
       m_glIndex = 0;
@@ -245,12 +250,16 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
         gss.overrideGL( m_glOverrideIndex );
       }
 
-      return m_cursorIndex;
+      // The terminal can be resized since the cursor was saved...
+      int x = Math.min( m_cursorX, terminal.getWidth() - 1 );
+      int y = Math.min( m_cursorY, terminal.getHeight() - 1 );
+      return terminal.getAbsoluteIndex( x, y );
     }
 
     public void store( VT220Terminal terminal )
     {
-      m_cursorIndex = terminal.getAbsoluteCursorIndex();
+      m_cursorX = terminal.getCursor().getX();
+      m_cursorY = terminal.getCursor().getY();
       m_attrs = terminal.m_textAttributes.getAttributes();
       m_autoWrap = terminal.isAutoWrapMode();
       m_originMode = terminal.isOriginMode();
@@ -531,6 +540,8 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
   private final GraphicSetState m_graphicSetState;
   private final VT220Parser m_vt220parser;
   private final StateHolder m_savedState;
+  /** used to map runs of characters, lazily (re)allocated. */
+  private char[] m_mappedChars;
 
   // CONSTRUCTORS
 
@@ -566,7 +577,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
 
     if ( isInsertMode() )
     {
-      idx = insertChars( idx, m_graphicSetState.map( ch ), 1 ) + 1;
+      idx = insertChar( idx, m_graphicSetState.map( ch ) );
     }
     else
     {
@@ -576,6 +587,42 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     updateCursorByAbsoluteIndex( idx );
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCharacters( char[] chars, int offset, int length ) throws IOException
+  {
+    if ( isInsertMode() )
+    {
+      // Insertion is done character-by-character...
+      for ( int i = offset, end = offset + length; i < end; i++ )
+      {
+        handleCharacter( chars[i] );
+      }
+      return;
+    }
+
+    if ( ( m_mappedChars == null ) || ( m_mappedChars.length < length ) )
+    {
+      m_mappedChars = new char[length];
+    }
+
+    // Only the first character is subject to a single shift...
+    m_mappedChars[0] = m_graphicSetState.map( chars[offset] );
+
+    GraphicSet gl = m_graphicSetState.getGL();
+    GraphicSet gr = m_graphicSetState.getGR();
+    for ( int i = 1; i < length; i++ )
+    {
+      m_mappedChars[i] = CharacterSets.getChar( chars[offset + i], gl, gr );
+    }
+
+    int idx = writeChars( getAbsoluteCursorIndex(), m_mappedChars, 0, length );
+
+    updateCursorByAbsoluteIndex( idx );
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -703,7 +750,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
 
       default:
       {
-        log( "Unknown control character: " + ( int )controlChar );
+        traceUnhandled( controlChar );
         break;
       }
     }
@@ -744,12 +791,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       {
         // Moves the cursor up N lines in the same column. The cursor stops at
         // the top margin.
-        int n = parameters[0];
-
-        int col = idx % getWidth();
-        int row = Math.max( getFirstScrollLine(), ( idx / getWidth() ) - n );
-
-        idx = getAbsoluteIndex( col, row );
+        idx = handleCUU( idx, parameters[0] );
         break;
       }
 
@@ -768,12 +810,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       {
         // Moves the cursor down N lines in the same column. The cursor stops at
         // the bottom margin.
-        int n = parameters[0];
-
-        int col = idx % getWidth();
-        int row = Math.min( getLastScrollLine(), ( idx / getWidth() ) + n );
-
-        idx = getAbsoluteIndex( col, row );
+        idx = handleCUD( idx, parameters[0] );
         break;
       }
 
@@ -781,30 +818,14 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       {
         // Moves the cursor right N columns. The cursor stops at the right
         // margin.
-        int n = parameters[0];
-
-        int col = Math.min( getWidth() - 1, ( idx % getWidth() ) + n );
-        int row = idx / getWidth();
-
-        idx = getAbsoluteIndex( col, row );
+        idx = handleCUF( idx, parameters[0] );
         break;
       }
 
       case CUB: // D
       {
         // Moves the cursor left N columns. The cursor stops at the left margin.
-        int n = parameters[0];
-
-        if ( isAutoWrapMode() && isWrapped() )
-        {
-          idx = Math.max( getFirstAbsoluteIndex(), idx - n );
-        }
-        else
-        {
-          int col = Math.max( 0, ( idx % getWidth() ) - n );
-          int row = idx / getWidth();
-          idx = getAbsoluteIndex( col, row );
-        }
+        idx = handleCUB( idx, parameters[0] );
         break;
       }
 
@@ -848,24 +869,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case CUP: // H,f
       {
         // Cursor Position [row;column] (default = [1,1])
-        int row = parameters[0] - 1;
-        int col = parameters[1] - 1;
-
-        // Movement is *relative* to origin, if enabled...
-        if ( isOriginMode() )
-        {
-          row += getFirstScrollLine();
-        }
-        if ( row > getLastScrollLine() )
-        {
-          row = getLastScrollLine();
-        }
-        if ( col >= getWidth() )
-        {
-          col = getWidth() - 1;
-        }
-
-        idx = getAbsoluteIndex( col, row );
+        idx = getCursorIndex( parameters[0], parameters[1] );
         break;
       }
 
@@ -883,9 +887,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case ED: // J
       {
         // Erase in Display...
-        int mode = parameters[0];
-
-        clearScreen( mode, idx, isErasureMode() );
+        clearScreen( parameters[0], idx, isErasureMode() );
         break;
       }
 
@@ -901,9 +903,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case EL: // K
       {
         // Clear line...
-        int mode = parameters[0];
-
-        clearLine( mode, idx, isErasureMode() );
+        clearLine( parameters[0], idx, isErasureMode() );
         break;
       }
 
@@ -925,17 +925,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
         // down. Lines moved past the bottom margin are lost. The cursor
         // is reset to the first column. This sequence is ignored when the
         // cursor is outside the scrolling region.
-        int lines = parameters[0];
-
-        int row = idx / getWidth();
-        if ( row >= getFirstScrollLine() && row < getLastScrollLine() )
-        {
-          int col = idx % getWidth();
-          
-          scrollDown( row, getLastScrollLine(), lines );
-
-          idx -= col;
-        }
+        idx = handleIL( idx, parameters[0] );
         break;
       }
 
@@ -949,17 +939,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
         // bottom of the scrolling region. The cursor is reset to the
         // first column. This sequence is ignored when the cursor is
         // outside the scrolling region.
-        int lines = parameters[0];
-
-        int row = idx / getWidth();
-        if ( row >= getFirstScrollLine() && row < getLastScrollLine() )
-        {
-          int col = idx % getWidth();
-          
-          scrollUp( row, getLastScrollLine(), lines );
-
-          idx -= col;
-        }
+        idx = handleDL( idx, parameters[0] );
         break;
       }
 
@@ -992,20 +972,10 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
 
       case ECH: // X
       {
-        // Erase N Character(s) (default = 1)
-        int n = parameters[0] - 1;
+        // Erase N Character(s) (default = 1), bound to the current line...
+        int n = Math.min( Math.max( 1, parameters[0] ), getWidth() - ( idx % getWidth() ) );
 
-        int tmpIdx = idx;
-        if ( tmpIdx + n > getWidth() )
-        {
-          n = getWidth() - ( tmpIdx % getWidth() ) - 1;
-        }
-
-        do
-        {
-          removeChar( tmpIdx++, isErasureMode() );
-        }
-        while ( n-- > 0 );
+        eraseRange( idx, idx + n, isErasureMode() );
         break;
       }
 
@@ -1037,13 +1007,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case REP: // b
       {
         // Repeat the preceding graphic character N times
-        int count = parameters[0];
-        char ch = ( char )parameters[1];
-
-        while ( count-- > 0 )
-        {
-          idx = writeChar( idx, ch );
-        }
+        idx = handleREP( idx, parameters[0], ( char )parameters[1] );
         break;
       }
 
@@ -1140,7 +1104,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             break;
 
           default:
-            log( "Unknown SET MODE: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1220,8 +1184,22 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             setReverseWrapAround( true );
             break;
 
+          case 47:
+          case 1047:
+            // Use alternate screen buffer...
+            setAlternateScreen( true );
+            break;
+
+          case 1049:
+            // Save cursor as in DECSC and use the cleared alternate screen
+            // buffer...
+            saveCursor( idx );
+            setAlternateScreen( true );
+            clearScreen( 2 );
+            break;
+
           default:
-            log( "Unknown DEC SET PRIVATE MODE: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1281,7 +1259,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             break;
 
           default:
-            log( "Unknown RESET MODE: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1357,8 +1335,29 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             setReverseWrapAround( false );
             break;
 
+          case 47:
+            // Use normal screen buffer...
+            setAlternateScreen( false );
+            break;
+
+          case 1047:
+            // Clear the alternate screen buffer, and use the normal screen
+            // buffer...
+            if ( isAlternateScreen() )
+            {
+              clearScreen( 2 );
+            }
+            setAlternateScreen( false );
+            break;
+
+          case 1049:
+            // Use normal screen buffer and restore cursor as in DECRC...
+            setAlternateScreen( false );
+            idx = restoreCursor();
+            break;
+
           default:
-            log( "Unknown DEC RESET PRIVATE MODE: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1367,7 +1366,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case SGR: // m
       {
         // Set Graphics Rendering
-        handleGraphicsRendering( parameters );
+        handleGraphicsRendering( parameters, parameters.length );
         break;
       }
 
@@ -1418,7 +1417,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             break;
 
           default:
-            log( "Unknown/unhandled DECSDR argument: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1452,22 +1451,17 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       case DECSTBM: // r
       {
         // Set Scrolling Region [top;bottom] (default = full size of window)
-        int top = parameters[0];
-        int bottom = parameters[1];
-        if ( bottom == 0 )
-        {
-          bottom = getHeight();
-        }
-        if ( bottom > top )
-        {
-          setScrollRegion( top - 1, bottom - 1 );
-          idx = getAbsoluteIndex( 0, getFirstScrollLine() );
-        }
+        idx = handleDECSTBM( idx, parameters[0], parameters[1] );
         break;
       }
 
-      case RestoreDECPM: // ?r; Restore DEC Private Mode Values; xterm specific
       case DECCARA: // $r; Change attributes in rectangular area; VT420 only
+      {
+        handleDECCARA( parameters, false /* reverse */);
+        break;
+      }
+
+      case RestoreDECPM: // ?r; Restore DEC Private Mode Values; xterm specific
       case SaveDECPM: // ?s; Save DEC Private Mode Values; xterm specific
         break;
 
@@ -1559,7 +1553,17 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       }
 
       case DECRARA: // $t; reverse attributes in rectangular area; VT420 only
+      {
+        handleDECCARA( parameters, true /* reverse */);
+        break;
+      }
+
       case DECCRA: // $v; copy rectangular area; VT400 only
+      {
+        handleDECCRA( parameters );
+        break;
+      }
+
       case DECEFR: // 'w; Enable filter rectangle; VT340 only
         break;
 
@@ -1573,15 +1577,30 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       }
 
       case DECFRA: // $x; Fill rectangular area; VT400 only
-      case DECELR: // 'z; Enable locator reports; VT340 only
+      {
+        handleDECFRA( parameters );
+        break;
+      }
+
       case DECERA: // $z; Erase rectangular area; VT400 only
-      case DECSLE: // '{; Select locator events; VT340 only
+      {
+        handleDECERA( parameters, false /* keepProtectedCells */);
+        break;
+      }
+
       case DECSERA: // ${; Selective erase rectangular area; VT400 only
+      {
+        handleDECERA( parameters, true /* keepProtectedCells */);
+        break;
+      }
+
+      case DECELR: // 'z; Enable locator reports; VT340 only
+      case DECSLE: // '{; Select locator events; VT340 only
       case DECRQLP: // '|; Request locator position; VT340 only
         break;
 
       default:
-        log( "Unhandled CSI: " + type );
+        traceUnhandled( type.ordinal() );
         break;
     }
     // Update the cursor position...
@@ -1589,6 +1608,116 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     resetWrapped();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCUB( int n ) throws IOException
+  {
+    int idx = handleCUB( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCUD( int n ) throws IOException
+  {
+    int idx = handleCUD( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCUF( int n ) throws IOException
+  {
+    int idx = handleCUF( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCUP( int row, int column ) throws IOException
+  {
+    int idx = getCursorIndex( row, column );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleCUU( int n ) throws IOException
+  {
+    int idx = handleCUU( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleDECSTBM( int top, int bottom ) throws IOException
+  {
+    int idx = handleDECSTBM( getAbsoluteCursorIndex(), top, bottom );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleDL( int n ) throws IOException
+  {
+    int idx = handleDL( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleED( int mode ) throws IOException
+  {
+    int idx = getAbsoluteCursorIndex();
+    clearScreen( mode, idx, isErasureMode() );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleEL( int mode ) throws IOException
+  {
+    int idx = getAbsoluteCursorIndex();
+    clearLine( mode, idx, isErasureMode() );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -1712,7 +1841,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             break;
 
           default:
-            log( "Unhandled argument for ESC sp: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1738,7 +1867,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
             break;
 
           default:
-            log( "Unhandled argument for ESC sp: " + arg );
+            traceUnhandled( arg );
             break;
         }
         break;
@@ -1768,7 +1897,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
 
       default:
       {
-        log( "Unhandled ESC designator: " + designator );
+        traceUnhandled( designator );
         break;
       }
     }
@@ -1777,15 +1906,88 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     resetWrapped();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleIL( int n ) throws IOException
+  {
+    int idx = handleIL( getAbsoluteCursorIndex(), n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleREP( int count, char ch ) throws IOException
+  {
+    int idx = handleREP( getAbsoluteCursorIndex(), count, ch );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSD( int n ) throws IOException
+  {
+    int idx = getAbsoluteCursorIndex();
+    scrollDown( n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSGR( int[] parameters, int count ) throws IOException
+  {
+    int idx = getAbsoluteCursorIndex();
+    handleGraphicsRendering( parameters, count );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSU( int n ) throws IOException
+  {
+    int idx = getAbsoluteCursorIndex();
+    scrollUp( n );
+
+    updateCursorByAbsoluteIndex( idx );
+    resetWrapped();
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void reset()
   {
-    softReset();
-    // Clear entire screen...
-    clearScreen( 2 );
+    beginUpdate();
+    try
+    {
+      // Switch back to the normal screen...
+      setAlternateScreen( false );
+      softReset();
+      // Clear entire screen...
+      clearScreen( 2 );
+    }
+    finally
+    {
+      endUpdate();
+    }
   }
 
   /**
@@ -1825,10 +2027,10 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
    * {@inheritDoc}
    */
   @Override
-  public void setLogLevel( int aLogLevel )
+  public void setTraceSink( ITraceSink traceSink )
   {
-    super.setLogLevel( aLogLevel );
-    m_vt220parser.setLogLevel( aLogLevel );
+    super.setTraceSink( traceSink );
+    m_vt220parser.setTraceSink( traceSink );
   }
 
   /**
@@ -1840,6 +2042,15 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     return new VT220KeyMapper();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected int doReadInput( final ByteBuffer bytes, final Charset charset ) throws IOException
+  {
+    return m_vt220parser.parse( bytes, charset, this );
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -2057,6 +2268,358 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     return sb.toString();
   }
 
+  /**
+   * Returns the attribute bits that are changed by the given graphic
+   * rendition in a rectangular area.
+   * 
+   * @param parameter
+   *          the graphic rendition, for example, 1 for bold or 22 for not
+   *          bold.
+   * @return the attribute bits, or 0 if the graphic rendition does not apply
+   *         to rectangular areas.
+   */
+  private int getAttributeMask( int parameter )
+  {
+    switch ( parameter )
+    {
+      case 0:
+        return TextAttributes.BOLD_MASK | TextAttributes.UNDERLINE_MASK | TextAttributes.ITALIC_MASK
+            | TextAttributes.REVERSE_MASK;
+      case 1:
+      case 22:
+        return TextAttributes.BOLD_MASK;
+      case 4:
+      case 24:
+        return TextAttributes.UNDERLINE_MASK;
+      case 5:
+      case 25:
+        // Blink is shown as italic...
+        return TextAttributes.ITALIC_MASK;
+      case 7:
+      case 27:
+        return TextAttributes.REVERSE_MASK;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Returns the absolute index of the given cursor position, which is relative
+   * to the origin if origin mode is enabled.
+   * 
+   * @param row
+   *          the one-based row of the position;
+   * @param column
+   *          the one-based column of the position.
+   * @return the absolute index of the given position.
+   */
+  private int getCursorIndex( int row, int column )
+  {
+    int r = row - 1;
+    int c = column - 1;
+
+    // Movement is *relative* to origin, if enabled...
+    if ( isOriginMode() )
+    {
+      r += getFirstScrollLine();
+    }
+    if ( r > getLastScrollLine() )
+    {
+      r = getLastScrollLine();
+    }
+    if ( c >= getWidth() )
+    {
+      c = getWidth() - 1;
+    }
+
+    return getAbsoluteIndex( c, r );
+  }
+
+  /**
+   * Returns a single parameter, or the given default if it is omitted or 0.
+   * 
+   * @param parameters
+   *          the parameters of the sequence;
+   * @param index
+   *          the index of the parameter to return;
+   * @param defaultValue
+   *          the value to return if the parameter is omitted or 0.
+   * @return the parameter value.
+   */
+  private int getParameter( int[] parameters, int index, int defaultValue )
+  {
+    if ( ( index >= parameters.length ) || ( parameters[index] == 0 ) )
+    {
+      return defaultValue;
+    }
+    return parameters[index];
+  }
+
+  /**
+   * Returns the rectangular area given by four one-based parameters (top,
+   * left, bottom and right), which are relative to the origin if origin mode
+   * is enabled. The area is bound to the scrolling region in origin mode, and
+   * to the screen otherwise.
+   * 
+   * @param parameters
+   *          the parameters of the sequence;
+   * @param offset
+   *          the index of the top parameter.
+   * @return the zero-based top row, left column, bottom row (exclusive) and
+   *         right column (exclusive) of the area, or <code>null</code> if the
+   *         area is empty.
+   */
+  private int[] getRectangle( int[] parameters, int offset )
+  {
+    int firstRow = isOriginMode() ? getFirstScrollLine() : 0;
+    int lastRow = isOriginMode() ? getLastScrollLine() + 1 : getHeight();
+
+    int top = firstRow + getParameter( parameters, offset, 1 ) - 1;
+    int left = getParameter( parameters, offset + 1, 1 ) - 1;
+    int bottom = Math.min( lastRow, firstRow + getParameter( parameters, offset + 2, lastRow - firstRow ) );
+    int right = Math.min( getWidth(), getParameter( parameters, offset + 3, getWidth() ) );
+    if ( ( top >= bottom ) || ( left >= right ) )
+    {
+      return null;
+    }
+    return new int[] { top, left, bottom, right };
+  }
+
+  /**
+   * Moves the cursor left N columns. The cursor stops at the left margin.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of columns to move.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleCUB( int index, int n )
+  {
+    if ( isAutoWrapMode() && isWrapped() )
+    {
+      return Math.max( getFirstAbsoluteIndex(), index - n );
+    }
+
+    int col = Math.max( 0, ( index % getWidth() ) - n );
+    int row = index / getWidth();
+    return getAbsoluteIndex( col, row );
+  }
+
+  /**
+   * Moves the cursor down N lines in the same column. The cursor stops at the
+   * bottom margin.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of lines to move.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleCUD( int index, int n )
+  {
+    int col = index % getWidth();
+    int row = Math.min( getLastScrollLine(), ( index / getWidth() ) + n );
+    return getAbsoluteIndex( col, row );
+  }
+
+  /**
+   * Moves the cursor right N columns. The cursor stops at the right margin.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of columns to move.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleCUF( int index, int n )
+  {
+    int col = Math.min( getWidth() - 1, ( index % getWidth() ) + n );
+    int row = index / getWidth();
+    return getAbsoluteIndex( col, row );
+  }
+
+  /**
+   * Moves the cursor up N lines in the same column. The cursor stops at the
+   * top margin.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of lines to move.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleCUU( int index, int n )
+  {
+    int col = index % getWidth();
+    int row = Math.max( getFirstScrollLine(), ( index / getWidth() ) - n );
+    return getAbsoluteIndex( col, row );
+  }
+
+  /**
+   * Changes or reverses the attributes of a rectangular area, without moving
+   * the cursor.
+   * 
+   * @param parameters
+   *          the parameters of the sequence: top, left, bottom, right,
+   *          followed by the graphic renditions to apply;
+   * @param reverse
+   *          <code>true</code> to reverse the attributes given by the graphic
+   *          renditions (DECRARA), <code>false</code> to set or clear them
+   *          (DECCARA).
+   */
+  private void handleDECCARA( int[] parameters, boolean reverse )
+  {
+    int[] rect = getRectangle( parameters, 0 );
+    if ( rect == null )
+    {
+      return;
+    }
+
+    int setMask = 0;
+    int clearMask = 0;
+    int toggleMask = 0;
+    for ( int i = 4; i < Math.max( 5, parameters.length ); i++ )
+    {
+      int param = ( i < parameters.length ) ? parameters[i] : 0;
+      int mask = getAttributeMask( param );
+      if ( reverse )
+      {
+        toggleMask ^= mask;
+      }
+      else if ( ( param == 0 ) || ( param > 20 ) )
+      {
+        setMask &= ~mask;
+        clearMask |= mask;
+      }
+      else
+      {
+        setMask |= mask;
+        clearMask &= ~mask;
+      }
+    }
+
+    changeAttributes( rect[0], rect[1], rect[2], rect[3], setMask, clearMask, toggleMask );
+  }
+
+  /**
+   * Copies a rectangular area to another position on the screen, without
+   * moving the cursor. As there is only a single page, the page parameters are
+   * ignored.
+   * 
+   * @param parameters
+   *          the parameters of the sequence: top, left, bottom, right and page
+   *          of the source area, followed by the top, left and page of the
+   *          destination.
+   */
+  private void handleDECCRA( int[] parameters )
+  {
+    int[] rect = getRectangle( parameters, 0 );
+    if ( rect == null )
+    {
+      return;
+    }
+
+    int firstRow = isOriginMode() ? getFirstScrollLine() : 0;
+    int lastRow = isOriginMode() ? getLastScrollLine() + 1 : getHeight();
+
+    int destRow = firstRow + getParameter( parameters, 5, 1 ) - 1;
+    int destColumn = getParameter( parameters, 6, 1 ) - 1;
+    // The destination is bound to the scrolling region as well...
+    int bottom = Math.min( rect[2], rect[0] + lastRow - destRow );
+
+    copyRect( rect[0], rect[1], bottom, rect[3], destRow, destColumn );
+  }
+
+  /**
+   * Erases a rectangular area, without moving the cursor.
+   * 
+   * @param parameters
+   *          the parameters of the sequence: top, left, bottom and right;
+   * @param keepProtectedCells
+   *          <code>true</code> to leave the protected cells as-is (DECSERA),
+   *          <code>false</code> to erase them as well (DECERA).
+   */
+  private void handleDECERA( int[] parameters, boolean keepProtectedCells )
+  {
+    int[] rect = getRectangle( parameters, 0 );
+    if ( rect != null )
+    {
+      eraseRect( rect[0], rect[1], rect[2], rect[3], keepProtectedCells );
+    }
+  }
+
+  /**
+   * Fills a rectangular area with a single character, using the current
+   * attributes, without moving the cursor. Characters that are not printable,
+   * or do not fit in a single cell, are ignored.
+   * 
+   * @param parameters
+   *          the parameters of the sequence: the decimal code of the
+   *          character, top, left, bottom and right.
+   */
+  private void handleDECFRA( int[] parameters )
+  {
+    int ch = ( parameters.length > 0 ) ? parameters[0] : 0;
+    boolean printable = ( ( ch >= 32 ) && ( ch < 127 ) )
+        || ( ( ch >= 160 ) && ( ch <= Character.MAX_VALUE ) && !CharacterWidth.isSpecial( ( char )ch ) );
+    if ( !printable )
+    {
+      return;
+    }
+
+    int[] rect = getRectangle( parameters, 1 );
+    if ( rect != null )
+    {
+      fillRect( rect[0], rect[1], rect[2], rect[3], ( char )ch );
+    }
+  }
+
+  /**
+   * Sets the scrolling region and moves the cursor to its first line.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param top
+   *          the one-based top line of the scrolling region;
+   * @param bottom
+   *          the one-based bottom line of the scrolling region, or 0 for the
+   *          last line of the screen.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleDECSTBM( int index, int top, int bottom )
+  {
+    int b = ( bottom == 0 ) ? getHeight() : bottom;
+    if ( b > top )
+    {
+      setScrollRegion( top - 1, b - 1 );
+      return getAbsoluteIndex( 0, getFirstScrollLine() );
+    }
+    return index;
+  }
+
+  /**
+   * Deletes N lines starting at the line with the cursor. This is ignored when
+   * the cursor is outside the scrolling region.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of lines to delete.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleDL( int index, int n )
+  {
+    int row = index / getWidth();
+    if ( row >= getScrollRegionTop() && row <= getScrollRegionBottom() )
+    {
+      scrollUp( row, getScrollRegionBottom(), n );
+
+      return index - ( index % getWidth() );
+    }
+    return index;
+  }
+
   /**
    * End of protected area.
    */
@@ -2070,14 +2633,16 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
    * stack into recognized text attributes.
    * 
    * @param parameters
-   *          the parameters to handle as graphics rendering options.
+   *          the parameters to handle as graphics rendering options;
+   * @param count
+   *          the number of parameters to handle.
    */
-  private void handleGraphicsRendering( int[] parameters )
+  private void handleGraphicsRendering( int[] parameters, int count )
   {
     boolean containsHiddenAttr = false;
-    for ( int p : parameters )
+    for ( int i = 0; i < count; i++ )
     {
-      if ( p == 8 )
+      if ( parameters[i] == 8 )
       {
         containsHiddenAttr = true;
         break;
@@ -2092,9 +2657,9 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
       m_textAttributes.setReverse( false );
     }
 
-    for ( int p : parameters )
+    for ( int i = 0; i < count; i++ )
     {
-      handleGraphicsRendering( m_textAttributes, p );
+      handleGraphicsRendering( m_textAttributes, parameters[i] );
     }
   }
 
@@ -2187,8 +2752,30 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     }
     else if ( parameter > 0 )
     {
-      log( "Unhandled attribute: " + parameter );
+      traceUnhandled( parameter );
+    }
+  }
+
+  /**
+   * Inserts N lines at the cursor. This is ignored when the cursor is outside
+   * the scrolling region.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param n
+   *          the number of lines to insert.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleIL( int index, int n )
+  {
+    int row = index / getWidth();
+    if ( row >= getScrollRegionTop() && row <= getScrollRegionBottom() )
+    {
+      scrollDown( row, getScrollRegionBottom(), n );
+
+      return index - ( index % getWidth() );
     }
+    return index;
   }
 
   /**
@@ -2231,6 +2818,28 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
     return getAbsoluteIndex( col, row );
   }
 
+  /**
+   * Repeats the given character N times.
+   * 
+   * @param index
+   *          the absolute index of the cursor;
+   * @param count
+   *          the number of times to write the given character;
+   * @param ch
+   *          the character to repeat.
+   * @return the new absolute index of the cursor.
+   */
+  private int handleREP( int index, int count, char ch )
+  {
+    int idx = index;
+    int n = count;
+    while ( n-- > 0 )
+    {
+      idx = writeChar( idx, ch );
+    }
+    return idx;
+  }
+
   /**
    * RI moves the cursor up one line in the same column. If the cursor is at the
    * top margin, the screen performs a scroll-down.
@@ -2306,7 +2915,7 @@ public class VT220Terminal extends AbstractTerminal implements VT220ParserHandle
   {
     if ( arg != 0 )
     {
-      log( "Unknown DA: " + arg );
+      traceUnhandled( arg );
     }
     else
     {
@@ -0,0 +1,85 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ *
+ * (C) Copyright 2012 - J.W. Janssen, <j.w.janssen@lxtreme.nl>.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import junit.framework.*;
+
+
+/**
+ * Test cases for {@link DamageMap}.
+ */
+public class DamageMapTest extends TestCase
+{
+  // METHODS
+
+  /**
+   * Tests that marking cells of a single row widens the span of that row.
+   */
+  public void testMarkCellsOnSingleRowOk()
+  {
+    DamageMap damage = new DamageMap( 80, 24 );
+    assertTrue( damage.isEmpty() );
+
+    damage.markCells( 170, 172 );
+    damage.markCells( 165, 166 );
+
+    assertFalse( damage.isEmpty() );
+    assertEquals( 2, damage.nextDirtyRow( 0 ) );
+    assertEquals( -1, damage.nextDirtyRow( 3 ) );
+    assertEquals( 5, damage.getMinColumn( 2 ) );
+    assertEquals( 12, damage.getMaxColumn( 2 ) );
+    assertFalse( damage.isFullScreen() );
+    assertFalse( damage.isScrolled() );
+  }
+
+  /**
+   * Tests that marking cells that span multiple rows marks the rows in between
+   * entirely.
+   */
+  public void testMarkCellsOnMultipleRowsOk()
+  {
+    DamageMap damage = new DamageMap( 80, 24 );
+
+    damage.markCells( 75, 245 );
+
+    assertEquals( 75, damage.getMinColumn( 0 ) );
+    assertEquals( 80, damage.getMaxColumn( 0 ) );
+    assertEquals( 0, damage.getMinColumn( 1 ) );
+    assertEquals( 80, damage.getMaxColumn( 1 ) );
+    assertEquals( 0, damage.getMinColumn( 3 ) );
+    assertEquals( 5, damage.getMaxColumn( 3 ) );
+    assertEquals( 3, damage.nextDirtyRow( 3 ) );
+    assertEquals( -1, damage.nextDirtyRow( 4 ) );
+  }
+
+  /**
+   * Tests that a clone is not affected by clearing the original.
+   */
+  public void testCloneAndClearOk()
+  {
+    DamageMap damage = new DamageMap( 80, 24 );
+
+    damage.markScrolled( 5, 10 );
+    damage.markCells( 0, 1 );
+
+    DamageMap clone = damage.clone();
+    damage.clear();
+
+    assertTrue( damage.isEmpty() );
+    assertFalse( damage.isScrolled() );
+    assertEquals( 0, damage.getMaxColumn( 5 ) );
+
+    assertTrue( clone.isScrolled() );
+    assertTrue( clone.isDirty( 0 ) );
+    assertEquals( 5, clone.nextDirtyRow( 1 ) );
+    assertEquals( 80, clone.getMaxColumn( 10 ) );
+
+    damage.markAll();
+    assertTrue( damage.isFullScreen() );
+    assertEquals( 23, damage.nextDirtyRow( 23 ) );
+  }
+}
@@ -86,4 +86,47 @@ public class DefaultTabulatorTest extends TestCase
     assertEquals( 79, m_tabulator.nextTab( 16 ) );
     assertEquals( 79, m_tabulator.nextTab( 79 ) );
   }
+
+  /**
+   * Tests that we can use the tab stops backwards.
+   */
+  public void testPreviousTabWithTabStops()
+  {
+    m_tabulator.clearAll();
+    m_tabulator.set( 3 );
+    m_tabulator.set( 70 );
+
+    assertEquals( 0, m_tabulator.previousTab( 3 ) );
+    assertEquals( 3, m_tabulator.previousTab( 4 ) );
+    assertEquals( 3, m_tabulator.previousTab( 70 ) );
+    assertEquals( 70, m_tabulator.previousTab( 71 ) );
+    assertEquals( 70, m_tabulator.previousTab( 200 ) );
+
+    m_tabulator.clear( 70 );
+    assertEquals( 3, m_tabulator.previousTab( 79 ) );
+    assertEquals( 3, m_tabulator.getPreviousTabWidth( 6 ) );
+  }
+
+  /**
+   * Tests that resizing retains the existing tab stops, and applies the
+   * default tab stops to new columns.
+   */
+  public void testResize()
+  {
+    m_tabulator.clear( 8 );
+    m_tabulator.set( 70 );
+
+    m_tabulator.resize( 132 );
+
+    assertEquals( 16, m_tabulator.nextTab( 0 ) );
+    assertEquals( 70, m_tabulator.nextTab( 64 ) );
+    assertEquals( 72, m_tabulator.nextTab( 70 ) );
+    assertEquals( 80, m_tabulator.nextTab( 79 ) );
+    assertEquals( 128, m_tabulator.nextTab( 120 ) );
+
+    m_tabulator.resize( 40 );
+    m_tabulator.resize( 80 );
+
+    assertEquals( 72, m_tabulator.nextTab( 64 ) );
+  }
 }
@@ -0,0 +1,236 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * (C) Copyright 2012 - J.W. Janssen, <j.w.janssen@lxtreme.nl>.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import nl.lxtreme.jvt220.terminal.*;
+
+
+/**
+ * Test cases for {@link FrameScheduler}.
+ */
+public class FrameSchedulerTest extends TestCase
+{
+  // INNER TYPES
+
+  /**
+   * Provides a frontend that records the frames it is notified of.
+   */
+  static final class RecordingFrontend implements ITerminalFrontend
+  {
+    // VARIABLES
+
+    final List<IScreenView> m_frames = new ArrayList<IScreenView>();
+    volatile boolean m_listening = true;
+
+    // METHODS
+
+    @Override
+    public void connect( InputStream inputStream, OutputStream outputStream ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void connect( OutputStream outputStream ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void disconnect() throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public Dimension getMaximumTerminalSize()
+    {
+      return new Dimension( 80, 24 );
+    }
+
+    @Override
+    public Dimension getSize()
+    {
+      return new Dimension( 640, 480 );
+    }
+
+    @Override
+    public Writer getWriter()
+    {
+      return null;
+    }
+
+    @Override
+    public boolean isListening()
+    {
+      return m_listening;
+    }
+
+    @Override
+    public void setReverse( boolean reverse )
+    {
+      // Nop
+    }
+
+    @Override
+    public void setSize( int width, int height )
+    {
+      // Nop
+    }
+
+    @Override
+    public void setTerminal( ITerminal terminal )
+    {
+      // Nop
+    }
+
+    @Override
+    public synchronized void terminalChanged( IScreenView screen )
+    {
+      m_frames.add( screen );
+      notifyAll();
+    }
+
+    @Override
+    public void terminalSizeChanged( int columns, int lines )
+    {
+      // Nop
+    }
+
+    @Override
+    public void writeCharacters( CharSequence chars ) throws IOException
+    {
+      // Nop
+    }
+
+    @Override
+    public void writeCharacters( Integer... chars ) throws IOException
+    {
+      // Nop
+    }
+
+    /**
+     * Waits until the given number of frames is delivered.
+     */
+    synchronized IScreenView awaitFrame( int count ) throws InterruptedException
+    {
+      long deadline = System.currentTimeMillis() + 5000L;
+      while ( ( m_frames.size() < count ) && ( System.currentTimeMillis() < deadline ) )
+      {
+        wait( 100L );
+      }
+      assertEquals( count, m_frames.size() );
+      return m_frames.get( count - 1 );
+    }
+
+    synchronized int getFrameCount()
+    {
+      return m_frames.size();
+    }
+  }
+
+  // VARIABLES
+
+  private VT220Terminal m_terminal;
+  private RecordingFrontend m_frontend;
+
+  // METHODS
+
+  /**
+   * Tests that the changes made within a frame interval are delivered as a
+   * single frame, with the latest contents and all damage since the last
+   * frame.
+   */
+  public void testChangesAreCoalescedOk() throws Exception
+  {
+    m_terminal.setFrameInterval( 200, TimeUnit.MILLISECONDS );
+
+    // The first change after an idle period is delivered right away...
+    m_terminal.read( "a" );
+    assertEquals( 1, m_frontend.getFrameCount() );
+
+    m_terminal.read( "b" );
+    m_terminal.read( "\033[3;1Hc" );
+    assertEquals( 1, m_frontend.getFrameCount() );
+
+    IScreenView frame = m_frontend.awaitFrame( 2 );
+    assertSame( m_terminal.getSnapshot(), frame );
+    assertEquals( 'b', frame.getChar( 0, 1 ) );
+    assertEquals( 'c', frame.getChar( 2, 0 ) );
+
+    IDamageMap damage = frame.getDamage();
+    assertTrue( damage.isDirty( 0 ) );
+    assertTrue( damage.getMaxColumn( 0 ) >= 2 );
+    assertTrue( damage.isDirty( 2 ) );
+
+    // The delivered damage is not reported again...
+    Thread.sleep( 250L );
+    m_terminal.read( "\033[5;1Hd" );
+    damage = m_frontend.awaitFrame( 3 ).getDamage();
+    assertFalse( damage.isDirty( 0 ) );
+    assertFalse( damage.isDirty( 2 ) );
+    assertTrue( damage.isDirty( 4 ) );
+  }
+
+  /**
+   * Tests that a frame is not lost if the frontend is not listening, but
+   * delivered once it is listening again.
+   */
+  public void testFramesAreRetriedOk() throws Exception
+  {
+    m_terminal.setFrameInterval( 10, TimeUnit.MILLISECONDS );
+
+    m_frontend.m_listening = false;
+    m_terminal.read( "x" );
+    Thread.sleep( 50L );
+    assertEquals( 0, m_frontend.getFrameCount() );
+
+    m_frontend.m_listening = true;
+    IScreenView frame = m_frontend.awaitFrame( 1 );
+    assertEquals( 'x', frame.getChar( 0, 0 ) );
+  }
+
+  /**
+   * Tests that without frame interval each change is delivered right away.
+   */
+  public void testWithoutIntervalOk() throws Exception
+  {
+    m_terminal.setFrameInterval( 0, TimeUnit.MILLISECONDS );
+    assertEquals( 0, m_terminal.getFrameInterval( TimeUnit.NANOSECONDS ) );
+
+    for ( int i = 0; i < 10; i++ )
+    {
+      m_terminal.read( "y" );
+    }
+    assertEquals( 10, m_frontend.getFrameCount() );
+  }
+
+  /**
+   * Set up for each test case.
+   */
+  protected void setUp() throws Exception
+  {
+    m_frontend = new RecordingFrontend();
+    m_terminal = new VT220Terminal( 80, 24 );
+    m_terminal.setFrontend( m_frontend );
+  }
+
+  /**
+   * Tear down for each test case.
+   */
+  protected void tearDown() throws Exception
+  {
+    m_terminal.close();
+  }
+}
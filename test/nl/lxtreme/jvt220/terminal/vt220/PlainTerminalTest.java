@@ -225,11 +225,12 @@ public class PlainTerminalTest extends TestCase
     
     term.setDimensions( 4, 3 );
     
-    assertEquals( "111122223333", getTermText( term ) );
+    // Lines are re-flowed, keeping the cursor after the last line on screen...
+    assertEquals( "2   33333   ", getTermText( term ) );
     
     term.setDimensions( 4, 2 );
     
-    assertEquals( "11112222", getTermText( term ) );
+    assertEquals( "2   3333", getTermText( term ) );
   }
 
   public void testWriteBackspacesAtLastPositionDoesNotScrollUpOk() throws IOException
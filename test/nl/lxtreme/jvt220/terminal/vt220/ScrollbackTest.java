@@ -0,0 +1,401 @@
+/**
+ * jVT220 - Java VT220 terminal emulator.
+ * 
+ * (C) Copyright 2012 - J.W. Janssen, <j.w.janssen@lxtreme.nl>.
+ */
+package nl.lxtreme.jvt220.terminal.vt220;
+
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+
+/**
+ * Test cases for {@link Scrollback}.
+ */
+public class ScrollbackTest extends TestCase
+{
+  // CONSTANTS
+
+  private static final int WIDTH = 80;
+
+  // VARIABLES
+
+  private char[] m_chars;
+  private short[] m_attrs;
+
+  // METHODS
+
+  /**
+   * Tests that lines are retained with their characters and attributes, and
+   * that trailing blanks are trimmed.
+   */
+  public void testAddAndGetLineOk()
+  {
+    Scrollback scrollback = new Scrollback( 10, 1024 * 1024, false /* compress */);
+
+    scrollback.add( line( "hello world", ( short )0 ), m_attrs, WIDTH );
+    // Set the attributes of "world"...
+    Arrays.fill( m_attrs, 6, 11, ( short )TextAttributes.BOLD_MASK );
+    scrollback.add( m_chars, m_attrs, WIDTH );
+    scrollback.add( line( "\u65e5\u672c\u8a9e", ( short )0 ), m_attrs, WIDTH );
+
+    assertEquals( 3, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+
+    assertEquals( 11, scrollback.getLine( 0, chars, attrs ) );
+    assertEquals( "hello world", new String( chars, 0, 11 ) );
+    assertEquals( 0, attrs[6] );
+
+    assertEquals( 11, scrollback.getLine( 1, chars, attrs ) );
+    assertEquals( 0, attrs[5] );
+    assertEquals( TextAttributes.BOLD_MASK, attrs[6] );
+    assertEquals( TextAttributes.BOLD_MASK, attrs[10] );
+
+    assertEquals( 3, scrollback.getLine( 2, chars, attrs ) );
+    assertEquals( "\u65e5\u672c\u8a9e", new String( chars, 0, 3 ) );
+
+    // Trimmed lines take far less than the four bytes per cell...
+    assertTrue( scrollback.getBytesPerLine() > 0.0 );
+  }
+
+  /**
+   * Tests that the oldest lines are removed when the maximum number of lines
+   * is exceeded, also when compressed.
+   */
+  public void testMaximumLinesOk()
+  {
+    Scrollback scrollback = new Scrollback( 1000, Long.MAX_VALUE, true /* compress */);
+
+    for ( int i = 0; i < 5000; i++ )
+    {
+      scrollback.add( line( "line " + i, ( short )( i & 0x1F ) ), m_attrs, WIDTH );
+    }
+
+    assertEquals( 1000, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    for ( int i = 0; i < 1000; i++ )
+    {
+      int expected = 4000 + i;
+      int length = scrollback.getLine( i, chars, attrs );
+      assertEquals( "line " + expected, new String( chars, 0, length ) );
+      assertEquals( expected & 0x1F, attrs[0] );
+    }
+  }
+
+  /**
+   * Tests that lines removed from the history are moved to the archive on
+   * disk, and that the oldest segments are removed when the maximum number of
+   * bytes is exceeded.
+   */
+  public void testArchiveRetainsRemovedLinesOk() throws IOException
+  {
+    File dir = File.createTempFile( "scrollback", "" );
+    assertTrue( dir.delete() );
+
+    ScrollbackArchive archive = new ScrollbackArchive( dir, 4096, 16 * 1024, Long.MAX_VALUE );
+    try
+    {
+      Scrollback scrollback = new Scrollback( 100, Long.MAX_VALUE, true /* compress */);
+      scrollback.setArchive( archive );
+
+      for ( int i = 0; i < 5000; i++ )
+      {
+        scrollback.add( line( "line " + i, ( short )( i & 0x1F ) ), m_attrs, WIDTH );
+      }
+
+      assertEquals( 100, scrollback.getLineCount() );
+      assertEquals( 4900, archive.getLineCount() );
+      assertNull( scrollback.getArchiveException() );
+
+      // Only the most recent segments are retained...
+      assertTrue( archive.getFirstLine() > 0 );
+      assertTrue( archive.getSize() <= ( 16 * 1024 ) );
+      assertTrue( dir.list().length > 1 );
+
+      char[] chars = new char[WIDTH];
+      short[] attrs = new short[WIDTH];
+      for ( long i = archive.getFirstLine(); i < archive.getLineCount(); i++ )
+      {
+        int length = archive.getLine( i, chars, attrs );
+        assertEquals( "line " + i, new String( chars, 0, length ) );
+        assertEquals( i & 0x1F, attrs[0] );
+      }
+
+      try
+      {
+        archive.getLine( 0, chars, attrs );
+        fail( "Expected IllegalArgumentException!" );
+      }
+      catch ( IllegalArgumentException exception )
+      {
+        // Ok; expected...
+      }
+    }
+    finally
+    {
+      archive.close();
+    }
+
+    assertEquals( 0, dir.list().length );
+    assertTrue( dir.delete() );
+  }
+
+  /**
+   * Tests that a line that does not fit in a segment of the archive stops the
+   * archiving instead of failing the history.
+   */
+  public void testArchiveTooLongLineOk() throws IOException
+  {
+    File dir = File.createTempFile( "scrollback", "" );
+    assertTrue( dir.delete() );
+
+    ScrollbackArchive archive = new ScrollbackArchive( dir, 256, 1024, Long.MAX_VALUE );
+    try
+    {
+      Scrollback scrollback = new Scrollback( 1, Long.MAX_VALUE, false /* compress */);
+      scrollback.setArchive( archive );
+
+      scrollback.add( line( "short", ( short )0 ), m_attrs, WIDTH );
+      // Alternating attributes take three bytes per cell...
+      line( "0123456789012345678901234567890123456789012345678901234567890123456789012345678X", ( short )0 );
+      for ( int i = 0; i < WIDTH; i += 2 )
+      {
+        m_attrs[i] = ( short )TextAttributes.BOLD_MASK;
+      }
+      scrollback.add( m_chars, m_attrs, WIDTH );
+      scrollback.add( line( "next", ( short )0 ), m_attrs, WIDTH );
+
+      assertEquals( 1, scrollback.getLineCount() );
+      assertEquals( 1, archive.getLineCount() );
+      assertNull( scrollback.getArchive() );
+      assertNotNull( scrollback.getArchiveException() );
+    }
+    finally
+    {
+      archive.close();
+    }
+
+    assertTrue( dir.delete() );
+  }
+
+  /**
+   * Tests that the oldest blocks are removed when the maximum number of bytes
+   * is exceeded.
+   */
+  public void testMaximumBytesOk()
+  {
+    Scrollback scrollback = new Scrollback( Integer.MAX_VALUE, 64 * 1024, false /* compress */);
+
+    for ( int i = 0; i < 10000; i++ )
+    {
+      scrollback.add( line( "line " + i + " of a log file that is flooding the terminal", ( short )0 ), m_attrs,
+          WIDTH );
+    }
+
+    assertTrue( scrollback.getLineCount() < 10000 );
+    assertTrue( scrollback.getMemoryUsage() < ( 64 * 1024 ) + ( 32 * 1024 ) );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    int length = scrollback.getLine( scrollback.getLineCount() - 1, chars, attrs );
+    assertEquals( "line 9999 of a log file that is flooding the terminal", new String( chars, 0, length ) );
+  }
+
+  /**
+   * Tests that soft-wrapped lines are joined and split again at the new width,
+   * also when the history is re-flowed in parallel chunks.
+   */
+  public void testReflowOk()
+  {
+    Scrollback scrollback = new Scrollback( Integer.MAX_VALUE, Long.MAX_VALUE, true /* compress */);
+
+    // Each logical line is 120 characters long, wrapped at 80 columns...
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 20000; i++ )
+    {
+      sb.setLength( 0 );
+      while ( sb.length() < 120 )
+      {
+        sb.append( "line " ).append( i ).append( ' ' );
+      }
+      sb.setLength( 120 );
+
+      scrollback.add( line( sb.substring( 0, 80 ), ( short )( i & 0x1F ) ), m_attrs, WIDTH, true /* wrapped */);
+      scrollback.add( line( sb.substring( 80 ), ( short )( i & 0x1F ) ), m_attrs, WIDTH, false /* wrapped */);
+    }
+    // The last logical line is not re-flowed...
+    scrollback.add( line( "partial", ( short )0 ), m_attrs, WIDTH, true /* wrapped */);
+
+    scrollback.reflow( 60, scrollback.getLineCount() - 1 );
+
+    assertEquals( 40000, scrollback.getLineCount() );
+    // The re-flowed lines of 60 characters are compressed again...
+    assertTrue( scrollback.getBytesPerLine() < 30.0 );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    for ( int i = 0; i < 20000; i += 997 )
+    {
+      int length = scrollback.getLine( 2 * i, chars, attrs );
+      assertEquals( 60, length );
+      assertTrue( new String( chars, 0, length ).startsWith( "line " + i + " " ) );
+      assertTrue( scrollback.isWrapped( 2 * i ) );
+      assertEquals( i & 0x1F, attrs[59] );
+
+      length = scrollback.getLine( ( 2 * i ) + 1, chars, attrs );
+      assertEquals( 60, length );
+      assertFalse( scrollback.isWrapped( ( 2 * i ) + 1 ) );
+    }
+  }
+
+  /**
+   * Tests that re-flowing in an interrupted thread completes all chunks, and
+   * keeps the thread interrupted.
+   */
+  public void testReflowInterruptedOk()
+  {
+    Scrollback scrollback = new Scrollback( Integer.MAX_VALUE, Long.MAX_VALUE, true /* compress */);
+
+    int count = 20000;
+    for ( int i = 0; i < count; i += 2 )
+    {
+      scrollback.add( line( String.format( "line %-5d", i ), ( short )0 ), m_attrs, 10, true /* wrapped */);
+      scrollback.add( line( "continued", ( short )0 ), m_attrs, 10, false /* wrapped */);
+    }
+
+    Thread.currentThread().interrupt();
+    try
+    {
+      scrollback.reflow( 20, count );
+    }
+    finally
+    {
+      assertTrue( Thread.interrupted() );
+    }
+
+    assertEquals( count / 2, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    for ( int i = 0; i < count / 2; i += 997 )
+    {
+      int length = scrollback.getLine( i, chars, attrs );
+      assertEquals( String.format( "line %-5dcontinued", 2 * i ), new String( chars, 0, length ) );
+    }
+  }
+
+  /**
+   * Tests that an uncompressed history with sealed blocks is re-flowed as
+   * well.
+   */
+  public void testReflowUncompressedOk()
+  {
+    Scrollback scrollback = new Scrollback( Integer.MAX_VALUE, Long.MAX_VALUE, false /* compress */);
+
+    int count = ( 2 * Scrollback.BLOCK_LINES ) + 10;
+    for ( int i = 0; i < count; i += 2 )
+    {
+      // Each logical line is 19 characters long, wrapped at 10 columns...
+      scrollback.add( line( String.format( "line %-5d", i ), ( short )0 ), m_attrs, 10, true /* wrapped */);
+      scrollback.add( line( "continued", ( short )0 ), m_attrs, 10, false /* wrapped */);
+    }
+
+    scrollback.reflow( 20, count );
+
+    assertEquals( count / 2, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    int length = scrollback.getLine( 200, chars, attrs );
+    assertEquals( "line 400  continued", new String( chars, 0, length ) );
+    assertFalse( scrollback.isWrapped( 200 ) );
+  }
+
+  /**
+   * Tests that lines scrolled off the top of the screen end up in the
+   * scrollback history of the terminal.
+   */
+  public void testTerminalRetainsScrolledLinesOk() throws IOException
+  {
+    VT220Terminal terminal = new VT220Terminal( WIDTH, 24 );
+    terminal.setScrollback( new Scrollback( 100, 1024 * 1024, true /* compress */) );
+
+    for ( int i = 0; i < 30; i++ )
+    {
+      terminal.read( "line " + i + "\r\n" );
+    }
+
+    Scrollback scrollback = terminal.getScrollback();
+    // 31 lines written (including the empty last one), 24 remain on screen...
+    assertEquals( 7, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    int length = scrollback.getLine( 0, chars, attrs );
+    assertEquals( "line 0", new String( chars, 0, length ) );
+    length = scrollback.getLine( 6, chars, attrs );
+    assertEquals( "line 6", new String( chars, 0, length ) );
+  }
+
+  /**
+   * Tests that characters beyond the BMP scrolled off the top of the screen
+   * retain their code points in the scrollback history.
+   */
+  public void testTerminalRetainsCodePointsOk() throws IOException
+  {
+    VT220Terminal terminal = new VT220Terminal( WIDTH, 24 );
+    terminal.setScrollback( new Scrollback( 100, 1024 * 1024, true /* compress */) );
+
+    terminal.read( "a\uD840\uDC0Bb\r\n" );
+    for ( int i = 0; i < 23; i++ )
+    {
+      terminal.read( "line " + i + "\r\n" );
+    }
+
+    Scrollback scrollback = terminal.getScrollback();
+    assertEquals( 1, scrollback.getLineCount() );
+
+    char[] chars = new char[WIDTH];
+    short[] attrs = new short[WIDTH];
+    int[] codePoints = new int[WIDTH];
+    // The wide character takes two columns...
+    assertEquals( 4, scrollback.getLine( 0, chars, attrs, codePoints ) );
+    assertEquals( 'a', chars[0] );
+    assertTrue( Character.isHighSurrogate( chars[1] ) );
+    assertEquals( 0x2000b, codePoints[1] );
+    assertEquals( 'b', chars[3] );
+
+    // Without room for the code points, the replacement character is used...
+    assertEquals( 4, scrollback.getLine( 0, chars, attrs ) );
+    assertEquals( '\uFFFD', chars[1] );
+    assertEquals( 'b', chars[3] );
+  }
+
+  /**
+   * Set up for each test case.
+   */
+  protected void setUp()
+  {
+    m_chars = new char[WIDTH];
+    m_attrs = new short[WIDTH];
+  }
+
+  /**
+   * Fills the shared line with the given text and attributes.
+   */
+  private char[] line( String text, short attributes )
+  {
+    Arrays.fill( m_chars, ' ' );
+    Arrays.fill( m_attrs, ( short )0 );
+    text.getChars( 0, text.length(), m_chars, 0 );
+    Arrays.fill( m_attrs, 0, text.length(), attributes );
+    return m_chars;
+  }
+}
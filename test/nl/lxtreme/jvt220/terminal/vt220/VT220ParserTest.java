@@ -6,10 +6,15 @@
 package nl.lxtreme.jvt220.terminal.vt220;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 
 import junit.framework.*;
 import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.CSIType;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.Limit;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220CommandHandler;
+import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220ControlStringHandler;
 import nl.lxtreme.jvt220.terminal.vt220.VT220Parser.VT220ParserHandler;
 
 
@@ -28,6 +33,12 @@ public class VT220ParserTest extends TestCase
       fail( String.format( "Character (%c) seen?!", aChar ) );
     }
 
+    @Override
+    public void handleCharacters( char[] aChars, int aOffset, int aLength ) throws IOException
+    {
+      fail( String.format( "Characters (%s) seen?!", new String( aChars, aOffset, aLength ) ) );
+    }
+
     @Override
     public void handleControl( char aControlChar ) throws IOException
     {
@@ -115,6 +126,267 @@ public class VT220ParserTest extends TestCase
     assertEquals( 1, count[0] );
   }
 
+  /**
+   * Tests that omitted parameters of a CUP sequence fall back to their default.
+   */
+  public void testParseCUPWithOmittedParameters() throws Exception
+  {
+    final int count[] = { 0 };
+    m_parser.parse( "\033[;5H\033[H", new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        assertEquals( CSIType.CUP, aType );
+        assertEquals( 1, aParameters[0] );
+        assertEquals( ( count[0] == 0 ) ? 5 : 1, aParameters[1] );
+        count[0]++;
+      }
+    } );
+    assertEquals( 2, count[0] );
+  }
+
+  /**
+   * Tests that sub-parameters (separated by colons) are not passed as
+   * top-level parameters.
+   */
+  public void testParseSGRWithSubParameters() throws Exception
+  {
+    final int count[] = { 0 };
+    m_parser.parse( "\033[4:3;1m", new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        assertEquals( CSIType.SGR, aType );
+        assertEquals( 2, aParameters.length );
+        assertEquals( 4, aParameters[0] );
+        assertEquals( 1, aParameters[1] );
+        count[0]++;
+      }
+    } );
+    assertEquals( 1, count[0] );
+  }
+
+  /**
+   * Tests that the common control sequences are passed to the dedicated
+   * methods of a {@link VT220CommandHandler}, and all others to its fallback
+   * method.
+   */
+  public void testParseDedicatedCommandsOk() throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    class CommandHandler extends VT220ParserTestAdapter implements VT220CommandHandler
+    {
+      public void handleCharacter( char aChar ) throws IOException
+      {
+        sb.append( aChar );
+      }
+
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        sb.append( aType ).append( Arrays.toString( aParameters ) );
+      }
+
+      public void handleCUB( int aN ) throws IOException
+      {
+        sb.append( "CUB" ).append( aN );
+      }
+
+      public void handleCUD( int aN ) throws IOException
+      {
+        sb.append( "CUD" ).append( aN );
+      }
+
+      public void handleCUF( int aN ) throws IOException
+      {
+        sb.append( "CUF" ).append( aN );
+      }
+
+      public void handleCUP( int aRow, int aColumn ) throws IOException
+      {
+        sb.append( "CUP" ).append( aRow ).append( ',' ).append( aColumn );
+      }
+
+      public void handleCUU( int aN ) throws IOException
+      {
+        sb.append( "CUU" ).append( aN );
+      }
+
+      public void handleDECSTBM( int aTop, int aBottom ) throws IOException
+      {
+        sb.append( "DECSTBM" ).append( aTop ).append( ',' ).append( aBottom );
+      }
+
+      public void handleDL( int aN ) throws IOException
+      {
+        sb.append( "DL" ).append( aN );
+      }
+
+      public void handleED( int aMode ) throws IOException
+      {
+        sb.append( "ED" ).append( aMode );
+      }
+
+      public void handleEL( int aMode ) throws IOException
+      {
+        sb.append( "EL" ).append( aMode );
+      }
+
+      public void handleIL( int aN ) throws IOException
+      {
+        sb.append( "IL" ).append( aN );
+      }
+
+      public void handleREP( int aCount, char aChar ) throws IOException
+      {
+        sb.append( "REP" ).append( aCount ).append( aChar );
+      }
+
+      public void handleSD( int aN ) throws IOException
+      {
+        sb.append( "SD" ).append( aN );
+      }
+
+      public void handleSGR( int[] aParameters, int aCount ) throws IOException
+      {
+        sb.append( "SGR" ).append( Arrays.toString( Arrays.copyOf( aParameters, aCount ) ) );
+      }
+
+      public void handleSU( int aN ) throws IOException
+      {
+        sb.append( "SU" ).append( aN );
+      }
+    }
+
+    m_parser.parse( "\033[2;3H\033[A\033[2B\033[C\033[4D\033[J\033[1K\033[L\033[2M\033[S\033[T\033[1;31m\033[m"
+        + "\033[3;20rx\033[3b\033[?J\033[P", new CommandHandler() );
+    assertEquals( "CUP2,3CUU1CUD2CUF1CUB4ED0EL1IL1DL2SU1SD1SGR[1, 31]SGR[0]DECSTBM3,20xREP3xDECSED[0]DCH[1]",
+        sb.toString() );
+  }
+
+  /**
+   * Tests that sequences exceeding one of the parser limits are aborted and
+   * counted.
+   */
+  public void testParseSequencesExceedingLimitsOk() throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    VT220ParserHandler handler = new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCharacter( char aChar ) throws IOException
+      {
+        sb.append( aChar );
+      }
+
+      @Override
+      public void handleCharacters( char[] aChars, int aOffset, int aLength ) throws IOException
+      {
+        sb.append( aChars, aOffset, aLength );
+      }
+
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        sb.append( aType ).append( Arrays.toString( aParameters ) );
+      }
+    };
+
+    m_parser.setLimit( Limit.PARAMETERS, 3 );
+    m_parser.setLimit( Limit.PARAMETER_VALUE, 999 );
+    m_parser.setLimit( Limit.STRING_LENGTH, 4 );
+    m_parser.setLimit( Limit.INTERMEDIATES, 1 );
+
+    m_parser.parse( "\033[1;2;3ma\033[1;2;3;4mb\033[1000Hc\033[999Hd", handler );
+    assertEquals( "SGR[1, 2, 3]abcCUP[999, 1]d", sb.toString() );
+    assertEquals( 1, m_parser.getLimitCount( Limit.PARAMETERS ) );
+    assertEquals( 1, m_parser.getLimitCount( Limit.PARAMETER_VALUE ) );
+
+    sb.setLength( 0 );
+    m_parser.parse( "\033]0;abcdefgh\007e\033P1234\033\\f\033[!!pg\033( (Bh", handler );
+    assertEquals( "efgh", sb.toString() );
+    assertEquals( 1, m_parser.getLimitCount( Limit.STRING_LENGTH ) );
+    assertEquals( 2, m_parser.getLimitCount( Limit.INTERMEDIATES ) );
+
+    m_parser.resetLimitCounts();
+    assertEquals( 0, m_parser.getLimitCount( Limit.STRING_LENGTH ) );
+
+    try
+    {
+      m_parser.setLimit( Limit.PARAMETERS, CSIParameters.CAPACITY + 1 );
+      fail( "IllegalArgumentException expected!" );
+    }
+    catch ( IllegalArgumentException e )
+    {
+      // Ok; expected...
+    }
+  }
+
+  /**
+   * Tests that the payload of control strings is passed in chunks to a
+   * {@link VT220ControlStringHandler}.
+   */
+  public void testParseControlStringPayloadOk() throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    final int maxChunk[] = { 0 };
+    class StringHandler extends VT220ParserTestAdapter implements VT220ControlStringHandler
+    {
+      @Override
+      public void handleCharacter( char aChar ) throws IOException
+      {
+        sb.append( aChar );
+      }
+
+      @Override
+      public void handleControl( char aControlChar ) throws IOException
+      {
+        assertEquals( VT220Parser.CAN, aControlChar );
+      }
+
+      public void handleStringChunk( char[] aChars, int aOffset, int aLength ) throws IOException
+      {
+        sb.append( aChars, aOffset, aLength );
+        maxChunk[0] = Math.max( maxChunk[0], aLength );
+      }
+
+      public void handleStringEnd( boolean aCancelled ) throws IOException
+      {
+        sb.append( aCancelled ? "<cancel>" : "<end>" );
+      }
+
+      public void handleStringStart( char aType ) throws IOException
+      {
+        sb.append( "<" ).append( Integer.toHexString( aType ) ).append( ">" );
+      }
+    }
+    StringHandler handler = new StringHandler();
+
+    m_parser.parse( "\033]0;title\007a\033P$qm\033\\b\033_ap\030c\u009epm\u009cd", handler );
+    assertEquals( "<9d>0;title<end>a<90>$qm<end>b<9f>ap<cancel>c<9e>pm<end>d", sb.toString() );
+
+    // Payload split across multiple parse calls, exceeding the chunk size...
+    sb.setLength( 0 );
+    StringBuilder payload = new StringBuilder();
+    for ( int i = 0; i < 5000; i++ )
+    {
+      payload.append( ( char )( 'a' + ( i % 26 ) ) );
+    }
+    m_parser.parse( "\033]52;c;", handler );
+    m_parser.parse( payload.substring( 0, 1500 ), handler );
+    m_parser.parse( payload.substring( 1500 ), handler );
+    m_parser.parse( "\033\\", handler );
+    assertEquals( "<9d>52;c;" + payload + "<end>", sb.toString() );
+    assertTrue( maxChunk[0] <= 1024 );
+
+    // Payload exceeding the string length limit...
+    sb.setLength( 0 );
+    m_parser.setLimit( Limit.STRING_LENGTH, 8 );
+    m_parser.parse( "\033]2;0123456789\007e", handler );
+    assertEquals( "<9d>2;012345<cancel>e", sb.toString() );
+  }
+
   /**
    * Tests that the parsing for character set designations works.
    */
@@ -173,6 +445,124 @@ public class VT220ParserTest extends TestCase
     assertEquals( 1, count[0] );
   }
 
+  /**
+   * Tests that control strings are terminated by either ST, BEL (for OSC
+   * only), or cancelled by CAN, and that unknown CSIs are ignored.
+   */
+  public void testParseControlStringsAndUnknownCSIOk() throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    m_parser.parse( "\033]0;title\007a\033Pdata\033\\b\033_apc\030c\033[1;2yd", new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCharacter( char aChar ) throws IOException
+      {
+        sb.append( aChar );
+      }
+
+      @Override
+      public void handleControl( char aControlChar ) throws IOException
+      {
+        assertEquals( VT220Parser.CAN, aControlChar );
+      }
+    } );
+    assertEquals( "abcd", sb.toString() );
+  }
+
+  /**
+   * Tests that bytes are decoded correctly, also when characters are split
+   * across multiple buffers, and that 8-bit controls are taken from the bytes.
+   */
+  public void testParseBytesOk() throws Exception
+  {
+    final StringBuilder sb = new StringBuilder();
+    final int count[] = { 0 };
+    VT220ParserHandler handler = new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCharacter( char aChar ) throws IOException
+      {
+        sb.append( aChar );
+      }
+
+      @Override
+      public void handleCharacters( char[] aChars, int aOffset, int aLength ) throws IOException
+      {
+        sb.append( aChars, aOffset, aLength );
+      }
+
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        assertEquals( CSIType.CUP, aType );
+        count[0]++;
+      }
+    };
+
+    // "a\u00e9\u20ac\ud83d\ude00", followed by a 8-bit CSI...
+    byte[] bytes = { 'a', ( byte )0xC3, ( byte )0xA9, ( byte )0xE2, ( byte )0x82, ( byte )0xAC, ( byte )0xF0,
+        ( byte )0x9F, ( byte )0x98, ( byte )0x80, ( byte )0x9B, '1', 'H' };
+    for ( int i = 0; i < bytes.length; i++ )
+    {
+      assertEquals( 1, m_parser.parse( ByteBuffer.wrap( bytes, i, 1 ), Charset.forName( "UTF-8" ), handler ) );
+    }
+    assertEquals( "a\u00e9\u20ac\ud83d\ude00", sb.toString() );
+    assertEquals( 1, count[0] );
+
+    sb.setLength( 0 );
+    ByteBuffer direct = ByteBuffer.allocateDirect( 4 );
+    direct.put( new byte[] { ( byte )0xE9, ( byte )0x9B, 'H', 'x' } ).flip();
+    m_parser.parse( direct, Charset.forName( "ISO-8859-1" ), handler );
+    assertEquals( "\u00e9x", sb.toString() );
+    assertEquals( 2, count[0] );
+    assertFalse( direct.hasRemaining() );
+
+    sb.setLength( 0 );
+    bytes = "\u00e9\033[Hb".getBytes( "UTF-16BE" );
+    for ( int i = 0; i < bytes.length; i += 3 )
+    {
+      m_parser.parse( ByteBuffer.wrap( bytes, i, Math.min( 3, bytes.length - i ) ), Charset.forName( "UTF-16BE" ),
+          handler );
+    }
+    assertEquals( "\u00e9b", sb.toString() );
+    assertEquals( 3, count[0] );
+  }
+
+  /**
+   * Tests that sequences split across multiple parse calls are handled
+   * correctly.
+   */
+  public void testParseSplitSequencesOk() throws Exception
+  {
+    final int count[] = { 0 };
+    VT220ParserHandler handler = new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        assertEquals( CSIType.CUP, aType );
+        assertEquals( 12, aParameters[0] );
+        assertEquals( 34, aParameters[1] );
+        count[0]++;
+      }
+
+      @Override
+      public void handleESC( char aDesignator, int... aParameters ) throws IOException
+      {
+        assertEquals( '(', aDesignator );
+        assertEquals( 'B', aParameters[0] );
+        count[0]++;
+      }
+    };
+
+    String text = "\033[12;34H\033]0;title\033\\\033(B";
+    for ( int i = 0; i < text.length(); i++ )
+    {
+      assertEquals( 1, m_parser.parse( text.subSequence( i, i + 1 ), handler ) );
+    }
+    assertEquals( 2, count[0] );
+  }
+
   /**
    * Tests that a save-cursor directive followed by a CSI is correctly parsed.
    */
@@ -202,12 +592,65 @@ public class VT220ParserTest extends TestCase
     assertEquals( 2, count[0] );
   }
 
+  /**
+   * Tests that the parsed sequences are traced to a recorder, which retains
+   * only the most recent records, and can be decoded afterwards.
+   */
+  public void testTraceParsedSequencesOk() throws Exception
+  {
+    VT220ParserHandler handler = new VT220ParserTestAdapter()
+    {
+      @Override
+      public void handleCharacters( char[] aChars, int aOffset, int aLength ) throws IOException
+      {
+        // Nop
+      }
+
+      @Override
+      public void handleControl( char aControlChar ) throws IOException
+      {
+        // Nop
+      }
+
+      @Override
+      public void handleCSI( CSIType aType, int... aParameters ) throws IOException
+      {
+        // Nop
+      }
+    };
+
+    TraceRecorder recorder = new TraceRecorder( 3 );
+    m_parser.setTraceSink( recorder );
+
+    m_parser.parse( "ab\033[?25h\007", handler );
+    m_parser.parse( "\033[1;31m", handler );
+
+    assertEquals( 3, recorder.getRecordCount() );
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    recorder.writeTo( baos );
+    assertEquals( 3 * TraceRecorder.RECORD_SIZE, baos.size() );
+
+    StringBuilder sb = new StringBuilder();
+    assertEquals( 3, TraceDecoder.decode( new ByteArrayInputStream( baos.toByteArray() ), sb ) );
+
+    String[] lines = sb.toString().split( "\n" );
+    assertEquals( 3, lines.length );
+    assertTrue( lines[0], lines[0].endsWith( "        8 CSI     ?25h" ) );
+    assertTrue( lines[1], lines[1].endsWith( "        9 CTRL    0x07" ) );
+    assertTrue( lines[2], lines[2].endsWith( "       16 CSI     1;31m" ) );
+
+    // Tracing can be disabled again...
+    m_parser.setTraceSink( null );
+    m_parser.parse( "cd", handler );
+    assertEquals( 3, recorder.getRecordCount() );
+  }
+
   /**
    * Set up for each test case.
    */
   protected void setUp() throws Exception
   {
     m_parser = new VT220Parser();
-    m_parser.setLogLevel( 1 );
   }
 }
@@ -1,6 +1,6 @@
 /**
  * jVT220 - Java VT220 terminal emulator.
- *
+ * 
  * (C) Copyright 2012 - J.W. Janssen, <j.w.janssen@lxtreme.nl>.
  */
 package nl.lxtreme.jvt220.terminal.vt220;
@@ -9,6 +9,7 @@ package nl.lxtreme.jvt220.terminal.vt220;
 import java.io.*;
 
 import junit.framework.*;
+import nl.lxtreme.jvt220.terminal.*;
 
 
 /**
@@ -125,6 +126,37 @@ public class VT220TerminalTest extends TestCase
     }
   }
 
+  /**
+   * Tests that writing runs of characters correctly wraps and scrolls.
+   */
+  public void testWriteCharacterRunsOk() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 170; i++ )
+    {
+      sb.append( ( char )( 'A' + ( i % 26 ) ) );
+    }
+
+    // Runs that wrap around and cause the screen to scroll...
+    m_terminal.read( "\033[2J\033[24;1H" + sb );
+
+    assertEquals( 'A', m_terminal.getCellAt( 0, 21 ).getChar() );
+    assertEquals( 'B', m_terminal.getCellAt( 79, 21 ).getChar() );
+    assertEquals( 'C', m_terminal.getCellAt( 0, 22 ).getChar() );
+    assertEquals( 'N', m_terminal.getCellAt( 9, 23 ).getChar() );
+    assertEquals( 10, m_terminal.getCursor().getX() );
+    assertEquals( 23, m_terminal.getCursor().getY() );
+
+    // Without auto-wrap, the last column is overwritten...
+    m_terminal.read( "\033[?7l\033[1;76HABCDEFGHIJ" );
+
+    assertEquals( 'D', m_terminal.getCellAt( 78, 0 ).getChar() );
+    assertEquals( 'J', m_terminal.getCellAt( 79, 0 ).getChar() );
+    assertEquals( ' ', m_terminal.getCellAt( 0, 1 ).getChar() );
+    assertEquals( 79, m_terminal.getCursor().getX() );
+    assertEquals( 0, m_terminal.getCursor().getY() );
+  }
+
   /**
    * Tests that the scroll down function works correctly.
    */
@@ -146,6 +178,33 @@ public class VT220TerminalTest extends TestCase
     }
   }
 
+  /**
+   * Tests that scrolling, inserting and deleting lines only affects the lines
+   * of the scroll region.
+   */
+  public void testScrollRegionOk() throws IOException
+  {
+    m_terminal.read( "\033[2J\033[1;1H1\033[2;1H2\033[3;1H3\033[4;1H4\033[5;1H5\033[6;1H6" );
+    // Scroll region is line 2..5 (one-based)...
+    m_terminal.read( "\033[2;5r" );
+
+    // SU
+    m_terminal.read( "\033[1S" );
+    assertLines( "1345 6" );
+
+    // IL
+    m_terminal.read( "\033[3;1H\033[1L" );
+    assertLines( "13 456" );
+
+    // DL
+    m_terminal.read( "\033[2;1H\033[1M" );
+    assertLines( "1 45 6" );
+
+    // SD
+    m_terminal.read( "\033[1T" );
+    assertLines( "1  456" );
+  }
+
   /**
    * Tests that the movement of the cursor is bound to the terminal dimensions.
    */
@@ -158,6 +217,454 @@ public class VT220TerminalTest extends TestCase
     assertEquals( "\033[24;80R", response );
   }
 
+  /**
+   * Tests that the selective erase functions leave the protected cells as-is,
+   * and that the normal erase functions only erase them if allowed by ERM.
+   */
+  public void testSelectiveEraseKeepsProtectedCellsOk() throws IOException
+  {
+    // Write "ab" unprotected, "CD" protected, and "ef" unprotected...
+    m_terminal.read( "\033[2;1Hab\033[1\"qCD\033[0\"qef" );
+    // Same for the line below...
+    m_terminal.read( "\033[3;1Hab\033[1\"qCD\033[0\"qef" );
+
+    // DECSEL; erase entire line...
+    m_terminal.read( "\033[2;1H\033[?2K" );
+    assertEquals( "  CD  ", getLine( 1, 6 ) );
+
+    // DECSED; erase below...
+    m_terminal.read( "\033[1;1H\033[?0J" );
+    assertEquals( "  CD  ", getLine( 1, 6 ) );
+    assertEquals( "  CD  ", getLine( 2, 6 ) );
+
+    // ECH; by default, only unprotected cells are erased...
+    m_terminal.read( "\033[3;1Hab\033[3;2H\033[3X" );
+    assertEquals( "a CD  ", getLine( 2, 6 ) );
+
+    // ERM; erase protected cells as well...
+    m_terminal.read( "\033[6h" );
+
+    m_terminal.read( "\033[3;2H\033[2X" );
+    assertEquals( "a  D  ", getLine( 2, 6 ) );
+
+    m_terminal.read( "\033[2;1H\033[2K" );
+    assertEquals( "      ", getLine( 1, 6 ) );
+  }
+
+  /**
+   * Tests that snapshots are not affected by later writes, and share the rows
+   * that are not written.
+   */
+  public void testSnapshotsShareUnchangedRowsOk() throws IOException
+  {
+    m_terminal.read( "\033[1;1Hfoo\033[2;1Hbar" );
+
+    ScreenSnapshot first = m_terminal.getSnapshot();
+    assertEquals( 'f', first.getChar( 0, 0 ) );
+    assertEquals( 'b', first.getChar( 1, 0 ) );
+
+    // Nothing written, so nothing changes...
+    m_terminal.read( "" );
+    assertEquals( first.getVersion(), m_terminal.getSnapshot().getVersion() );
+    assertTrue( m_terminal.getSnapshot().isRowShared( first, 1 ) );
+
+    m_terminal.read( "\033[2;1Hqux" );
+
+    ScreenSnapshot second = m_terminal.getSnapshot();
+    assertTrue( second.getVersion() > first.getVersion() );
+    assertEquals( 'b', first.getChar( 1, 0 ) );
+    assertEquals( 'q', second.getChar( 1, 0 ) );
+
+    assertTrue( second.isRowShared( first, 0 ) );
+    assertFalse( second.isRowShared( first, 1 ) );
+    assertTrue( second.isRowShared( first, 23 ) );
+
+    // Without frontend, the damage accumulates since the creation of the
+    // terminal, which initially marks the entire screen...
+    IDamageMap damage = second.getDamage();
+    assertTrue( damage.isFullScreen() );
+    assertEquals( 23, damage.nextDirtyRow( 23 ) );
+
+    char[] chars = new char[3];
+    second.getChars( 1, 0, 3, chars, 0 );
+    assertEquals( "qux", new String( chars ) );
+    assertEquals( 0, second.getAttributes( 1, 0 ) );
+  }
+
+  /**
+   * Tests that wide characters take two cells, and are split when either half
+   * is overwritten.
+   */
+  public void testWideCharactersOk() throws IOException
+  {
+    m_terminal.read( "\033[1;1H\u65e5\u672c\u8a9e." );
+    assertEquals( 7, m_terminal.getCursor().getX() );
+
+    ScreenSnapshot snapshot = m_terminal.getSnapshot();
+    assertEquals( 0x65e5, snapshot.getCodePoint( 0, 0 ) );
+    assertEquals( 0, snapshot.getCodePoint( 0, 1 ) );
+    assertEquals( 0x672c, snapshot.getCodePoint( 0, 2 ) );
+    assertEquals( 0x8a9e, snapshot.getCodePoint( 0, 4 ) );
+    assertEquals( '.', snapshot.getCodePoint( 0, 6 ) );
+
+    // Overwrite the second half of the first, and the first half of the
+    // third character...
+    m_terminal.read( "\033[1;2Hx\033[1;5Hy" );
+    assertEquals( " x\u672c\0y .", getLine( 0, 7 ) );
+
+    // Deleting the first half of the remaining character splits it...
+    m_terminal.read( "\033[1;3H\033[P" );
+    assertEquals( " x y .", getLine( 0, 6 ) );
+
+    // A wide character does not fit in the last column, and is wrapped...
+    m_terminal.read( "\033[2;80H\u65e5" );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 1 ).getChar() );
+    assertEquals( 0x65e5, m_terminal.getSnapshot().getCodePoint( 2, 0 ) );
+    assertEquals( 2, m_terminal.getCursor().getX() );
+    assertEquals( 2, m_terminal.getCursor().getY() );
+  }
+
+  /**
+   * Tests that surrogate pairs are combined into a single character, also when
+   * split over multiple reads.
+   */
+  public void testSurrogatePairsOk() throws IOException
+  {
+    m_terminal.read( "\033[1;1Ha\ud83d" );
+    m_terminal.read( "\ude00b\ud840\udc0b" );
+
+    ScreenSnapshot snapshot = m_terminal.getSnapshot();
+    assertEquals( 'a', snapshot.getCodePoint( 0, 0 ) );
+    assertEquals( 0x1f600, snapshot.getCodePoint( 0, 1 ) );
+    assertEquals( 'b', snapshot.getCodePoint( 0, 3 ) );
+    assertEquals( 0x2000b, snapshot.getCodePoint( 0, 4 ) );
+    assertEquals( 6, m_terminal.getCursor().getX() );
+
+    // Inserting a wide character shifts the line by two cells...
+    m_terminal.read( "\033[4h\033[1;1H\u65e5\033[4l" );
+    assertEquals( 0x65e5, m_terminal.getSnapshot().getCodePoint( 0, 0 ) );
+    assertEquals( 'a', m_terminal.getSnapshot().getCodePoint( 0, 2 ) );
+    assertEquals( 0x1f600, m_terminal.getSnapshot().getCodePoint( 0, 3 ) );
+    assertEquals( 0x2000b, m_terminal.getSnapshot().getCodePoint( 0, 6 ) );
+  }
+
+  /**
+   * Tests that soft-wrapped lines are re-flowed when the width changes, moving
+   * the lines that no longer fit to the scrollback, and back again.
+   */
+  public void testResizeReflowsWrappedLinesOk() throws IOException
+  {
+    m_terminal.setScrollback( new Scrollback( 100, 1024 * 1024, false /* compress */) );
+    m_terminal.setDimensions( 10, 3 );
+
+    m_terminal.read( "0123456789abcdefghij\r\nxy" );
+    assertEquals( "0123456789", getLine( 0, 10 ) );
+    assertEquals( "abcdefghij", getLine( 1, 10 ) );
+
+    m_terminal.setDimensions( 5, 3 );
+
+    assertEquals( "abcde", getLine( 0, 5 ) );
+    assertEquals( "fghij", getLine( 1, 5 ) );
+    assertEquals( "xy   ", getLine( 2, 5 ) );
+    assertEquals( 2, m_terminal.getCursor().getX() );
+    assertEquals( 2, m_terminal.getCursor().getY() );
+
+    Scrollback scrollback = m_terminal.getScrollback();
+    assertEquals( 2, scrollback.getLineCount() );
+    assertTrue( scrollback.isWrapped( 0 ) );
+    assertTrue( scrollback.isWrapped( 1 ) );
+
+    m_terminal.setDimensions( 30, 3 );
+
+    assertEquals( "0123456789abcdefghij", getLine( 0, 20 ) );
+    assertEquals( "xy ", getLine( 1, 3 ) );
+    assertEquals( 2, m_terminal.getCursor().getX() );
+    assertEquals( 1, m_terminal.getCursor().getY() );
+    assertEquals( 0, scrollback.getLineCount() );
+
+    // Lines ended by a newline are not joined...
+    m_terminal.read( "\r\n012" );
+    m_terminal.setDimensions( 2, 3 );
+    assertEquals( "xy", getLine( 0, 2 ) );
+    assertEquals( "01", getLine( 1, 2 ) );
+    assertEquals( "2 ", getLine( 2, 2 ) );
+  }
+
+  /**
+   * Tests that characters beyond the BMP survive the round trip through the
+   * scrollback when the width changes.
+   */
+  public void testResizeRetainsCodePointsOk() throws IOException
+  {
+    m_terminal.setScrollback( new Scrollback( 100, 1024 * 1024, true /* compress */) );
+    m_terminal.setDimensions( 10, 3 );
+
+    m_terminal.read( "\uD840\uDC0B\r\n\uD840\uDC0Bxyzabcdefghijkl\r\nq" );
+    assertEquals( 0x2000b, m_terminal.getSnapshot().getCodePoint( 0, 0 ) );
+
+    m_terminal.setDimensions( 5, 3 );
+
+    Scrollback scrollback = m_terminal.getScrollback();
+    assertEquals( 3, scrollback.getLineCount() );
+
+    char[] chars = new char[10];
+    short[] attrs = new short[10];
+    int[] codePoints = new int[10];
+    assertEquals( 2, scrollback.getLine( 0, chars, attrs, codePoints ) );
+    assertEquals( 0x2000b, codePoints[0] );
+    assertEquals( 5, scrollback.getLine( 1, chars, attrs, codePoints ) );
+    assertEquals( 0x2000b, codePoints[0] );
+    assertEquals( 'z', chars[4] );
+
+    m_terminal.setDimensions( 10, 3 );
+
+    assertEquals( 1, scrollback.getLineCount() );
+    assertEquals( 2, scrollback.getLine( 0, chars, attrs, codePoints ) );
+    assertEquals( 0x2000b, codePoints[0] );
+
+    ScreenSnapshot snapshot = m_terminal.getSnapshot();
+    assertEquals( 0x2000b, snapshot.getCodePoint( 0, 0 ) );
+    assertEquals( 'x', snapshot.getCodePoint( 0, 2 ) );
+    assertEquals( 'e', snapshot.getCodePoint( 0, 9 ) );
+    assertEquals( 'q', snapshot.getCodePoint( 2, 0 ) );
+  }
+
+  /**
+   * Tests that the alternate screen leaves the normal screen untouched, and
+   * that mode 1049 saves and restores the cursor.
+   */
+  public void testAlternateScreenOk() throws IOException
+  {
+    m_terminal.setScrollback( new Scrollback( 100, 1024 * 1024, false /* compress */) );
+    m_terminal.read( "\033[1;1Hnormal\033[5;4H" );
+    long version = m_terminal.getSnapshot().getVersion();
+
+    m_terminal.read( "\033[?1049h" );
+    assertTrue( m_terminal.isAlternateScreen() );
+    assertTrue( m_terminal.getSnapshot().getVersion() > version );
+    assertTrue( m_terminal.getSnapshot().getDamage().isFullScreen() );
+    assertEquals( "      ", getLine( 0, 6 ) );
+
+    m_terminal.read( "\033[1;1Halt" );
+    for ( int i = 0; i < 30; i++ )
+    {
+      m_terminal.read( "\r\n" );
+    }
+    // Lines scrolled off the alternate screen are not retained...
+    assertEquals( 0, m_terminal.getScrollback().getLineCount() );
+
+    m_terminal.read( "\033[?1049l" );
+    assertFalse( m_terminal.isAlternateScreen() );
+    assertEquals( "normal", getLine( 0, 6 ) );
+    assertEquals( 3, m_terminal.getCursor().getX() );
+    assertEquals( 4, m_terminal.getCursor().getY() );
+
+    // Mode 47 does not clear the alternate screen...
+    m_terminal.read( "\033[1;1H\033[?47halt\033[?47l\033[?47h" );
+    assertEquals( "alt   ", getLine( 0, 6 ) );
+    m_terminal.read( "\033[?47l" );
+    assertEquals( "normal", getLine( 0, 6 ) );
+
+    // The normal screen is re-flowed while the alternate screen is shown...
+    m_terminal.read( "\033[?47h" );
+    m_terminal.setDimensions( 3, 24 );
+    m_terminal.read( "\033[?47l" );
+    assertEquals( "nor", getLine( 0, 3 ) );
+    assertEquals( "mal", getLine( 1, 3 ) );
+  }
+
+  /**
+   * Tests that the cursor restored when leaving the alternate screen is kept
+   * on the screen if the terminal is resized in the meantime.
+   */
+  public void testAlternateScreenResizeRestoresCursorOk() throws IOException
+  {
+    m_terminal.read( "\033[24;1Hprompt\033[?1049h" );
+    m_terminal.setDimensions( 80, 10 );
+    m_terminal.read( "\033[?1049l" );
+
+    assertEquals( 6, m_terminal.getCursor().getX() );
+    assertEquals( 9, m_terminal.getCursor().getY() );
+
+    // Inserting and deleting characters at the restored cursor works...
+    m_terminal.read( "\033[2@\033[2P" );
+
+    m_terminal.read( "\033[5;71H\033[?1049h" );
+    m_terminal.setDimensions( 40, 10 );
+    m_terminal.read( "\033[?1049l" );
+
+    assertEquals( 39, m_terminal.getCursor().getX() );
+    assertEquals( 4, m_terminal.getCursor().getY() );
+  }
+
+  /**
+   * Tests that the rectangular area operations (DECFRA, DECCRA, DECERA,
+   * DECSERA, DECCARA and DECRARA) only change the given area, and leave the
+   * cursor as-is.
+   */
+  public void testRectangularAreaOperationsOk() throws IOException
+  {
+    m_terminal.read( "\033[1;1HABCDEF\033[2;1Hghijkl\033[10;10H" );
+
+    // Fill rows 3 and 4, columns 2 to 4 with 'x'...
+    m_terminal.read( "\033[120;3;2;4;4$x" );
+    assertEquals( "ABCDEF", getLine( 0, 6 ) );
+    assertEquals( " xxx  ", getLine( 2, 6 ) );
+    assertEquals( " xxx  ", getLine( 3, 6 ) );
+    assertEquals( "      ", getLine( 4, 6 ) );
+
+    // Copy the first three columns of rows 1 and 2 to row 5, column 2...
+    m_terminal.read( "\033[1;1;2;3;1;5;2;1$v" );
+    assertEquals( " ABC  ", getLine( 4, 6 ) );
+    assertEquals( " ghi  ", getLine( 5, 6 ) );
+
+    // Overlapping copies are allowed...
+    m_terminal.read( "\033[1;1;1;6;1;1;2$v" );
+    assertEquals( "AABCDEF", getLine( 0, 7 ) );
+
+    // Erase columns 2 and 3 of row 1...
+    m_terminal.read( "\033[1;2;1;3$z" );
+    assertEquals( "A  CDEF", getLine( 0, 7 ) );
+
+    // Make the first three columns of row 2 bold, and reverse the second...
+    m_terminal.read( "\033[2;1;2;3;1$r\033[2;2;2;2;7$t" );
+    assertTrue( m_terminal.getCellAt( 0, 1 ).isBold() );
+    assertTrue( m_terminal.getCellAt( 2, 1 ).isBold() );
+    assertFalse( m_terminal.getCellAt( 3, 1 ).isBold() );
+    assertFalse( m_terminal.getCellAt( 0, 1 ).isReverse() );
+    assertTrue( m_terminal.getCellAt( 1, 1 ).isReverse() );
+    // Reversing again restores the original attributes...
+    m_terminal.read( "\033[2;2;2;2;7$t\033[2;1;2;6;0$r" );
+    assertFalse( m_terminal.getCellAt( 1, 1 ).isReverse() );
+    assertFalse( m_terminal.getCellAt( 0, 1 ).isBold() );
+
+    // Selective erase leaves the protected cells as-is...
+    m_terminal.read( "\033[7;1H\033[1\"qP\033[0\"qQ\033[7;1;7;2${" );
+    assertEquals( "P ", getLine( 6, 2 ) );
+    assertTrue( m_terminal.getCellAt( 0, 6 ).isProtected() );
+
+    assertEquals( 2, m_terminal.getCursor().getX() );
+    assertEquals( 6, m_terminal.getCursor().getY() );
+  }
+
+  /**
+   * Tests that optimistic reads of other threads are only validated if no
+   * batch of changes was in progress or completed in the meantime.
+   */
+  public void testOptimisticReadsOk() throws Exception
+  {
+    long stamp = m_terminal.tryOptimisticRead();
+    assertTrue( m_terminal.validate( stamp ) );
+    m_terminal.read( "\033[5;5H" );
+    assertFalse( m_terminal.validate( stamp ) );
+
+    final int[] inconsistent = new int[1];
+    final Thread writer = Thread.currentThread();
+    Thread reader = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        while ( writer.isAlive() && !isInterrupted() )
+        {
+          long s;
+          int x;
+          int y;
+          do
+          {
+            s = m_terminal.tryOptimisticRead();
+            x = m_terminal.getCursor().getX();
+            y = m_terminal.getCursor().getY();
+          }
+          while ( !m_terminal.validate( s ) && !isInterrupted() );
+
+          // Each batch leaves the cursor on the diagonal...
+          if ( m_terminal.validate( s ) && ( x != y ) )
+          {
+            inconsistent[0]++;
+          }
+        }
+      }
+    };
+    reader.start();
+
+    try
+    {
+      for ( int i = 0; i < 20000; i++ )
+      {
+        int n = ( i % 20 ) + 1;
+        m_terminal.read( "\033[" + n + ";1Hx\033[" + n + ";" + n + "H" );
+      }
+    }
+    finally
+    {
+      reader.interrupt();
+      reader.join();
+    }
+
+    assertEquals( 0, inconsistent[0] );
+  }
+
+  /**
+   * Asserts that the first column of the first lines contains the given
+   * characters.
+   */
+  private void assertLines( String expected )
+  {
+    for ( int row = 0; row < expected.length(); row++ )
+    {
+      assertEquals( "line " + row, expected.charAt( row ), m_terminal.getCellAt( 0, row ).getChar() );
+    }
+  }
+
+  /**
+   * Tests that deleting and inserting characters up to the end of a line only
+   * affects that line, also on the bottom row.
+   */
+  public void testDeleteCharactersAtEndOfLineOk() throws IOException
+  {
+    String text = "0123456789012345678901234567890123456789012345678901234567890123456789012345678X";
+    m_terminal.read( "\033[1;1H" + text + "\033[2;1H" + text + "\033[24;1H" + text );
+
+    m_terminal.read( "\033[1;80H\033[P" );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 0 ).getChar() );
+    assertEquals( '8', m_terminal.getCellAt( 78, 0 ).getChar() );
+
+    m_terminal.read( "\033[1;79H\033[2P" );
+    assertEquals( ' ', m_terminal.getCellAt( 78, 0 ).getChar() );
+    assertEquals( '7', m_terminal.getCellAt( 77, 0 ).getChar() );
+    assertEquals( '0', m_terminal.getCellAt( 0, 1 ).getChar() );
+
+    // Without tab stops, a tab moves to the last column...
+    m_terminal.read( "\033[3g\033[2;1H\t\033[2P" );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 1 ).getChar() );
+    assertEquals( '8', m_terminal.getCellAt( 78, 1 ).getChar() );
+
+    m_terminal.read( "\033[2;1H\033[200P" );
+    assertEquals( "          ", getLine( 1, 10 ) );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 1 ).getChar() );
+
+    m_terminal.read( "\033[24;80H\033[P" );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 23 ).getChar() );
+    m_terminal.read( "\033[24;79H\033[2@" );
+    assertEquals( ' ', m_terminal.getCellAt( 78, 23 ).getChar() );
+    assertEquals( ' ', m_terminal.getCellAt( 79, 23 ).getChar() );
+    assertEquals( '7', m_terminal.getCellAt( 77, 23 ).getChar() );
+  }
+
+  /**
+   * Returns the first characters of the given line.
+   */
+  private String getLine( int row, int length )
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int col = 0; col < length; col++ )
+    {
+      sb.append( m_terminal.getCellAt( col, row ).getChar() );
+    }
+    return sb.toString();
+  }
+
   /**
    * Set up for this test case.
    */